@@ -15,8 +15,15 @@ public class AudioMixerHelper {
     private LinkedBlockingQueue<byte[]> micAudioQueue;
     private LinkedBlockingQueue<byte[]> mixedAudioQueue;
     
-    private float systemVolume = 1.0f;
-    private float micVolume = 1.0f;
+    // 初始值和之后的修改来自配置文件的 system_gain / mic_gain，混音线程读取
+    private volatile float systemVolume = 1.0f;
+    private volatile float micVolume = 1.0f;
+    private final ControlConfigWatcher.Listener gainListener = new ControlConfigWatcher.Listener() {
+        @Override
+        public void onConfigChanged(ControlConfig previous, ControlConfig current) {
+            applyGains(current.settings);
+        }
+    };
     
     private volatile boolean isMixing = false;
     private Thread mixerThread;
@@ -26,6 +33,8 @@ public class AudioMixerHelper {
         micAudioQueue = new LinkedBlockingQueue<>(50);
         mixedAudioQueue = new LinkedBlockingQueue<>(50);
         
+        applyGains(ControlConfigWatcher.shared().get().settings);
+        ControlConfigWatcher.shared().addListener(gainListener);
         startMixing();
     }
     
@@ -125,12 +134,12 @@ public class AudioMixerHelper {
             
             if (i + 1 < systemData.length) {
                 systemSample = (short) ((systemData[i] & 0xFF) | (systemData[i + 1] << 8));
-                systemSample = (short) (systemSample * systemVolume);
+                systemSample = scale(systemSample, systemVolume);
             }
             
             if (i + 1 < micData.length) {
                 micSample = (short) ((micData[i] & 0xFF) | (micData[i + 1] << 8));
-                micSample = (short) (micSample * micVolume);
+                micSample = scale(micSample, micVolume);
             }
             
             // 混合并防止溢出
@@ -146,6 +155,19 @@ public class AudioMixerHelper {
         return mixed;
     }
     
+    /**
+     * 增益可以大于 1，放大后截断到 16 位范围，不回绕
+     */
+    private static short scale(short sample, float volume) {
+        int scaled = (int) (sample * volume);
+        return (short) Math.max(-32768, Math.min(32767, scaled));
+    }
+    
+    private void applyGains(VcamConfig settings) {
+        setSystemVolume(settings.systemGain);
+        setMicVolume(settings.micGain);
+    }
+    
     private byte[] applyVolume(byte[] data, float volume) {
         if (volume == 1.0f) return data;
         
@@ -153,7 +175,7 @@ public class AudioMixerHelper {
         for (int i = 0; i < data.length; i += 2) {
             if (i + 1 < data.length) {
                 short sample = (short) ((data[i] & 0xFF) | (data[i + 1] << 8));
-                sample = (short) (sample * volume);
+                sample = scale(sample, volume);
                 result[i] = (byte) (sample & 0xFF);
                 result[i + 1] = (byte) ((sample >> 8) & 0xFF);
             }
@@ -169,17 +191,17 @@ public class AudioMixerHelper {
     }
     
     /**
-     * 设置系统音量 (0.0 - 1.0)
+     * 设置系统音量 (0.0 - 4.0)
      */
     public void setSystemVolume(float volume) {
-        this.systemVolume = Math.max(0f, Math.min(1f, volume));
+        this.systemVolume = Math.max(0f, Math.min(VcamConfig.MAX_GAIN, volume));
     }
     
     /**
-     * 设置麦克风音量 (0.0 - 1.0)
+     * 设置麦克风音量 (0.0 - 4.0)
      */
     public void setMicVolume(float volume) {
-        this.micVolume = Math.max(0f, Math.min(1f, volume));
+        this.micVolume = Math.max(0f, Math.min(VcamConfig.MAX_GAIN, volume));
     }
     
     /**
@@ -187,6 +209,7 @@ public class AudioMixerHelper {
      */
     public void stop() {
         isMixing = false;
+        ControlConfigWatcher.shared().removeListener(gainListener);
         if (mixerThread != null) {
             mixerThread.interrupt();
             mixerThread = null;
@@ -0,0 +1,162 @@
+package com.example.vcam;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 应用回调缓冲队列
+ * 记录应用通过 addCallbackBuffer 交给相机的 byte[]，解码线程直接把帧写进这些缓冲，
+ * onPreviewFrame 时把写好的缓冲原样交还给应用，和真实 Camera1 的缓冲轮转方式一致。
+ * 相机本身拿到的是同样长度的影子缓冲，影子缓冲循环使用，不会每帧分配。
+ */
+public class CallbackBufferQueue {
+    private static final int MAX_FREE_SHADOWS = 8;
+
+    // 等待写入的应用缓冲，先进先出
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    // 已写好最新一帧、等待交给应用的缓冲
+    private final AtomicReference<byte[]> ready = new AtomicReference<>();
+
+    private final ArrayDeque<byte[]> freeShadows = new ArrayDeque<>();
+    private final Set<byte[]> shadows = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+
+    private volatile boolean active = false;
+    private volatile boolean directWrite = false;
+    private volatile int bufferLength = 0;
+
+    /**
+     * 应用使用 setPreviewCallbackWithBuffer 时启用，其他回调方式下关闭。
+     * 关闭时相机丢弃排队的缓冲，这里也丢弃排队的应用缓冲；影子缓冲的记录保留到相机 release，
+     * 应用手里可能还拿着影子缓冲，之后再 addCallbackBuffer 时仍要认得出来
+     */
+    public void setActive(boolean active) {
+        this.active = active;
+        if (!active) {
+            pending.clear();
+            ready.set(null);
+            directWrite = false;
+        }
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 记录应用的缓冲，返回交给相机的影子缓冲
+     */
+    public byte[] addAppBuffer(byte[] appBuffer) {
+        synchronized (shadows) {
+            // 应用拿到的是影子缓冲时 (未能换回应用缓冲的回调)，直接还给相机
+            if (shadows.contains(appBuffer)) {
+                return appBuffer;
+            }
+        }
+        bufferLength = appBuffer.length;
+        pending.offer(appBuffer);
+        synchronized (shadows) {
+            Iterator<byte[]> iterator = freeShadows.iterator();
+            while (iterator.hasNext()) {
+                byte[] shadow = iterator.next();
+                if (shadow.length == appBuffer.length) {
+                    iterator.remove();
+                    return shadow;
+                }
+            }
+            byte[] shadow = new byte[appBuffer.length];
+            shadows.add(shadow);
+            return shadow;
+        }
+    }
+
+    public boolean isShadow(byte[] buffer) {
+        synchronized (shadows) {
+            return shadows.contains(buffer);
+        }
+    }
+
+    /**
+     * 相机把影子缓冲交回后调用，供下一次 addAppBuffer 复用
+     */
+    public void recycleShadow(byte[] shadow) {
+        synchronized (shadows) {
+            if (!shadows.contains(shadow)) {
+                return;
+            }
+            if (freeShadows.size() < MAX_FREE_SHADOWS) {
+                freeShadows.addLast(shadow);
+            } else {
+                shadows.remove(shadow);
+            }
+        }
+    }
+
+    public int getBufferLength() {
+        return bufferLength;
+    }
+
+    /**
+     * 解码线程：本帧是否直接写入应用缓冲 (帧大小与应用缓冲一致时)
+     */
+    public void setDirectWrite(boolean directWrite) {
+        this.directWrite = directWrite;
+    }
+
+    public boolean isDirectWrite() {
+        return active && directWrite;
+    }
+
+    /**
+     * 解码线程：取一个可写入的应用缓冲；没有空闲缓冲时收回还没被取走的旧帧；
+     * 都没有说明应用持有全部缓冲，返回 null，这一帧丢弃
+     */
+    public byte[] pollForWrite() {
+        byte[] buffer = pending.poll();
+        if (buffer == null) {
+            buffer = ready.getAndSet(null);
+        }
+        return buffer;
+    }
+
+    /**
+     * 解码线程：写完后发布，替换下来的旧帧缓冲重新排队等待写入
+     */
+    public void commitWrite(byte[] buffer) {
+        byte[] old = ready.getAndSet(buffer);
+        if (old != null) {
+            pending.offer(old);
+        }
+    }
+
+    /**
+     * 回调线程：取走写好的缓冲，没有新帧时返回 null
+     */
+    public byte[] takeReady() {
+        return ready.getAndSet(null);
+    }
+
+    /**
+     * 回调线程：不直接写入时，取一个应用缓冲用于拷贝
+     */
+    public byte[] pollPending() {
+        return pending.poll();
+    }
+
+    /**
+     * 相机 release 时调用，之后不会再有影子缓冲回来
+     */
+    public void clear() {
+        pending.clear();
+        ready.set(null);
+        directWrite = false;
+        synchronized (shadows) {
+            freeShadows.clear();
+            shadows.clear();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.vcam;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 配置文件的原始内容
+ * 每行一个 "键 = 值"，# 开头的行是注释，第一项是格式版本 version。
+ * "[包名]" 一行开始一个应用的配置段，之后的键只对这个应用生效，覆盖段外的同名键。
+ * 只保存文件中写了的键，没写的键由 VcamConfig 按控制文件或默认值补上。
+ * 逐字符扫描，不用正则，一次读取整个文件。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class ConfigFile {
+    public static final String KEY_VERSION = "version";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // 配置文件只有几十行，更大的文件不是配置
+    private static final int MAX_LENGTH = 64 * 1024;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+    // 按包名的配置段，段内不再有子段
+    private final LinkedHashMap<String, ConfigFile> sections = new LinkedHashMap<>();
+
+    /**
+     * 解析文本，格式不对的行忽略
+     */
+    public static ConfigFile parse(String text) {
+        ConfigFile file = new ConfigFile();
+        ConfigFile target = file;
+        int length = text.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            String section = sectionName(text, lineStart, lineEnd);
+            if (section != null) {
+                target = file.sections.get(section);
+                if (target == null) {
+                    target = new ConfigFile();
+                    file.sections.put(section, target);
+                }
+            } else {
+                target.parseLine(text, lineStart, lineEnd);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return file;
+    }
+
+    /**
+     * "[名字]" 行返回名字，其他行返回 null
+     */
+    private static String sectionName(String text, int start, int end) {
+        String line = trim(text, start, end);
+        if (line.length() < 3 || line.charAt(0) != '[' || line.charAt(line.length() - 1) != ']') {
+            return null;
+        }
+        String name = line.substring(1, line.length() - 1).trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    private void parseLine(String text, int start, int end) {
+        start = skipSpaces(text, start, end);
+        if (start == end || text.charAt(start) == '#') {
+            return;
+        }
+        int equals = text.indexOf('=', start);
+        if (equals < 0 || equals >= end) {
+            return;
+        }
+        String key = trim(text, start, equals).toLowerCase();
+        if (key.isEmpty()) {
+            return;
+        }
+        entries.put(key, trim(text, equals + 1, end));
+    }
+
+    private static int skipSpaces(String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static String trim(String text, int start, int end) {
+        start = skipSpaces(text, start, end);
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * 读取文件，不存在或读取失败时返回空配置
+     */
+    public static ConfigFile load(File file) {
+        long length = file.length();
+        if (!file.isFile() || length <= 0 || length > MAX_LENGTH) {
+            return new ConfigFile();
+        }
+        byte[] data = new byte[(int) length];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return parse(new String(data, 0, read, UTF_8));
+        } catch (IOException e) {
+            return new ConfigFile();
+        }
+    }
+
+    public String get(String key) {
+        return entries.get(key);
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public void set(String key, String value) {
+        entries.put(key, value);
+    }
+
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    public Map<String, String> entries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * 按包名的配置段，保持文件中的顺序
+     */
+    public Map<String, ConfigFile> sections() {
+        return Collections.unmodifiableMap(sections);
+    }
+
+    /**
+     * 段外的键加上这一段的键 (段内优先)，得到一个应用实际使用的配置
+     */
+    public ConfigFile withSection(String name) {
+        ConfigFile merged = new ConfigFile();
+        merged.entries.putAll(entries);
+        ConfigFile section = sections.get(name);
+        if (section != null) {
+            merged.entries.putAll(section.entries);
+        }
+        return merged;
+    }
+
+    /**
+     * 版本号，没写时为 0，无法识别时为 -1
+     */
+    public int version() {
+        try {
+            String value = entries.get(KEY_VERSION);
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 文件中没有任何键和配置段
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty() && sections.isEmpty();
+    }
+
+    /**
+     * 按写入顺序输出，版本号总在第一行，配置段在段外的键之后
+     */
+    public String format(int version) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(KEY_VERSION).append(" = ").append(version).append('\n');
+        appendEntries(sb);
+        for (Map.Entry<String, ConfigFile> section : sections.entrySet()) {
+            sb.append('\n').append('[').append(section.getKey()).append("]\n");
+            section.getValue().appendEntries(sb);
+        }
+        return sb.toString();
+    }
+
+    private void appendEntries(StringBuilder sb) {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (!entry.getKey().equals(KEY_VERSION)) {
+                sb.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，正在运行的 hook 读到的总是完整的旧文件或新文件
+     * 临时文件名每次写入都不同，同时保存的两次写入不会互相覆盖临时文件
+     */
+    public void save(File file, int version) throws IOException {
+        File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(format(version).getBytes(UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("can not rename " + temp + " to " + file);
+        }
+    }
+}
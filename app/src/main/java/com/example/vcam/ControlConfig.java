@@ -0,0 +1,207 @@
+package com.example.vcam;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 控制文件快照
+ * 一次列出 Camera1 目录 (和视频目录)，读取配置文件 vcam_config.jpg，得到全部设置 (VcamConfig) 和替换视频的状态，
+ * hook 中直接读字段，不再每次调用 File.exists()。
+ * 配置文件中有 "[包名]" 配置段时，每个应用的设置和视频在读取时就算好，按包名放在索引里，
+ * forPackage() 只是一次 HashMap 查找；哪些应用安装 hook 由 PackageGate 决定。
+ * 实例不可变，由 ControlConfigWatcher 在目录变化时整体替换。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class ControlConfig {
+    public static final String VIDEO_NAME = "virtual.mp4";
+
+    // play_range.jpg 只是几个数字，更大的文件不是手写的范围
+    private static final int MAX_RANGE_FILE_LENGTH = 256;
+
+    /**
+     * 还没有读取过目录时的状态：默认设置，没有视频
+     */
+    public static final ControlConfig EMPTY = new ControlConfig(VcamConfig.DEFAULT, new File(VIDEO_NAME), 0, 0, false,
+            Collections.<String, ControlConfig>emptyMap(), PackageGate.DEFAULT, null);
+
+    // 上一次比较存档指纹的输入和结果；视频和存档都没变时直接使用，重新读取配置时不必再读视频开头
+    private static final Object archiveCheckLock = new Object();
+    private static String lastArchiveCheck;
+    private static boolean lastArchiveMatches;
+
+    public final VcamConfig settings;
+    // 替换视频：默认是视频目录下的 virtual.mp4，可以由配置文件的 source 指定
+    public final File videoFile;
+    // 视频旁边的帧存档 (同名 .vcfa)
+    public final File archiveFile;
+    public final boolean videoExists;
+    // 视频和帧存档的修改时间，不存在时为 0
+    public final long videoModified;
+    public final long archiveModified;
+    // 可以直接播放帧存档：存档存在，且视频不存在或存档记录的源视频指纹与当前视频一致 (读取时算好，hook 中不读文件)
+    public final boolean archiveUsable;
+    // 包名 -> 这个应用的配置，没有配置段时为空
+    private final Map<String, ControlConfig> profiles;
+    private final PackageGate gate;
+    // 配置文件版本的说明 (没写版本、版本无法识别)，由 ControlConfigWatcher 记录到日志；正常时为 null
+    public final String notice;
+
+    private ControlConfig(VcamConfig settings, File videoFile, long videoModified, long archiveModified, boolean archiveUsable,
+                          Map<String, ControlConfig> profiles, PackageGate gate, String notice) {
+        this.settings = settings;
+        this.videoFile = videoFile;
+        this.archiveFile = archiveOf(videoFile);
+        this.videoExists = videoModified != 0;
+        this.videoModified = videoModified;
+        this.archiveModified = archiveModified;
+        this.archiveUsable = archiveUsable;
+        this.profiles = profiles;
+        this.gate = gate;
+        this.notice = notice;
+    }
+
+    /**
+     * 读取当前状态：控制文件和配置文件在 controlDir，视频和帧存档默认在 videoDir (可以是同一个目录)
+     */
+    public static ControlConfig load(File controlDir, File videoDir) {
+        Set<String> markers = list(controlDir);
+        ConfigFile file = markers.contains(VcamConfig.FILE_NAME)
+                ? ConfigFile.load(new File(controlDir, VcamConfig.FILE_NAME)) : new ConfigFile();
+        String notice = VcamConfig.checkVersion(file);
+        if (!VcamConfig.isSupportedVersion(file)) {
+            file = new ConfigFile();
+        }
+        PlaybackRange markerRange = markers.contains(VcamConfig.MARKER_PLAY_RANGE)
+                ? readRange(new File(controlDir, VcamConfig.MARKER_PLAY_RANGE)) : PlaybackRange.FULL;
+        Map<String, ControlConfig> profiles = Collections.emptyMap();
+        if (!file.sections().isEmpty()) {
+            profiles = new HashMap<>();
+            for (String packageName : file.sections().keySet()) {
+                profiles.put(packageName, build(file.withSection(packageName), markers, markerRange, videoDir,
+                        Collections.<String, ControlConfig>emptyMap(), PackageGate.DEFAULT, null));
+            }
+        }
+        return build(file, markers, markerRange, videoDir, profiles, PackageGate.of(file), notice);
+    }
+
+    private static ControlConfig build(ConfigFile file, Set<String> markers, PlaybackRange markerRange, File videoDir,
+                                       Map<String, ControlConfig> profiles, PackageGate gate, String notice) {
+        VcamConfig settings = VcamConfig.resolve(file, markers, markerRange);
+        File video;
+        if (settings.source.isEmpty()) {
+            video = new File(videoDir, VIDEO_NAME);
+        } else {
+            File source = new File(settings.source);
+            video = source.isAbsolute() ? source : new File(videoDir, settings.source);
+        }
+        File archive = archiveOf(video);
+        long videoModified = video.lastModified();
+        long archiveModified = archive.lastModified();
+        boolean archiveUsable = archiveModified != 0
+                && (videoModified == 0 || archiveMatches(video, videoModified, archive, archiveModified));
+        return new ControlConfig(settings, video, videoModified, archiveModified, archiveUsable, profiles, gate, notice);
+    }
+
+    /**
+     * 存档记录的源视频指纹 (FrameArchive.sourceKeyOf，要读视频开头 64KB) 是否与视频一致；
+     * 视频和存档的路径、修改时间、大小都和上一次相同时直接返回上一次的结果
+     */
+    private static boolean archiveMatches(File video, long videoModified, File archive, long archiveModified) {
+        String check = video.getPath() + "|" + videoModified + "|" + video.length() + "|"
+                + archive.getPath() + "|" + archiveModified + "|" + archive.length();
+        synchronized (archiveCheckLock) {
+            if (check.equals(lastArchiveCheck)) {
+                return lastArchiveMatches;
+            }
+        }
+        boolean matches = FrameArchive.sourceKeyOf(video).equals(FrameArchive.readMeta(archive));
+        synchronized (archiveCheckLock) {
+            lastArchiveCheck = check;
+            lastArchiveMatches = matches;
+        }
+        return matches;
+    }
+
+    /**
+     * 是否要在这个应用中安装 hook，见 PackageGate
+     */
+    public boolean shouldHook(String packageName) {
+        return gate.shouldHook(packageName);
+    }
+
+    /**
+     * 这个应用使用的配置；没有它的配置段时返回全局配置
+     */
+    public ControlConfig forPackage(String packageName) {
+        ControlConfig profile = packageName == null ? null : profiles.get(packageName);
+        return profile != null ? profile : this;
+    }
+
+    public Set<String> profileNames() {
+        return Collections.unmodifiableSet(profiles.keySet());
+    }
+
+    /**
+     * 视频对应的帧存档：同目录、同名、扩展名换成 .vcfa
+     */
+    public static File archiveOf(File video) {
+        String name = video.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(video.getParentFile(), base + FrameArchive.SUFFIX);
+    }
+
+    private static Set<String> list(File dir) {
+        String[] names = dir.list();
+        return names == null ? new HashSet<String>() : new HashSet<>(Arrays.asList(names));
+    }
+
+    private static PlaybackRange readRange(File file) {
+        long length = file.length();
+        if (length <= 0 || length > MAX_RANGE_FILE_LENGTH) {
+            return PlaybackRange.FULL;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) length];
+            int read = in.read(data);
+            return PlaybackRange.parse(new String(data, 0, Math.max(read, 0), "UTF-8"));
+        } catch (IOException e) {
+            return PlaybackRange.FULL;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ControlConfig)) {
+            return false;
+        }
+        ControlConfig other = (ControlConfig) o;
+        return settings.equals(other.settings) && videoFile.equals(other.videoFile)
+                && videoModified == other.videoModified && archiveModified == other.archiveModified
+                && archiveUsable == other.archiveUsable
+                && profiles.equals(other.profiles) && gate.equals(other.gate)
+                && (notice == null ? other.notice == null : notice.equals(other.notice));
+    }
+
+    @Override
+    public int hashCode() {
+        return settings.hashCode() * 31 + videoFile.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "video=" + videoFile + (videoExists ? "@" + videoModified : " (missing)")
+                + (archiveModified != 0 ? " archive@" + archiveModified + (archiveUsable ? "" : " (stale)") : "")
+                + (profiles.isEmpty() ? "" : " profiles=" + profiles.keySet())
+                + "\n" + settings;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.vcam;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * 控制文件监视
+ * 启动时读取一次 ControlConfig，之后用 FileObserver (inotify) 监视 Camera1 目录和视频目录，
+ * 有文件创建、删除、改名、写完时重新读取。
+ * 只有目录还不存在 (无法监视)、创建监视失败、或者目录本身被删除或改名 (监视失效) 时，
+ * 才启动后台线程每隔几秒检查一次，目录重新出现后恢复监视并停止轮询。
+ * hook 只读 get() 返回的 volatile 字段，不访问文件系统。
+ */
+public class ControlConfigWatcher {
+    // 无法监视时轮询的间隔，控制文件改动后最迟这么久生效
+    private static final long POLL_INTERVAL_MS = 3000;
+    private static final int SELF_GONE = FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final ControlConfigWatcher sharedWatcher = new ControlConfigWatcher();
+
+    public interface Listener {
+        void onConfigChanged(ControlConfig previous, ControlConfig current);
+    }
+
+    private volatile ControlConfig current = ControlConfig.EMPTY;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    // 当前快照读取的目录
+    private File controlDir;
+    private File videoDir;
+    // watch() 之后为 true，resolve() 只读取不监视
+    private boolean watching;
+    // FileObserver 被回收后不再收到事件，必须持有引用
+    private FileObserver controlObserver;
+    private FileObserver videoObserver;
+    // 有目录无法监视时才运行，恢复监视后退出
+    private Thread pollThread;
+
+    public static ControlConfigWatcher shared() {
+        return sharedWatcher;
+    }
+
+    /**
+     * 当前快照，不会为 null
+     */
+    public ControlConfig get() {
+        return current;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 这两个目录的快照，已经读过时不再读取；只读取不监视，
+     * 给 handleLoadPackage 开头判断是否安装 hook 用，不安装的进程不启动监视
+     */
+    public ControlConfig resolve(File controlDir, File videoDir) {
+        switchTo(controlDir, videoDir, false);
+        return current;
+    }
+
+    /**
+     * 开始 (或改为) 监视这两个目录；resolve() 已经读过这两个目录时沿用那次的快照，否则立即读取一次
+     */
+    public void watch(File controlDir, File videoDir) {
+        switchTo(controlDir, videoDir, true);
+    }
+
+    private void switchTo(File controlDir, File videoDir, boolean observe) {
+        synchronized (this) {
+            boolean sameDirs = controlDir.equals(this.controlDir) && videoDir.equals(this.videoDir);
+            if (sameDirs && (watching || !observe)) {
+                return;
+            }
+            if (!sameDirs) {
+                stopObservers();
+                this.controlDir = controlDir;
+                this.videoDir = videoDir;
+            }
+            watching |= observe;
+            if (watching) {
+                startObservers();
+            }
+            if (sameDirs) {
+                return;
+            }
+        }
+        reload();
+    }
+
+    /**
+     * 为还没有监视的目录创建监视，仍有目录无法监视时启动轮询线程；调用时持有锁
+     */
+    private void startObservers() {
+        if (controlObserver == null) {
+            controlObserver = startObserver(controlDir);
+        }
+        if (videoObserver == null && !videoDir.equals(controlDir)) {
+            videoObserver = startObserver(videoDir);
+        }
+        if (isFullyObserved() || pollThread != null) {
+            return;
+        }
+        XposedBridge.log("【VCAM】[config]目录无法监视，改为每 " + POLL_INTERVAL_MS + "ms 检查一次");
+        pollThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, "vcam-config");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    private boolean isFullyObserved() {
+        return controlObserver != null && (videoObserver != null || videoDir.equals(controlDir));
+    }
+
+    /**
+     * 重新读取，内容变化时替换快照并通知监听者
+     */
+    public void reload() {
+        ControlConfig previous;
+        ControlConfig next;
+        synchronized (this) {
+            if (controlDir == null) {
+                return;
+            }
+            next = ControlConfig.load(controlDir, videoDir);
+            previous = current;
+            if (next.equals(previous)) {
+                return;
+            }
+            current = next;
+        }
+        if (next.notice != null) {
+            XposedBridge.log("【VCAM】[config]" + next.notice);
+        }
+        XposedBridge.log("【VCAM】[config]" + next);
+        for (Listener listener : listeners) {
+            listener.onConfigChanged(previous, next);
+        }
+    }
+
+    /**
+     * 目录不存在或创建失败时返回 null
+     */
+    private FileObserver startObserver(File dir) {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        try {
+            FileObserver observer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                    ? new DirObserver(dir) : new DirObserver(dir.getPath());
+            observer.startWatching();
+            return observer;
+        } catch (RuntimeException e) {
+            XposedBridge.log("【VCAM】[config]" + e);
+            return null;
+        }
+    }
+
+    /**
+     * 被监视的目录本身被删除或改名后 inotify 不会再有事件，丢掉这个监视，由轮询等目录重新出现
+     */
+    private void onObservedDirGone(FileObserver observer) {
+        synchronized (this) {
+            if (observer == controlObserver) {
+                controlObserver = null;
+            } else if (observer == videoObserver) {
+                videoObserver = null;
+            } else {
+                return;
+            }
+            observer.stopWatching();
+            startObservers();
+        }
+    }
+
+    private final class DirObserver extends FileObserver {
+        // 只在 API 29 及以上调用，见 startObserver
+        @TargetApi(Build.VERSION_CODES.Q)
+        DirObserver(File dir) {
+            super(dir, EVENTS);
+        }
+
+        // API 29 以下只有按路径的构造方法
+        @SuppressWarnings("deprecation")
+        DirObserver(String path) {
+            super(path, EVENTS);
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            reload();
+            if ((event & SELF_GONE) != 0) {
+                onObservedDirGone(this);
+            }
+        }
+    }
+
+    private void stopObservers() {
+        if (controlObserver != null) {
+            controlObserver.stopWatching();
+            controlObserver = null;
+        }
+        if (videoObserver != null) {
+            videoObserver.stopWatching();
+            videoObserver = null;
+        }
+    }
+
+    private void poll() {
+        while (true) {
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                XposedBridge.log("【VCAM】[config]" + e);
+            }
+            synchronized (this) {
+                startObservers();
+                if (isFullyObserved()) {
+                    pollThread = null;
+                    XposedBridge.log("【VCAM】[config]目录已可监视，停止轮询");
+                    return;
+                }
+            }
+        }
+    }
+}
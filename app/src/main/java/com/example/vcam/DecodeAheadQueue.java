@@ -0,0 +1,160 @@
+package com.example.vcam;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预解码队列
+ * 解码线程把转换好的帧按顺序放入最多 capacity 帧的环形队列，比显示时间提前运行；
+ * 显示线程按时间戳逐帧取出发布。解码器偶尔卡顿 (IDR 帧、降频) 时由队列中已有的帧顶上，
+ * 队列满时解码线程等待，最多领先 capacity 帧。帧来自 FrameBufferPool，取出后归调用方持有。
+ * 只支持一个生产者和一个消费者。
+ */
+public class DecodeAheadQueue {
+    private final FrameBufferPool pool;
+    private final FrameBufferPool.Frame[] frames;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    // 消费者取到过帧之后，遇到空队列才算欠载 (开始时的预填不算)
+    private boolean started = false;
+    // 这一次欠载已经计过数：显示线程会用短超时反复调用 take 等同一帧，只算一次，取到帧后清除
+    private boolean starved = false;
+
+    private final AtomicLong underrunCount = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+    private volatile int maxDepth = 0;
+
+    public DecodeAheadQueue(FrameBufferPool pool, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.pool = pool;
+        this.frames = new FrameBufferPool.Frame[capacity];
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+
+    /**
+     * 生产者：等待队列有空位后取一块可写入的帧；队列已关闭时返回 null
+     */
+    public FrameBufferPool.Frame beginWrite(int width, int height, int format) {
+        synchronized (this) {
+            while (count == frames.length && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (closed) {
+                return null;
+            }
+        }
+        return pool.acquire(width, height, format);
+    }
+
+    /**
+     * 生产者：放入写好的帧；队列已关闭时直接归还
+     */
+    public void commit(FrameBufferPool.Frame frame, long presentationTimeUs) {
+        frame.presentationTimeUs = presentationTimeUs;
+        synchronized (this) {
+            if (closed) {
+                frame.release();
+                return;
+            }
+            frames[(head + count) % frames.length] = frame;
+            count++;
+            if (count > maxDepth) {
+                maxDepth = count;
+            }
+            notifyAll();
+        }
+        frameCount.incrementAndGet();
+    }
+
+    /**
+     * 消费者：取出最早的一帧，最多等待 timeoutMs；超时或已关闭时返回 null。
+     * 取出的帧由调用方 release 或转交
+     */
+    public FrameBufferPool.Frame take(long timeoutMs) {
+        synchronized (this) {
+            if (count == 0 && started && !closed && !starved) {
+                underrunCount.incrementAndGet();
+                starved = true;
+            }
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long remaining = timeoutMs;
+            while (count == 0 && !closed && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (count == 0 || closed) {
+                return null;
+            }
+            FrameBufferPool.Frame frame = frames[head];
+            frames[head] = null;
+            head = (head + 1) % frames.length;
+            count--;
+            started = true;
+            starved = false;
+            notifyAll();
+            return frame;
+        }
+    }
+
+    /**
+     * 当前排队的帧数
+     */
+    public synchronized int depth() {
+        return count;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * 显示线程要取帧时队列为空的次数，即解码没有跟上显示的次数；等同一帧的多次 take 只算一次
+     */
+    public long getUnderrunCount() {
+        return underrunCount.get();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 唤醒双方并归还排队中的帧，之后 beginWrite / take 都返回 null
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            while (count > 0) {
+                frames[head].release();
+                frames[head] = null;
+                head = (head + 1) % frames.length;
+                count--;
+            }
+            notifyAll();
+        }
+    }
+
+    public String stats() {
+        return "capacity=" + frames.length + " depth=" + depth() + " max=" + maxDepth
+                + " frames=" + frameCount.get() + " underruns=" + underrunCount.get();
+    }
+}
@@ -0,0 +1,545 @@
+package com.example.vcam;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * VCAM 帧存档 (.vcfa)
+ * 预先转换好的 YUV 帧序列，播放时内存映射读取，不需要解码器。
+ * <pre>
+ * 文件头  magic "VCFA" | version | width | height | format | frameSize | frameCount | keyInterval
+ *        | loopDurationUs | indexOffset | dataOffset | metaLength | meta (UTF-8)
+ * 帧数据  每帧一段：原始平面 / LZ4 / 与上一帧异或后再 LZ4
+ * 帧索引  每帧 24 字节：pts | offset | length | codec
+ * </pre>
+ * 差分帧每 keyInterval 帧插入一个独立帧，任意位置随机读取最多回溯 keyInterval - 1 帧。
+ * 只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class FrameArchive {
+    public static final String SUFFIX = ".vcfa";
+
+    public static final int FORMAT_I420 = 1;
+    public static final int FORMAT_NV21 = 2;
+
+    public static final int COMPRESSION_NONE = 0;
+    public static final int COMPRESSION_LZ4 = 1;
+    public static final int COMPRESSION_DELTA_LZ4 = 2;
+
+    public static final int DEFAULT_KEY_INTERVAL = 30;
+
+    private static final int MAGIC = 0x56434641; // "VCFA"
+    private static final int VERSION = 1;
+    // magic 到 keyInterval 8 个 int，loopDurationUs 和 indexOffset 两个 long，dataOffset 一个 int，metaLength 一个 short
+    private static final int FIXED_HEADER_SIZE = 8 * 4 + 2 * 8 + 4 + 2;
+    private static final int META_LENGTH_OFFSET = FIXED_HEADER_SIZE - 2;
+    // 计算源视频指纹时读取的开头字节数
+    private static final int SOURCE_HASH_BYTES = 64 * 1024;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final int MAX_META_LENGTH = 0x7FFF;
+
+    // 单帧的存储方式
+    private static final int CODEC_RAW = 0;
+    private static final int CODEC_LZ4 = 1;
+    private static final int CODEC_DELTA_LZ4 = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FrameArchive() {
+    }
+
+    /**
+     * 文件是否是帧存档 (只检查 magic)
+     */
+    public static boolean isArchive(File file) {
+        if (!file.isFile() || file.length() < FIXED_HEADER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 源视频的指纹：大小、修改时间和开头 64KB 的哈希。
+     * 用 cp -p、adb push 替换的视频修改时间可能不变甚至更早，只比较修改时间会继续播放旧存档
+     */
+    public static String sourceKeyOf(File video) {
+        long hash = 0xcbf29ce484222325L;
+        try (FileInputStream in = new FileInputStream(video)) {
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            int n;
+            while (total < SOURCE_HASH_BYTES && (n = in.read(buffer, 0, Math.min(buffer.length, SOURCE_HASH_BYTES - total))) > 0) {
+                for (int i = 0; i < n; i++) {
+                    hash ^= buffer[i] & 0xFF;
+                    hash *= 0x100000001b3L;
+                }
+                total += n;
+            }
+        } catch (IOException e) {
+            return "";
+        }
+        return video.length() + "|" + video.lastModified() + "|" + Long.toHexString(hash);
+    }
+
+    /**
+     * 只读文件头中的 meta，不是存档或读取失败时返回 null
+     */
+    public static String readMeta(File file) {
+        if (!file.isFile() || file.length() < FIXED_HEADER_SIZE) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                return null;
+            }
+            raf.seek(META_LENGTH_OFFSET);
+            byte[] metaBytes = new byte[raf.readUnsignedShort()];
+            raf.readFully(metaBytes);
+            return new String(metaBytes, UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 开始写入存档；先写到同目录下本次写入独有的临时文件，commit 时改名，
+     * 多个进程同时生成同一个存档时不会互相覆盖临时文件
+     *
+     * @param maxBytes 文件大小上限，超过时 append 返回 false
+     */
+    public static Writer create(File target, int width, int height, int format, int compression, String meta, long maxBytes) throws IOException {
+        return new Writer(target, width, height, format, compression, DEFAULT_KEY_INTERVAL, meta, maxBytes);
+    }
+
+    public static Reader open(File file) throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * I420 (Y U V 三个平面) 转 NV21 (Y + VU 交错)
+     */
+    public static void i420ToNv21(byte[] src, int srcOff, byte[] dst, int dstOff, int width, int height) {
+        int ySize = width * height;
+        int chromaSize = ySize / 4;
+        System.arraycopy(src, srcOff, dst, dstOff, ySize);
+        int u = srcOff + ySize;
+        int v = u + chromaSize;
+        int out = dstOff + ySize;
+        for (int i = 0; i < chromaSize; i++) {
+            dst[out++] = src[v + i];
+            dst[out++] = src[u + i];
+        }
+    }
+
+    private static int headerSize(int metaLength) {
+        // 数据区按 64 字节对齐
+        return (FIXED_HEADER_SIZE + metaLength + 63) & ~63;
+    }
+
+    /**
+     * 顺序写入帧，commit 之后才能被打开
+     */
+    public static class Writer {
+        private final File target;
+        private final File temp;
+        private final int width;
+        private final int height;
+        private final int format;
+        private final int frameSize;
+        private final int compression;
+        private final int keyInterval;
+        private final byte[] metaBytes;
+        private final long maxBytes;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+
+        private final Lz4 lz4 = new Lz4();
+        private final byte[] compressed;
+        private final byte[] previous;
+        private final byte[] delta;
+
+        private long[] timestamps = new long[256];
+        private long[] offsets = new long[256];
+        private int[] lengths = new int[256];
+        private byte[] codecs = new byte[256];
+        private int frameCount = 0;
+        private long position;
+
+        Writer(File target, int width, int height, int format, int compression, int keyInterval, String meta, long maxBytes) throws IOException {
+            if (format != FORMAT_I420 && format != FORMAT_NV21) {
+                throw new IllegalArgumentException("unsupported format " + format);
+            }
+            if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+                throw new IllegalArgumentException("bad size " + width + "x" + height);
+            }
+            this.target = target;
+            this.temp = File.createTempFile(target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile());
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.frameSize = width * height * 3 / 2;
+            this.compression = compression;
+            this.keyInterval = Math.max(keyInterval, 1);
+            this.metaBytes = meta == null ? new byte[0] : meta.getBytes(UTF_8);
+            if (metaBytes.length > MAX_META_LENGTH) {
+                throw new IllegalArgumentException("meta too long");
+            }
+            this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+            boolean compressing = compression != COMPRESSION_NONE;
+            this.compressed = compressing ? new byte[Lz4.maxCompressedLength(frameSize)] : null;
+            this.previous = compression == COMPRESSION_DELTA_LZ4 ? new byte[frameSize] : null;
+            this.delta = compression == COMPRESSION_DELTA_LZ4 ? new byte[frameSize] : null;
+            this.file = new RandomAccessFile(temp, "rw");
+            this.file.setLength(0);
+            this.channel = file.getChannel();
+            this.position = headerSize(metaBytes.length);
+            this.channel.position(position);
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * 追加一帧，data 从 offset 开始的 frameSize 字节；超过大小上限时返回 false，调用方应 abort
+         */
+        public boolean append(long presentationTimeUs, byte[] data, int offset) throws IOException {
+            byte[] payload = data;
+            int payloadOffset = offset;
+            int payloadLength = frameSize;
+            int codec = CODEC_RAW;
+            if (compression != COMPRESSION_NONE) {
+                byte[] source = data;
+                int sourceOffset = offset;
+                boolean deltaFrame = compression == COMPRESSION_DELTA_LZ4 && frameCount % keyInterval != 0;
+                if (deltaFrame) {
+                    for (int i = 0; i < frameSize; i++) {
+                        delta[i] = (byte) (data[offset + i] ^ previous[i]);
+                    }
+                    source = delta;
+                    sourceOffset = 0;
+                }
+                int length = lz4.compress(source, sourceOffset, frameSize, compressed, 0);
+                if (previous != null) {
+                    System.arraycopy(data, offset, previous, 0, frameSize);
+                }
+                // 压不动的帧按原始帧保存，它同样可以作为后续差分的参考
+                if (length < frameSize) {
+                    payload = compressed;
+                    payloadOffset = 0;
+                    payloadLength = length;
+                    codec = deltaFrame ? CODEC_DELTA_LZ4 : CODEC_LZ4;
+                }
+            }
+            long indexBytes = (long) (frameCount + 1) * INDEX_ENTRY_SIZE;
+            if (position + payloadLength + indexBytes > maxBytes) {
+                return false;
+            }
+            writeFully(ByteBuffer.wrap(payload, payloadOffset, payloadLength));
+            ensureIndexCapacity();
+            timestamps[frameCount] = presentationTimeUs;
+            offsets[frameCount] = position;
+            lengths[frameCount] = payloadLength;
+            codecs[frameCount] = (byte) codec;
+            frameCount++;
+            position += payloadLength;
+            return true;
+        }
+
+        /**
+         * 写入索引和文件头并改名为正式文件
+         *
+         * @param loopDurationUs 循环一次的时长，<= 0 时按最后一帧时间戳计算
+         */
+        public void commit(long loopDurationUs) throws IOException {
+            if (frameCount == 0) {
+                abort();
+                throw new IOException("empty frame archive");
+            }
+            ByteBuffer index = ByteBuffer.allocate(frameCount * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < frameCount; i++) {
+                index.putLong(timestamps[i]);
+                index.putLong(offsets[i]);
+                index.putInt(lengths[i]);
+                index.putInt(codecs[i]);
+            }
+            index.flip();
+            long indexOffset = position;
+            writeFully(index);
+            if (loopDurationUs <= 0) {
+                long last = timestamps[frameCount - 1];
+                loopDurationUs = frameCount > 1 ? last + (last - timestamps[0]) / (frameCount - 1) : 1;
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerSize(metaBytes.length));
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(width);
+            header.putInt(height);
+            header.putInt(format);
+            header.putInt(frameSize);
+            header.putInt(frameCount);
+            header.putInt(keyInterval);
+            header.putLong(loopDurationUs);
+            header.putLong(indexOffset);
+            header.putInt(headerSize(metaBytes.length));
+            header.putShort((short) metaBytes.length);
+            if (header.position() != FIXED_HEADER_SIZE) {
+                throw new IllegalStateException("header layout changed");
+            }
+            header.put(metaBytes);
+            header.rewind();
+            channel.position(0);
+            writeFully(header);
+            channel.force(false);
+            file.close();
+            if (target.exists() && !target.delete() || !temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("can not rename " + temp);
+            }
+        }
+
+        public void abort() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            temp.delete();
+        }
+
+        private void ensureIndexCapacity() {
+            if (frameCount == timestamps.length) {
+                int capacity = frameCount * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                codecs = Arrays.copyOf(codecs, capacity);
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * 内存映射读取，按下标或时间戳随机访问；只能在一个线程中使用
+     */
+    public static class Reader {
+        public final int width;
+        public final int height;
+        public final int format;
+        public final int frameSize;
+        public final int frameCount;
+        public final int keyInterval;
+        public final long loopDurationUs;
+        public final String meta;
+
+        private final RandomAccessFile file;
+        private final MappedByteBuffer mapped;
+        private final int indexOffset;
+
+        private byte[] compressed;
+        private byte[] deltaScratch;
+        // 差分解码的参考帧，保存 referenceIndex 帧的内容
+        private byte[] reference;
+        private int referenceIndex = -1;
+
+        Reader(File path) throws IOException {
+            file = new RandomAccessFile(path, "r");
+            try {
+                long length = file.length();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("frame archive too large " + path);
+                }
+                mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                if (length < FIXED_HEADER_SIZE || mapped.getInt() != MAGIC) {
+                    throw new IOException("not a frame archive " + path);
+                }
+                if (mapped.getInt() != VERSION) {
+                    throw new IOException("unsupported frame archive version " + path);
+                }
+                width = mapped.getInt();
+                height = mapped.getInt();
+                format = mapped.getInt();
+                frameSize = mapped.getInt();
+                frameCount = mapped.getInt();
+                keyInterval = mapped.getInt();
+                loopDurationUs = mapped.getLong();
+                long index = mapped.getLong();
+                int dataOffset = mapped.getInt();
+                byte[] metaBytes = new byte[mapped.getShort() & 0xFFFF];
+                mapped.get(metaBytes);
+                meta = new String(metaBytes, UTF_8);
+                if (frameCount <= 0 || keyInterval <= 0 || frameSize != width * height * 3 / 2
+                        || index < dataOffset || index + (long) frameCount * INDEX_ENTRY_SIZE > length) {
+                    throw new IOException("truncated frame archive " + path);
+                }
+                indexOffset = (int) index;
+                for (int i = 0; i < frameCount; i++) {
+                    long offset = offsetOf(i);
+                    int size = lengthOf(i);
+                    if (offset < dataOffset || size < 0 || offset + size > indexOffset) {
+                        throw new IOException("corrupt frame archive index " + path);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        }
+
+        public long presentationTimeUs(int index) {
+            return mapped.getLong(indexOffset + index * INDEX_ENTRY_SIZE);
+        }
+
+        /**
+         * 时间戳对应的帧下标 (不晚于 presentationTimeUs 的最后一帧)
+         * 先按平均帧间隔估算位置再就近修正，帧率均匀时是常数时间
+         */
+        public int indexOf(long presentationTimeUs) {
+            long first = presentationTimeUs(0);
+            long last = presentationTimeUs(frameCount - 1);
+            if (presentationTimeUs <= first) {
+                return 0;
+            }
+            if (presentationTimeUs >= last) {
+                return frameCount - 1;
+            }
+            int i = (int) ((presentationTimeUs - first) * (frameCount - 1) / (last - first));
+            while (i > 0 && presentationTimeUs(i) > presentationTimeUs) {
+                i--;
+            }
+            while (i + 1 < frameCount && presentationTimeUs(i + 1) <= presentationTimeUs) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * 把第 index 帧解码到 dst；顺序读取时差分帧只解一次，跳转时从前一个独立帧开始补齐
+         */
+        public void read(int index, byte[] dst, int offset) {
+            int codec = codecOf(index);
+            if (codec != CODEC_DELTA_LZ4) {
+                decodeStandalone(index, codec, dst, offset);
+                if (keyInterval > 1 && hasDeltaAfter(index)) {
+                    rememberReference(index, dst, offset);
+                }
+                return;
+            }
+            if (referenceIndex != index - 1) {
+                int start = index - 1;
+                while (codecOf(start) == CODEC_DELTA_LZ4) {
+                    start--;
+                }
+                ensureReference();
+                decodeStandalone(start, codecOf(start), reference, 0);
+                for (int i = start + 1; i < index; i++) {
+                    applyDelta(i, reference, 0);
+                }
+            }
+            applyDelta(index, reference, 0);
+            referenceIndex = index;
+            System.arraycopy(reference, 0, dst, offset, frameSize);
+        }
+
+        public void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+
+        private void decodeStandalone(int index, int codec, byte[] dst, int offset) {
+            if (codec == CODEC_RAW) {
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) offsetOf(index));
+                view.get(dst, offset, frameSize);
+                return;
+            }
+            int length = loadCompressed(index);
+            if (Lz4.decompress(compressed, 0, length, dst, offset, frameSize) != frameSize) {
+                throw new IllegalStateException("corrupt frame " + index);
+            }
+        }
+
+        /**
+         * 在 dst 中的上一帧基础上叠加第 index 帧的差分
+         */
+        private void applyDelta(int index, byte[] dst, int offset) {
+            int codec = codecOf(index);
+            if (codec != CODEC_DELTA_LZ4) {
+                decodeStandalone(index, codec, dst, offset);
+                return;
+            }
+            if (deltaScratch == null) {
+                deltaScratch = new byte[frameSize];
+            }
+            byte[] delta = deltaScratch;
+            int length = loadCompressed(index);
+            if (Lz4.decompress(compressed, 0, length, delta, 0, frameSize) != frameSize) {
+                throw new IllegalStateException("corrupt frame " + index);
+            }
+            for (int i = 0; i < frameSize; i++) {
+                dst[offset + i] ^= delta[i];
+            }
+        }
+
+        private int loadCompressed(int index) {
+            int length = lengthOf(index);
+            if (compressed == null || compressed.length < length) {
+                compressed = new byte[Math.max(length, Lz4.maxCompressedLength(frameSize))];
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) offsetOf(index));
+            view.get(compressed, 0, length);
+            return length;
+        }
+
+        private void ensureReference() {
+            if (reference == null) {
+                reference = new byte[frameSize];
+            }
+        }
+
+        private void rememberReference(int index, byte[] src, int offset) {
+            ensureReference();
+            System.arraycopy(src, offset, reference, 0, frameSize);
+            referenceIndex = index;
+        }
+
+        private boolean hasDeltaAfter(int index) {
+            return index + 1 < frameCount && codecOf(index + 1) == CODEC_DELTA_LZ4;
+        }
+
+        private long offsetOf(int index) {
+            return mapped.getLong(indexOffset + index * INDEX_ENTRY_SIZE + 8);
+        }
+
+        private int lengthOf(int index) {
+            return mapped.getInt(indexOffset + index * INDEX_ENTRY_SIZE + 16);
+        }
+
+        private int codecOf(int index) {
+            return mapped.getInt(indexOffset + index * INDEX_ENTRY_SIZE + 20);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.vcam;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧缓冲池
+ * 按 宽/高/格式 回收解码输出用的 byte[]，稳定解码时不再产生垃圾。
+ * 每块缓冲带引用计数：acquire 时为 1，需要在持有者之外继续读的一方 (例如异步写出的输出) 调用 retain()，
+ * 每一方用完各自调用 release()，最后一次 release 时归还。
+ */
+public class FrameBufferPool {
+    // 每种尺寸最多保留的空闲缓冲数，解码 + 发布 + 读取 三方同时持有时够用
+    static final int MAX_IDLE_PER_KEY = 4;
+
+    private static final FrameBufferPool sharedPool = new FrameBufferPool();
+
+    private final HashMap<Long, ArrayDeque<Frame>> idleFrames = new HashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public static FrameBufferPool shared() {
+        return sharedPool;
+    }
+
+    /**
+     * 计算一帧所需字节数，format 为 YuvLayout.FORMAT_*
+     */
+    public static int frameSize(int width, int height, int format) {
+        return YuvLayout.frameSize(width, height, format);
+    }
+
+    /**
+     * 取出一块缓冲，引用计数为 1，用完必须调用 {@link Frame#release()}
+     */
+    public Frame acquire(int width, int height, int format) {
+        long key = keyOf(width, height, format);
+        Frame frame = null;
+        synchronized (idleFrames) {
+            ArrayDeque<Frame> idle = idleFrames.get(key);
+            if (idle != null) {
+                frame = idle.pollFirst();
+            }
+        }
+        if (frame == null) {
+            missCount.incrementAndGet();
+            frame = new Frame(this, width, height, format);
+        } else {
+            hitCount.incrementAndGet();
+        }
+        frame.refCount.set(1);
+        frame.presentationTimeUs = 0;
+        return frame;
+    }
+
+    private void recycle(Frame frame) {
+        long key = keyOf(frame.width, frame.height, frame.format);
+        synchronized (idleFrames) {
+            ArrayDeque<Frame> idle = idleFrames.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                idleFrames.put(key, idle);
+            }
+            if (idle.size() < MAX_IDLE_PER_KEY) {
+                idle.addFirst(frame);
+            }
+        }
+    }
+
+    /**
+     * 丢弃所有空闲缓冲 (分辨率变化后旧尺寸不会再用到)
+     */
+    public void trim() {
+        synchronized (idleFrames) {
+            idleFrames.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public String stats() {
+        return "hit=" + hitCount.get() + " miss=" + missCount.get();
+    }
+
+    private static long keyOf(int width, int height, int format) {
+        return ((long) (width & 0xFFFFF) << 44) | ((long) (height & 0xFFFFF) << 24) | (format & 0xFFFFFF);
+    }
+
+    /**
+     * 池中的一帧，通过引用计数在解码线程和读取线程之间共享
+     */
+    public static final class Frame {
+        public final byte[] data;
+        public final int width;
+        public final int height;
+        public final int format;
+        public long presentationTimeUs;
+
+        private final FrameBufferPool owner;
+        private final AtomicInteger refCount = new AtomicInteger();
+
+        private Frame(FrameBufferPool owner, int width, int height, int format) {
+            this.owner = owner;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.data = new byte[frameSize(width, height, format)];
+        }
+
+        /**
+         * 增加一个持有者，只能在自己已经持有 (或正从持有者手里读) 这一帧时调用
+         */
+        public Frame retain() {
+            if (refCount.getAndIncrement() <= 0) {
+                throw new IllegalStateException("frame retained after release");
+            }
+            return this;
+        }
+
+        /**
+         * 除了调用方之外还有别的持有者，这时不能原地改写 data
+         */
+        public boolean isShared() {
+            return refCount.get() > 1;
+        }
+
+        /**
+         * 持有者用完后调用，最后一个持有者释放时归还缓冲池，之后不能再访问 data
+         */
+        public void release() {
+            int count = refCount.decrementAndGet();
+            if (count == 0) {
+                owner.recycle(this);
+            } else if (count < 0) {
+                throw new IllegalStateException("frame released too many times");
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.vcam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 解码帧缓存
+ * 第一次播放时把转换好的帧顺序写入帧存档，之后的会话直接内存映射读取，不再启动解码器。
+ * 缓存以 (视频路径, 修改时间, 文件大小, 分辨率, 格式, 输出色彩空间, 换算版本) 为键，视频被替换或换算方式改变后自动失效。
+ * 缓存不压缩，命中时每帧只是一次内存拷贝。
+ */
+public class FrameCache {
+    private static final String PREFIX = "frames_";
+    // 其他进程正在写入的临时文件一直在追加，最近修改过的不删除
+    private static final long LIVE_TEMP_MS = 60 * 1000;
+
+    private final File dir;
+    private final long maxBytes;
+
+    public FrameCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param colorSpace 缓存帧已经换算到的色彩空间
+     */
+    public static String keyOf(File video, int width, int height, int format, YuvColorSpace colorSpace) {
+        return video.getAbsolutePath() + "|" + video.lastModified() + "|" + video.length()
+                + "|" + width + "x" + height + "|" + format + "|" + colorSpace + "|c" + YuvColorTransform.VERSION;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 打开已完成的缓存，不存在或键不匹配时返回 null
+     */
+    public FrameArchive.Reader open(String key) {
+        File file = fileOf(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            FrameArchive.Reader reader = FrameArchive.open(file);
+            if (!reader.meta.equals(key)) {
+                reader.close();
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return reader;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * 开始写入新的缓存；预计大小超过上限时返回 null
+     */
+    public FrameArchive.Writer create(String key, int width, int height, int format, int frameSize, int expectedFrames) throws IOException {
+        long expectedBytes = (long) expectedFrames * frameSize;
+        if (expectedBytes > maxBytes || expectedBytes > Integer.MAX_VALUE) {
+            return null;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create cache dir " + dir);
+        }
+        trim(maxBytes - expectedBytes);
+        return FrameArchive.create(fileOf(key), width, height, format, FrameArchive.COMPRESSION_NONE, key, maxBytes);
+    }
+
+    /**
+     * 按最近使用时间删除旧缓存，直到总大小不超过 targetBytes
+     * 写入中断留下的临时文件 (frames_xxx.vcfa.<随机>.tmp) 也算在内
+     */
+    public void trim(long targetBytes) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        long liveSince = System.currentTimeMillis() - LIVE_TEMP_MS;
+        for (File file : files) {
+            if (total <= targetBytes) {
+                break;
+            }
+            String name = file.getName();
+            if (!name.startsWith(PREFIX)) {
+                continue;
+            }
+            boolean temp = name.endsWith(".tmp") && name.contains(FrameArchive.SUFFIX + ".");
+            if (temp && file.lastModified() > liveSince) {
+                continue;
+            }
+            long length = file.length();
+            if ((temp || name.endsWith(FrameArchive.SUFFIX)) && file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File fileOf(String key) {
+        // FNV-1a 64 位，作为文件名足够分散，真正的键保存在文件头中校验
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return new File(dir, PREFIX + Long.toHexString(hash) + FrameArchive.SUFFIX);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.vcam;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 三缓冲帧交换器
+ * 解码线程写入 back 槽，发布时与 middle 槽交换；预览回调线程取帧时把新的 middle 换到 front。
+ * 三个槽各自只属于一方，读写都不加锁，也不会读到写了一半的帧；消费者用 CAS 交换，只在生产者同时发布时重试。
+ * front 槽的帧被输出 retain 后 (异步写出)，生产者再轮到这个槽时换一块新缓冲，不原地改写。
+ * 只支持一个生产者和一个消费者。
+ */
+public class FrameExchanger {
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH_BIT = 0x4;
+    // close 之后 middle 停在这个下标上，它不对应任何槽，消费者看到它就不再交换
+    private static final int CLOSED = 0x3;
+
+    private final FrameBufferPool pool;
+    private final FrameBufferPool.Frame[] slots = new FrameBufferPool.Frame[3];
+    private final long[] sequences = new long[3];
+
+    // 低两位是 middle 槽下标，FRESH_BIT 表示 middle 中有消费者还没取走的新帧
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int backIndex = 0;   // 仅生产者访问
+    private int frontIndex = 2;  // 仅消费者访问
+    private boolean firstWaitDone = false;  // 仅消费者访问
+    private long nextSequence = 1;
+
+    private final Object firstFrameLock = new Object();
+    private volatile boolean hasFrame = false;
+    private volatile boolean closed = false;
+    // 消费者正在 awaitFresh 中等待，生产者发布时才需要加锁唤醒
+    private volatile boolean consumerWaiting = false;
+
+    public FrameExchanger(FrameBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 生产者：取得可写入的 back 槽，尺寸或格式变化时从池中换一块新的
+     */
+    public FrameBufferPool.Frame beginWrite(int width, int height, int format) {
+        FrameBufferPool.Frame frame = slots[backIndex];
+        if (frame == null || frame.width != width || frame.height != height || frame.format != format
+                || frame.isShared()) {
+            if (frame != null) {
+                frame.release();
+            }
+            frame = pool.acquire(width, height, format);
+            slots[backIndex] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * 生产者：发布刚写完的 back 槽，返回这一帧的序号
+     */
+    public long publish(long presentationTimeUs) {
+        long sequence = nextSequence++;
+        slots[backIndex].presentationTimeUs = presentationTimeUs;
+        sequences[backIndex] = sequence;
+        backIndex = middle.getAndSet(backIndex | FRESH_BIT) & INDEX_MASK;
+        if (!hasFrame || consumerWaiting) {
+            synchronized (firstFrameLock) {
+                hasFrame = true;
+                firstFrameLock.notifyAll();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * 生产者：发布一块在外面写好的帧 (例如预解码队列中的帧)，不拷贝；
+     * 帧的所有权转交给交换器，原 back 槽中的帧归还缓冲池
+     */
+    public long publish(FrameBufferPool.Frame frame) {
+        FrameBufferPool.Frame old = slots[backIndex];
+        if (old != null && old != frame) {
+            old.release();
+        }
+        slots[backIndex] = frame;
+        return publish(frame.presentationTimeUs);
+    }
+
+    /**
+     * 消费者：取得最新一帧，还没有任何帧时返回 null
+     * 返回的帧在下一次调用 latest 之前都不会被改写，需要更久时 retain()；
+     * close 之后不再交换，一直返回当时的 front 槽
+     */
+    public FrameBufferPool.Frame latest() {
+        while (true) {
+            int current = middle.get();
+            if ((current & FRESH_BIT) == 0) {
+                break;
+            }
+            // 用 CAS 而不是 getAndSet：close 先把 middle 换成 CLOSED 时交换失败，不会换到已经归还的槽
+            if (middle.compareAndSet(current, frontIndex)) {
+                frontIndex = current & INDEX_MASK;
+                break;
+            }
+        }
+        return slots[frontIndex];
+    }
+
+    /**
+     * 消费者：第一帧还没发布时最多等待 timeoutMs，只等一次，之后直接返回 latest()
+     */
+    public FrameBufferPool.Frame latest(long timeoutMs) {
+        if (!hasFrame && !firstWaitDone && timeoutMs > 0) {
+            firstWaitDone = true;
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            synchronized (firstFrameLock) {
+                long remaining = timeoutMs;
+                while (!hasFrame && !closed && remaining > 0) {
+                    try {
+                        firstFrameLock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        }
+        return latest();
+    }
+
+    /**
+     * 消费者：等待 middle 中出现新帧，最多 timeoutMs；有新帧时返回 true，之后用 latest() 取帧
+     */
+    public boolean awaitFresh(long timeoutMs) {
+        if ((middle.get() & FRESH_BIT) != 0) {
+            return true;
+        }
+        synchronized (firstFrameLock) {
+            consumerWaiting = true;
+            try {
+                // 在锁内复查，生产者的唤醒同样在锁内，不会漏掉
+                if ((middle.get() & FRESH_BIT) == 0 && !closed) {
+                    firstFrameLock.wait(timeoutMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                consumerWaiting = false;
+            }
+        }
+        return (middle.get() & FRESH_BIT) != 0;
+    }
+
+    /**
+     * 消费者：当前 front 槽的序号，0 表示还没有取到帧
+     */
+    public long latestSequence() {
+        return slots[frontIndex] == null ? 0 : sequences[frontIndex];
+    }
+
+    public boolean hasFrame() {
+        return hasFrame;
+    }
+
+    /**
+     * 生产者结束时在生产者线程调用，之后不能再发布。
+     * middle 换成 CLOSED 后消费者的 CAS 不会再成功，换出来的槽 (原 middle，或消费者刚换下的旧 front)
+     * 和 back 槽都不会再被消费者读到，可以归还；front 槽可能正被读取，只有消费者知道什么时候读完，留给 GC
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (firstFrameLock) {
+            firstFrameLock.notifyAll();
+        }
+        int middleIndex = middle.getAndSet(CLOSED) & INDEX_MASK;
+        releaseSlot(backIndex);
+        releaseSlot(middleIndex);
+    }
+
+    private void releaseSlot(int index) {
+        FrameBufferPool.Frame frame = slots[index];
+        if (frame != null) {
+            slots[index] = null;
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.vcam;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * 帧分发器
+ * 一个视频源只解码一次，解码出的 NV21 帧依次交给所有注册的输出 (预览 Surface、ImageReader 等)，
+ * 各输出自己负责格式和尺寸的转换，解码器数量不随输出数量增加。
+ * 设置了目标帧率时按节拍输出最新的一帧：视频帧率更高时多余的帧已由解码器丢弃，
+ * 更低时同一帧在后续节拍上重复输出，应用收到的帧率与请求一致。
+ */
+public class FrameFanout implements Runnable {
+    // 等待新帧的最长时间，超时后检查是否已停止
+    private static final long WAIT_FRAME_MS = 100;
+
+    private final VideoToFrames decoder = new VideoToFrames();
+    private final CopyOnWriteArrayList<FrameSink> sinks = new CopyOnWriteArrayList<>();
+    // 只用来统计实际交给输出的帧率 (含重复的帧)
+    private final FrameRateAdapter deliveries = new FrameRateAdapter();
+    private double loggedFps = 0;
+    // 以下仅分发线程访问
+    private long lastSequence = 0;
+    private long nextTickNanos = 0;
+    private Thread thread;
+    private volatile boolean stopped = false;
+
+    public VideoToFrames getDecoder() {
+        return decoder;
+    }
+
+    public void addSink(FrameSink sink) {
+        sinks.add(sink);
+    }
+
+    public int getSinkCount() {
+        return sinks.size();
+    }
+
+    /**
+     * 应用请求的帧率 (CONTROL_AE_TARGET_FPS_RANGE 的上限)，解码时丢弃多余的帧，不足时重复上一帧
+     */
+    public void setTargetFrameRate(double fps) {
+        decoder.setTargetFrameRate(fps);
+    }
+
+    /**
+     * 最近一秒实际交给输出的帧率
+     */
+    public double getEffectiveFps() {
+        return deliveries.getEffectiveFps();
+    }
+
+    public void start(String videoFilePath) throws Throwable {
+        decoder.setSaveFrames("", OutputImageFormat.NV21);
+        decoder.decode(videoFilePath);
+        thread = new Thread(this, "vcam-fanout");
+        thread.start();
+        XposedBridge.log("【VCAM】【fanout】一路解码分发到 " + sinks.size() + " 个输出");
+    }
+
+    public void stop() {
+        stopped = true;
+        decoder.stopDecode();
+    }
+
+    @Override
+    public void run() {
+        FrameExchanger exchanger = decoder.getFrameExchanger();
+        try {
+            while (!stopped) {
+                long intervalNanos = decoder.getFrameRateAdapter().getTargetIntervalUs() * 1000;
+                if (intervalNanos > 0) {
+                    deliverOnTick(exchanger, intervalNanos);
+                } else {
+                    nextTickNanos = 0;
+                    deliverWhenFresh(exchanger);
+                }
+            }
+        } catch (InterruptedException e) {
+            XposedBridge.log("【VCAM】【fanout】分发线程被中断");
+        } finally {
+            for (FrameSink sink : sinks) {
+                sink.release();
+            }
+            sinks.clear();
+        }
+    }
+
+    /**
+     * 没有目标帧率：有新帧就输出
+     */
+    private void deliverWhenFresh(FrameExchanger exchanger) {
+        if (!exchanger.awaitFresh(WAIT_FRAME_MS)) {
+            return;
+        }
+        FrameBufferPool.Frame frame = exchanger.latest();
+        long sequence = exchanger.latestSequence();
+        if (frame == null || sequence == lastSequence) {
+            return;
+        }
+        lastSequence = sequence;
+        deliver(frame);
+    }
+
+    /**
+     * 有目标帧率：第一帧到达后立即输出，之后每个节拍输出当时最新的一帧 (没有新帧时重复上一帧，
+     * front 槽在下一次 latest 之前不会被改写)。节拍比新帧到达晚半个间隔，抖动时不会一拍两帧、一拍没有
+     */
+    private void deliverOnTick(FrameExchanger exchanger, long intervalNanos) throws InterruptedException {
+        if (nextTickNanos == 0) {
+            if (!exchanger.awaitFresh(WAIT_FRAME_MS)) {
+                return;
+            }
+            FrameBufferPool.Frame frame = exchanger.latest();
+            if (frame == null) {
+                return;
+            }
+            lastSequence = exchanger.latestSequence();
+            nextTickNanos = deliver(frame) + intervalNanos * 3 / 2;
+            return;
+        }
+        long waitNanos = Math.min(nextTickNanos - System.nanoTime(), WAIT_FRAME_MS * 1000000L);
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            if (System.nanoTime() < nextTickNanos) {
+                return;
+            }
+        }
+        long now = System.nanoTime();
+        nextTickNanos += intervalNanos;
+        if (nextTickNanos <= now) {
+            // 落后超过一拍 (输出太慢或线程被挂起)，从现在重新划节拍
+            nextTickNanos = now + intervalNanos;
+        }
+        FrameBufferPool.Frame frame = exchanger.latest();
+        if (frame != null) {
+            lastSequence = exchanger.latestSequence();
+            deliver(frame);
+        }
+    }
+
+    /**
+     * 把一帧交给所有输出，返回交付的时刻
+     */
+    private long deliver(FrameBufferPool.Frame frame) {
+        for (FrameSink sink : sinks) {
+            try {
+                sink.onFrame(frame);
+            } catch (RuntimeException e) {
+                XposedBridge.log("【VCAM】【fanout】输出出错，已移除：" + e);
+                sinks.remove(sink);
+                sink.release();
+            }
+        }
+        long now = System.nanoTime();
+        if (deliveries.recordDelivery(now)) {
+            double fps = deliveries.getEffectiveFps();
+            if (Math.abs(fps - loggedFps) >= 1) {
+                loggedFps = fps;
+                XposedBridge.log("【VCAM】【fanout】实际输出帧率：" + Math.round(fps * 10) / 10.0);
+            }
+        }
+        return now;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.vcam;
+
+/**
+ * 帧率适配
+ * 按应用请求的帧率在时间轴上划出等间隔的节拍，每个节拍只放行一帧：
+ * 视频帧率高于目标时多出来的帧在转换之前就被丢掉；低于目标时由输出端 (FrameFanout) 在节拍上重复上一帧。
+ * 同时统计实际输出的帧率。节拍判断只在解码线程调用，统计只在输出线程调用。
+ * 只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class FrameRateAdapter {
+    // 实际帧率的统计窗口
+    private static final long WINDOW_NANOS = 1000000000L;
+
+    private volatile long targetIntervalUs = 0;
+    private double playbackRate = 1.0;
+    private long nextTickUs = Long.MIN_VALUE;
+    private long lastTimeUs = Long.MIN_VALUE;
+    private long sourceIntervalUs = 0;
+    private long droppedCount = 0;
+
+    private long windowStartNanos = -1;
+    private int windowFrames = 0;
+    private volatile double effectiveFps = 0;
+
+    /**
+     * @param fps 目标帧率，0 或负数表示不限制
+     */
+    public void setTargetFps(double fps) {
+        targetIntervalUs = fps > 0 ? (long) (1000000 / fps) : 0;
+    }
+
+    public double getTargetFps() {
+        long interval = targetIntervalUs;
+        return interval > 0 ? 1000000.0 / interval : 0;
+    }
+
+    /**
+     * 目标帧间隔 (微秒)，不限制时为 0
+     */
+    public long getTargetIntervalUs() {
+        return targetIntervalUs;
+    }
+
+    /**
+     * 播放速度：节拍按视频时间划分，速度为 2 时视频时间上每两个目标间隔放行一帧
+     */
+    public void setPlaybackRate(double rate) {
+        playbackRate = rate > 0 ? rate : 1.0;
+    }
+
+    /**
+     * 解码线程：按时间戳 (单调递增) 判断这一帧是否输出，返回 false 的帧不必转换。
+     * 帧落在节拍前半个源帧间隔以内就算赶上节拍，源帧率只比目标略高 (30 对 29.97) 时不会隔帧丢
+     */
+    public boolean accept(long timeUs) {
+        long interval = (long) (targetIntervalUs * playbackRate);
+        if (lastTimeUs != Long.MIN_VALUE && timeUs > lastTimeUs) {
+            sourceIntervalUs = timeUs - lastTimeUs;
+        }
+        lastTimeUs = timeUs;
+        if (interval <= 0) {
+            return true;
+        }
+        if (nextTickUs != Long.MIN_VALUE && timeUs < nextTickUs - Math.min(sourceIntervalUs, interval) / 2) {
+            droppedCount++;
+            return false;
+        }
+        if (nextTickUs == Long.MIN_VALUE || timeUs - nextTickUs >= interval) {
+            // 第一帧，或者中间有空档 (暂停、跳转)，从这一帧重新划节拍
+            nextTickUs = timeUs + interval;
+        } else {
+            nextTickUs += interval;
+        }
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 输出线程：记录输出了一帧，统计窗口结束时更新实际帧率并返回 true
+     */
+    public boolean recordDelivery(long nowNanos) {
+        if (windowStartNanos < 0) {
+            windowStartNanos = nowNanos;
+            windowFrames = 0;
+            return false;
+        }
+        windowFrames++;
+        long elapsed = nowNanos - windowStartNanos;
+        if (elapsed < WINDOW_NANOS) {
+            return false;
+        }
+        effectiveFps = windowFrames * 1e9 / elapsed;
+        windowStartNanos = nowNanos;
+        windowFrames = 0;
+        return true;
+    }
+
+    /**
+     * 最近一个统计窗口的实际输出帧率
+     */
+    public double getEffectiveFps() {
+        return effectiveFps;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.vcam;
+
+/**
+ * 帧分发的输出端
+ * onFrame 在分发线程中调用，frame 只在调用期间有效，需要异步处理时调用 frame.retain()，处理完再 release()
+ */
+public interface FrameSink {
+    void onFrame(FrameBufferPool.Frame frame);
+
+    void release();
+}
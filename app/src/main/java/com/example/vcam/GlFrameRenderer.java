@@ -0,0 +1,315 @@
+package com.example.vcam;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * 把 NV21 帧绘制到若干个 Surface (预览 SurfaceView/TextureView 等)
+ * 所有 Surface 共用一个 EGL 上下文，每帧只上传一次纹理，再逐个绘制；
+ * 宽高比与 Surface 不同时按 fitMode 裁剪纹理坐标或缩小视口加黑边，缩放由 GPU 完成。
+ * YUV 到 RGB 的矩阵按帧的色彩空间 (默认 BT.601 有限范围，即解码器输出的空间) 计算。
+ * 只能在分发线程中使用，EGL 在第一帧时初始化。
+ */
+public class GlFrameRenderer implements FrameSink {
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "uniform vec4 uTexCrop;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTexCoord = aTexCoord * uTexCrop.xy + uTexCrop.zw;\n" +
+            "}\n";
+
+    // NV21：Y 平面用 LUMINANCE 纹理，VU 交错平面用 LUMINANCE_ALPHA 纹理 (r = V, a = U)；
+    // 矩阵和偏移见 YuvColorSpace.normalizedToRgbMatrix
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D uTexY;\n" +
+            "uniform sampler2D uTexVU;\n" +
+            "uniform mat3 uYuvToRgb;\n" +
+            "uniform vec3 uYuvOffset;\n" +
+            "void main() {\n" +
+            "    vec4 vu = texture2D(uTexVU, vTexCoord);\n" +
+            "    vec3 yuv = vec3(texture2D(uTexY, vTexCoord).r, vu.a, vu.r) - uYuvOffset;\n" +
+            "    gl_FragColor = vec4(clamp(uYuvToRgb * yuv, 0.0, 1.0), 1.0);\n" +
+            "}\n";
+
+    // x, y, s, t；图像第一行在纹理 t = 0 处，对应屏幕上方
+    private static final float[] QUAD = {
+            -1f, -1f, 0f, 1f,
+            1f, -1f, 1f, 1f,
+            -1f, 1f, 0f, 0f,
+            1f, 1f, 1f, 0f,
+    };
+
+    private final List<Surface> pendingSurfaces = new ArrayList<>();
+    private final List<EGLSurface> eglSurfaces = new ArrayList<>();
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig eglConfig;
+    private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;
+
+    private final int fitMode;
+    private final YuvColorSpace colorSpace;
+
+    private int program;
+    private int positionLocation;
+    private int texCoordLocation;
+    private int texCropLocation;
+    private final int[] textures = new int[2];
+    private int textureWidth;
+    private int textureHeight;
+    private FloatBuffer quadBuffer;
+
+    /**
+     * @param fitMode    帧与 Surface 宽高比不同时的处理方式，见 Nv21Scaler.FIT_*
+     * @param colorSpace 帧的色彩空间
+     */
+    public GlFrameRenderer(int fitMode, YuvColorSpace colorSpace) {
+        this.fitMode = fitMode;
+        this.colorSpace = colorSpace;
+    }
+
+    /**
+     * 在 start 之前添加输出 Surface
+     */
+    public synchronized void addSurface(Surface surface) {
+        pendingSurfaces.add(surface);
+    }
+
+    public synchronized int getSurfaceCount() {
+        return pendingSurfaces.size() + eglSurfaces.size();
+    }
+
+    @Override
+    public void onFrame(FrameBufferPool.Frame frame) {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            initEgl();
+        }
+        attachPendingSurfaces();
+        if (eglSurfaces.isEmpty()) {
+            return;
+        }
+        boolean uploaded = false;
+        for (int i = 0; i < eglSurfaces.size(); i++) {
+            EGLSurface surface = eglSurfaces.get(i);
+            if (!EGL14.eglMakeCurrent(eglDisplay, surface, surface, eglContext)) {
+                XposedBridge.log("【VCAM】【gl】eglMakeCurrent 失败，移除输出：" + EGL14.eglGetError());
+                EGL14.eglDestroySurface(eglDisplay, surface);
+                eglSurfaces.remove(i--);
+                continue;
+            }
+            if (!uploaded) {
+                uploadFrame(frame);
+                uploaded = true;
+            }
+            int[] size = new int[2];
+            EGL14.eglQuerySurface(eglDisplay, surface, EGL14.EGL_WIDTH, size, 0);
+            EGL14.eglQuerySurface(eglDisplay, surface, EGL14.EGL_HEIGHT, size, 1);
+            draw(frame.width, frame.height, size[0], size[1]);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                EGLExt.eglPresentationTimeANDROID(eglDisplay, surface, System.nanoTime());
+            }
+            EGL14.eglSwapBuffers(eglDisplay, surface);
+        }
+    }
+
+    /**
+     * 按 fitMode 把 frameWidth x frameHeight 的纹理画到 surfaceWidth x surfaceHeight 的 Surface 上：
+     * 裁剪时只取纹理中间与 Surface 同宽高比的部分，加黑边时把视口缩小到同宽高比并居中
+     */
+    private void draw(int frameWidth, int frameHeight, int surfaceWidth, int surfaceHeight) {
+        float scaleS = 1f;
+        float scaleT = 1f;
+        int viewWidth = surfaceWidth;
+        int viewHeight = surfaceHeight;
+        long wide = (long) frameWidth * surfaceHeight;
+        long tall = (long) frameHeight * surfaceWidth;
+        if (fitMode == Nv21Scaler.FIT_CROP && wide != tall) {
+            if (wide > tall) {
+                scaleS = (float) tall / wide;
+            } else {
+                scaleT = (float) wide / tall;
+            }
+        } else if (fitMode == Nv21Scaler.FIT_LETTERBOX && wide != tall) {
+            if (wide > tall) {
+                viewHeight = (int) (tall / frameWidth);
+            } else {
+                viewWidth = (int) (wide / frameHeight);
+            }
+            GLES20.glClearColor(0f, 0f, 0f, 1f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        }
+        GLES20.glUniform4f(texCropLocation, scaleS, scaleT, (1f - scaleS) / 2, (1f - scaleT) / 2);
+        GLES20.glViewport((surfaceWidth - viewWidth) / 2, (surfaceHeight - viewHeight) / 2, viewWidth, viewHeight);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    @Override
+    public void release() {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+        GLES20.glDeleteTextures(2, textures, 0);
+        GLES20.glDeleteProgram(program);
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        for (EGLSurface surface : eglSurfaces) {
+            EGL14.eglDestroySurface(eglDisplay, surface);
+        }
+        eglSurfaces.clear();
+        EGL14.eglDestroySurface(eglDisplay, pbufferSurface);
+        EGL14.eglDestroyContext(eglDisplay, eglContext);
+        EGL14.eglReleaseThread();
+        EGL14.eglTerminate(eglDisplay);
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+    }
+
+    private void initEgl() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("eglInitialize failed");
+        }
+        int[] attribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attribs, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+            throw new RuntimeException("eglChooseConfig failed");
+        }
+        eglConfig = configs[0];
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT,
+                new int[]{EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE}, 0);
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("eglCreateContext failed");
+        }
+        // 没有可用的输出 Surface 时也能让上下文成为当前上下文
+        pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig,
+                new int[]{EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE}, 0);
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+        initProgram();
+    }
+
+    private void initProgram() {
+        program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+        GLES20.glLinkProgram(program);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            throw new RuntimeException("link program failed: " + GLES20.glGetProgramInfoLog(program));
+        }
+        GLES20.glUseProgram(program);
+        positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordLocation = GLES20.glGetAttribLocation(program, "aTexCoord");
+        texCropLocation = GLES20.glGetUniformLocation(program, "uTexCrop");
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "uTexY"), 0);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "uTexVU"), 1);
+        GLES20.glUniformMatrix3fv(GLES20.glGetUniformLocation(program, "uYuvToRgb"), 1, false,
+                colorSpace.normalizedToRgbMatrix(), 0);
+        GLES20.glUniform3fv(GLES20.glGetUniformLocation(program, "uYuvOffset"), 1, colorSpace.normalizedOffsets(), 0);
+
+        quadBuffer = ByteBuffer.allocateDirect(QUAD.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quadBuffer.put(QUAD).position(0);
+        GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, 16, quadBuffer);
+        GLES20.glEnableVertexAttribArray(positionLocation);
+        quadBuffer.position(2);
+        GLES20.glVertexAttribPointer(texCoordLocation, 2, GLES20.GL_FLOAT, false, 16, quadBuffer);
+        GLES20.glEnableVertexAttribArray(texCoordLocation);
+
+        GLES20.glGenTextures(2, textures, 0);
+        for (int texture : textures) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        }
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    }
+
+    private static int compileShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            throw new RuntimeException("compile shader failed: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+
+    private synchronized void attachPendingSurfaces() {
+        for (Surface surface : pendingSurfaces) {
+            if (!surface.isValid()) {
+                continue;
+            }
+            EGLSurface eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, surface, new int[]{EGL14.EGL_NONE}, 0);
+            if (eglSurface == null || eglSurface == EGL14.EGL_NO_SURFACE) {
+                XposedBridge.log("【VCAM】【gl】无法在 " + surface + " 上创建 EGLSurface：" + EGL14.eglGetError());
+                continue;
+            }
+            eglSurfaces.add(eglSurface);
+        }
+        pendingSurfaces.clear();
+    }
+
+    private void uploadFrame(FrameBufferPool.Frame frame) {
+        int width = frame.width;
+        int height = frame.height;
+        ByteBuffer y = ByteBuffer.wrap(frame.data, 0, width * height);
+        ByteBuffer vu = ByteBuffer.wrap(frame.data, width * height, width * height / 2).slice();
+        boolean resized = width != textureWidth || height != textureHeight;
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        if (resized) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, y);
+        } else {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, y);
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[1]);
+        if (resized) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA, width / 2, height / 2, 0,
+                    GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, vu);
+        } else {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width / 2, height / 2,
+                    GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, vu);
+        }
+        textureWidth = width;
+        textureHeight = height;
+    }
+}
@@ -9,10 +9,13 @@ import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.InputConfiguration;
@@ -22,6 +25,8 @@ import android.media.MediaPlayer;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.Looper;
+import android.util.Range;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.widget.Toast;
@@ -30,9 +35,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.robv.android.xposed.IXposedHookLoadPackage;
 import de.robv.android.xposed.XC_MethodHook;
@@ -49,15 +56,14 @@ public class HookMain implements IXposedHookLoadPackage {
 
     public static Camera camera_onPreviewFrame;
     public static Camera start_preview_camera;
-    public static volatile byte[] data_buffer = {0};
     public static byte[] input;
     public static int mhight;
     public static int mwidth;
     public static boolean is_someone_playing;
     public static boolean is_hooked;
     public static VideoToFrames hw_decode_obj;
-    public static VideoToFrames c2_hw_decode_obj;
-    public static VideoToFrames c2_hw_decode_obj_1;
+    // Camera2 的所有输出共用一路解码
+    public static FrameFanout c2_frame_fanout;
     public static SurfaceTexture c1_fake_texture;
     public static Surface c1_fake_surface;
     public static SurfaceHolder ori_holder;
@@ -69,6 +75,15 @@ public class HookMain implements IXposedHookLoadPackage {
     public static int onemhight;
     public static int onemwidth;
     public static Class camera_callback_calss;
+    // 最近一次 Camera.open 的摄像头编号，-1 表示不带参数打开 (第一个后置摄像头)
+    public static int camera1_id = -1;
+    // 应用通过 setPreviewFormat 协商的预览格式，解码直接按此布局输出
+    public static OutputImageFormat camera1_preview_format = OutputImageFormat.NV21;
+    // Camera2 最近打开的摄像头方向，传感器角度为 -1 表示未知
+    public static int c2_sensor_orientation = -1;
+    public static boolean c2_front_facing;
+    public static final CallbackBufferQueue callback_buffer_queue = new CallbackBufferQueue();
+    public static Method add_callback_buffer_method;
 
     public static String video_path = "/storage/emulated/0/DCIM/Camera1/";
 
@@ -76,13 +91,17 @@ public class HookMain implements IXposedHookLoadPackage {
     public static Surface c2_preview_Surfcae_1;
     public static Surface c2_reader_Surfcae;
     public static Surface c2_reader_Surfcae_1;
+    // 只负责播放声音，画面由 c2_frame_fanout 输出
     public static MediaPlayer c2_player;
-    public static MediaPlayer c2_player_1;
     public static Surface c2_virtual_surface;
     public static SurfaceTexture c2_virtual_surfaceTexture;
     public boolean need_recreate;
     public static CameraDevice.StateCallback c2_state_cb;
     public static CaptureRequest.Builder c2_builder;
+    // 应用在 CaptureRequest 中请求的最高帧率 (CONTROL_AE_TARGET_FPS_RANGE 的上限)，0 表示未指定
+    public static int c2_target_fps = 0;
+    // Camera1 预览回调请求的帧率，0 表示未指定
+    public static int camera1_target_fps = 0;
     public static SessionConfiguration fake_sessionConfiguration;
     public static SessionConfiguration sessionConfiguration;
     public static OutputConfiguration outputConfiguration;
@@ -95,9 +114,18 @@ public class HookMain implements IXposedHookLoadPackage {
     public Context toast_content;
 
     public void handleLoadPackage(final XC_LoadPackage.LoadPackageParam lpparam) throws Exception {
+        long hook_start = System.nanoTime();
+        // 先按允许/排除列表判断，不需要的进程不安装任何 hook，也不启动配置监视
+        // 配置只在这里读取一次，之后的 watch_config 和 ScreenModeHook 使用同一个快照
+        // 读不到配置文件时按没写处理 (除系统进程外都安装)，见 PackageGate
+        File control_dir = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/");
+        if (!ControlConfigWatcher.shared().resolve(control_dir, new File(video_path)).shouldHook(lpparam.packageName)) {
+            return;
+        }
+        package_name = lpparam.packageName;
+        watch_config();
         // 如果启用了屏幕模式，跳过视频替换模式（由 ScreenModeHook 处理）
-        File screenModeFile = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/screen_mode.jpg");
-        if (screenModeFile.exists()) {
+        if (settings().screenMode) {
             XposedBridge.log("【VCAM】屏幕模式已启用，跳过视频替换模式");
             return;
         }
@@ -105,10 +133,8 @@ public class HookMain implements IXposedHookLoadPackage {
         XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "setPreviewTexture", SurfaceTexture.class, new XC_MethodHook() {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) {
-                File file = new File(video_path + "virtual.mp4");
-                if (file.exists()) {
-                    File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                    if (control_file.exists()){
+                if (config().videoExists) {
+                    if (settings().disabled) {
                         return;
                     }
                     if (is_hooked) {
@@ -139,8 +165,7 @@ public class HookMain implements IXposedHookLoadPackage {
                     }
                     param.args[0] = fake_SurfaceTexture;
                 } else {
-                    File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                    need_to_show_toast = !toast_control.exists();
+                    need_to_show_toast = settings().showToast;
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -152,81 +177,28 @@ public class HookMain implements IXposedHookLoadPackage {
             }
         });
 
-        XposedHelpers.findAndHookMethod("android.hardware.camera2.CameraManager", lpparam.classLoader, "openCamera", String.class, CameraDevice.StateCallback.class, Handler.class, new XC_MethodHook() {
+        XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "open", int.class, new XC_MethodHook() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                if (param.args[1] == null) {
-                    return;
-                }
-                if (param.args[1].equals(c2_state_cb)) {
-                    return;
-                }
-                c2_state_cb = (CameraDevice.StateCallback) param.args[1];
-                c2_state_callback = param.args[1].getClass();
-                File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                if (control_file.exists()) {
-                    return;
-                }
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists()) {
-                    if (toast_content != null && need_to_show_toast) {
-                        try {
-                            Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
-                        } catch (Exception ee) {
-                            XposedBridge.log("【VCAM】[toast]" + ee.toString());
-                        }
-                    }
-                    return;
-                }
-                XposedBridge.log("【VCAM】1位参数初始化相机，类：" + c2_state_callback.toString());
-                is_first_hook_build = true;
-                process_camera2_init(c2_state_callback);
+            protected void afterHookedMethod(MethodHookParam param) {
+                camera1_id = (int) param.args[0];
+                start_new_session();
+                install_recorder_hooks(lpparam);
             }
         });
 
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-            XposedHelpers.findAndHookMethod("android.hardware.camera2.CameraManager", lpparam.classLoader, "openCamera", String.class, Executor.class, CameraDevice.StateCallback.class, new XC_MethodHook() {
-                @Override
-                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                    if (param.args[2] == null) {
-                        return;
-                    }
-                    if (param.args[2].equals(c2_state_cb)) {
-                        return;
-                    }
-                    c2_state_cb = (CameraDevice.StateCallback) param.args[2];
-                    File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                    if (control_file.exists()) {
-                        return;
-                    }
-                    File file = new File(video_path + "virtual.mp4");
-                    File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                    need_to_show_toast = !toast_control.exists();
-                    if (!file.exists()) {
-                        if (toast_content != null && need_to_show_toast) {
-                            try {
-                                Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
-                            } catch (Exception ee) {
-                                XposedBridge.log("【VCAM】[toast]" + ee.toString());
-                            }
-                        }
-                        return;
-                    }
-                    c2_state_callback = param.args[2].getClass();
-                    XposedBridge.log("【VCAM】2位参数初始化相机，类：" + c2_state_callback.toString());
-                    is_first_hook_build = true;
-                    process_camera2_init(c2_state_callback);
-                }
-            });
-        }
-
+        XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "open", new XC_MethodHook() {
+            @Override
+            protected void afterHookedMethod(MethodHookParam param) {
+                camera1_id = -1;
+                start_new_session();
+                install_recorder_hooks(lpparam);
+            }
+        });
 
         XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "setPreviewCallbackWithBuffer", Camera.PreviewCallback.class, new XC_MethodHook() {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) {
+                callback_buffer_queue.setActive(param.args[0] != null);
                 if (param.args[0] != null) {
                     process_callback(param);
                 }
@@ -237,14 +209,25 @@ public class HookMain implements IXposedHookLoadPackage {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) {
                 if (param.args[0] != null) {
-                    param.args[0] = new byte[((byte[]) param.args[0]).length];
+                    // 记录应用的缓冲，相机拿到的是同长度的影子缓冲
+                    add_callback_buffer_method = (Method) param.method;
+                    param.args[0] = callback_buffer_queue.addAppBuffer((byte[]) param.args[0]);
                 }
             }
         });
 
+        XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "release", new XC_MethodHook() {
+            @Override
+            protected void afterHookedMethod(MethodHookParam param) {
+                callback_buffer_queue.setActive(false);
+                callback_buffer_queue.clear();
+            }
+        });
+
         XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "setPreviewCallback", Camera.PreviewCallback.class, new XC_MethodHook() {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) {
+                callback_buffer_queue.setActive(false);
                 if (param.args[0] != null) {
                     process_callback(param);
                 }
@@ -254,6 +237,7 @@ public class HookMain implements IXposedHookLoadPackage {
         XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "setOneShotPreviewCallback", Camera.PreviewCallback.class, new XC_MethodHook() {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) {
+                callback_buffer_queue.setActive(false);
                 if (param.args[0] != null) {
                     process_callback(param);
                 }
@@ -274,23 +258,6 @@ public class HookMain implements IXposedHookLoadPackage {
             }
         });
 
-        XposedHelpers.findAndHookMethod("android.media.MediaRecorder", lpparam.classLoader, "setCamera", Camera.class, new XC_MethodHook() {
-            @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                super.beforeHookedMethod(param);
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                XposedBridge.log("【VCAM】[record]" + lpparam.packageName);
-                if (toast_content != null && need_to_show_toast) {
-                    try {
-                        Toast.makeText(toast_content, "应用：" + lpparam.appInfo.name + "(" + lpparam.packageName + ")" + "触发了录像，但目前无法拦截", Toast.LENGTH_SHORT).show();
-                    }catch (Exception ee){
-                        XposedBridge.log("【VCAM】[toast]" + Arrays.toString(ee.getStackTrace()));
-                    }
-                }
-            }
-        });
-
         XposedHelpers.findAndHookMethod("android.app.Instrumentation", lpparam.classLoader, "callApplicationOnCreate", Application.class, new XC_MethodHook() {
             @Override
             protected void afterHookedMethod(MethodHookParam param) throws Throwable {
@@ -301,7 +268,6 @@ public class HookMain implements IXposedHookLoadPackage {
                     } catch (Exception ee) {
                         XposedBridge.log("【VCAM】" + ee.toString());
                     }
-                    File force_private = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/private_dir.jpg");
                     if (toast_content != null) {//后半段用于强制私有目录
                         int auth_statue = 0;
                         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -323,7 +289,7 @@ public class HookMain implements IXposedHookLoadPackage {
                             }
                         }
                         //权限判断完毕
-                        if (auth_statue < 1 || force_private.exists()) {
+                        if (auth_statue < 1 || settings().privateDir) {
                             File shown_file = new File(toast_content.getExternalFilesDir(null).getAbsolutePath() + "/Camera1/");
                             if ((!shown_file.isDirectory()) && shown_file.exists()) {
                                 shown_file.delete();
@@ -332,8 +298,7 @@ public class HookMain implements IXposedHookLoadPackage {
                                 shown_file.mkdir();
                             }
                             shown_file = new File(toast_content.getExternalFilesDir(null).getAbsolutePath() + "/Camera1/" + "has_shown");
-                            File toast_force_file = new File(Environment.getExternalStorageDirectory().getPath()+ "/DCIM/Camera1/force_show.jpg");
-                            if ((!lpparam.packageName.equals(BuildConfig.APPLICATION_ID)) && ((!shown_file.exists()) || toast_force_file.exists())) {
+                            if ((!lpparam.packageName.equals(BuildConfig.APPLICATION_ID)) && ((!shown_file.exists()) || settings().forceShow)) {
                                 try {
                                     Toast.makeText(toast_content, lpparam.packageName+"未授予读取本地目录权限，请检查权限\nCamera1目前重定向为 " + toast_content.getExternalFilesDir(null).getAbsolutePath() + "/Camera1/", Toast.LENGTH_SHORT).show();
                                     FileOutputStream fos = new FileOutputStream(toast_content.getExternalFilesDir(null).getAbsolutePath() + "/Camera1/" + "has_shown");
@@ -359,6 +324,8 @@ public class HookMain implements IXposedHookLoadPackage {
                             }
                         }
                     }
+                    // 视频目录可能改成了应用私有目录
+                    watch_config();
                 }
             }
         });
@@ -366,10 +333,8 @@ public class HookMain implements IXposedHookLoadPackage {
         XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "startPreview", new XC_MethodHook() {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists()) {
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists) {
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -379,8 +344,7 @@ public class HookMain implements IXposedHookLoadPackage {
                     }
                     return;
                 }
-                File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                if (control_file.exists()) {
+                if (settings().disabled) {
                     return;
                 }
                 is_someone_playing = false;
@@ -399,8 +363,7 @@ public class HookMain implements IXposedHookLoadPackage {
                         return;
                     }
                     mplayer1.setSurface(ori_holder.getSurface());
-                    File sfile = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no-silent.jpg");
-                    if (!(sfile.exists() && (!is_someone_playing))) {
+                    if (!(settings().playSound && (!is_someone_playing))) {
                         mplayer1.setVolume(0, 0);
                         is_someone_playing = false;
                     } else {
@@ -411,12 +374,12 @@ public class HookMain implements IXposedHookLoadPackage {
                     mplayer1.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
                         @Override
                         public void onPrepared(MediaPlayer mp) {
-                            mplayer1.start();
+                            start_with_clock(mplayer1);
                         }
                     });
 
                     try {
-                        mplayer1.setDataSource(video_path + "virtual.mp4");
+                        mplayer1.setDataSource(config().videoFile.getPath());
                         mplayer1.prepare();
                     } catch (IOException e) {
                         XposedBridge.log("【VCAM】" + e.toString());
@@ -441,8 +404,7 @@ public class HookMain implements IXposedHookLoadPackage {
 
                     mMediaPlayer.setSurface(mSurface);
 
-                    File sfile = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no-silent.jpg");
-                    if (!(sfile.exists() && (!is_someone_playing))) {
+                    if (!(settings().playSound && (!is_someone_playing))) {
                         mMediaPlayer.setVolume(0, 0);
                         is_someone_playing = false;
                     } else {
@@ -453,12 +415,12 @@ public class HookMain implements IXposedHookLoadPackage {
                     mMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
                         @Override
                         public void onPrepared(MediaPlayer mp) {
-                            mMediaPlayer.start();
+                            start_with_clock(mMediaPlayer);
                         }
                     });
 
                     try {
-                        mMediaPlayer.setDataSource(video_path + "virtual.mp4");
+                        mMediaPlayer.setDataSource(config().videoFile.getPath());
                         mMediaPlayer.prepare();
                     } catch (IOException e) {
                         XposedBridge.log("【VCAM】" + e.toString());
@@ -471,10 +433,8 @@ public class HookMain implements IXposedHookLoadPackage {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
                 XposedBridge.log("【VCAM】添加Surfaceview预览");
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists()) {
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists) {
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -484,8 +444,7 @@ public class HookMain implements IXposedHookLoadPackage {
                     }
                     return;
                 }
-                File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                if (control_file.exists()) {
+                if (settings().disabled) {
                     return;
                 }
                 mcamera1 = (Camera) param.thisObject;
@@ -511,6 +470,160 @@ public class HookMain implements IXposedHookLoadPackage {
             }
         });
 
+/*        XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "stopPreview", new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) {
+                if (param.thisObject.equals(HookMain.origin_preview_camera) || param.thisObject.equals(HookMain.camera_onPreviewFrame) || param.thisObject.equals(HookMain.mcamera1)) {
+                    if (hw_decode_obj != null) {
+                        hw_decode_obj.stopDecode();
+                    }
+                    if (mplayer1 != null) {
+                        mplayer1.release();
+                        mplayer1 = null;
+                    }
+                    if (mMediaPlayer != null) {
+                        mMediaPlayer.release();
+                        mMediaPlayer = null;
+                    }
+                    is_someone_playing = false;
+
+                    XposedBridge.log("停止预览");
+                }
+            }
+        });*/
+
+        // 应用可能在创建 CameraManager 之前就创建了 ImageReader，这个 hook 不能等到 install_camera2_hooks
+        XposedHelpers.findAndHookMethod("android.media.ImageReader", lpparam.classLoader, "newInstance", int.class, int.class, int.class, int.class, new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) {
+                XposedBridge.log("【VCAM】应用创建了渲染器：宽：" + param.args[0] + " 高：" + param.args[1] + "格式" + param.args[2]);
+                c2_ori_width = (int) param.args[0];
+                c2_ori_height = (int) param.args[1];
+                imageReaderFormat = (int) param.args[2];
+                need_to_show_toast = settings().showToast;
+                if (toast_content != null && need_to_show_toast) {
+                    try {
+                        Toast.makeText(toast_content, "应用创建了渲染器：\n宽：" + param.args[0] + "\n高：" + param.args[1] + "\n宽高比与视频不同时会自动裁剪", Toast.LENGTH_SHORT).show();
+                    } catch (Exception e) {
+                        XposedBridge.log("【VCAM】[toast]" + e.toString());
+                    }
+                }
+            }
+        });
+
+        XposedBridge.hookAllConstructors(XposedHelpers.findClass("android.hardware.camera2.CameraManager", lpparam.classLoader), new XC_MethodHook() {
+            @Override
+            protected void afterHookedMethod(MethodHookParam param) {
+                install_camera2_hooks(lpparam);
+            }
+        });
+
+        XposedBridge.log("【VCAM】" + lpparam.packageName + " 安装 hook 耗时 " + (System.nanoTime() - hook_start) / 1000 + "us");
+    }
+
+    private final AtomicBoolean camera2_hooks_installed = new AtomicBoolean(false);
+
+    /**
+     * Camera2 相关的 hook 在应用第一次创建 CameraManager 时才安装，不使用 Camera2 的进程不承担这些 hook
+     */
+    private void install_camera2_hooks(final XC_LoadPackage.LoadPackageParam lpparam) {
+        if (!camera2_hooks_installed.compareAndSet(false, true)) {
+            return;
+        }
+        long hook_start = System.nanoTime();
+        XposedHelpers.findAndHookMethod("android.hardware.camera2.CameraManager", lpparam.classLoader, "openCamera", String.class, CameraDevice.StateCallback.class, Handler.class, new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                if (param.args[1] == null) {
+                    return;
+                }
+                if (param.args[1].equals(c2_state_cb)) {
+                    return;
+                }
+                c2_state_cb = (CameraDevice.StateCallback) param.args[1];
+                c2_state_callback = param.args[1].getClass();
+                record_camera2_orientation((CameraManager) param.thisObject, (String) param.args[0]);
+                // 新的相机会话，视频从头播放，请求帧率重新记录
+                start_new_session();
+                c2_target_fps = 0;
+                if (settings().disabled) {
+                    return;
+                }
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists) {
+                    if (toast_content != null && need_to_show_toast) {
+                        try {
+                            Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
+                        } catch (Exception ee) {
+                            XposedBridge.log("【VCAM】[toast]" + ee.toString());
+                        }
+                    }
+                    return;
+                }
+                XposedBridge.log("【VCAM】1位参数初始化相机，类：" + c2_state_callback.toString());
+                is_first_hook_build = true;
+                process_camera2_init(c2_state_callback);
+            }
+        });
+
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            XposedHelpers.findAndHookMethod("android.hardware.camera2.CameraManager", lpparam.classLoader, "openCamera", String.class, Executor.class, CameraDevice.StateCallback.class, new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    if (param.args[2] == null) {
+                        return;
+                    }
+                    if (param.args[2].equals(c2_state_cb)) {
+                        return;
+                    }
+                    c2_state_cb = (CameraDevice.StateCallback) param.args[2];
+                    record_camera2_orientation((CameraManager) param.thisObject, (String) param.args[0]);
+                    // 新的相机会话，视频从头播放，请求帧率重新记录
+                    start_new_session();
+                    c2_target_fps = 0;
+                    if (settings().disabled) {
+                        return;
+                    }
+                    need_to_show_toast = settings().showToast;
+                    if (!config().videoExists) {
+                        if (toast_content != null && need_to_show_toast) {
+                            try {
+                                Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
+                            } catch (Exception ee) {
+                                XposedBridge.log("【VCAM】[toast]" + ee.toString());
+                            }
+                        }
+                        return;
+                    }
+                    c2_state_callback = param.args[2].getClass();
+                    XposedBridge.log("【VCAM】2位参数初始化相机，类：" + c2_state_callback.toString());
+                    is_first_hook_build = true;
+                    process_camera2_init(c2_state_callback);
+                }
+            });
+        }
+
+
+        XposedHelpers.findAndHookMethod("android.hardware.camera2.CaptureRequest.Builder", lpparam.classLoader, "set", CaptureRequest.Key.class, Object.class, new XC_MethodHook() {
+            @Override
+            protected void afterHookedMethod(MethodHookParam param) {
+                if (!CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE.equals(param.args[0]) || !(param.args[1] instanceof Range)) {
+                    return;
+                }
+                Object upper = ((Range<?>) param.args[1]).getUpper();
+                int fps = upper instanceof Integer ? (Integer) upper : 0;
+                if (fps == c2_target_fps) {
+                    return;
+                }
+                c2_target_fps = fps;
+                XposedBridge.log("【VCAM】请求帧率：" + param.args[1]);
+                if (c2_frame_fanout != null) {
+                    c2_frame_fanout.setTargetFrameRate(cap_fps(fps));
+                }
+            }
+        });
+
         XposedHelpers.findAndHookMethod("android.hardware.camera2.CaptureRequest.Builder", lpparam.classLoader, "addTarget", Surface.class, new XC_MethodHook() {
             @Override
             protected void beforeHookedMethod(MethodHookParam param) {
@@ -521,10 +634,8 @@ public class HookMain implements IXposedHookLoadPackage {
                 if (param.thisObject == null) {
                     return;
                 }
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists()) {
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists) {
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -537,8 +648,7 @@ public class HookMain implements IXposedHookLoadPackage {
                 if (param.args[0].equals(c2_virtual_surface)) {
                     return;
                 }
-                File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                if (control_file.exists()) {
+                if (settings().disabled) {
                     return;
                 }
                 String surfaceInfo = param.args[0].toString();
@@ -575,10 +685,8 @@ public class HookMain implements IXposedHookLoadPackage {
                 if (param.thisObject == null) {
                     return;
                 }
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists()) {
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists) {
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -588,8 +696,7 @@ public class HookMain implements IXposedHookLoadPackage {
                     }
                     return;
                 }
-                File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                if (control_file.exists()) {
+                if (settings().disabled) {
                     return;
                 }
                 Surface rm_surf = (Surface) param.args[0];
@@ -620,10 +727,8 @@ public class HookMain implements IXposedHookLoadPackage {
                     return;
                 }
                 c2_builder = (CaptureRequest.Builder) param.thisObject;
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists() && need_to_show_toast) {
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists && need_to_show_toast) {
                     if (toast_content != null) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + lpparam.packageName + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -634,8 +739,7 @@ public class HookMain implements IXposedHookLoadPackage {
                     return;
                 }
 
-                File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                if (control_file.exists()) {
+                if (settings().disabled) {
                     return;
                 }
                 XposedBridge.log("【VCAM】开始build请求");
@@ -643,46 +747,6 @@ public class HookMain implements IXposedHookLoadPackage {
             }
         });
 
-/*        XposedHelpers.findAndHookMethod("android.hardware.Camera", lpparam.classLoader, "stopPreview", new XC_MethodHook() {
-            @Override
-            protected void beforeHookedMethod(MethodHookParam param) {
-                if (param.thisObject.equals(HookMain.origin_preview_camera) || param.thisObject.equals(HookMain.camera_onPreviewFrame) || param.thisObject.equals(HookMain.mcamera1)) {
-                    if (hw_decode_obj != null) {
-                        hw_decode_obj.stopDecode();
-                    }
-                    if (mplayer1 != null) {
-                        mplayer1.release();
-                        mplayer1 = null;
-                    }
-                    if (mMediaPlayer != null) {
-                        mMediaPlayer.release();
-                        mMediaPlayer = null;
-                    }
-                    is_someone_playing = false;
-
-                    XposedBridge.log("停止预览");
-                }
-            }
-        });*/
-
-        XposedHelpers.findAndHookMethod("android.media.ImageReader", lpparam.classLoader, "newInstance", int.class, int.class, int.class, int.class, new XC_MethodHook() {
-            @Override
-            protected void beforeHookedMethod(MethodHookParam param) {
-                XposedBridge.log("【VCAM】应用创建了渲染器：宽：" + param.args[0] + " 高：" + param.args[1] + "格式" + param.args[2]);
-                c2_ori_width = (int) param.args[0];
-                c2_ori_height = (int) param.args[1];
-                imageReaderFormat = (int) param.args[2];
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (toast_content != null && need_to_show_toast) {
-                    try {
-                        Toast.makeText(toast_content, "应用创建了渲染器：\n宽：" + param.args[0] + "\n高：" + param.args[1] + "\n一般只需要宽高比与视频相同", Toast.LENGTH_SHORT).show();
-                    } catch (Exception e) {
-                        XposedBridge.log("【VCAM】[toast]" + e.toString());
-                    }
-                }
-            }
-        });
 
 
         XposedHelpers.findAndHookMethod("android.hardware.camera2.CameraCaptureSession.CaptureCallback", lpparam.classLoader, "onCaptureFailed", CameraCaptureSession.class, CaptureRequest.class, CaptureFailure.class,
@@ -693,105 +757,428 @@ public class HookMain implements IXposedHookLoadPackage {
 
                     }
                 });
+
+        XposedBridge.log("【VCAM】" + lpparam.packageName + " 首次使用 CameraManager，安装 Camera2 hook 耗时 " + (System.nanoTime() - hook_start) / 1000 + "us");
     }
 
-    private void process_camera2_play() {
+    private final AtomicBoolean recorder_hooks_installed = new AtomicBoolean(false);
 
-        if (c2_reader_Surfcae != null) {
-            if (c2_hw_decode_obj != null) {
-                c2_hw_decode_obj.stopDecode();
-                c2_hw_decode_obj = null;
+    /**
+     * MediaRecorder.setCamera 只能传入 Camera1 的相机，在应用第一次打开 Camera1 相机时才安装
+     */
+    private void install_recorder_hooks(final XC_LoadPackage.LoadPackageParam lpparam) {
+        if (!recorder_hooks_installed.compareAndSet(false, true)) {
+            return;
+        }
+        XposedHelpers.findAndHookMethod("android.media.MediaRecorder", lpparam.classLoader, "setCamera", Camera.class, new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                super.beforeHookedMethod(param);
+                need_to_show_toast = settings().showToast;
+                XposedBridge.log("【VCAM】[record]" + lpparam.packageName);
+                if (toast_content != null && need_to_show_toast) {
+                    try {
+                        Toast.makeText(toast_content, "应用：" + lpparam.appInfo.name + "(" + lpparam.packageName + ")" + "触发了录像，但目前无法拦截", Toast.LENGTH_SHORT).show();
+                    }catch (Exception ee){
+                        XposedBridge.log("【VCAM】[toast]" + Arrays.toString(ee.getStackTrace()));
+                    }
+                }
             }
+        });
+    }
 
-            c2_hw_decode_obj = new VideoToFrames();
-            try {
-                if (imageReaderFormat == 256) {
-                    c2_hw_decode_obj.setSaveFrames("null", OutputImageFormat.JPEG);
-                } else {
-                    c2_hw_decode_obj.setSaveFrames("null", OutputImageFormat.NV21);
+    private void process_camera2_play() {
+        if (c2_frame_fanout != null) {
+            c2_frame_fanout.stop();
+            c2_frame_fanout = null;
+        }
+        FrameFanout fanout = new FrameFanout();
+        GlFrameRenderer renderer = new GlFrameRenderer(get_fit_mode(), VideoToFrames.TARGET_COLOR_SPACE);
+        Surface[] reader_surfaces = {c2_reader_Surfcae, c2_reader_Surfcae_1};
+        for (Surface reader_surface : reader_surfaces) {
+            if (reader_surface == null) {
+                continue;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                try {
+                    fanout.addSink(new ImageWriterSink(reader_surface, get_fit_mode()));
+                    continue;
+                } catch (Exception e) {
+                    XposedBridge.log("【VCAM】[c2reader][" + reader_surface + "]" + e);
                 }
-                c2_hw_decode_obj.set_surfcae(c2_reader_Surfcae);
-                c2_hw_decode_obj.decode(video_path + "virtual.mp4");
-            } catch (Throwable throwable) {
-                XposedBridge.log("【VCAM】" + throwable);
             }
+            renderer.addSurface(reader_surface);
         }
-
-        if (c2_reader_Surfcae_1 != null) {
-            if (c2_hw_decode_obj_1 != null) {
-                c2_hw_decode_obj_1.stopDecode();
-                c2_hw_decode_obj_1 = null;
+        if (c2_preview_Surfcae != null) {
+            renderer.addSurface(c2_preview_Surfcae);
+        }
+        if (c2_preview_Surfcae_1 != null) {
+            renderer.addSurface(c2_preview_Surfcae_1);
+        }
+        if (renderer.getSurfaceCount() > 0) {
+            fanout.addSink(renderer);
+        }
+        if (fanout.getSinkCount() > 0) {
+            fanout.getDecoder().setAsyncMode(is_async_decode_enabled());
+            fanout.getDecoder().setDecodeAhead(get_decode_ahead_frames());
+            fanout.getDecoder().setPlaybackRange(playback_range);
+            fanout.setTargetFrameRate(cap_fps(c2_target_fps));
+            fanout.getDecoder().setFrameCache(get_frame_cache());
+            fanout.getDecoder().setCameraOrientation(c2_sensor_orientation, c2_front_facing, is_orientation_forced());
+            fanout.getDecoder().setFitMode(get_fit_mode());
+            if (c2_reader_Surfcae != null || c2_reader_Surfcae_1 != null) {
+                // 解码器只按 ImageReader 的横竖旋转，不缩放：每个 ImageReader 和预览 Surface 各自按 fitMode 缩放一次
+                fanout.getDecoder().setOrientationReference(c2_ori_width, c2_ori_height);
             }
-
-            c2_hw_decode_obj_1 = new VideoToFrames();
             try {
-                if (imageReaderFormat == 256) {
-                    c2_hw_decode_obj_1.setSaveFrames("null", OutputImageFormat.JPEG);
-                } else {
-                    c2_hw_decode_obj_1.setSaveFrames("null", OutputImageFormat.NV21);
-                }
-                c2_hw_decode_obj_1.set_surfcae(c2_reader_Surfcae_1);
-                c2_hw_decode_obj_1.decode(video_path + "virtual.mp4");
+                fanout.start(get_preview_source());
+                c2_frame_fanout = fanout;
             } catch (Throwable throwable) {
                 XposedBridge.log("【VCAM】" + throwable);
             }
         }
 
-
-        if (c2_preview_Surfcae != null) {
-            if (c2_player == null) {
-                c2_player = new MediaPlayer();
-            } else {
-                c2_player.release();
-                c2_player = new MediaPlayer();
-            }
-            c2_player.setSurface(c2_preview_Surfcae);
-            File sfile = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no-silent.jpg");
-            if (!sfile.exists()) {
-                c2_player.setVolume(0, 0);
-            }
+        if (c2_player != null) {
+            c2_player.release();
+            c2_player = null;
+        }
+        if (c2_preview_Surfcae != null && settings().playSound) {
+            c2_player = new MediaPlayer();
             c2_player.setLooping(true);
-
             try {
                 c2_player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
                     public void onPrepared(MediaPlayer mp) {
-                        c2_player.start();
+                        start_with_clock(c2_player);
+                        follow_clock(c2_player);
                     }
                 });
-                c2_player.setDataSource(video_path + "virtual.mp4");
+                c2_player.setDataSource(config().videoFile.getPath());
                 c2_player.prepare();
             } catch (Exception e) {
-                XposedBridge.log("【VCAM】[c2player][" + c2_preview_Surfcae.toString() + "]" + e);
+                XposedBridge.log("【VCAM】[c2player]" + e);
             }
         }
+        XposedBridge.log("【VCAM】Camera2处理过程完全执行");
+    }
 
-        if (c2_preview_Surfcae_1 != null) {
-            if (c2_player_1 == null) {
-                c2_player_1 = new MediaPlayer();
-            } else {
-                c2_player_1.release();
-                c2_player_1 = new MediaPlayer();
+    /**
+     * 存在 auto_orientation.jpg 时总是按相机方向旋转、镜像；否则只在视频横竖与预览不一致时自动旋转
+     */
+    private static boolean is_orientation_forced() {
+        return settings().autoOrientation;
+    }
+
+    /**
+     * 宽高比与视频不同时默认居中裁剪铺满；存在 letterbox.jpg 时完整显示并加黑边
+     */
+    private static int get_fit_mode() {
+        return settings().fitMode;
+    }
+
+    private static void record_camera2_orientation(CameraManager manager, String camera_id) {
+        try {
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(camera_id);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            c2_sensor_orientation = orientation == null ? -1 : orientation;
+            c2_front_facing = facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT;
+        } catch (Exception e) {
+            c2_sensor_orientation = -1;
+            XposedBridge.log("【VCAM】[orientation]" + e);
+        }
+    }
+
+    /**
+     * 预览格式对应的输出布局；NV21 以外 Camera1 只保证支持 YV12，其他格式按 NV21 输出
+     */
+    private static OutputImageFormat get_preview_output_format(int image_format) {
+        switch (image_format) {
+            case ImageFormat.YV12:
+                return OutputImageFormat.YV12;
+            case ImageFormat.YUV_420_888:
+                return OutputImageFormat.I420;
+            default:
+                return OutputImageFormat.NV21;
+        }
+    }
+
+    private static void apply_camera1_orientation(VideoToFrames decoder) {
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        try {
+            int id = camera1_id;
+            if (id < 0) {
+                // Camera.open() 打开的是第一个后置摄像头
+                for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+                    Camera.getCameraInfo(i, info);
+                    if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
+                        id = i;
+                        break;
+                    }
+                }
             }
-            c2_player_1.setSurface(c2_preview_Surfcae_1);
-            File sfile = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no-silent.jpg");
-            if (!sfile.exists()) {
-                c2_player_1.setVolume(0, 0);
+            if (id < 0) {
+                return;
             }
-            c2_player_1.setLooping(true);
+            Camera.getCameraInfo(id, info);
+            decoder.setCameraOrientation(info.orientation, info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT, is_orientation_forced());
+        } catch (RuntimeException e) {
+            XposedBridge.log("【VCAM】[orientation]" + e);
+        }
+    }
 
+    /**
+     * 预览播放器按共享时钟的位置和速率开始播放，与同一会话中的解码器显示同一帧
+     */
+    private static void start_with_clock(MediaPlayer player) {
+        MediaClock clock = MediaClock.shared();
+        int duration = player.getDuration();
+        if (duration > 0) {
+            // 时钟位置从播放范围的起点算起；播放器自己循环整段视频，只按起点对齐
+            long duration_us = duration * 1000L;
+            long origin_us = playback_range.loopStartUs(duration_us);
+            clock.startIfNeeded(playback_range.startUs(duration_us) - origin_us);
+            clock.setLoopDurationIfUnset(playback_range.loopEndUs(duration_us) - origin_us);
+            int position = (int) (clock_position_us(clock, duration_us) / 1000);
+            if (position > 0) {
+                player.seekTo(position);
+            }
+        } else {
+            clock.startIfNeeded();
+        }
+        if (clock.getRate() != 1.0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             try {
-                c2_player_1.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                    public void onPrepared(MediaPlayer mp) {
-                        c2_player_1.start();
+                player.setPlaybackParams(player.getPlaybackParams().setSpeed((float) clock.getRate()));
+            } catch (RuntimeException e) {
+                XposedBridge.log("【VCAM】[clock]" + e);
+            }
+        }
+        player.start();
+    }
+
+    /**
+     * 共享时钟当前位置对应的视频时间 (播放范围起点 + 这一轮内的位置)
+     */
+    private static long clock_position_us(MediaClock clock, long duration_us) {
+        long loop_us = clock.getLoopDurationUs();
+        return playback_range.loopStartUs(duration_us) + (loop_us > 0 ? clock.positionUs() % loop_us : 0);
+    }
+
+    // 只放声音的播放器与时钟比较的间隔和允许的偏差，超过时 seek 到时钟位置
+    private static final long AUDIO_SYNC_INTERVAL_MS = 2000;
+    private static final long AUDIO_DRIFT_LIMIT_US = 80000;
+
+    /**
+     * Camera2 的画面来自解码器，预览播放器只放声音，两者各自计时会慢慢错开 (循环点、seek 精度、音频时钟)；
+     * 每隔一段时间和共享时钟比较一次，偏差超过阈值时 seek 回时钟位置，播放器不再是 c2_player 时停止
+     */
+    private static void follow_clock(final MediaPlayer player) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (player != c2_player) {
+                    return;
+                }
+                try {
+                    int duration = player.getDuration();
+                    MediaClock clock = MediaClock.shared();
+                    if (duration > 0 && player.isPlaying() && clock.isRunning()) {
+                        long duration_us = duration * 1000L;
+                        long expected_us = clock_position_us(clock, duration_us);
+                        long drift_us = MediaClock.loopDifferenceUs(player.getCurrentPosition() * 1000L, expected_us, duration_us);
+                        if (Math.abs(drift_us) > AUDIO_DRIFT_LIMIT_US) {
+                            XposedBridge.log("【VCAM】[c2player]声音偏离画面 " + drift_us / 1000 + "ms，重新对齐");
+                            player.seekTo((int) (expected_us / 1000));
+                        }
                     }
-                });
-                c2_player_1.setDataSource(video_path + "virtual.mp4");
-                c2_player_1.prepare();
-            } catch (Exception e) {
-                XposedBridge.log("【VCAM】[c2player1]" + "[ " + c2_preview_Surfcae_1.toString() + "]" + e);
+                } catch (IllegalStateException e) {
+                    // 播放器已经释放
+                    return;
+                }
+                handler.postDelayed(this, AUDIO_SYNC_INTERVAL_MS);
             }
+        }, AUDIO_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * 共享时钟改用新的速度 (解码器按时钟等待显示时间、按速率放宽跳帧间隔)，正在播放的预览播放器同步改速
+     */
+    private static void apply_speed(float speed) {
+        MediaClock.shared().setRate(speed);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return;
         }
-        XposedBridge.log("【VCAM】Camera2处理过程完全执行");
+        for (MediaPlayer player : new MediaPlayer[]{mMediaPlayer, mplayer1, c2_player}) {
+            if (player == null) {
+                continue;
+            }
+            try {
+                // 没在播放的播放器设置速度会开始播放，留给 start_with_clock 设置
+                if (player.isPlaying()) {
+                    player.setPlaybackParams(player.getPlaybackParams().setSpeed(speed));
+                }
+            } catch (RuntimeException e) {
+                XposedBridge.log("【VCAM】[clock]" + e);
+            }
+        }
+    }
+
+    /**
+     * 控制文件的当前状态，由 ControlConfigWatcher 在目录变化时更新，hook 中读取不访问文件系统
+     */
+    private static ControlConfig config() {
+        return package_config;
+    }
+
+    // 当前进程的包名和它的配置 (按包名在快照的索引中查到)，快照变化时由监听者更新
+    private static String package_name;
+    private static volatile ControlConfig package_config = ControlConfig.EMPTY;
+
+    private static VcamConfig settings() {
+        return config().settings;
+    }
+
+    private static final AtomicBoolean config_listener_added = new AtomicBoolean(false);
+
+    private static void watch_config() {
+        if (config_listener_added.compareAndSet(false, true)) {
+            ControlConfigWatcher.shared().addListener(new ControlConfigWatcher.Listener() {
+                @Override
+                public void onConfigChanged(ControlConfig previous, ControlConfig current) {
+                    ControlConfig before = package_config;
+                    package_config = current.forPackage(package_name);
+                    apply_live_settings(before.settings, package_config.settings);
+                }
+            });
+        }
+        File control_dir = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/");
+        ControlConfigWatcher.shared().watch(control_dir, new File(video_path));
+        package_config = ControlConfigWatcher.shared().get().forPackage(package_name);
+    }
+
+    /**
+     * 配置文件改动后不必重新打开相机就生效的设置：帧率上限、播放速度；其他设置在下次打开相机时生效
+     */
+    private static void apply_live_settings(VcamConfig previous, VcamConfig current) {
+        if (previous.speed != current.speed) {
+            apply_speed(current.speed);
+            XposedBridge.log("【VCAM】[config]播放速度：" + current.speed);
+        }
+        if (previous.fpsCap != current.fpsCap) {
+            VideoToFrames decoder = hw_decode_obj;
+            if (decoder != null) {
+                decoder.setTargetFrameRate(cap_fps(camera1_target_fps));
+            }
+            FrameFanout fanout = c2_frame_fanout;
+            if (fanout != null) {
+                fanout.setTargetFrameRate(cap_fps(c2_target_fps));
+            }
+            XposedBridge.log("【VCAM】[config]帧率上限：" + current.fpsCap);
+        }
+    }
+
+    /**
+     * 应用请求的帧率再按配置文件中的 fps_cap 限制，0 表示不限制
+     */
+    private static int cap_fps(int requested_fps) {
+        int cap = settings().fpsCap;
+        if (cap <= 0) {
+            return requested_fps;
+        }
+        return requested_fps <= 0 ? cap : Math.min(requested_fps, cap);
+    }
+
+    // 当前相机会话的播放范围，打开相机时读取一次，随机起点在会话内固定
+    private static volatile PlaybackRange playback_range = PlaybackRange.FULL;
+
+    /**
+     * 新的相机会话：时钟回到未启动，重新读取播放范围 (随机起点重新抽取，本会话的所有视频源共用)
+     */
+    private static void start_new_session() {
+        MediaClock.shared().reset();
+        MediaClock.shared().setRate(settings().speed);
+        playback_range = read_playback_range();
+    }
+
+    /**
+     * play_range.jpg 的内容为循环段 "起点 终点" (秒，只写起点表示到结尾)；
+     * 存在 random_start.jpg 时每次打开相机从循环段中的随机位置开始
+     */
+    private static PlaybackRange read_playback_range() {
+        VcamConfig settings = settings();
+        return settings.randomStart ? settings.playRange.withStartFraction(Math.random()) : settings.playRange;
+    }
+
+    private static boolean is_async_decode_enabled() {
+        return settings().asyncDecode;
+    }
+
+    /**
+     * 预解码的帧数 (配置文件 decode_ahead，或存在 decode_ahead.jpg 时 4 帧)，返回 0 表示不预解码
+     */
+    private static int get_decode_ahead_frames() {
+        return settings().decodeAhead;
+    }
+
+    private static FrameCache frame_cache;
+
+    /**
+     * 帧缓存优先放在视频目录下，方便多个应用共用；目录不可写时放到应用自己的缓存目录
+     */
+    private FrameCache get_frame_cache() {
+        // 帧缓存总大小上限，配置文件中 cache_mb 为 0 时不缓存
+        long max_bytes = settings().cacheMb * 1024L * 1024;
+        if (max_bytes <= 0) {
+            return null;
+        }
+        File cache_dir = new File(video_path + ".vcam_cache/");
+        if (!cache_dir.isDirectory() && !cache_dir.mkdirs() || !cache_dir.canWrite()) {
+            if (toast_content == null) {
+                return null;
+            }
+            cache_dir = new File(toast_content.getCacheDir(), "vcam_frames");
+        }
+        if (frame_cache == null || !frame_cache.getDir().equals(cache_dir) || frame_cache.getMaxBytes() != max_bytes) {
+            frame_cache = new FrameCache(cache_dir, max_bytes);
+        }
+        return frame_cache;
+    }
+
+    /**
+     * 预览回调的视频源：存在同名 .vcfa 帧存档且记录的源视频指纹与当前视频一致时直接播放存档；
+     * 指纹在读取配置时已经比较过 (ControlConfig.archiveUsable)，这里不读文件
+     */
+    private static String get_preview_source() {
+        ControlConfig config = config();
+        return config.archiveUsable ? config.archiveFile.getAbsolutePath() : config.videoFile.getAbsolutePath();
+    }
+
+    private static final AtomicBoolean archive_importing = new AtomicBoolean(false);
+
+    /**
+     * 存在 make_archive.jpg 时在后台把 virtual.mp4 转成帧存档，下次打开相机生效
+     *
+     * @param source 这次打开相机使用的 get_preview_source()，已经在播放存档时不再生成
+     */
+    private static void start_archive_import(String source) {
+        final File video = config().videoFile;
+        final File archive = config().archiveFile;
+        if (!settings().makeArchive || !config().videoExists || source.equals(archive.getAbsolutePath())) {
+            return;
+        }
+        if (!archive_importing.compareAndSet(false, true)) {
+            return;
+        }
+        new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                if (VideoToFrames.importToArchive(video.getAbsolutePath(), archive, FrameArchive.COMPRESSION_DELTA_LZ4)) {
+                    XposedBridge.log("【VCAM】【archive】帧存档已生成：" + archive.length() + " 字节，耗时 " + (System.currentTimeMillis() - start) + "ms");
+                }
+            } finally {
+                archive_importing.set(false);
+            }
+        }, "vcam-archive").start();
     }
 
     private Surface create_virtual_surface() {
@@ -817,11 +1204,48 @@ public class HookMain implements IXposedHookLoadPackage {
         return c2_virtual_surface;
     }
 
+    // 回调类的方法只 hook 一次，应用重复设置回调时只替换处理者
+    private interface CallbackHandler {
+        void before(XC_MethodHook.MethodHookParam param) throws Throwable;
+    }
+
+    private static final HookRegistry<CallbackHandler> callback_hooks = new HookRegistry<>();
+
+    private static final HookRegistry.Installer<CallbackHandler> callback_installer = new HookRegistry.Installer<CallbackHandler>() {
+        @Override
+        public void install(Class<?> hooked_class, String method, Class<?>[] parameter_types, final HookRegistry.Slot<CallbackHandler> slot) {
+            Object[] args = Arrays.copyOf(parameter_types, parameter_types.length + 1, Object[].class);
+            args[parameter_types.length] = new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    slot.get().before(param);
+                }
+            };
+            XposedHelpers.findAndHookMethod(hooked_class, method, args);
+        }
+    };
+
+    /**
+     * 与 findAndHookMethod 参数相同，最后一个参数是处理者；同一个类的同一个方法只安装一次 hook，
+     * 之后登记的处理者替换之前的 (处理者只读 hook 参数和会话状态，同类的不同回调对象可以共用，见 HookRegistry)
+     */
+    private static void hook_callback(Class<?> hooked_class, String method, Object... parameter_types_and_handler) {
+        int count = parameter_types_and_handler.length - 1;
+        Class<?>[] parameter_types = new Class<?>[count];
+        for (int i = 0; i < count; i++) {
+            parameter_types[i] = (Class<?>) parameter_types_and_handler[i];
+        }
+        CallbackHandler handler = (CallbackHandler) parameter_types_and_handler[count];
+        if (callback_hooks.register(hooked_class, method, parameter_types, handler, callback_installer)) {
+            XposedBridge.log("【VCAM】[hook]" + hooked_class.getName() + "." + method + "，已安装 " + callback_hooks.size() + " 个回调 hook");
+        }
+    }
+
     private void process_camera2_init(Class hooked_class) {
 
-        XposedHelpers.findAndHookMethod(hooked_class, "onOpened", CameraDevice.class, new XC_MethodHook() {
+        hook_callback(hooked_class, "onOpened", CameraDevice.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                 need_recreate = true;
                 create_virtual_surface();
                 if (c2_player != null) {
@@ -830,19 +1254,9 @@ public class HookMain implements IXposedHookLoadPackage {
                     c2_player.release();
                     c2_player = null;
                 }
-                if (c2_hw_decode_obj_1 != null) {
-                    c2_hw_decode_obj_1.stopDecode();
-                    c2_hw_decode_obj_1 = null;
-                }
-                if (c2_hw_decode_obj != null) {
-                    c2_hw_decode_obj.stopDecode();
-                    c2_hw_decode_obj = null;
-                }
-                if (c2_player_1 != null) {
-                    c2_player_1.stop();
-                    c2_player_1.reset();
-                    c2_player_1.release();
-                    c2_player_1 = null;
+                if (c2_frame_fanout != null) {
+                    c2_frame_fanout.stop();
+                    c2_frame_fanout = null;
                 }
                 c2_preview_Surfcae_1 = null;
                 c2_reader_Surfcae_1 = null;
@@ -851,10 +1265,8 @@ public class HookMain implements IXposedHookLoadPackage {
                 is_first_hook_build = true;
                 XposedBridge.log("【VCAM】打开相机C2");
 
-                File file = new File(video_path + "virtual.mp4");
-                File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                need_to_show_toast = !toast_control.exists();
-                if (!file.exists()) {
+                need_to_show_toast = settings().showToast;
+                if (!config().videoExists) {
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "不存在替换视频\n" + toast_content.getPackageName() + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -864,9 +1276,9 @@ public class HookMain implements IXposedHookLoadPackage {
                     }
                     return;
                 }
-                XposedHelpers.findAndHookMethod(param.args[0].getClass(), "createCaptureSession", List.class, CameraCaptureSession.StateCallback.class, Handler.class, new XC_MethodHook() {
+                hook_callback(param.args[0].getClass(), "createCaptureSession", List.class, CameraCaptureSession.StateCallback.class, Handler.class, new CallbackHandler() {
                     @Override
-                    protected void beforeHookedMethod(MethodHookParam paramd) throws Throwable {
+                    public void before(XC_MethodHook.MethodHookParam paramd) throws Throwable {
                         if (paramd.args[0] != null) {
                             XposedBridge.log("【VCAM】createCaptureSession创捷捕获，原始:" + paramd.args[0].toString() + "虚拟：" + c2_virtual_surface.toString());
                             paramd.args[0] = Arrays.asList(c2_virtual_surface);
@@ -877,26 +1289,18 @@ public class HookMain implements IXposedHookLoadPackage {
                     }
                 });
 
-/*                XposedHelpers.findAndHookMethod(param.args[0].getClass(), "close", new XC_MethodHook() {
+/*                hook_callback(param.args[0].getClass(), "close", new CallbackHandler() {
                     @Override
-                    protected void beforeHookedMethod(MethodHookParam paramd) throws Throwable {
+                    public void before(XC_MethodHook.MethodHookParam paramd) throws Throwable {
                         XposedBridge.log("C2终止预览");
-                        if (c2_hw_decode_obj != null) {
-                            c2_hw_decode_obj.stopDecode();
-                            c2_hw_decode_obj = null;
-                        }
-                        if (c2_hw_decode_obj_1 != null) {
-                            c2_hw_decode_obj_1.stopDecode();
-                            c2_hw_decode_obj_1 = null;
+                        if (c2_frame_fanout != null) {
+                            c2_frame_fanout.stop();
+                            c2_frame_fanout = null;
                         }
                         if (c2_player != null) {
                             c2_player.release();
                             c2_player = null;
                         }
-                        if (c2_player_1 != null){
-                            c2_player_1.release();
-                            c2_player_1 = null;
-                        }
                         c2_preview_Surfcae_1 = null;
                         c2_reader_Surfcae_1 = null;
                         c2_reader_Surfcae = null;
@@ -907,10 +1311,9 @@ public class HookMain implements IXposedHookLoadPackage {
                 });*/
 
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    XposedHelpers.findAndHookMethod(param.args[0].getClass(), "createCaptureSessionByOutputConfigurations", List.class, CameraCaptureSession.StateCallback.class, Handler.class, new XC_MethodHook() {
+                    hook_callback(param.args[0].getClass(), "createCaptureSessionByOutputConfigurations", List.class, CameraCaptureSession.StateCallback.class, Handler.class, new CallbackHandler() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            super.beforeHookedMethod(param);
+                        public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                             if (param.args[0] != null) {
                                 outputConfiguration = new OutputConfiguration(c2_virtual_surface);
                                 param.args[0] = Arrays.asList(outputConfiguration);
@@ -925,10 +1328,9 @@ public class HookMain implements IXposedHookLoadPackage {
                 }
 
 
-                    XposedHelpers.findAndHookMethod(param.args[0].getClass(), "createConstrainedHighSpeedCaptureSession", List.class, CameraCaptureSession.StateCallback.class, Handler.class, new XC_MethodHook() {
+                    hook_callback(param.args[0].getClass(), "createConstrainedHighSpeedCaptureSession", List.class, CameraCaptureSession.StateCallback.class, Handler.class, new CallbackHandler() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            super.beforeHookedMethod(param);
+                        public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                             if (param.args[0] != null) {
                                 param.args[0] = Arrays.asList(c2_virtual_surface);
                                 XposedBridge.log("【VCAM】执行了 createConstrainedHighSpeedCaptureSession -5484987");
@@ -941,10 +1343,9 @@ public class HookMain implements IXposedHookLoadPackage {
 
 
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    XposedHelpers.findAndHookMethod(param.args[0].getClass(), "createReprocessableCaptureSession", InputConfiguration.class, List.class, CameraCaptureSession.StateCallback.class, Handler.class, new XC_MethodHook() {
+                    hook_callback(param.args[0].getClass(), "createReprocessableCaptureSession", InputConfiguration.class, List.class, CameraCaptureSession.StateCallback.class, Handler.class, new CallbackHandler() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            super.beforeHookedMethod(param);
+                        public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                             if (param.args[1] != null) {
                                 param.args[1] = Arrays.asList(c2_virtual_surface);
                                 XposedBridge.log("【VCAM】执行了 createReprocessableCaptureSession ");
@@ -958,10 +1359,9 @@ public class HookMain implements IXposedHookLoadPackage {
 
 
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    XposedHelpers.findAndHookMethod(param.args[0].getClass(), "createReprocessableCaptureSessionByConfigurations", InputConfiguration.class, List.class, CameraCaptureSession.StateCallback.class, Handler.class, new XC_MethodHook() {
+                    hook_callback(param.args[0].getClass(), "createReprocessableCaptureSessionByConfigurations", InputConfiguration.class, List.class, CameraCaptureSession.StateCallback.class, Handler.class, new CallbackHandler() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            super.beforeHookedMethod(param);
+                        public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                             if (param.args[1] != null) {
                                 outputConfiguration = new OutputConfiguration(c2_virtual_surface);
                                 param.args[0] = Arrays.asList(outputConfiguration);
@@ -975,10 +1375,9 @@ public class HookMain implements IXposedHookLoadPackage {
                 }
 
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    XposedHelpers.findAndHookMethod(param.args[0].getClass(), "createCaptureSession", SessionConfiguration.class, new XC_MethodHook() {
+                    hook_callback(param.args[0].getClass(), "createCaptureSession", SessionConfiguration.class, new CallbackHandler() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            super.beforeHookedMethod(param);
+                        public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                             if (param.args[0] != null) {
                                 XposedBridge.log("【VCAM】执行了 createCaptureSession -5484987");
                                 sessionConfiguration = (SessionConfiguration) param.args[0];
@@ -997,18 +1396,18 @@ public class HookMain implements IXposedHookLoadPackage {
         });
 
 
-        XposedHelpers.findAndHookMethod(hooked_class, "onError", CameraDevice.class, int.class, new XC_MethodHook() {
+        hook_callback(hooked_class, "onError", CameraDevice.class, int.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                 XposedBridge.log("【VCAM】相机错误onerror：" + (int) param.args[1]);
             }
 
         });
 
 
-        XposedHelpers.findAndHookMethod(hooked_class, "onDisconnected", CameraDevice.class, new XC_MethodHook() {
+        hook_callback(hooked_class, "onDisconnected", CameraDevice.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                 XposedBridge.log("【VCAM】相机断开onDisconnected ：");
             }
 
@@ -1026,16 +1425,15 @@ public class HookMain implements IXposedHookLoadPackage {
         }
         Class callback = param.args[index].getClass();
 
-        XposedHelpers.findAndHookMethod(callback, "onPictureTaken", byte[].class, android.hardware.Camera.class, new XC_MethodHook() {
+        hook_callback(callback, "onPictureTaken", byte[].class, android.hardware.Camera.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam paramd) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam paramd) throws Throwable {
                 try {
                     Camera loaclcam = (Camera) paramd.args[1];
                     onemwidth = loaclcam.getParameters().getPreviewSize().width;
                     onemhight = loaclcam.getParameters().getPreviewSize().height;
                     XposedBridge.log("【VCAM】JPEG拍照回调初始化：宽：" + onemwidth + "高：" + onemhight + "对应的类：" + loaclcam.toString());
-                    File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                    need_to_show_toast = !toast_control.exists();
+                    need_to_show_toast = settings().showToast;
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "发现拍照\n宽：" + onemwidth + "\n高：" + onemhight + "\n格式：JPEG", Toast.LENGTH_SHORT).show();
@@ -1043,8 +1441,7 @@ public class HookMain implements IXposedHookLoadPackage {
                             XposedBridge.log("【VCAM】[toast]" + e.toString());
                         }
                     }
-                    File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                    if (control_file.exists()) {
+                    if (settings().disabled) {
                         return;
                     }
 
@@ -1067,16 +1464,15 @@ public class HookMain implements IXposedHookLoadPackage {
             XposedBridge.log("【VCAM】" + eee);
         }
         Class callback = param.args[1].getClass();
-        XposedHelpers.findAndHookMethod(callback, "onPictureTaken", byte[].class, android.hardware.Camera.class, new XC_MethodHook() {
+        hook_callback(callback, "onPictureTaken", byte[].class, android.hardware.Camera.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam paramd) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam paramd) throws Throwable {
                 try {
                     Camera loaclcam = (Camera) paramd.args[1];
                     onemwidth = loaclcam.getParameters().getPreviewSize().width;
                     onemhight = loaclcam.getParameters().getPreviewSize().height;
                     XposedBridge.log("【VCAM】YUV拍照回调初始化：宽：" + onemwidth + "高：" + onemhight + "对应的类：" + loaclcam.toString());
-                    File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                    need_to_show_toast = !toast_control.exists();
+                    need_to_show_toast = settings().showToast;
                     if (toast_content != null && need_to_show_toast) {
                         try {
                             Toast.makeText(toast_content, "发现拍照\n宽：" + onemwidth + "\n高：" + onemhight + "\n格式：YUV_420_888", Toast.LENGTH_SHORT).show();
@@ -1084,8 +1480,7 @@ public class HookMain implements IXposedHookLoadPackage {
                             XposedBridge.log("【VCAM】[toast]" + ee.toString());
                         }
                     }
-                    File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-                    if (control_file.exists()) {
+                    if (settings().disabled) {
                         return;
                     }
                     input = getYUVByBitmap(getBMP(video_path + "1000.bmp"));
@@ -1100,14 +1495,11 @@ public class HookMain implements IXposedHookLoadPackage {
     private void process_callback(XC_MethodHook.MethodHookParam param) {
         Class preview_cb_class = param.args[0].getClass();
         int need_stop = 0;
-        File control_file = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "disable.jpg");
-        if (control_file.exists()) {
+        if (settings().disabled) {
             need_stop = 1;
         }
-        File file = new File(video_path + "virtual.mp4");
-        File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-        need_to_show_toast = !toast_control.exists();
-        if (!file.exists()) {
+        need_to_show_toast = settings().showToast;
+        if (!config().videoExists) {
             if (toast_content != null && need_to_show_toast) {
                 try {
                     Toast.makeText(toast_content, "不存在替换视频\n" + toast_content.getPackageName() + "当前路径：" + video_path, Toast.LENGTH_SHORT).show();
@@ -1118,42 +1510,53 @@ public class HookMain implements IXposedHookLoadPackage {
             need_stop = 1;
         }
         int finalNeed_stop = need_stop;
-        XposedHelpers.findAndHookMethod(preview_cb_class, "onPreviewFrame", byte[].class, android.hardware.Camera.class, new XC_MethodHook() {
+        hook_callback(preview_cb_class, "onPreviewFrame", byte[].class, android.hardware.Camera.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam paramd) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam paramd) throws Throwable {
                 Camera localcam = (android.hardware.Camera) paramd.args[1];
                 if (localcam.equals(camera_onPreviewFrame)) {
-                    while (data_buffer == null) {
-                    }
-                    System.arraycopy(data_buffer, 0, paramd.args[0], 0, Math.min(data_buffer.length, ((byte[]) paramd.args[0]).length));
+                    deliver_preview_frame(paramd, finalNeed_stop == 0);
                 } else {
                     camera_callback_calss = preview_cb_class;
                     camera_onPreviewFrame = (android.hardware.Camera) paramd.args[1];
                     mwidth = camera_onPreviewFrame.getParameters().getPreviewSize().width;
                     mhight = camera_onPreviewFrame.getParameters().getPreviewSize().height;
-                    int frame_Rate = camera_onPreviewFrame.getParameters().getPreviewFrameRate();
-                    XposedBridge.log("【VCAM】帧预览回调初始化：宽：" + mwidth + " 高：" + mhight + " 帧率：" + frame_Rate);
-                    File toast_control = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/" + "no_toast.jpg");
-                    need_to_show_toast = !toast_control.exists();
+                    int frame_Rate = get_camera1_target_fps(camera_onPreviewFrame.getParameters());
+                    int preview_format = camera_onPreviewFrame.getParameters().getPreviewFormat();
+                    camera1_preview_format = get_preview_output_format(preview_format);
+                    XposedBridge.log("【VCAM】帧预览回调初始化：宽：" + mwidth + " 高：" + mhight + " 帧率：" + frame_Rate
+                            + " 格式：" + preview_format + " -> " + camera1_preview_format);
+                    need_to_show_toast = settings().showToast;
                     if (toast_content != null && need_to_show_toast) {
                         try {
-                            Toast.makeText(toast_content, "发现预览\n宽：" + mwidth + "\n高：" + mhight + "\n" + "需要视频分辨率与其完全相同", Toast.LENGTH_SHORT).show();
+                            Toast.makeText(toast_content, "发现预览\n宽：" + mwidth + "\n高：" + mhight + "\n格式：" + camera1_preview_format + "\n" + "视频分辨率不同时会自动缩放", Toast.LENGTH_SHORT).show();
                         } catch (Exception ee) {
                             XposedBridge.log("【VCAM】[toast]" + ee.toString());
                         }
                     }
                     if (finalNeed_stop == 1) {
+                        deliver_preview_frame(paramd, false);
                         return;
                     }
                     if (hw_decode_obj != null) {
                         hw_decode_obj.stopDecode();
                     }
                     hw_decode_obj = new VideoToFrames();
-                    hw_decode_obj.setSaveFrames("", OutputImageFormat.NV21);
-                    hw_decode_obj.decode(video_path + "virtual.mp4");
-                    while (data_buffer == null) {
-                    }
-                    System.arraycopy(data_buffer, 0, paramd.args[0], 0, Math.min(data_buffer.length, ((byte[]) paramd.args[0]).length));
+                    hw_decode_obj.setSaveFrames("", camera1_preview_format);
+                    hw_decode_obj.setCallbackBufferQueue(callback_buffer_queue);
+                    hw_decode_obj.setOutputSize(mwidth, mhight);
+                    apply_camera1_orientation(hw_decode_obj);
+                    hw_decode_obj.setFitMode(get_fit_mode());
+                    hw_decode_obj.setAsyncMode(is_async_decode_enabled());
+                    hw_decode_obj.setDecodeAhead(get_decode_ahead_frames());
+                    hw_decode_obj.setPlaybackRange(playback_range);
+                    camera1_target_fps = frame_Rate;
+                    hw_decode_obj.setTargetFrameRate(cap_fps(frame_Rate));
+                    hw_decode_obj.setFrameCache(get_frame_cache());
+                    String source = get_preview_source();
+                    hw_decode_obj.decode(source);
+                    start_archive_import(source);
+                    deliver_preview_frame(paramd, true);
                 }
 
             }
@@ -1161,28 +1564,113 @@ public class HookMain implements IXposedHookLoadPackage {
 
     }
 
+    // 首帧最长等待时间，之后的回调不再等待
+    private static final long FIRST_FRAME_TIMEOUT_MS = 300;
+
+    /**
+     * 把一帧交给应用的 onPreviewFrame
+     * 相机回传的是影子缓冲时换成应用自己的缓冲；replace 为 false 时只把真实画面拷给应用缓冲
+     */
+    private static void deliver_preview_frame(XC_MethodHook.MethodHookParam paramd, boolean replace) {
+        byte[] buffer = (byte[]) paramd.args[0];
+        if (buffer == null) {
+            return;
+        }
+        if (!callback_buffer_queue.isShadow(buffer)) {
+            // 非缓冲回调模式，数组由相机分配
+            if (replace) {
+                copy_latest_frame(buffer);
+            }
+            return;
+        }
+        if (replace && callback_buffer_queue.isDirectWrite()) {
+            byte[] ready = callback_buffer_queue.takeReady();
+            if (ready == null) {
+                // 解码还没有产出新帧：跳过这次回调，影子缓冲还给相机，应用缓冲保持排队
+                paramd.setResult(null);
+                requeue_shadow_buffer((Camera) paramd.args[1], buffer);
+                return;
+            }
+            paramd.args[0] = ready;
+            callback_buffer_queue.recycleShadow(buffer);
+            return;
+        }
+        byte[] app_buffer = callback_buffer_queue.pollPending();
+        if (app_buffer == null) {
+            if (replace) {
+                copy_latest_frame(buffer);
+            }
+            return;
+        }
+        if (replace) {
+            copy_latest_frame(app_buffer);
+        } else {
+            System.arraycopy(buffer, 0, app_buffer, 0, Math.min(buffer.length, app_buffer.length));
+        }
+        paramd.args[0] = app_buffer;
+        callback_buffer_queue.recycleShadow(buffer);
+    }
+
+    private static void requeue_shadow_buffer(Camera camera, byte[] shadow) {
+        if (add_callback_buffer_method == null) {
+            return;
+        }
+        try {
+            XposedBridge.invokeOriginalMethod(add_callback_buffer_method, camera, new Object[]{shadow});
+        } catch (Exception e) {
+            XposedBridge.log("【VCAM】[callback-buffer]" + e);
+        }
+    }
+
+    /**
+     * 应用请求的预览帧率：优先取 setPreviewFpsRange 的上限，没有时取 getPreviewFrameRate
+     */
+    private static int get_camera1_target_fps(Camera.Parameters parameters) {
+        int[] range = new int[2];
+        try {
+            parameters.getPreviewFpsRange(range);
+        } catch (RuntimeException e) {
+            range[1] = 0;
+        }
+        if (range[1] > 0) {
+            return range[1] / 1000;
+        }
+        return parameters.getPreviewFrameRate();
+    }
+
+    private static void copy_latest_frame(byte[] buffer) {
+        if (hw_decode_obj == null || buffer == null) {
+            return;
+        }
+        FrameBufferPool.Frame frame = hw_decode_obj.getFrameExchanger().latest(FIRST_FRAME_TIMEOUT_MS);
+        if (frame == null) {
+            return;
+        }
+        System.arraycopy(frame.data, 0, buffer, 0, Math.min(frame.data.length, buffer.length));
+    }
+
     private void process_camera2Session_callback(CameraCaptureSession.StateCallback callback_calss){
         if (callback_calss == null){
             return;
         }
-        XposedHelpers.findAndHookMethod(callback_calss.getClass(), "onConfigureFailed", CameraCaptureSession.class, new XC_MethodHook() {
+        hook_callback(callback_calss.getClass(), "onConfigureFailed", CameraCaptureSession.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                 XposedBridge.log("【VCAM】onConfigureFailed ：" + param.args[0].toString());
             }
 
         });
 
-        XposedHelpers.findAndHookMethod(callback_calss.getClass(), "onConfigured", CameraCaptureSession.class, new XC_MethodHook() {
+        hook_callback(callback_calss.getClass(), "onConfigured", CameraCaptureSession.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                 XposedBridge.log("【VCAM】onConfigured ：" + param.args[0].toString());
             }
         });
 
-        XposedHelpers.findAndHookMethod( callback_calss.getClass(), "onClosed", CameraCaptureSession.class, new XC_MethodHook() {
+        hook_callback(callback_calss.getClass(), "onClosed", CameraCaptureSession.class, new CallbackHandler() {
             @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            public void before(XC_MethodHook.MethodHookParam param) throws Throwable {
                 XposedBridge.log("【VCAM】onClosed ："+ param.args[0].toString());
             }
         });
@@ -1195,43 +1683,28 @@ public class HookMain implements IXposedHookLoadPackage {
         return BitmapFactory.decodeFile(file);
     }
 
-    private static byte[] rgb2YCbCr420(int[] pixels, int width, int height) {
-        int len = width * height;
-        // yuv格式数组大小，y亮度占len长度，u,v各占len/4长度。
-        byte[] yuv = new byte[len * 3 / 2];
-        int y, u, v;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int rgb = (pixels[i * width + j]) & 0x00FFFFFF;
-                int r = rgb & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = (rgb >> 16) & 0xFF;
-                // 套用公式
-                y = ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16;
-                u = ((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128;
-                v = ((112 * r - 94 * g - 18 * b + 128) >> 8) + 128;
-                y = y < 16 ? 16 : (Math.min(y, 255));
-                u = u < 0 ? 0 : (Math.min(u, 255));
-                v = v < 0 ? 0 : (Math.min(v, 255));
-                // 赋值
-                yuv[i * width + j] = (byte) y;
-                yuv[len + (i >> 1) * width + (j & ~1)] = (byte) u;
-                yuv[len + +(i >> 1) * width + (j & ~1) + 1] = (byte) v;
-            }
-        }
-        return yuv;
-    }
+    private static final RgbToNv21Converter still_converter = new RgbToNv21Converter();
+    private static int[] still_pixels = new int[0];
 
-    private static byte[] getYUVByBitmap(Bitmap bitmap) {
+    /**
+     * 每次返回新的数组：它作为拍照结果交给应用，应用可能一直持有，不能和下一次拍照共用
+     */
+    private static synchronized byte[] getYUVByBitmap(Bitmap bitmap) {
         if (bitmap == null) {
             return null;
         }
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
         int size = width * height;
-        int[] pixels = new int[size];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        return rgb2YCbCr420(pixels, width, height);
+        if (still_pixels.length != size) {
+            still_pixels = new int[size];
+        }
+        bitmap.getPixels(still_pixels, 0, width, 0, 0, width, height);
+        long start = System.currentTimeMillis();
+        byte[] yuv = new byte[RgbToNv21Converter.outputSize(width, height)];
+        still_converter.convert(still_pixels, width, height, yuv);
+        XposedBridge.log("【VCAM】照片转换 " + width + "x" + height + " 耗时 " + (System.currentTimeMillis() - start) + "ms");
+        return yuv;
     }
 }
 
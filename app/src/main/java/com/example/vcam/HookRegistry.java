@@ -0,0 +1,117 @@
+package com.example.vcam;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 动态回调 hook 的登记表
+ * 应用每次设置回调 (setPreviewCallback、openCamera 的 StateCallback 等) 都会对回调类 hook 一次，
+ * 以前同一个方法会被重复 hook，每一帧要依次执行所有叠加的 hook。
+ * 这里按 (类, 方法签名) 登记：第一次登记时安装唯一的 hook，之后只替换它转发到的处理者 (当前会话的处理者)。
+ * 按类而不是按回调对象登记：Xposed 的 hook 本来就装在方法上，对这个类的所有实例都生效，
+ * 以前每次登记各装一个 hook 时，同类的另一个回调对象也会依次经过所有 hook。
+ * 处理者只读 MethodHookParam (thisObject、参数) 和当前会话的全局状态，不记住登记时的回调对象，
+ * 同一个类的两个回调对象 (例如两次 takePicture 传入的同类 PictureCallback) 登记的处理者可以互相替代，保留最新的一个即可。
+ * 同一个键的检查和安装在这个键的 Slot 上加锁完成，并发登记时只安装一次，其他线程等安装完成 (或失败) 后才返回。
+ * 只依赖 java.*，实际的安装方式由 Installer 提供，可以直接在 JVM 上测试。
+ */
+public class HookRegistry<H> {
+
+    public interface Installer<H> {
+        /**
+         * 对方法安装一个 hook，hook 被调用时转发给 slot.get()
+         */
+        void install(Class<?> hookedClass, String method, Class<?>[] parameterTypes, Slot<H> slot);
+    }
+
+    /**
+     * 一个已安装的 hook 当前转发到的处理者
+     */
+    public static final class Slot<H> {
+        private volatile H handler;
+        // 只在持有这个 Slot 的锁时读写
+        private boolean installed;
+
+        public H get() {
+            return handler;
+        }
+    }
+
+    private static final class Key {
+        final Class<?> hookedClass;
+        final String signature;
+
+        Key(Class<?> hookedClass, String signature) {
+            this.hookedClass = hookedClass;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hookedClass == other.hookedClass && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(hookedClass) * 31 + signature.hashCode();
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Slot<H>> slots = new ConcurrentHashMap<>();
+
+    /**
+     * 登记处理者：方法还没有 hook 时安装，已有时只替换处理者
+     *
+     * @return 这次是否安装了新的 hook
+     */
+    public boolean register(Class<?> hookedClass, String method, Class<?>[] parameterTypes, H handler, Installer<H> installer) {
+        Key key = new Key(hookedClass, signature(method, parameterTypes));
+        Slot<H> slot = slots.get(key);
+        if (slot == null) {
+            Slot<H> created = new Slot<>();
+            slot = slots.putIfAbsent(key, created);
+            if (slot == null) {
+                slot = created;
+            }
+        }
+        synchronized (slot) {
+            slot.handler = handler;
+            if (slot.installed) {
+                return false;
+            }
+            // 安装失败时异常直接抛出，installed 仍为 false，下次登记时重试
+            installer.install(hookedClass, method, parameterTypes, slot);
+            slot.installed = true;
+            return true;
+        }
+    }
+
+    /**
+     * 当前已安装的 hook 个数
+     */
+    public int size() {
+        int count = 0;
+        for (Slot<H> slot : slots.values()) {
+            synchronized (slot) {
+                if (slot.installed) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    static String signature(String method, Class<?>[] parameterTypes) {
+        StringBuilder sb = new StringBuilder(method).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(parameterTypes[i].getName());
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.vcam;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.media.ImageWriter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * 把 NV21 帧写入应用的 ImageReader (Android 6.0 及以上)
+ * 按目标 Image 的尺寸和格式转换：YUV_420_888 按平面的行跨度/像素跨度写入，JPEG 先压缩再写入。
+ * 写入在自己的线程中进行，应用取图慢时只保留最新一帧，不会拖慢其他输出。
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class ImageWriterSink implements FrameSink {
+    private static final int MAX_IMAGES = 2;
+    private static final int JPEG_QUALITY = 90;
+
+    private final AtomicReference<FrameBufferPool.Frame> pending = new AtomicReference<>();
+    private final HandlerThread thread;
+    private final Handler handler;
+    private ImageWriter writer;
+    private volatile boolean released = false;
+
+    // 缩放到目标尺寸后的 NV21，仅写入线程访问
+    private final Nv21Scaler scaler = new Nv21Scaler();
+    private final int fitMode;
+    private byte[] scaled = new byte[0];
+    private ByteArrayOutputStream jpegStream;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            FrameBufferPool.Frame frame = pending.getAndSet(null);
+            if (frame == null) {
+                return;
+            }
+            try {
+                if (!released) {
+                    writeFrame(frame);
+                }
+            } catch (RuntimeException e) {
+                XposedBridge.log("【VCAM】【writer】写入 ImageReader 失败：" + e);
+            } finally {
+                frame.release();
+            }
+        }
+    };
+
+    /**
+     * @param fitMode 帧与 Image 宽高比不同时的处理方式，见 Nv21Scaler.FIT_*
+     */
+    public ImageWriterSink(Surface surface, int fitMode) {
+        this.fitMode = fitMode;
+        this.writer = ImageWriter.newInstance(surface, MAX_IMAGES);
+        this.thread = new HandlerThread("vcam-writer");
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public void onFrame(FrameBufferPool.Frame frame) {
+        if (released) {
+            return;
+        }
+        // 不拷贝，增加引用后在写入线程中读；交换器看到帧被共享时不会原地改写它
+        FrameBufferPool.Frame dropped = pending.getAndSet(frame.retain());
+        if (dropped != null) {
+            // 上一帧还没写出，直接替换
+            dropped.release();
+        } else {
+            handler.post(drain);
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                FrameBufferPool.Frame frame = pending.getAndSet(null);
+                if (frame != null) {
+                    frame.release();
+                }
+                if (writer != null) {
+                    writer.close();
+                    writer = null;
+                }
+                thread.quitSafely();
+            }
+        });
+    }
+
+    private void writeFrame(FrameBufferPool.Frame frame) {
+        Image image = writer.dequeueInputImage();
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            byte[] nv21 = scaleTo(frame, width, height);
+            if (image.getFormat() == ImageFormat.JPEG) {
+                writeJpeg(nv21, width, height, image);
+            } else {
+                writeYuv(nv21, width, height, image);
+            }
+            image.setTimestamp(System.nanoTime());
+            writer.queueInputImage(image);
+        } catch (RuntimeException e) {
+            image.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 尺寸一致时直接使用原帧，否则双线性缩放到目标尺寸 (宽高比不同时按 fitMode 裁剪或加黑边)；
+     * 解码器不再为 ImageReader 缩放 (见 VideoToFrames.setOrientationReference)，每帧只在这里缩放一次
+     */
+    private byte[] scaleTo(FrameBufferPool.Frame frame, int width, int height) {
+        if (frame.width == width && frame.height == height) {
+            return frame.data;
+        }
+        int size = width * height * 3 / 2;
+        if (scaled.length != size) {
+            scaled = new byte[size];
+        }
+        scaler.configure(frame.width, frame.height, width, height, Nv21Scaler.MODE_BILINEAR, 0, Nv21Scaler.MIRROR_NONE, fitMode);
+        scaler.scale(frame.data, scaled);
+        return scaled;
+    }
+
+    private void writeYuv(byte[] nv21, int width, int height, Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        copyPlane(nv21, 0, width, 1, width, height, planes[0]);
+        int chroma = width * height;
+        // NV21 的色度是 VU 交错，U 在奇数位，V 在偶数位
+        copyPlane(nv21, chroma + 1, width, 2, width / 2, height / 2, planes[1]);
+        copyPlane(nv21, chroma, width, 2, width / 2, height / 2, planes[2]);
+    }
+
+    private static void copyPlane(byte[] src, int offset, int srcRowStride, int srcPixelStride,
+                                  int width, int height, Image.Plane plane) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        for (int y = 0; y < height; y++) {
+            int srcRow = offset + y * srcRowStride;
+            int dstRow = y * rowStride;
+            if (pixelStride == 1 && srcPixelStride == 1) {
+                buffer.position(dstRow);
+                buffer.put(src, srcRow, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    buffer.put(dstRow + x * pixelStride, src[srcRow + x * srcPixelStride]);
+                }
+            }
+        }
+    }
+
+    private void writeJpeg(byte[] nv21, int width, int height, Image image) {
+        if (jpegStream == null) {
+            jpegStream = new ByteArrayOutputStream(width * height / 4);
+        }
+        jpegStream.reset();
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        yuvImage.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, jpegStream);
+        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+        if (jpegStream.size() > buffer.capacity()) {
+            throw new IllegalStateException("jpeg too large: " + jpegStream.size());
+        }
+        buffer.clear();
+        buffer.put(jpegStream.toByteArray());
+    }
+}
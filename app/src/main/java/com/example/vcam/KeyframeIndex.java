@@ -0,0 +1,206 @@
+package com.example.vcam;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 关键帧索引 (.vkix)
+ * 每个视频扫描一遍 (只读样本标志，不解码)，记下所有关键帧的时间戳，保存在视频旁边，之后的会话直接读取。
+ * 任意位置 seek 时按索引找到它之前的关键帧，从那里开始解码最多一个 GOP 就能出第一帧。
+ * <pre>
+ * magic "VKIX" | version | 视频大小 | 视频修改时间 | durationUs | count | 关键帧时间戳 × count
+ * </pre>
+ * 视频大小或修改时间变化后索引失效。查找用按平均 GOP 划分的桶，与关键帧个数无关。
+ * 只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class KeyframeIndex {
+    public static final String SUFFIX = ".vkix";
+
+    private static final int MAGIC = 0x564B4958; // "VKIX"
+    private static final int VERSION = 1;
+    // 防止损坏的文件申请过大的数组
+    private static final int MAX_KEYFRAMES = 1 << 22;
+
+    public final long sourceLength;
+    public final long sourceModified;
+    public final long durationUs;
+    private final long[] keyframesUs;
+    private final long maxGopUs;
+    // bucketFirst[b] = 时间 b * bucketUs 处或之前最后一个关键帧的下标
+    private final long bucketUs;
+    private final int[] bucketFirst;
+
+    private KeyframeIndex(long sourceLength, long sourceModified, long durationUs, long[] keyframesUs) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.keyframesUs = keyframesUs;
+        long lastUs = keyframesUs.length > 0 ? keyframesUs[keyframesUs.length - 1] : 0;
+        this.durationUs = Math.max(durationUs, lastUs);
+        long gop = 0;
+        for (int i = 1; i < keyframesUs.length; i++) {
+            gop = Math.max(gop, keyframesUs[i] - keyframesUs[i - 1]);
+        }
+        if (keyframesUs.length > 0) {
+            gop = Math.max(gop, this.durationUs - lastUs);
+        }
+        this.maxGopUs = gop;
+        this.bucketUs = Math.max(this.durationUs / Math.max(keyframesUs.length, 1), 1);
+        int buckets = (int) (this.durationUs / bucketUs) + 1;
+        this.bucketFirst = new int[buckets];
+        int k = 0;
+        for (int b = 0; b < buckets; b++) {
+            long start = b * bucketUs;
+            while (k + 1 < keyframesUs.length && keyframesUs[k + 1] <= start) {
+                k++;
+            }
+            bucketFirst[b] = k;
+        }
+    }
+
+    public static File fileOf(File video) {
+        return new File(video.getParentFile(), video.getName() + SUFFIX);
+    }
+
+    public int size() {
+        return keyframesUs.length;
+    }
+
+    public long keyframeAt(int i) {
+        return keyframesUs[i];
+    }
+
+    /**
+     * 最长的关键帧间隔，即 seek 之后最多要多解码的时长
+     */
+    public long getMaxGopUs() {
+        return maxGopUs;
+    }
+
+    /**
+     * timeUs 处或之前最后一个关键帧的时间；timeUs 在第一个关键帧之前时返回第一个关键帧
+     */
+    public long keyframeAtOrBefore(long timeUs) {
+        if (keyframesUs.length == 0) {
+            return 0;
+        }
+        long clamped = Math.max(0, Math.min(timeUs, durationUs));
+        int k = bucketFirst[(int) Math.min(clamped / bucketUs, bucketFirst.length - 1)];
+        while (k + 1 < keyframesUs.length && keyframesUs[k + 1] <= clamped) {
+            k++;
+        }
+        return keyframesUs[k];
+    }
+
+    /**
+     * 索引是否对应这个视频文件的当前内容
+     */
+    public boolean matches(File video) {
+        return video.length() == sourceLength && video.lastModified() == sourceModified;
+    }
+
+    /**
+     * 读取视频旁边的索引，不存在、损坏或已过期时返回 null
+     */
+    public static KeyframeIndex load(File video) {
+        File file = fileOf(video);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long length = in.readLong();
+            long modified = in.readLong();
+            long duration = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_KEYFRAMES) {
+                return null;
+            }
+            long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = in.readLong();
+                if (i > 0 && times[i] <= times[i - 1]) {
+                    return null;
+                }
+            }
+            KeyframeIndex index = new KeyframeIndex(length, modified, duration, times);
+            return index.matches(video) ? index : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 写到视频旁边：先写临时文件再改名，其他进程读到的总是完整的索引
+     * 临时文件名每次写入都不同，多个进程同时保存时不会写进同一个文件
+     */
+    public void save(File video) throws IOException {
+        File file = fileOf(video);
+        File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeLong(durationUs);
+            out.writeInt(keyframesUs.length);
+            for (long t : keyframesUs) {
+                out.writeLong(t);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("can not rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * 按读取顺序添加关键帧时间戳，顺序不要求严格递增
+     */
+    public static class Builder {
+        private final long sourceLength;
+        private final long sourceModified;
+        private long[] times = new long[64];
+        private int count = 0;
+
+        public Builder(File video) {
+            this(video.length(), video.lastModified());
+        }
+
+        public Builder(long sourceLength, long sourceModified) {
+            this.sourceLength = sourceLength;
+            this.sourceModified = sourceModified;
+        }
+
+        public Builder add(long timeUs) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+            }
+            times[count++] = timeUs;
+            return this;
+        }
+
+        public KeyframeIndex build(long durationUs) {
+            long[] sorted = Arrays.copyOf(times, count);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            return new KeyframeIndex(sourceLength, sourceModified, durationUs, Arrays.copyOf(sorted, unique));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.vcam;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 块格式压缩/解压 (不含帧头)，供帧存档使用
+ * 压缩只做单次哈希查找，速度优先；解压对输入做完整的边界检查，损坏的数据抛出异常而不是越界写入。
+ */
+public final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 14;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * 压缩 src[srcOff, srcOff + srcLen)，dst 至少要有 maxCompressedLength(srcLen) 字节，返回压缩后长度
+     * 同一个实例不能在多个线程同时使用
+     */
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int anchor = srcOff;
+        int op = dstOff;
+        if (srcLen >= MF_LIMIT + 1) {
+            Arrays.fill(hashTable, -1);
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int mfLimit = srcEnd - MF_LIMIT;
+            int ip = srcOff;
+            while (ip < mfLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    // 连续找不到匹配时加大步长，跳过不可压缩的区域
+                    ip += 1 + ((ip - anchor) >>> 6);
+                    continue;
+                }
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+        op = writeLiterals(src, anchor, srcEnd - anchor, dst, op);
+        return op - dstOff;
+    }
+
+    /**
+     * 解压到 dst[dstOff, dstOff + dstLen)，返回解压后长度；数据损坏时抛出 IllegalArgumentException
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+        while (true) {
+            check(ip < srcEnd);
+            int token = src[ip++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    check(ip < srcEnd);
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            check(literalLength <= srcEnd - ip && literalLength <= dstEnd - op);
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == srcEnd) {
+                return op - dstOff;
+            }
+            check(srcEnd - ip >= 2);
+            int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+            int ref = op - offset;
+            check(offset != 0 && ref >= dstOff);
+            int matchLength = token & 0xF;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    check(ip < srcEnd);
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            check(matchLength <= dstEnd - op);
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // 重叠复制 (重复模式)，只能逐字节
+                for (int end = op + matchLength; op < end; ) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literalLength, int offset, int matchLength, byte[] dst, int op) {
+        int token = op;
+        op = writeLiterals(src, literalOff, literalLength, dst, op);
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        int length = matchLength - MIN_MATCH;
+        if (length >= 15) {
+            dst[token] |= 15;
+            op = writeLength(length - 15, dst, op);
+        } else {
+            dst[token] |= (byte) length;
+        }
+        return op;
+    }
+
+    private static int writeLiterals(byte[] src, int literalOff, int literalLength, byte[] dst, int op) {
+        int token = op++;
+        if (literalLength >= 15) {
+            dst[token] = (byte) (15 << 4);
+            op = writeLength(literalLength - 15, dst, op);
+        } else {
+            dst[token] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8) | ((src[i + 2] & 0xFF) << 16) | (src[i + 3] << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalArgumentException("malformed lz4 block");
+        }
+    }
+}
@@ -92,18 +92,7 @@ public class MainActivity extends Activity {
                 if (!has_permission()) {
                     request_permission();
                 } else {
-                    File disable_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/disable.jpg");
-                    if (disable_file.exists() != b){
-                        if (b){
-                            try {
-                                disable_file.createNewFile();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }else {
-                            disable_file.delete();
-                        }
-                    }
+                    set_config(VcamConfig.KEY_DISABLED, b);
                 }
                 sync_statue_with_files();
             }
@@ -114,18 +103,7 @@ public class MainActivity extends Activity {
                 if (!has_permission()) {
                     request_permission();
                 } else {
-                    File force_show_switch = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/force_show.jpg");
-                    if (force_show_switch.exists() != b){
-                        if (b){
-                            try {
-                                force_show_switch.createNewFile();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }else {
-                            force_show_switch.delete();
-                        }
-                    }
+                    set_config(VcamConfig.KEY_FORCE_SHOW, b);
                 }
                 sync_statue_with_files();
             }
@@ -138,18 +116,7 @@ public class MainActivity extends Activity {
                     if (!has_permission()) {
                         request_permission();
                     } else {
-                        File play_sound_switch = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/no-silent.jpg");
-                        if (play_sound_switch.exists() != b){
-                            if (b){
-                                try {
-                                    play_sound_switch.createNewFile();
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            }else {
-                                play_sound_switch.delete();
-                            }
-                        }
+                        set_config(VcamConfig.KEY_SOUND, b);
                     }
                     sync_statue_with_files();
                 }
@@ -161,18 +128,7 @@ public class MainActivity extends Activity {
                 if (!has_permission()) {
                     request_permission();
                 } else {
-                    File force_private_dir = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/private_dir.jpg");
-                    if (force_private_dir.exists() != b){
-                        if (b){
-                            try {
-                                force_private_dir.createNewFile();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }else {
-                            force_private_dir.delete();
-                        }
-                    }
+                    set_config(VcamConfig.KEY_PRIVATE_DIR, b);
                 }
                 sync_statue_with_files();
             }
@@ -184,18 +140,7 @@ public class MainActivity extends Activity {
                 if (!has_permission()) {
                     request_permission();
                 } else {
-                    File disable_toast_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/no_toast.jpg");
-                    if (disable_toast_file.exists() != b){
-                        if (b){
-                            try {
-                                disable_toast_file.createNewFile();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }else {
-                            disable_toast_file.delete();
-                        }
-                    }
+                    set_config(VcamConfig.KEY_TOAST, !b);
                 }
                 sync_statue_with_files();
             }
@@ -206,17 +151,10 @@ public class MainActivity extends Activity {
                 if (!has_permission()) {
                     request_permission();
                 } else {
-                    File screen_mode_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/screen_mode.jpg");
-                    if (screen_mode_file.exists() != b){
-                        if (b){
-                            try {
-                                screen_mode_file.createNewFile();
-                                Toast.makeText(this, "屏幕模式已启用\n重启目标应用生效", Toast.LENGTH_SHORT).show();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }else {
-                            screen_mode_file.delete();
+                    if (set_config(VcamConfig.KEY_SCREEN_MODE, b)) {
+                        if (b) {
+                            Toast.makeText(this, "屏幕模式已启用\n重启目标应用生效", Toast.LENGTH_SHORT).show();
+                        } else {
                             Toast.makeText(this, "屏幕模式已关闭\n将使用视频文件模式", Toast.LENGTH_SHORT).show();
                         }
                     }
@@ -230,17 +168,9 @@ public class MainActivity extends Activity {
                 if (!has_permission()) {
                     request_permission();
                 } else {
-                    File auto_pip_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/auto_pip.jpg");
-                    if (auto_pip_file.exists() != b){
-                        if (b){
-                            try {
-                                auto_pip_file.createNewFile();
-                                Toast.makeText(this, "自动画中画已启用\n按Home键自动进入小窗", Toast.LENGTH_SHORT).show();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }else {
-                            auto_pip_file.delete();
+                    if (set_config(VcamConfig.KEY_AUTO_PIP, b)) {
+                        if (b) {
+                            Toast.makeText(this, "自动画中画已启用\n按Home键自动进入小窗", Toast.LENGTH_SHORT).show();
                         }
                     }
                 }
@@ -325,6 +255,22 @@ public class MainActivity extends Activity {
     }
 
 
+    /**
+     * 只改配置文件 vcam_config.jpg 中的这一项，其他手写的设置保持不变，返回是否写入成功
+     */
+    private boolean set_config(String key, boolean value) {
+        File config_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/" + VcamConfig.FILE_NAME);
+        ConfigFile config = ConfigFile.load(config_file);
+        config.set(key, String.valueOf(value));
+        try {
+            config.save(config_file, VcamConfig.VERSION);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     private void sync_statue_with_files() {
         Log.d(this.getApplication().getPackageName(), "【VCAM】[sync]同步开关状态");
 
@@ -337,26 +283,15 @@ public class MainActivity extends Activity {
             }
         }
 
-        File disable_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/disable.jpg");
-        disable_switch.setChecked(disable_file.exists());
-
-        File force_show_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/force_show.jpg");
-        force_show_switch.setChecked(force_show_file.exists());
-
-        File play_sound_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/no-silent.jpg");
-        play_sound_switch.setChecked(play_sound_file.exists());
-
-        File force_private_dir_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/private_dir.jpg");
-        force_private_dir.setChecked(force_private_dir_file.exists());
-
-        File disable_toast_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/no_toast.jpg");
-        disable_toast_switch.setChecked(disable_toast_file.exists());
-
-        File screen_mode_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/screen_mode.jpg");
-        screen_mode_switch.setChecked(screen_mode_file.exists());
-
-        File auto_pip_file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/auto_pip.jpg");
-        auto_pip_switch.setChecked(auto_pip_file.exists());
+        File camera_dir = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera1/");
+        VcamConfig settings = ControlConfig.load(camera_dir, camera_dir).settings;
+        disable_switch.setChecked(settings.disabled);
+        force_show_switch.setChecked(settings.forceShow);
+        play_sound_switch.setChecked(settings.playSound);
+        force_private_dir.setChecked(settings.privateDir);
+        disable_toast_switch.setChecked(!settings.showToast);
+        screen_mode_switch.setChecked(settings.screenMode);
+        auto_pip_switch.setChecked(settings.autoPip);
 
     }
 
@@ -0,0 +1,205 @@
+package com.example.vcam;
+
+/**
+ * 媒体时钟
+ * 基于 System.nanoTime，不受系统时间调整影响；所有视频源 (预览回调解码器、Camera2 读取解码器、
+ * 预览播放器) 共用 shared()，按同一条时间轴等待显示时间，多路输出同一时刻显示同一帧。
+ * 位置 = 锚点媒体时间 + (现在 - 锚点时刻) × 速率，暂停、恢复、改速率 (配置文件的 speed) 时重新设锚点，误差不会累积。
+ * 只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class MediaClock {
+    private static final MediaClock sharedClock = new MediaClock();
+
+    private boolean running = false;
+    private boolean paused = false;
+    private long anchorNanos;
+    private long anchorUs;
+    private double rate = 1.0;
+    private long loopDurationUs = 0;
+
+    public static MediaClock shared() {
+        return sharedClock;
+    }
+
+    /**
+     * 时钟的时间来源，测试中可以覆盖
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 在时钟上等待最多 nanos 纳秒 (调用时已持有锁)，测试中可以覆盖为推进假时间
+     */
+    protected void waitNanos(long nanos) throws InterruptedException {
+        wait(nanos / 1000000, (int) (nanos % 1000000));
+    }
+
+    /**
+     * 还没启动时从媒体时间 0 开始走；已经启动时不变，后加入的源跟随当前位置
+     *
+     * @return 本次调用是否启动了时钟
+     */
+    public synchronized boolean startIfNeeded() {
+        return startIfNeeded(0);
+    }
+
+    /**
+     * 还没启动时从媒体时间 positionUs 开始走 (从视频中间开始播放时)
+     */
+    public synchronized boolean startIfNeeded(long positionUs) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        anchorNanos = nanoTime();
+        anchorUs = positionUs;
+        notifyAll();
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 回到未启动状态 (相机重新打开时)，速率和暂停状态保留，一轮时长清除
+     */
+    public synchronized void reset() {
+        running = false;
+        anchorUs = 0;
+        loopDurationUs = 0;
+        notifyAll();
+    }
+
+    /**
+     * 当前媒体时间 (微秒)，未启动时为 0
+     */
+    public synchronized long positionUs() {
+        if (!running) {
+            return 0;
+        }
+        if (paused) {
+            return anchorUs;
+        }
+        return anchorUs + (long) ((nanoTime() - anchorNanos) / 1000 * rate);
+    }
+
+    /**
+     * 停在当前位置，等待显示时间的源一直等到 resume
+     */
+    public synchronized void pause() {
+        if (paused) {
+            return;
+        }
+        anchorUs = positionUs();
+        paused = true;
+        notifyAll();
+    }
+
+    /**
+     * 从暂停时的位置继续走
+     */
+    public synchronized void resume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        anchorNanos = nanoTime();
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * 播放速率，1.0 为原速
+     */
+    public synchronized void setRate(double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate " + rate);
+        }
+        reanchor();
+        this.rate = rate;
+        notifyAll();
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * 视频一轮的时长，由第一个知道时长的源设置，之后加入的源按它计算所在的轮次
+     */
+    public synchronized void setLoopDurationIfUnset(long durationUs) {
+        if (loopDurationUs <= 0 && durationUs > 0) {
+            loopDurationUs = durationUs;
+        }
+    }
+
+    public synchronized long getLoopDurationUs() {
+        return loopDurationUs;
+    }
+
+    /**
+     * 当前位置所在这一轮的起点；时长未知时为 0
+     */
+    public synchronized long loopStartUs() {
+        if (loopDurationUs <= 0) {
+            return 0;
+        }
+        long position = positionUs();
+        return position - position % loopDurationUs;
+    }
+
+    /**
+     * 等到媒体时间 targetUs，最多等 maxWaitMs 毫秒 (未启动或暂停期间一直等)；
+     * 启动、重置、暂停、恢复、改速率时会被唤醒重新计算
+     *
+     * @return 已到达 targetUs 时返回 true
+     */
+    public synchronized boolean waitUntil(long targetUs, long maxWaitMs) throws InterruptedException {
+        long deadline = nanoTime() + maxWaitMs * 1000000L;
+        while (true) {
+            long now = nanoTime();
+            if (running && !paused) {
+                long remainingUs = (long) ((targetUs - positionUs()) / rate);
+                if (remainingUs <= 0) {
+                    return true;
+                }
+                long waitNanos = Math.min(remainingUs * 1000, deadline - now);
+                if (waitNanos <= 0) {
+                    return false;
+                }
+                waitNanos(waitNanos);
+            } else {
+                long waitNanos = deadline - now;
+                if (waitNanos <= 0) {
+                    return false;
+                }
+                waitNanos(waitNanos);
+            }
+        }
+    }
+
+    /**
+     * 循环播放时两个位置之差 (actual - expected)，按一轮时长折到 [-半轮, 半轮)，
+     * 一个刚跨过循环点、另一个还没跨过时不会算成差了一整轮；时长未知时直接相减
+     */
+    public static long loopDifferenceUs(long actualUs, long expectedUs, long loopDurationUs) {
+        long difference = actualUs - expectedUs;
+        if (loopDurationUs <= 0) {
+            return difference;
+        }
+        long half = loopDurationUs / 2;
+        return ((difference + half) % loopDurationUs + loopDurationUs) % loopDurationUs - half;
+    }
+
+    private void reanchor() {
+        if (running) {
+            anchorUs = positionUs();
+            anchorNanos = nanoTime();
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.example.vcam;
+
+/**
+ * NV21/I420 缩放、旋转和镜像，一遍完成，可以直接输出 YuvLayout 支持的任意格式
+ * 亮度平面和两个色度分量各自按平面采样，亮度和色度各有一套预先算好的采样表：
+ * <ul>
+ * <li>NEAREST：每个输出像素对应一个源像素下标</li>
+ * <li>BILINEAR：两个相邻源像素及权重</li>
+ * <li>AREA：输出像素覆盖的所有源像素及覆盖面积权重 (缩小时不丢细节、不闪烁)</li>
+ * </ul>
+ * 采样表按输出坐标排列，镜像和 180 度旋转只是把表倒过来，不需要额外的一遍；
+ * 宽高比不同时的裁剪 (FIT_CROP) 和加黑边 (FIT_LETTERBOX) 也只是改变采样表覆盖的源区间和输出区间，只有黑边本身需要额外写入。
+ * 不转置时 BILINEAR 和 AREA 是可分离的定点滤波：先按行加权累加到整数缓冲，再按列加权输出；
+ * 旋转 90/270 度时输出的一行对应源的一列，按 32x32 的输出块处理，每块只访问源中相邻的一小块，避免逐列跨行读取。
+ * 设置了色彩换算时先写两个色度分量，亮度每写完一行 (旋转时是块内的一行) 就查表换算，
+ * 两行亮度换算完再换算它们共用的色度行，换算不需要单独一遍。
+ * 采样表只在尺寸、模式或方向变化时重建。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class Nv21Scaler {
+    public static final int MODE_NEAREST = 0;
+    public static final int MODE_BILINEAR = 1;
+    public static final int MODE_AREA = 2;
+
+    public static final int FORMAT_I420 = YuvLayout.FORMAT_I420;
+    public static final int FORMAT_NV21 = YuvLayout.FORMAT_NV21;
+    public static final int FORMAT_YV12 = YuvLayout.FORMAT_YV12;
+    public static final int FORMAT_NV12 = YuvLayout.FORMAT_NV12;
+
+    // 镜像作用在源画面上 (旋转之前)
+    public static final int MIRROR_NONE = 0;
+    public static final int MIRROR_HORIZONTAL = 1;
+    public static final int MIRROR_VERTICAL = 2;
+
+    // 宽高比不同时：拉伸、居中裁剪铺满、完整显示并在上下或左右加黑边
+    public static final int FIT_STRETCH = 0;
+    public static final int FIT_CROP = 1;
+    public static final int FIT_LETTERBOX = 2;
+
+    private static final byte BLACK_LUMA = 16;
+    private static final byte BLACK_CHROMA = (byte) 128;
+
+    // 竖直权重 8 位、水平权重 12 位，255 * 2^8 * 2^12 不会溢出 int
+    private static final int Y_WEIGHT_BITS = 8;
+    private static final int X_WEIGHT_BITS = 12;
+    private static final int TILE = 32;
+
+    private int srcWidth;
+    private int srcHeight;
+    private int dstWidth;
+    private int dstHeight;
+    private int mode = -1;
+    private int rotation;
+    private int mirror;
+    private int fit;
+    private boolean transposed;
+    private int srcFormat = FORMAT_NV21;
+    private int dstFormat = FORMAT_NV21;
+
+    // 按输出坐标排列：X 表对应输出的列，Y 表对应输出的行
+    private Taps lumaX;
+    private Taps lumaY;
+    private Taps chromaX;
+    private Taps chromaY;
+    private int[] accumulator = new int[0];
+    // 缩放时顺带换算颜色，恒等换算按 null 处理
+    private YuvColorTransform colorTransform;
+
+    /**
+     * 旋转 90/270 度时输出的宽高与源相反
+     */
+    public static boolean swapsAxes(int rotation) {
+        return rotation == 90 || rotation == 270;
+    }
+
+    public void setFormats(int srcFormat, int dstFormat) {
+        this.srcFormat = srcFormat;
+        this.dstFormat = dstFormat;
+    }
+
+    /**
+     * 之后输出的帧换算到 transform 的目标色彩空间，null 表示不换算
+     */
+    public void setColorTransform(YuvColorTransform transform) {
+        colorTransform = transform == null || transform.isIdentity() ? null : transform;
+    }
+
+    /**
+     * 只缩放，不旋转不镜像，宽高比不同时拉伸
+     */
+    public void configure(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int mode) {
+        configure(srcWidth, srcHeight, dstWidth, dstHeight, mode, 0, MIRROR_NONE, FIT_STRETCH);
+    }
+
+    /**
+     * 设置源尺寸、目标尺寸、模式、方向和宽高比处理方式，和上一次相同时直接返回
+     *
+     * @param rotation 顺时针旋转角度：0、90、180、270
+     * @param mirror   MIRROR_NONE / MIRROR_HORIZONTAL / MIRROR_VERTICAL，先于旋转作用在源画面上
+     * @param fit      FIT_STRETCH / FIT_CROP / FIT_LETTERBOX，按旋转后的宽高比计算
+     */
+    public void configure(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int mode, int rotation, int mirror, int fit) {
+        if (srcWidth == this.srcWidth && srcHeight == this.srcHeight && dstWidth == this.dstWidth
+                && dstHeight == this.dstHeight && mode == this.mode && rotation == this.rotation && mirror == this.mirror
+                && fit == this.fit) {
+            return;
+        }
+        // 色度平面每个方向至少要有两个采样点
+        if (srcWidth < 4 || srcHeight < 4 || dstWidth < 4 || dstHeight < 4) {
+            throw new IllegalArgumentException("bad size " + srcWidth + "x" + srcHeight + " -> " + dstWidth + "x" + dstHeight);
+        }
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("bad rotation " + rotation);
+        }
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.dstWidth = dstWidth;
+        this.dstHeight = dstHeight;
+        this.mode = mode;
+        this.rotation = rotation;
+        this.mirror = mirror;
+        this.fit = fit;
+        this.transposed = swapsAxes(rotation);
+
+        // 顺时针 90 度：输出从左到右对应源从下到上，输出从上到下对应源从左到右；其他角度类推
+        boolean reverseCols = rotation == 180 || rotation == 270;
+        boolean reverseRows = rotation == 90 || rotation == 180;
+        reverseCols ^= mirror == MIRROR_HORIZONTAL;
+        reverseRows ^= mirror == MIRROR_VERTICAL;
+        int alongX = transposed ? srcHeight : srcWidth;
+        int alongY = transposed ? srcWidth : srcHeight;
+        boolean reverseX = transposed ? reverseRows : reverseCols;
+        boolean reverseY = transposed ? reverseCols : reverseRows;
+
+        // 每个输出方向上使用的源区间 [srcStart, srcStart + srcLength) 和输出区间，都取偶数保证色度对齐
+        int[] spanX = {0, alongX, 0, dstWidth};
+        int[] spanY = {0, alongY, 0, dstHeight};
+        long wide = (long) alongX * dstHeight;
+        long tall = (long) alongY * dstWidth;
+        if (fit == FIT_CROP && wide != tall) {
+            if (wide > tall) {
+                fitSpan(spanX, 1, (int) (tall / dstHeight), alongX);
+            } else {
+                fitSpan(spanY, 1, (int) (wide / dstWidth), alongY);
+            }
+        } else if (fit == FIT_LETTERBOX && wide != tall) {
+            if (wide > tall) {
+                fitSpan(spanY, 3, (int) ((long) dstWidth * alongY / alongX), dstHeight);
+            } else {
+                fitSpan(spanX, 3, (int) ((long) dstHeight * alongX / alongY), dstWidth);
+            }
+        }
+        lumaX = Taps.build(spanX, 1, alongX, mode, X_WEIGHT_BITS, reverseX);
+        lumaY = Taps.build(spanY, 1, alongY, mode, Y_WEIGHT_BITS, reverseY);
+        chromaX = Taps.build(spanX, 2, alongX, mode, X_WEIGHT_BITS, reverseX);
+        chromaY = Taps.build(spanY, 2, alongY, mode, Y_WEIGHT_BITS, reverseY);
+        if (accumulator.length < srcWidth) {
+            accumulator = new int[srcWidth];
+        }
+    }
+
+    /**
+     * 把 span 中下标 index 的长度改为 length (取偶数，不小于 4)，并在 [0, size) 中居中
+     */
+    private static void fitSpan(int[] span, int index, int length, int size) {
+        length = Math.max(Math.min(length, size) & ~1, 4);
+        span[index] = length;
+        span[index - 1] = ((size - length) / 2) & ~1;
+    }
+
+    /**
+     * 把 src (源尺寸、源格式) 变换后写入 dst (目标尺寸、目标格式)
+     */
+    public void scale(byte[] src, byte[] dst) {
+        // 色度先写，换算亮度时要用到 (还未换算的) 色度
+        for (int c = YuvLayout.CHROMA_V; c <= YuvLayout.CHROMA_U; c++) {
+            scalePlane(src, YuvLayout.chromaOffset(srcFormat, srcWidth, srcHeight, c), YuvLayout.chromaRowStride(srcFormat, srcWidth),
+                    YuvLayout.chromaPixelStride(srcFormat), srcWidth / 2,
+                    dst, YuvLayout.chromaOffset(dstFormat, dstWidth, dstHeight, c), YuvLayout.chromaRowStride(dstFormat, dstWidth),
+                    YuvLayout.chromaPixelStride(dstFormat), dstWidth / 2, dstHeight / 2, chromaX, chromaY, BLACK_CHROMA, null);
+        }
+        scalePlane(src, 0, YuvLayout.lumaStride(srcFormat, srcWidth), 1, srcWidth,
+                dst, 0, YuvLayout.lumaStride(dstFormat, dstWidth), 1, dstWidth, dstHeight, lumaX, lumaY, BLACK_LUMA, colorTransform);
+    }
+
+    /**
+     * @param transform 只在亮度平面传入：每写完一行就换算这一行和 (奇数行时) 对应的色度行
+     */
+    private void scalePlane(byte[] src, int srcOffset, int srcStride, int srcPixelStride, int srcPlaneWidth,
+                            byte[] dst, int dstOffset, int dstStride, int dstPixelStride, int width, int height,
+                            Taps tapsX, Taps tapsY, byte black, YuvColorTransform transform) {
+        if (tapsX.size < width || tapsY.size < height) {
+            fillBorder(dst, dstOffset, dstStride, dstPixelStride, width, height, tapsX, tapsY, black);
+        }
+        // 以下只写黑边以内的区域
+        dstOffset += tapsY.offset * dstStride + tapsX.offset * dstPixelStride;
+        width = tapsX.size;
+        height = tapsY.size;
+        if (transposed) {
+            scaleTransposed(src, srcOffset, srcStride, srcPixelStride, dst, dstOffset, dstStride, dstPixelStride,
+                    width, height, tapsX, tapsY, transform);
+        } else if (mode == MODE_NEAREST) {
+            scaleNearest(src, srcOffset, srcStride, srcPixelStride, dst, dstOffset, dstStride, dstPixelStride,
+                    width, height, tapsX, tapsY, transform);
+        } else {
+            scaleFiltered(src, srcOffset, srcStride, srcPixelStride, srcPlaneWidth, dst, dstOffset, dstStride, dstPixelStride,
+                    width, height, tapsX, tapsY, transform);
+        }
+    }
+
+    /**
+     * 黑边以内第 y 行的 [from, to) 写完后换算颜色；行列换成整帧坐标 (黑边起点都是偶数)
+     */
+    private void convertRow(YuvColorTransform transform, byte[] dst, Taps tapsX, Taps tapsY, int y, int from, int to) {
+        int row = tapsY.offset + y;
+        from += tapsX.offset;
+        to += tapsX.offset;
+        transform.applyLumaRow(dst, dstWidth, dstHeight, dstFormat, row, from, to);
+        if ((row & 1) == 1) {
+            transform.applyChromaRow(dst, dstWidth, dstHeight, dstFormat, row >> 1, from >> 1, (to + 1) >> 1);
+        }
+    }
+
+    private static void fillBorder(byte[] dst, int offset, int stride, int pixelStride, int width, int height,
+                                   Taps tapsX, Taps tapsY, byte value) {
+        int innerEnd = tapsX.offset + tapsX.size;
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            boolean outside = y < tapsY.offset || y >= tapsY.offset + tapsY.size;
+            for (int x = 0; x < width; x++) {
+                if (outside || x < tapsX.offset || x >= innerEnd) {
+                    dst[row + x * pixelStride] = value;
+                } else {
+                    // 跳过中间要采样的部分
+                    x = innerEnd - 1;
+                }
+            }
+        }
+    }
+
+    private void scaleNearest(byte[] src, int srcOffset, int srcStride, int srcPixelStride,
+                              byte[] dst, int dstOffset, int dstStride, int dstPixelStride,
+                              int width, int height, Taps tapsX, Taps tapsY, YuvColorTransform transform) {
+        int[] xs = tapsX.start;
+        for (int y = 0; y < height; y++) {
+            int row = srcOffset + tapsY.start[y] * srcStride;
+            int out = dstOffset + y * dstStride;
+            if (srcPixelStride == 1 && dstPixelStride == 1) {
+                for (int x = 0; x < width; x++) {
+                    dst[out + x] = src[row + xs[x]];
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    dst[out + x * dstPixelStride] = src[row + xs[x] * srcPixelStride];
+                }
+            }
+            if (transform != null) {
+                convertRow(transform, dst, tapsX, tapsY, y, 0, width);
+            }
+        }
+    }
+
+    private void scaleFiltered(byte[] src, int srcOffset, int srcStride, int srcPixelStride, int srcPlaneWidth,
+                               byte[] dst, int dstOffset, int dstStride, int dstPixelStride,
+                               int width, int height, Taps tapsX, Taps tapsY, YuvColorTransform transform) {
+        int[] acc = accumulator;
+        int shift = Y_WEIGHT_BITS + X_WEIGHT_BITS;
+        int round = 1 << (shift - 1);
+        for (int y = 0; y < height; y++) {
+            // 竖直方向：参与的源行加权累加
+            int tap = y * tapsY.maxTaps;
+            int row = srcOffset + tapsY.start[y] * srcStride;
+            int weight = tapsY.weights[tap];
+            // 只累加裁剪区域内的列
+            int low = tapsX.low;
+            int high = tapsX.high;
+            for (int i = low, s = row + low * srcPixelStride; i < high; i++, s += srcPixelStride) {
+                acc[i] = weight * (src[s] & 0xFF);
+            }
+            for (int k = 1; k < tapsY.count[y]; k++) {
+                row += srcStride;
+                weight = tapsY.weights[tap + k];
+                for (int i = low, s = row + low * srcPixelStride; i < high; i++, s += srcPixelStride) {
+                    acc[i] += weight * (src[s] & 0xFF);
+                }
+            }
+            // 水平方向
+            int out = dstOffset + y * dstStride;
+            for (int x = 0; x < width; x++) {
+                int first = tapsX.start[x];
+                int count = tapsX.count[x];
+                int base = x * tapsX.maxTaps;
+                int sum = round;
+                for (int k = 0; k < count; k++) {
+                    sum += tapsX.weights[base + k] * acc[first + k];
+                }
+                dst[out + x * dstPixelStride] = (byte) (sum >> shift);
+            }
+            if (transform != null) {
+                convertRow(transform, dst, tapsX, tapsY, y, 0, width);
+            }
+        }
+    }
+
+    /**
+     * 旋转 90/270 度：X 表对应源的行，Y 表对应源的列，按输出块二维采样
+     */
+    private void scaleTransposed(byte[] src, int srcOffset, int srcStride, int srcPixelStride,
+                                 byte[] dst, int dstOffset, int dstStride, int dstPixelStride,
+                                 int width, int height, Taps tapsX, Taps tapsY, YuvColorTransform transform) {
+        int shift = Y_WEIGHT_BITS + X_WEIGHT_BITS;
+        int round = 1 << (shift - 1);
+        boolean nearest = mode == MODE_NEAREST;
+        for (int tileY = 0; tileY < height; tileY += TILE) {
+            int endY = Math.min(tileY + TILE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE) {
+                int endX = Math.min(tileX + TILE, width);
+                for (int y = tileY; y < endY; y++) {
+                    int col = srcOffset + tapsY.start[y] * srcPixelStride;
+                    int out = dstOffset + y * dstStride;
+                    if (nearest) {
+                        for (int x = tileX; x < endX; x++) {
+                            dst[out + x * dstPixelStride] = src[col + tapsX.start[x] * srcStride];
+                        }
+                        if (transform != null) {
+                            convertRow(transform, dst, tapsX, tapsY, y, tileX, endX);
+                        }
+                        continue;
+                    }
+                    int colTaps = tapsY.count[y];
+                    int colBase = y * tapsY.maxTaps;
+                    for (int x = tileX; x < endX; x++) {
+                        int rowTaps = tapsX.count[x];
+                        int rowBase = x * tapsX.maxTaps;
+                        int row = col + tapsX.start[x] * srcStride;
+                        int sum = round;
+                        for (int k = 0; k < rowTaps; k++, row += srcStride) {
+                            int line = 0;
+                            for (int j = 0, s = row; j < colTaps; j++, s += srcPixelStride) {
+                                line += tapsY.weights[colBase + j] * (src[s] & 0xFF);
+                            }
+                            sum += tapsX.weights[rowBase + k] * line;
+                        }
+                        dst[out + x * dstPixelStride] = (byte) (sum >> shift);
+                    }
+                    if (transform != null) {
+                        convertRow(transform, dst, tapsX, tapsY, y, tileX, endX);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个方向上的采样表：第 offset + i 个输出像素使用 start[i] 起连续 count[i] 个源像素，
+     * 权重在 weights[i * maxTaps + k]，每组权重之和正好是 1 << bits；所有采样都落在 [low, high) 内
+     */
+    static final class Taps {
+        final int[] start;
+        final int[] count;
+        final int[] weights;
+        final int maxTaps;
+        final int size;
+        int offset;
+        int low;
+        int high;
+
+        private Taps(int size, int maxTaps) {
+            this.start = new int[size];
+            this.count = new int[size];
+            this.weights = new int[size * maxTaps];
+            this.maxTaps = maxTaps;
+            this.size = size;
+        }
+
+        /**
+         * @param span    {源起点, 源长度, 输出起点, 输出长度}，按亮度计
+         * @param divisor 亮度为 1，色度为 2
+         * @param srcSize 这个方向上源的总长度 (亮度)
+         */
+        static Taps build(int[] span, int divisor, int srcSize, int mode, int bits, boolean reversed) {
+            int srcStart = span[0] / divisor;
+            int srcLength = span[1] / divisor;
+            Taps taps = build(srcLength, span[3] / divisor, mode, bits);
+            if (reversed) {
+                // 倒序时源区间也要从另一端量起
+                srcStart = srcSize / divisor - srcStart - srcLength;
+                taps.reverse();
+            }
+            for (int i = 0; i < taps.size; i++) {
+                taps.start[i] += srcStart;
+            }
+            taps.offset = span[2] / divisor;
+            taps.low = srcStart;
+            taps.high = srcStart + srcLength;
+            return taps;
+        }
+
+        static Taps build(int srcSize, int dstSize, int mode, int bits) {
+            double scale = (double) srcSize / dstSize;
+            int one = 1 << bits;
+            // 长度相同时每个输出像素正好对应一个源像素，各模式都退化为单点采样
+            if (mode == MODE_NEAREST || srcSize == dstSize) {
+                Taps taps = new Taps(dstSize, 1);
+                for (int i = 0; i < dstSize; i++) {
+                    taps.start[i] = Math.min((int) ((i + 0.5) * scale), srcSize - 1);
+                    taps.count[i] = 1;
+                    taps.weights[i] = one;
+                }
+                return taps;
+            }
+            if (mode == MODE_BILINEAR) {
+                Taps taps = new Taps(dstSize, 2);
+                for (int i = 0; i < dstSize; i++) {
+                    double position = Math.max((i + 0.5) * scale - 0.5, 0);
+                    int left = Math.min((int) position, srcSize - 2);
+                    int right = (int) Math.round((position - left) * one);
+                    right = Math.min(right, one);
+                    taps.start[i] = left;
+                    taps.count[i] = 2;
+                    taps.weights[i * 2] = one - right;
+                    taps.weights[i * 2 + 1] = right;
+                }
+                return taps;
+            }
+            // AREA：输出像素覆盖源区间 [i * scale, (i + 1) * scale)
+            int maxTaps = (int) Math.ceil(scale) + 1;
+            Taps taps = new Taps(dstSize, maxTaps);
+            for (int i = 0; i < dstSize; i++) {
+                double begin = i * scale;
+                double end = Math.min((i + 1) * scale, srcSize);
+                int first = (int) begin;
+                int last = Math.min((int) Math.ceil(end) - 1, srcSize - 1);
+                int base = i * maxTaps;
+                int total = 0;
+                int largest = 0;
+                for (int s = first; s <= last; s++) {
+                    double cover = Math.min(end, s + 1) - Math.max(begin, s);
+                    int weight = (int) Math.round(cover / (end - begin) * one);
+                    taps.weights[base + s - first] = weight;
+                    total += weight;
+                    if (weight > taps.weights[base + largest]) {
+                        largest = s - first;
+                    }
+                }
+                // 舍入误差补到权重最大的一项上，保证总和为 1
+                taps.weights[base + largest] += one - total;
+                taps.start[i] = first;
+                taps.count[i] = last - first + 1;
+            }
+            return taps;
+        }
+
+        /**
+         * 输出顺序倒过来，每一项内部的源像素仍然从小到大
+         */
+        private void reverse() {
+            int[] row = new int[maxTaps];
+            for (int i = 0, j = size - 1; i < j; i++, j--) {
+                int t = start[i];
+                start[i] = start[j];
+                start[j] = t;
+                t = count[i];
+                count[i] = count[j];
+                count[j] = t;
+                System.arraycopy(weights, i * maxTaps, row, 0, maxTaps);
+                System.arraycopy(weights, j * maxTaps, weights, i * maxTaps, maxTaps);
+                System.arraycopy(row, 0, weights, j * maxTaps, maxTaps);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.vcam;
+
+/**
+ * VideoToFrames 输出的帧格式，YUV 格式的字节布局见 YuvLayout
+ */
+enum OutputImageFormat {
+    I420("I420", YuvLayout.FORMAT_I420),
+    NV21("NV21", YuvLayout.FORMAT_NV21),
+    YV12("YV12", YuvLayout.FORMAT_YV12),
+    NV12("NV12", YuvLayout.FORMAT_NV12),
+    JPEG("JPEG", -1);
+    private final String friendlyName;
+    // YuvLayout.FORMAT_*，JPEG 为 -1
+    final int layout;
+
+    OutputImageFormat(String friendlyName, int layout) {
+        this.friendlyName = friendlyName;
+        this.layout = layout;
+    }
+
+    public String toString() {
+        return friendlyName;
+    }
+}
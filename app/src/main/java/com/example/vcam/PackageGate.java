@@ -0,0 +1,98 @@
+package com.example.vcam;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 是否在一个进程中安装 hook
+ * 在 handleLoadPackage 的最开始、任何 findAndHookMethod 之前调用，只做 HashSet 查找。
+ * 配置文件中的 allow_packages / deny_packages (逗号或空格分隔的包名) 和 "[包名]" 配置段在读取配置时就放进集合：
+ * deny 中的包不安装；allow 或配置段不为空时只安装其中的包；都没写时除了不会打开相机的系统进程都安装。
+ * 读不到配置文件 (没有存储权限、文件损坏或版本不支持) 时也按都没写处理，即默认安装：
+ * 很多应用在 handleLoadPackage 时还读不到 /DCIM/Camera1，之后才改用应用私有目录，
+ * 这时不安装会让模块在这些应用里完全失效；代价是读不到配置时 deny_packages 也不生效。
+ * 只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class PackageGate {
+    public static final String KEY_ALLOW = "allow_packages";
+    public static final String KEY_DENY = "deny_packages";
+
+    // 不会打开相机的系统进程，默认不安装 hook；写进 allow_packages 可以恢复
+    static final Set<String> SYSTEM_PACKAGES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "android",
+            "com.android.systemui",
+            "com.android.phone",
+            "com.android.bluetooth",
+            "com.android.nfc",
+            "com.android.se",
+            "com.android.shell",
+            "com.android.externalstorage",
+            "com.android.providers.settings",
+            "com.android.providers.media",
+            "com.android.providers.media.module",
+            "com.google.android.providers.media.module",
+            "com.android.inputmethod.latin"
+    )));
+
+    public static final PackageGate DEFAULT = new PackageGate(Collections.<String>emptySet(), Collections.<String>emptySet());
+
+    private final Set<String> allow;
+    private final Set<String> deny;
+
+    private PackageGate(Set<String> allow, Set<String> deny) {
+        this.allow = allow;
+        this.deny = deny;
+    }
+
+    /**
+     * 从配置文件的段外键和配置段名得到集合
+     */
+    public static PackageGate of(ConfigFile file) {
+        Set<String> allow = split(file.get(KEY_ALLOW));
+        allow.addAll(file.sections().keySet());
+        Set<String> deny = split(file.get(KEY_DENY));
+        if (allow.isEmpty() && deny.isEmpty()) {
+            return DEFAULT;
+        }
+        return new PackageGate(allow, deny);
+    }
+
+    private static Set<String> split(String list) {
+        Set<String> names = new HashSet<>();
+        if (list == null) {
+            return names;
+        }
+        for (String name : list.split("[,\\s]+")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    public boolean shouldHook(String packageName) {
+        if (packageName == null || deny.contains(packageName)) {
+            return false;
+        }
+        if (!allow.isEmpty()) {
+            return allow.contains(packageName);
+        }
+        return !SYSTEM_PACKAGES.contains(packageName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PackageGate)) {
+            return false;
+        }
+        PackageGate other = (PackageGate) o;
+        return allow.equals(other.allow) && deny.equals(other.deny);
+    }
+
+    @Override
+    public int hashCode() {
+        return allow.hashCode() * 31 + deny.hashCode();
+    }
+}
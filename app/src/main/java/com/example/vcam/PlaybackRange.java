@@ -0,0 +1,138 @@
+package com.example.vcam;
+
+/**
+ * 播放范围
+ * 只循环视频中 [loopStart, loopEnd) 这一段 (A-B 循环)，第一轮从 start 开始，之后每轮从 loopStart 开始。
+ * start 可以是固定位置，也可以按比例随机落在循环段内 (同一会话的所有视频源共用一个比例，显示同一帧)。
+ * 时间单位为微秒，loopEnd 为 0 表示到视频结尾。实例不可变。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class PlaybackRange {
+    public static final PlaybackRange FULL = new PlaybackRange(0, 0, -1);
+
+    private final long loopStartUs;
+    private final long loopEndUs;
+    // 第一轮开始位置在循环段中的比例，负数表示从 loopStart 开始
+    private final double startFraction;
+
+    private PlaybackRange(long loopStartUs, long loopEndUs, double startFraction) {
+        this.loopStartUs = loopStartUs;
+        this.loopEndUs = loopEndUs;
+        this.startFraction = startFraction;
+    }
+
+    public static PlaybackRange of(long loopStartUs, long loopEndUs) {
+        if (loopStartUs < 0 || loopEndUs < 0 || loopEndUs > 0 && loopEndUs <= loopStartUs) {
+            throw new IllegalArgumentException("range " + loopStartUs + "-" + loopEndUs);
+        }
+        return new PlaybackRange(loopStartUs, loopEndUs, -1);
+    }
+
+    /**
+     * 解析 "起点 终点" 或 "起点-终点" (秒，可带小数)，只写起点表示到结尾；格式不对时返回 FULL
+     */
+    public static PlaybackRange parse(String text) {
+        if (text == null) {
+            return FULL;
+        }
+        String[] parts = text.trim().split("[\\s,\\-]+");
+        try {
+            if (parts.length == 0 || parts[0].isEmpty()) {
+                return FULL;
+            }
+            long start = secondsToUs(parts[0]);
+            long end = parts.length > 1 ? secondsToUs(parts[1]) : 0;
+            return of(start, end);
+        } catch (IllegalArgumentException e) {
+            return FULL;
+        }
+    }
+
+    private static long secondsToUs(String seconds) {
+        return Math.round(Double.parseDouble(seconds) * 1000000);
+    }
+
+    /**
+     * 第一轮从循环段中 fraction (0 到 1) 的位置开始
+     */
+    public PlaybackRange withStartFraction(double fraction) {
+        return new PlaybackRange(loopStartUs, loopEndUs, Math.max(0, Math.min(fraction, 1)));
+    }
+
+    public boolean hasRandomStart() {
+        return startFraction > 0;
+    }
+
+    /**
+     * 整个视频从头播放，不需要索引
+     */
+    public boolean isFull() {
+        return loopStartUs == 0 && loopEndUs == 0 && startFraction <= 0;
+    }
+
+    /**
+     * 循环段的起点；超出视频时长时从头开始
+     */
+    public long loopStartUs(long durationUs) {
+        return durationUs > 0 && loopStartUs >= durationUs ? 0 : loopStartUs;
+    }
+
+    /**
+     * 循环段的结尾，不超过视频时长；时长未知且没有指定结尾时为 Long.MAX_VALUE
+     */
+    public long loopEndUs(long durationUs) {
+        if (loopEndUs > 0) {
+            return durationUs > 0 ? Math.min(loopEndUs, durationUs) : loopEndUs;
+        }
+        return durationUs > 0 ? durationUs : Long.MAX_VALUE;
+    }
+
+    /**
+     * 第一轮开始的位置
+     */
+    public long startUs(long durationUs) {
+        long start = loopStartUs(durationUs);
+        if (startFraction <= 0) {
+            return start;
+        }
+        long end = loopEndUs(durationUs);
+        if (end == Long.MAX_VALUE) {
+            return start;
+        }
+        return start + (long) ((end - start) * startFraction);
+    }
+
+    /**
+     * 按 parse 接受的格式输出 (秒)，整段时为空字符串；随机起点不输出
+     */
+    public String toConfigString() {
+        if (loopStartUs == 0 && loopEndUs == 0) {
+            return "";
+        }
+        return seconds(loopStartUs) + (loopEndUs > 0 ? " " + seconds(loopEndUs) : "");
+    }
+
+    private static String seconds(long us) {
+        return us % 1000000 == 0 ? String.valueOf(us / 1000000) : String.valueOf(us / 1e6);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PlaybackRange)) {
+            return false;
+        }
+        PlaybackRange other = (PlaybackRange) o;
+        return loopStartUs == other.loopStartUs && loopEndUs == other.loopEndUs
+                && Double.compare(startFraction, other.startFraction) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (loopStartUs * 31 + loopEndUs);
+    }
+
+    @Override
+    public String toString() {
+        return loopStartUs + "-" + (loopEndUs > 0 ? String.valueOf(loopEndUs) : "end")
+                + (startFraction > 0 ? " start@" + startFraction : "");
+    }
+}
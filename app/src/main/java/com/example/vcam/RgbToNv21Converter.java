@@ -0,0 +1,225 @@
+package com.example.vcam;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ARGB → NV21 并行转换，色彩矩阵和范围由 YuvColorSpace 指定 (默认 BT.601 有限范围)
+ * 图像按行切成条带在 ForkJoinPool 中并行转换，每个 2x2 块先平均 RGB 再只算一次色度；
+ * 系数预先乘进 16 位定点查找表，每个分量只查一次表。
+ * 输出缓冲在尺寸不变时复用。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class RgbToNv21Converter {
+    // 每个条带至少的行数 (必须是偶数)，太小时任务调度开销会超过转换本身
+    private static final int MIN_STRIPE_ROWS = 32;
+    private static final int SHIFT = 16;
+    // 色度表按 2x2 块内四个像素之和 (0..1020) 索引
+    private static final int SUM_ENTRIES = 255 * 4 + 1;
+
+    private static ForkJoinPool sharedPool;
+
+    private final ForkJoinPool pool;
+    private final YuvColorSpace colorSpace;
+    private final int[] yFromR = new int[256];
+    private final int[] yFromG = new int[256];
+    private final int[] yFromB = new int[256];
+    private final int[] uFromR = new int[SUM_ENTRIES];
+    private final int[] uFromG = new int[SUM_ENTRIES];
+    private final int[] uFromB = new int[SUM_ENTRIES];
+    private final int[] vFromR = new int[SUM_ENTRIES];
+    private final int[] vFromG = new int[SUM_ENTRIES];
+    private final int[] vFromB = new int[SUM_ENTRIES];
+    private byte[] output = new byte[0];
+
+    public RgbToNv21Converter() {
+        this(sharedPool(), YuvColorSpace.BT601_LIMITED);
+    }
+
+    public RgbToNv21Converter(YuvColorSpace colorSpace) {
+        this(sharedPool(), colorSpace);
+    }
+
+    public RgbToNv21Converter(ForkJoinPool pool) {
+        this(pool, YuvColorSpace.BT601_LIMITED);
+    }
+
+    public RgbToNv21Converter(ForkJoinPool pool, YuvColorSpace colorSpace) {
+        this.pool = pool;
+        this.colorSpace = colorSpace;
+        buildTables();
+    }
+
+    public YuvColorSpace getColorSpace() {
+        return colorSpace;
+    }
+
+    /**
+     * 常数项和取整用的 0.5 放在 R 的表里，换算时三项相加再右移即可
+     */
+    private void buildTables() {
+        double kr = colorSpace.kr;
+        double kb = colorSpace.kb;
+        double kg = 1 - kr - kb;
+        double lumaScale = colorSpace.lumaRange() / 255;
+        double lumaBase = colorSpace.lumaOffset() + 0.5;
+        for (int i = 0; i < 256; i++) {
+            yFromR[i] = fixed(lumaBase + kr * lumaScale * i);
+            yFromG[i] = fixed(kg * lumaScale * i);
+            yFromB[i] = fixed(kb * lumaScale * i);
+        }
+        // 四个像素之和除以 4 是平均值
+        double uScale = colorSpace.chromaRange() / 255 / (2 * (1 - kb)) / 4;
+        double vScale = colorSpace.chromaRange() / 255 / (2 * (1 - kr)) / 4;
+        for (int i = 0; i < SUM_ENTRIES; i++) {
+            uFromR[i] = fixed(128.5 - kr * uScale * i);
+            uFromG[i] = fixed(-kg * uScale * i);
+            uFromB[i] = fixed((1 - kb) * uScale * i);
+            vFromR[i] = fixed(128.5 + (1 - kr) * vScale * i);
+            vFromG[i] = fixed(-kg * vScale * i);
+            vFromB[i] = fixed(-kb * vScale * i);
+        }
+    }
+
+    private static int fixed(double value) {
+        return (int) Math.round(value * (1 << SHIFT));
+    }
+
+    /**
+     * ForkJoinPool.commonPool 要 Android 7.0 才有，这里自己建一个同样大小的池
+     */
+    private static synchronized ForkJoinPool sharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors(), 1));
+        }
+        return sharedPool;
+    }
+
+    /**
+     * 宽高为奇数时色度按向上取整的尺寸存放
+     */
+    public static int outputSize(int width, int height) {
+        return width * height + chromaRowStride(width) * ((height + 1) / 2);
+    }
+
+    /**
+     * 转换到内部复用的缓冲，返回值在下一次 convert 之前有效
+     */
+    public synchronized byte[] convert(int[] argb, int width, int height) {
+        int size = outputSize(width, height);
+        if (output.length != size) {
+            output = new byte[size];
+        }
+        convert(argb, width, height, output);
+        return output;
+    }
+
+    /**
+     * 转换到调用方提供的缓冲，dst 至少 outputSize(width, height) 字节
+     */
+    public void convert(int[] argb, int width, int height, byte[] dst) {
+        if (argb.length < width * height || dst.length < outputSize(width, height)) {
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+        }
+        if (height <= MIN_STRIPE_ROWS) {
+            convertRows(argb, width, height, 0, height, dst);
+        } else {
+            pool.invoke(new StripeTask(this, argb, width, height, 0, height, dst));
+        }
+    }
+
+    /**
+     * 转换 [rowStart, rowEnd) 行，rowStart 必须是偶数
+     */
+    void convertRows(int[] argb, int width, int height, int rowStart, int rowEnd, byte[] dst) {
+        int chromaBase = width * height;
+        int chromaStride = chromaRowStride(width);
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            int top = row * width;
+            boolean hasBottom = row + 1 < height;
+            int bottom = hasBottom ? top + width : top;
+            int chroma = chromaBase + (row >> 1) * chromaStride;
+            for (int col = 0; col < width; col += 2) {
+                boolean hasRight = col + 1 < width;
+                int p0 = argb[top + col];
+                int p1 = hasRight ? argb[top + col + 1] : p0;
+                int p2 = argb[bottom + col];
+                int p3 = hasRight ? argb[bottom + col + 1] : p2;
+
+                dst[top + col] = luma(p0);
+                if (hasRight) {
+                    dst[top + col + 1] = luma(p1);
+                }
+                if (hasBottom) {
+                    dst[bottom + col] = luma(p2);
+                    if (hasRight) {
+                        dst[bottom + col + 1] = luma(p3);
+                    }
+                }
+
+                // 四个像素的 RGB 之和，色度表已按平均值折算
+                int r = ((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF);
+                int g = ((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF);
+                int b = (p0 & 0xFF) + (p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF);
+                dst[chroma + col] = clamp(vFromR[r] + vFromG[g] + vFromB[b]);
+                dst[chroma + col + 1] = clamp(uFromR[r] + uFromG[g] + uFromB[b]);
+            }
+        }
+    }
+
+    /**
+     * 亮度最大值不超过范围上限，不需要截断
+     */
+    private byte luma(int argb) {
+        return (byte) ((yFromR[(argb >> 16) & 0xFF] + yFromG[(argb >> 8) & 0xFF] + yFromB[argb & 0xFF]) >> SHIFT);
+    }
+
+    /**
+     * 完整范围下纯蓝、纯红的色度恰好是 255.5，取整后要截断
+     */
+    private static byte clamp(int fixed) {
+        int value = fixed >> SHIFT;
+        return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+    }
+
+    private static int chromaRowStride(int width) {
+        return (width + 1) & ~1;
+    }
+
+    /**
+     * 按行二分，直到条带不超过 MIN_STRIPE_ROWS 的两倍
+     */
+    private static final class StripeTask extends RecursiveAction {
+        // RecursiveAction 实现了 Serializable，任务不会被序列化，只是消除编译警告
+        private static final long serialVersionUID = 1L;
+
+        private final RgbToNv21Converter converter;
+        private final int[] argb;
+        private final int width;
+        private final int height;
+        private final int rowStart;
+        private final int rowEnd;
+        private final byte[] dst;
+
+        StripeTask(RgbToNv21Converter converter, int[] argb, int width, int height, int rowStart, int rowEnd, byte[] dst) {
+            this.converter = converter;
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.dst = dst;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowEnd - rowStart;
+            if (rows <= MIN_STRIPE_ROWS * 2) {
+                converter.convertRows(argb, width, height, rowStart, rowEnd, dst);
+                return;
+            }
+            int middle = (rowStart + rows / 2) & ~1;
+            invokeAll(new StripeTask(converter, argb, width, height, rowStart, middle, dst),
+                    new StripeTask(converter, argb, width, height, middle, rowEnd, dst));
+        }
+    }
+}
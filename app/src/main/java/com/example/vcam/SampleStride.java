@@ -0,0 +1,197 @@
+package com.example.vcam;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 解复用层跳帧
+ * 需要的帧间隔 (目标帧率、播放速度换算到视频时间) 比视频帧间隔大得多时，不把注定要丢掉的样本送进解码器：
+ * <ul>
+ * <li>MODE_SKIP_NON_REFERENCE：跳过不被其他帧参考的样本，参考帧照常送入，解码结果不受影响。
+ * H.264 是 nal_ref_idc 为 0 的帧；HEVC 的 *_N 帧只是不被同一子层参考，更高子层的帧仍可能参考它，
+ * 所以只跳过最高子层 (TemporalId 等于 SPS 中的 sps_max_sub_layers_minus1) 的 *_N 帧；
+ * 不知道子层数 (没有 csd-0) 时 HEVC 不跳过，全部解码后再丢弃</li>
+ * <li>MODE_KEYFRAMES：需要的间隔不小于关键帧间隔 (GOP) 时只送关键帧，由调用方 seek 到下一个关键帧</li>
+ * </ul>
+ * 样本按读取顺序调用 accept，只在送样本的线程使用。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class SampleStride {
+    public static final int MODE_ALL = 0;
+    public static final int MODE_SKIP_NON_REFERENCE = 1;
+    public static final int MODE_KEYFRAMES = 2;
+
+    static final int CODEC_OTHER = 0;
+    static final int CODEC_AVC = 1;
+    static final int CODEC_HEVC = 2;
+
+    // 需要的间隔超过视频帧间隔的这个倍数才开始跳帧
+    private static final double SKIP_THRESHOLD = 1.5;
+
+    private final int codec;
+    private final long sourceIntervalUs;
+    private long neededIntervalUs;
+    private long gopUs = 0;
+    private long lastSyncUs = Long.MIN_VALUE;
+    private long nextNeededUs = Long.MIN_VALUE;
+    private int mode = MODE_ALL;
+    private long skippedCount = 0;
+    private long jumpCount = 0;
+    // HEVC 码流中最高的 TemporalId，-1 表示不知道
+    private int highestTemporalId = -1;
+
+    public SampleStride(String mime, long sourceIntervalUs) {
+        this.codec = "video/avc".equals(mime) ? CODEC_AVC : "video/hevc".equals(mime) ? CODEC_HEVC : CODEC_OTHER;
+        this.sourceIntervalUs = Math.max(sourceIntervalUs, 1);
+        this.neededIntervalUs = this.sourceIntervalUs;
+    }
+
+    /**
+     * 解码器配置数据 (MediaFormat 的 csd-0)，HEVC 从中的 SPS 得到子层数
+     */
+    public void setCodecConfig(ByteBuffer csd) {
+        if (codec == CODEC_HEVC && csd != null) {
+            highestTemporalId = highestTemporalId(csd, csd.position(), csd.remaining());
+            updateMode();
+        }
+    }
+
+    /**
+     * 视频时间上相邻两个输出帧的间隔，= 播放速度 / 目标帧率
+     */
+    public void setNeededInterval(long intervalUs) {
+        neededIntervalUs = Math.max(intervalUs, sourceIntervalUs);
+        updateMode();
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * 已观察到的最大关键帧间隔，0 表示还不知道
+     */
+    public long getGopUs() {
+        return gopUs;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public long getJumpCount() {
+        return jumpCount;
+    }
+
+    /**
+     * 顺序读到一个样本时调用，返回是否送入解码器
+     *
+     * @param sample 样本数据 (Annex-B 起始码格式，MediaExtractor 输出的 H.264/HEVC 即是)
+     */
+    public boolean accept(ByteBuffer sample, int size, long timeUs, boolean sync) {
+        if (sync) {
+            if (lastSyncUs != Long.MIN_VALUE && mode != MODE_KEYFRAMES && timeUs > lastSyncUs) {
+                gopUs = Math.max(gopUs, timeUs - lastSyncUs);
+            }
+            lastSyncUs = timeUs;
+            updateMode();
+        }
+        boolean needed = nextNeededUs == Long.MIN_VALUE || timeUs >= nextNeededUs - sourceIntervalUs / 2;
+        if (!needed && !sync && mode == MODE_SKIP_NON_REFERENCE && isNonReference(sample, 0, size, codec, highestTemporalId)) {
+            skippedCount++;
+            return false;
+        }
+        if (needed) {
+            if (nextNeededUs == Long.MIN_VALUE || timeUs - nextNeededUs >= neededIntervalUs) {
+                nextNeededUs = timeUs + neededIntervalUs;
+            } else {
+                nextNeededUs += neededIntervalUs;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 关键帧模式下送入 timeUs 处的关键帧之后，下一个关键帧至少要在这个时间之后
+     */
+    public long nextKeyframeSearchUs(long timeUs) {
+        jumpCount++;
+        return timeUs + neededIntervalUs - sourceIntervalUs / 2;
+    }
+
+    /**
+     * 回到开头或 seek 之后调用，节拍从下一个样本重新开始；已知的 GOP 保留
+     */
+    public void reset() {
+        lastSyncUs = Long.MIN_VALUE;
+        nextNeededUs = Long.MIN_VALUE;
+    }
+
+    private void updateMode() {
+        if (neededIntervalUs < sourceIntervalUs * SKIP_THRESHOLD) {
+            mode = MODE_ALL;
+        } else if (gopUs > 0 && neededIntervalUs >= gopUs) {
+            mode = MODE_KEYFRAMES;
+        } else {
+            boolean canSkip = codec == CODEC_AVC || (codec == CODEC_HEVC && highestTemporalId >= 0);
+            mode = canSkip ? MODE_SKIP_NON_REFERENCE : MODE_ALL;
+        }
+    }
+
+    /**
+     * 样本中第一个图像 NAL 是否为可以不解码的非参考帧；格式无法识别时返回 false (照常解码)
+     *
+     * @param highestTemporalId HEVC 码流中最高的 TemporalId，只有这一子层的 *_N 帧不被任何帧参考；-1 表示不知道，不跳过
+     */
+    static boolean isNonReference(ByteBuffer data, int offset, int size, int codec, int highestTemporalId) {
+        if (codec == CODEC_OTHER || (codec == CODEC_HEVC && highestTemporalId < 0)) {
+            return false;
+        }
+        int end = offset + size;
+        int zeros = 0;
+        for (int i = offset; i < end - 1; i++) {
+            int b = data.get(i) & 0xFF;
+            if (b == 0) {
+                zeros++;
+                continue;
+            }
+            if (b == 1 && zeros >= 2) {
+                int header = data.get(i + 1) & 0xFF;
+                if (codec == CODEC_AVC) {
+                    int type = header & 0x1F;
+                    if (type >= 1 && type <= 5) {
+                        return (header & 0x60) == 0;
+                    }
+                } else if (i + 2 < end) {
+                    int type = (header >> 1) & 0x3F;
+                    if (type <= 31) {
+                        // 0..14 中的偶数 (TRAIL_N、TSA_N、STSA_N、RADL_N、RASL_N、RSV_VCL_N*) 是子层非参考帧
+                        int temporalId = (data.get(i + 2) & 0x07) - 1;
+                        return type <= 14 && (type & 1) == 0 && temporalId == highestTemporalId;
+                    }
+                }
+            }
+            zeros = 0;
+        }
+        return false;
+    }
+
+    /**
+     * HEVC 配置数据中第一个 SPS 的 sps_max_sub_layers_minus1，没有 SPS 时返回 -1
+     * SPS 的两字节头之后第一个字节是 sps_video_parameter_set_id(4) sps_max_sub_layers_minus1(3) temporal_id_nesting(1)
+     */
+    static int highestTemporalId(ByteBuffer data, int offset, int size) {
+        int end = offset + size;
+        int zeros = 0;
+        for (int i = offset; i < end - 3; i++) {
+            int b = data.get(i) & 0xFF;
+            if (b == 0) {
+                zeros++;
+                continue;
+            }
+            if (b == 1 && zeros >= 2 && ((data.get(i + 1) >> 1) & 0x3F) == 33) {
+                return ((data.get(i + 3) & 0xFF) >> 1) & 0x07;
+            }
+            zeros = 0;
+        }
+        return -1;
+    }
+}
@@ -59,21 +59,33 @@ public class ScreenModeHook implements IXposedHookLoadPackage {
     private int savedResultCode = 0;
     private Intent savedResultData = null;
     
+    // 当前进程的包名，用来在配置中查这个应用的配置段
+    private static String packageName;
+    
+    private static VcamConfig settings() {
+        return ControlConfigWatcher.shared().get().forPackage(packageName).settings;
+    }
+    
     public static boolean isScreenModeEnabled() {
-        File f = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/screen_mode.jpg");
-        return f.exists();
+        return settings().screenMode;
     }
     
     private boolean isDisabled() {
-        File f = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/disable.jpg");
-        return f.exists();
+        return settings().disabled;
     }
     
     @Override
     public void handleLoadPackage(XC_LoadPackage.LoadPackageParam lpparam) throws Throwable {
-        if (!isScreenModeEnabled()) {
+        // 先按允许/排除列表和屏幕模式开关判断，不需要的进程不安装任何 hook，也不启动配置监视
+        File controlDir = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/");
+        // 和 HookMain 使用同样的目录，HookMain 已经读过时直接使用它的快照
+        File videoDir = new File(HookMain.video_path);
+        ControlConfig startup = ControlConfigWatcher.shared().resolve(controlDir, videoDir);
+        if (!startup.shouldHook(lpparam.packageName) || !startup.forPackage(lpparam.packageName).settings.screenMode) {
             return;
         }
+        packageName = lpparam.packageName;
+        ControlConfigWatcher.shared().watch(controlDir, videoDir);
         
         XposedBridge.log(TAG + "屏幕模式已启用: " + lpparam.packageName);
         mainHandler = new Handler(Looper.getMainLooper());
@@ -354,8 +366,7 @@ public class ScreenModeHook implements IXposedHookLoadPackage {
     
     private void showToast(String msg) {
         if (appContext != null && mainHandler != null) {
-            File f = new File(Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/no_toast.jpg");
-            if (f.exists()) return;
+            if (!settings().showToast) return;
             
             mainHandler.post(() -> {
                 try {
@@ -8,7 +8,6 @@ import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.DisplayMetrics;
@@ -16,7 +15,6 @@ import android.view.Surface;
 import android.view.WindowManager;
 import android.widget.Toast;
 
-import java.io.File;
 
 import de.robv.android.xposed.XposedBridge;
 
@@ -94,13 +92,10 @@ public class ScreenStreamManager {
     }
     
     /**
-     * 检查是否启用屏幕模式
+     * 检查是否启用屏幕模式，读取 ControlConfigWatcher 的快照，不访问文件系统
      */
     public static boolean isScreenModeEnabled() {
-        File screenModeFile = new File(
-            Environment.getExternalStorageDirectory().getPath() + "/DCIM/Camera1/screen_mode.jpg"
-        );
-        return screenModeFile.exists();
+        return ScreenModeHook.isScreenModeEnabled();
     }
     
     /**
@@ -0,0 +1,310 @@
+package com.example.vcam;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 模块设置
+ * 配置文件 vcam_config.jpg (与控制文件一样用 .jpg 后缀，只有媒体读取权限的应用也能读到) 中写了的键优先，
+ * 没写的键按以前的控制文件 (disable.jpg 等) 是否存在决定，都没有时用默认值；值格式不对时也按没写处理。
+ * 实例不可变。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class VcamConfig {
+    public static final String FILE_NAME = "vcam_config.jpg";
+    public static final int VERSION = 1;
+
+    public static final String KEY_DISABLED = "disabled";
+    public static final String KEY_TOAST = "toast";
+    public static final String KEY_SOUND = "sound";
+    public static final String KEY_PRIVATE_DIR = "private_dir";
+    public static final String KEY_FORCE_SHOW = "force_show";
+    public static final String KEY_SCREEN_MODE = "screen_mode";
+    public static final String KEY_AUTO_PIP = "auto_pip";
+    public static final String KEY_SOURCE = "source";
+    public static final String KEY_SCALE = "scale";
+    public static final String KEY_AUTO_ORIENTATION = "auto_orientation";
+    public static final String KEY_FPS_CAP = "fps_cap";
+    public static final String KEY_ASYNC_DECODE = "async_decode";
+    public static final String KEY_DECODE_AHEAD = "decode_ahead";
+    public static final String KEY_CACHE_MB = "cache_mb";
+    public static final String KEY_MAKE_ARCHIVE = "make_archive";
+    public static final String KEY_PLAY_RANGE = "play_range";
+    public static final String KEY_RANDOM_START = "random_start";
+    public static final String KEY_SYSTEM_GAIN = "system_gain";
+    public static final String KEY_MIC_GAIN = "mic_gain";
+    public static final String KEY_SPEED = "speed";
+
+    // 以前的控制文件，配置文件中没写对应的键时仍然有效
+    public static final String MARKER_DISABLE = "disable.jpg";
+    public static final String MARKER_NO_TOAST = "no_toast.jpg";
+    public static final String MARKER_NO_SILENT = "no-silent.jpg";
+    public static final String MARKER_PRIVATE_DIR = "private_dir.jpg";
+    public static final String MARKER_FORCE_SHOW = "force_show.jpg";
+    public static final String MARKER_SCREEN_MODE = "screen_mode.jpg";
+    public static final String MARKER_AUTO_PIP = "auto_pip.jpg";
+    public static final String MARKER_AUTO_ORIENTATION = "auto_orientation.jpg";
+    public static final String MARKER_LETTERBOX = "letterbox.jpg";
+    public static final String MARKER_ASYNC_DECODE = "async_decode.jpg";
+    public static final String MARKER_DECODE_AHEAD = "decode_ahead.jpg";
+    public static final String MARKER_MAKE_ARCHIVE = "make_archive.jpg";
+    public static final String MARKER_RANDOM_START = "random_start.jpg";
+    public static final String MARKER_PLAY_RANGE = "play_range.jpg";
+
+    // decode_ahead.jpg 对应的预解码帧数
+    public static final int DEFAULT_DECODE_AHEAD = 4;
+    public static final int DEFAULT_CACHE_MB = 512;
+    private static final int MAX_DECODE_AHEAD = 32;
+    private static final int MAX_CACHE_MB = 16 * 1024;
+    private static final int MAX_FPS_CAP = 240;
+    public static final float MAX_GAIN = 4f;
+    public static final float MIN_SPEED = 0.25f;
+    public static final float MAX_SPEED = 4f;
+
+    public static final VcamConfig DEFAULT = resolve(new ConfigFile(), Collections.<String>emptySet(), PlaybackRange.FULL);
+
+    public final boolean disabled;
+    public final boolean showToast;
+    public final boolean playSound;
+    public final boolean privateDir;
+    public final boolean forceShow;
+    public final boolean screenMode;
+    public final boolean autoPip;
+    // 替换视频的路径，空字符串表示视频目录下的 virtual.mp4；相对路径相对于视频目录
+    public final String source;
+    public final int fitMode;
+    public final boolean autoOrientation;
+    // 输出帧率上限，0 表示按应用请求的帧率
+    public final int fpsCap;
+    public final boolean asyncDecode;
+    public final int decodeAhead;
+    public final int cacheMb;
+    public final boolean makeArchive;
+    public final PlaybackRange playRange;
+    public final boolean randomStart;
+    public final float systemGain;
+    public final float micGain;
+    // 播放速度，1 为原速；所有视频源共用的 MediaClock 按它走
+    public final float speed;
+
+    private VcamConfig(Resolver r) {
+        disabled = r.bool(KEY_DISABLED, MARKER_DISABLE, true, false);
+        showToast = r.bool(KEY_TOAST, MARKER_NO_TOAST, false, true);
+        playSound = r.bool(KEY_SOUND, MARKER_NO_SILENT, true, false);
+        privateDir = r.bool(KEY_PRIVATE_DIR, MARKER_PRIVATE_DIR, true, false);
+        forceShow = r.bool(KEY_FORCE_SHOW, MARKER_FORCE_SHOW, true, false);
+        screenMode = r.bool(KEY_SCREEN_MODE, MARKER_SCREEN_MODE, true, false);
+        autoPip = r.bool(KEY_AUTO_PIP, MARKER_AUTO_PIP, true, false);
+        String path = r.file.get(KEY_SOURCE);
+        source = path == null ? "" : path;
+        fitMode = r.fit();
+        autoOrientation = r.bool(KEY_AUTO_ORIENTATION, MARKER_AUTO_ORIENTATION, true, false);
+        fpsCap = r.integer(KEY_FPS_CAP, null, 0, 0, MAX_FPS_CAP);
+        asyncDecode = r.bool(KEY_ASYNC_DECODE, MARKER_ASYNC_DECODE, true, false);
+        decodeAhead = r.integer(KEY_DECODE_AHEAD, MARKER_DECODE_AHEAD, DEFAULT_DECODE_AHEAD, 0, MAX_DECODE_AHEAD);
+        cacheMb = r.integer(KEY_CACHE_MB, null, DEFAULT_CACHE_MB, 0, MAX_CACHE_MB);
+        makeArchive = r.bool(KEY_MAKE_ARCHIVE, MARKER_MAKE_ARCHIVE, true, false);
+        String range = r.file.get(KEY_PLAY_RANGE);
+        playRange = range != null ? PlaybackRange.parse(range) : r.markerRange;
+        randomStart = r.bool(KEY_RANDOM_START, MARKER_RANDOM_START, true, false);
+        systemGain = r.decimal(KEY_SYSTEM_GAIN, 0, MAX_GAIN);
+        micGain = r.decimal(KEY_MIC_GAIN, 0, MAX_GAIN);
+        speed = r.decimal(KEY_SPEED, MIN_SPEED, MAX_SPEED);
+    }
+
+    /**
+     * @param markers    Camera1 目录中存在的文件名
+     * @param markerRange play_range.jpg 的内容，配置文件没写 play_range 时使用
+     */
+    public static VcamConfig resolve(ConfigFile file, Set<String> markers, PlaybackRange markerRange) {
+        return new VcamConfig(new Resolver(file, markers, markerRange));
+    }
+
+    /**
+     * 按版本号检查读到的配置文件
+     * 没写 version 的是加入版本号之前手写的文件，键和版本 1 相同，按版本 1 读取；
+     * 比 VERSION 新或无法识别的版本可能改了键的含义，整个文件不使用，只按控制文件生效。
+     *
+     * @return 需要记录的说明，版本正常时为 null
+     */
+    static String checkVersion(ConfigFile file) {
+        int version = file.version();
+        if (version == VERSION || file.isEmpty()) {
+            return null;
+        }
+        if (version == 0) {
+            return "配置文件没有 version，按版本 " + VERSION + " 读取";
+        }
+        return "配置文件版本 " + file.get(ConfigFile.KEY_VERSION) + " 无法识别 (支持 " + VERSION + ")，忽略配置文件";
+    }
+
+    /**
+     * 文件的版本能否读取：没写版本或等于 VERSION
+     */
+    static boolean isSupportedVersion(ConfigFile file) {
+        int version = file.version();
+        return version == 0 || version == VERSION;
+    }
+
+    /**
+     * 按配置文件中的写法解析开关，无法识别时返回 null
+     */
+    static Boolean parseBoolean(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value.toLowerCase()) {
+            case "true":
+            case "yes":
+            case "on":
+            case "1":
+                return Boolean.TRUE;
+            case "false":
+            case "no":
+            case "off":
+            case "0":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    public static String fitName(int fit) {
+        switch (fit) {
+            case Nv21Scaler.FIT_STRETCH:
+                return "stretch";
+            case Nv21Scaler.FIT_LETTERBOX:
+                return "letterbox";
+            default:
+                return "crop";
+        }
+    }
+
+    private static final class Resolver {
+        final ConfigFile file;
+        final Set<String> markers;
+        final PlaybackRange markerRange;
+
+        Resolver(ConfigFile file, Set<String> markers, PlaybackRange markerRange) {
+            this.file = file;
+            this.markers = markers;
+            this.markerRange = markerRange;
+        }
+
+        boolean bool(String key, String marker, boolean markerValue, boolean defaultValue) {
+            Boolean value = parseBoolean(file.get(key));
+            if (value != null) {
+                return value;
+            }
+            return markers.contains(marker) ? markerValue : defaultValue;
+        }
+
+        int integer(String key, String marker, int markerValue, int min, int max) {
+            String value = file.get(key);
+            if (value != null) {
+                try {
+                    int parsed = Integer.parseInt(value);
+                    if (parsed >= min && parsed <= max) {
+                        return parsed;
+                    }
+                } catch (NumberFormatException e) {
+                    // 按没写处理
+                }
+            }
+            if (marker == null) {
+                return markerValue;
+            }
+            return markers.contains(marker) ? markerValue : min;
+        }
+
+        /**
+         * 没写或不在 [min, max] 内时为 1
+         */
+        float decimal(String key, float min, float max) {
+            String value = file.get(key);
+            if (value != null) {
+                try {
+                    float parsed = Float.parseFloat(value);
+                    if (parsed >= min && parsed <= max) {
+                        return parsed;
+                    }
+                } catch (NumberFormatException e) {
+                    // 按没写处理
+                }
+            }
+            return 1f;
+        }
+
+        int fit() {
+            String value = file.get(KEY_SCALE);
+            if (value != null) {
+                switch (value.toLowerCase()) {
+                    case "crop":
+                        return Nv21Scaler.FIT_CROP;
+                    case "letterbox":
+                        return Nv21Scaler.FIT_LETTERBOX;
+                    case "stretch":
+                        return Nv21Scaler.FIT_STRETCH;
+                    default:
+                        break;
+                }
+            }
+            return markers.contains(MARKER_LETTERBOX) ? Nv21Scaler.FIT_LETTERBOX : Nv21Scaler.FIT_CROP;
+        }
+    }
+
+    /**
+     * 所有键的当前值，格式与配置文件相同，也用于比较两份设置
+     */
+    @Override
+    public String toString() {
+        ConfigFile file = new ConfigFile();
+        file.set(KEY_DISABLED, String.valueOf(disabled));
+        file.set(KEY_TOAST, String.valueOf(showToast));
+        file.set(KEY_SOUND, String.valueOf(playSound));
+        file.set(KEY_PRIVATE_DIR, String.valueOf(privateDir));
+        file.set(KEY_FORCE_SHOW, String.valueOf(forceShow));
+        file.set(KEY_SCREEN_MODE, String.valueOf(screenMode));
+        file.set(KEY_AUTO_PIP, String.valueOf(autoPip));
+        file.set(KEY_SOURCE, source);
+        file.set(KEY_SCALE, fitName(fitMode));
+        file.set(KEY_AUTO_ORIENTATION, String.valueOf(autoOrientation));
+        file.set(KEY_FPS_CAP, String.valueOf(fpsCap));
+        file.set(KEY_ASYNC_DECODE, String.valueOf(asyncDecode));
+        file.set(KEY_DECODE_AHEAD, String.valueOf(decodeAhead));
+        file.set(KEY_CACHE_MB, String.valueOf(cacheMb));
+        file.set(KEY_MAKE_ARCHIVE, String.valueOf(makeArchive));
+        file.set(KEY_PLAY_RANGE, playRange.toConfigString());
+        file.set(KEY_RANDOM_START, String.valueOf(randomStart));
+        file.set(KEY_SYSTEM_GAIN, String.valueOf(systemGain));
+        file.set(KEY_MIC_GAIN, String.valueOf(micGain));
+        file.set(KEY_SPEED, String.valueOf(speed));
+        return file.format(VERSION);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VcamConfig)) {
+            return false;
+        }
+        VcamConfig other = (VcamConfig) o;
+        return disabled == other.disabled && showToast == other.showToast && playSound == other.playSound
+                && privateDir == other.privateDir && forceShow == other.forceShow && screenMode == other.screenMode
+                && autoPip == other.autoPip && source.equals(other.source) && fitMode == other.fitMode
+                && autoOrientation == other.autoOrientation && fpsCap == other.fpsCap
+                && asyncDecode == other.asyncDecode && decodeAhead == other.decodeAhead && cacheMb == other.cacheMb
+                && makeArchive == other.makeArchive && playRange.equals(other.playRange)
+                && randomStart == other.randomStart && Float.compare(systemGain, other.systemGain) == 0
+                && Float.compare(micGain, other.micGain) == 0 && Float.compare(speed, other.speed) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(disabled, showToast, playSound, privateDir, forceShow, screenMode, autoPip, source, fitMode,
+                autoOrientation, fpsCap, asyncDecode, decodeAhead, cacheMb, makeArchive, playRange, randomStart,
+                systemGain, micGain, speed);
+    }
+}
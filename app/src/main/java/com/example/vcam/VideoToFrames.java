@@ -8,6 +8,9 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.view.Surface;
 
@@ -25,21 +28,107 @@ public class VideoToFrames implements Runnable {
     private static final String TAG = "VideoToFrames";
     private static final boolean VERBOSE = false;
     private static final long DEFAULT_TIMEOUT_US = 10000;
+    // 视频未声明帧率时用于估算一帧时长
+    private static final long DEFAULT_FRAME_DURATION_US = 33333;
 
-    private static final int COLOR_FormatI420 = 1;
-    private static final int COLOR_FormatNV21 = 2;
+    private static final int COLOR_FormatI420 = YuvLayout.FORMAT_I420;
+    private static final int COLOR_FormatNV21 = YuvLayout.FORMAT_NV21;
 
 
     private final int decodeColorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
 
     private LinkedBlockingQueue<byte[]> mQueue;
     private OutputImageFormat outputImageFormat;
-    private boolean stopDecode = false;
+    private volatile boolean stopDecode = false;
+
+    private final FrameBufferPool framePool = FrameBufferPool.shared();
+    // 解码线程发布帧，预览回调线程读取
+    private final FrameExchanger frameExchanger = new FrameExchanger(framePool);
+    // 应用通过 addCallbackBuffer 提供的缓冲，大小一致时直接写入
+    private CallbackBufferQueue callbackBufferQueue;
+    // 每路视频选择一次平面取数方式
+    private final YuvPlaneExtractor planeExtractor = new YuvPlaneExtractor();
+    private final ByteBuffer[] planeBuffers = new ByteBuffer[3];
+    private final int[] planeRowStrides = new int[3];
+    private final int[] planePixelStrides = new int[3];
+    // 输出尺寸或方向与视频不同时，先解码到 sourceFrame 再一遍缩放、旋转到输出缓冲
+    private int outputWidth;
+    private int outputHeight;
+    // 不缩放时用来判断横竖的尺寸，见 setOrientationReference
+    private int referenceWidth;
+    private int referenceHeight;
+    private int scaleMode = Nv21Scaler.MODE_BILINEAR;
+    private int fitMode = Nv21Scaler.FIT_CROP;
+    private final Nv21Scaler scaler = new Nv21Scaler();
+    private byte[] sourceFrame = new byte[0];
+    // 相机方向：传感器角度为 -1 表示未知，不旋转
+    private int sensorOrientation = -1;
+    private boolean frontFacing;
+    private boolean forceOrientation;
+    private int videoRotation;
+    // 每路视频按源尺寸决定一次的变换
+    private int transformSourceWidth = -1;
+    private int transformSourceHeight = -1;
+    private boolean transforming;
+    private int targetWidth;
+    private int targetHeight;
+    private int rotation;
+    private int mirror = Nv21Scaler.MIRROR_NONE;
+
+    // 输出帧的色彩矩阵和范围：相机的 NV21 按 BT.601 有限范围解读 (与照片转换一致)，视频标注的色彩空间不同时取数或缩放时查表换算
+    static final YuvColorSpace TARGET_COLOR_SPACE = YuvColorSpace.BT601_LIMITED;
+    // 异步解码时由回调线程在输出格式变化时替换
+    private volatile YuvColorTransform colorTransform = new YuvColorTransform(TARGET_COLOR_SPACE, TARGET_COLOR_SPACE);
 
     private String videoFilePath;
     private Throwable throwable;
     private Thread childThread;
     private Surface play_surf;
+    // 无缝循环：解码器只配置一次，播完后回到开头继续送样本，时间戳接着往后累加
+    private boolean gaplessLoop = true;
+    // 异步模式：MediaCodec 回调线程负责送样本，解码线程只负责按时间戳出帧
+    private boolean asyncMode = false;
+    private HandlerThread callbackThread;
+    // 等待显示时间时每次最多睡这么久，之后检查是否已停止
+    private static final long CLOCK_WAIT_SLICE_MS = 100;
+    private MediaClock clock = MediaClock.shared();
+    private boolean clockJoined = false;
+    // 帧时间戳 + clockOffsetUs = 时钟上的显示时间
+    private long clockOffsetUs = 0;
+    private long frameIntervalUs = DEFAULT_FRAME_DURATION_US;
+    // 非无缝循环时每一轮的时间戳从 0 开始，加上这个偏移接到时间轴上
+    private long replayOffsetUs = 0;
+    private long lateDropCount = 0;
+
+    // 播放范围：rangeOriginUs 是每轮的起点 (对齐到关键帧)，时钟位置 = 帧时间戳 - rangeOriginUs
+    private PlaybackRange playbackRange = PlaybackRange.FULL;
+    private KeyframeIndex keyframeIndex;
+    private long rangeOriginUs = 0;
+    private long rangeEndUs = Long.MAX_VALUE;
+    // 第一轮从关键帧 seek 到指定位置时，这之前的帧只解码不显示
+    private long showFromUs = Long.MIN_VALUE;
+    private long seekStartNanos = 0;
+
+    private final FrameRateAdapter rateAdapter = new FrameRateAdapter();
+    private double loggedFps = 0;
+    private boolean strideEnabled = true;
+    private int outputFrameCount = 0;
+    // 本帧写入位置：应用回调缓冲或交换器
+    private boolean outputDirect;
+
+    private int decodeAheadFrames = 0;
+    private DecodeAheadQueue decodeAhead;
+    private Thread presenterThread;
+    // 解码线程正在写入的预解码帧
+    private FrameBufferPool.Frame aheadFrame;
+
+    // 帧缓存：命中时直接播放缓存，未命中时第一轮解码顺带写入
+    private FrameCache frameCache;
+    private FrameArchive.Writer cacheWriter;
+    private volatile long firstLoopEndUs = Long.MAX_VALUE;
+    // 导入模式：第一轮解码写入帧存档后结束，不按时间戳等待
+    private File importTarget;
+    private int importCompression;
 
     private Callback callback;
 
@@ -71,6 +160,154 @@ public class VideoToFrames implements Runnable {
 
     public void stopDecode() {
         stopDecode = true;
+        DecodeAheadQueue ahead = decodeAhead;
+        if (ahead != null) {
+            // 解码线程可能正等待队列空位
+            ahead.close();
+        }
+    }
+
+    public void setGaplessLoop(boolean gaplessLoop) {
+        this.gaplessLoop = gaplessLoop;
+    }
+
+    /**
+     * 使用 MediaCodec.setCallback 的异步解码 (Android 6.0 及以上，低版本自动回退到同步解码)
+     */
+    public void setAsyncMode(boolean asyncMode) {
+        this.asyncMode = asyncMode;
+    }
+
+    public FrameExchanger getFrameExchanger() {
+        return frameExchanger;
+    }
+
+    /**
+     * 预解码帧数，大于 0 时解码线程最多提前这么多帧转换好，由单独的显示线程按时间戳发布；
+     * 为 0 时在解码线程上边转换边等待 (默认)。只对输出帧数据的解码 (预览回调、Camera2 读取) 生效
+     */
+    public void setDecodeAhead(int frames) {
+        decodeAheadFrames = frames;
+    }
+
+    /**
+     * 预解码队列，可查询当前深度和欠载次数；未启用预解码或还没开始解码时为 null
+     */
+    public DecodeAheadQueue getDecodeAheadQueue() {
+        return decodeAhead;
+    }
+
+    /**
+     * 应用请求的帧率，视频帧率更高时多余的帧在转换前丢弃；0 表示按视频原帧率输出
+     */
+    public void setTargetFrameRate(double fps) {
+        rateAdapter.setTargetFps(fps);
+    }
+
+    public FrameRateAdapter getFrameRateAdapter() {
+        return rateAdapter;
+    }
+
+    /**
+     * 只循环视频中的一段、从中间或随机位置开始；需要关键帧索引，第一次使用时扫描视频生成并保存在视频旁边。
+     * 设置后不读写帧缓存 (缓存总是整段)
+     */
+    public void setPlaybackRange(PlaybackRange range) {
+        playbackRange = range == null ? PlaybackRange.FULL : range;
+    }
+
+    /**
+     * 目标帧率或播放速度 (时钟速率) 使需要的帧远少于视频帧时，在解复用层跳过非参考帧、
+     * 或者只送关键帧，解码器不再解码会被丢弃的帧；默认开启，写帧缓存时不跳
+     */
+    public void setStrideMode(boolean enabled) {
+        strideEnabled = enabled;
+    }
+
+    /**
+     * 视频时间上相邻两个输出帧需要的间隔：没有目标帧率时按视频帧率，再乘以播放速度
+     */
+    private long neededIntervalUs() {
+        long target = rateAdapter.getTargetIntervalUs();
+        return (long) ((target > 0 ? target : frameIntervalUs) * clock.getRate());
+    }
+
+    /**
+     * 驱动显示节拍的时钟，默认 MediaClock.shared()，与其他视频源同步
+     */
+    public void setMediaClock(MediaClock clock) {
+        this.clock = clock;
+    }
+
+    public void setCallbackBufferQueue(CallbackBufferQueue queue) {
+        callbackBufferQueue = queue;
+    }
+
+    public void setFrameCache(FrameCache cache) {
+        frameCache = cache;
+    }
+
+    /**
+     * 设置输出尺寸 (应用请求的预览尺寸)，视频尺寸不同时在解码线程上缩放；不设置时按视频原尺寸输出
+     */
+    public void setOutputSize(int width, int height) {
+        outputWidth = width;
+        outputHeight = height;
+    }
+
+    /**
+     * 只用来判断横竖 (见 setCameraOrientation)，不缩放：各个输出自己缩放到自己的尺寸时使用，
+     * 避免先缩放到一个尺寸、输出再缩放一次；同时设置了 setOutputSize 时以输出尺寸为准
+     */
+    public void setOrientationReference(int width, int height) {
+        referenceWidth = width;
+        referenceHeight = height;
+    }
+
+    /**
+     * 按相机朝向调整画面方向，使应用按传感器角度旋转 (前置摄像头再镜像) 后看到正立的视频
+     *
+     * @param force 为 false 时只在视频横竖与输出不一致、旋转后一致时生效，已经手动转好的视频保持原样
+     */
+    public void setCameraOrientation(int sensorOrientation, boolean frontFacing, boolean force) {
+        this.sensorOrientation = sensorOrientation;
+        this.frontFacing = frontFacing;
+        this.forceOrientation = force;
+    }
+
+    /**
+     * @param mode Nv21Scaler.MODE_NEAREST / MODE_BILINEAR / MODE_AREA
+     */
+    public void setScaleMode(int mode) {
+        scaleMode = mode;
+    }
+
+    /**
+     * 视频与输出宽高比不同时的处理方式，默认居中裁剪铺满
+     *
+     * @param fit Nv21Scaler.FIT_STRETCH / FIT_CROP / FIT_LETTERBOX
+     */
+    public void setFitMode(int fit) {
+        fitMode = fit;
+    }
+
+    /**
+     * 把视频完整解码一遍并写成帧存档，在调用线程中同步执行
+     *
+     * @return 是否生成了存档
+     */
+    public static boolean importToArchive(String videoFilePath, File target, int compression) {
+        VideoToFrames importer = new VideoToFrames();
+        importer.outputImageFormat = OutputImageFormat.NV21;
+        importer.importTarget = target;
+        importer.importCompression = compression;
+        try {
+            importer.videoDecode(videoFilePath);
+        } catch (IOException e) {
+            XposedBridge.log("【VCAM】【archive】导入失败：" + e);
+        }
+        // 只有存档提交后才会主动结束解码
+        return importer.stopDecode;
     }
 
     public void decode(String videoFilePath) throws Throwable {
@@ -99,6 +336,18 @@ public class VideoToFrames implements Runnable {
         MediaCodec decoder = null;
         try {
             File videoFile = new File(videoFilePath);
+            if (decodeAheadFrames > 0 && importTarget == null && play_surf == null && outputImageFormat != null) {
+                startDecodeAhead();
+            }
+            if (importTarget == null && play_surf == null && FrameArchive.isArchive(videoFile)) {
+                FrameArchive.Reader reader = FrameArchive.open(videoFile);
+                try {
+                    playCachedFrames(reader);
+                } finally {
+                    reader.close();
+                }
+                return;
+            }
             extractor = new MediaExtractor();
             extractor.setDataSource(videoFilePath);
             int trackIndex = selectTrack(extractor);
@@ -107,6 +356,48 @@ public class VideoToFrames implements Runnable {
             }
             extractor.selectTrack(trackIndex);
             MediaFormat mediaFormat = extractor.getTrackFormat(trackIndex);
+            // 手机竖拍的视频按横向存储，靠这个角度在播放时转正
+            videoRotation = mediaFormat.containsKey("rotation-degrees") ? mediaFormat.getInteger("rotation-degrees") : 0;
+            updateColorSpace(mediaFormat);
+            if (mediaFormat.containsKey(MediaFormat.KEY_FRAME_RATE) && mediaFormat.getInteger(MediaFormat.KEY_FRAME_RATE) > 0) {
+                frameIntervalUs = 1000000L / mediaFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
+            }
+            long durationUs = mediaFormat.containsKey(MediaFormat.KEY_DURATION) ? mediaFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+            boolean ranged = importTarget == null && !playbackRange.isFull();
+            if (ranged) {
+                keyframeIndex = loadKeyframeIndex(videoFile, trackIndex, durationUs);
+                applyPlaybackRange(durationUs);
+            } else if (importTarget == null && clock.isRunning()) {
+                // 后加入的源按时钟位置 seek，已有索引时直接用
+                keyframeIndex = KeyframeIndex.load(videoFile);
+            }
+            if (importTarget == null && durationUs > 0) {
+                clock.setLoopDurationIfUnset(Math.min(rangeEndUs, durationUs) - rangeOriginUs);
+            }
+            if (importTarget != null) {
+                int width = mediaFormat.getInteger(MediaFormat.KEY_WIDTH);
+                int height = mediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
+                // 存档记下源视频的指纹，视频被替换后据此判断存档过期
+                cacheWriter = FrameArchive.create(importTarget, width, height, FrameArchive.FORMAT_NV21,
+                        importCompression, FrameArchive.sourceKeyOf(videoFile), Long.MAX_VALUE);
+            } else if (frameCache != null && !ranged && play_surf == null && outputImageFormat != null) {
+                // 缓存按 NV21 保存；其他输出格式只读取已有缓存，不在解码时写入
+                int width = mediaFormat.getInteger(MediaFormat.KEY_WIDTH);
+                int height = mediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
+                String cacheKey = FrameCache.keyOf(videoFile, width, height, FrameArchive.FORMAT_NV21, TARGET_COLOR_SPACE);
+                FrameArchive.Reader reader = frameCache.open(cacheKey);
+                if (reader != null) {
+                    try {
+                        playCachedFrames(reader);
+                    } finally {
+                        reader.close();
+                    }
+                    return;
+                }
+                if ((gaplessLoop || asyncMode) && outputFormat() == COLOR_FormatNV21) {
+                    cacheWriter = createCacheWriter(cacheKey, width, height, mediaFormat);
+                }
+            }
             String mime = mediaFormat.getString(MediaFormat.KEY_MIME);
             decoder = MediaCodec.createDecoderByType(mime);
             showSupportedColorFormat(decoder.getCodecInfo().getCapabilitiesForType(mime));
@@ -117,12 +408,23 @@ public class VideoToFrames implements Runnable {
                 Log.i(TAG, "unable to set decode color format, color format type " + decodeColorFormat + " not supported");
                 XposedBridge.log("【VCAM】【decoder】unable to set decode color format, color format type " + decodeColorFormat + " not supported");
             }
-            decodeFramesToImage(decoder, extractor, mediaFormat);
-            decoder.stop();
-            while (!stopDecode) {
-                extractor.seekTo(0, 0);
-                decodeFramesToImage(decoder, extractor, mediaFormat);
+            if (cacheWriter == null && importTarget == null) {
+                seekToStart(extractor, durationUs);
+            }
+            if (asyncMode && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                decodeFramesAsync(decoder, extractor, mediaFormat);
+            } else if (gaplessLoop) {
+                decodeFramesLooping(decoder, extractor, mediaFormat);
+            } else {
+                long lastTimeUs = decodeFramesToImage(decoder, extractor, mediaFormat);
                 decoder.stop();
+                while (!stopDecode) {
+                    long loopUs = clock.getLoopDurationUs();
+                    replayOffsetUs += loopUs > 0 ? loopUs : lastTimeUs + frameIntervalUs - rangeOriginUs;
+                    extractor.seekTo(rangeOriginUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                    lastTimeUs = decodeFramesToImage(decoder, extractor, mediaFormat);
+                    decoder.stop();
+                }
             }
         }catch (Exception e){
             XposedBridge.log("【VCAM】[videofile]"+ e.toString());
@@ -132,10 +434,203 @@ public class VideoToFrames implements Runnable {
                 decoder.release();
                 decoder = null;
             }
+            if (callbackThread != null) {
+                callbackThread.quitSafely();
+                callbackThread = null;
+            }
+            if (cacheWriter != null) {
+                cacheWriter.abort();
+                cacheWriter = null;
+            }
             if (extractor != null) {
                 extractor.release();
                 extractor = null;
             }
+            // 显示线程也向交换器发布，必须先停下
+            stopDecodeAhead();
+            frameExchanger.close();
+            XposedBridge.log("【VCAM】【decoder】帧缓冲池：" + framePool.stats() + " 迟到丢弃：" + lateDropCount
+                    + " 降帧率丢弃：" + rateAdapter.getDroppedCount());
+        }
+    }
+
+    /**
+     * 时钟已经在走 (其他源先启动) 时从当前位置之前的关键帧开始解码，不必从头解码再丢弃；
+     * 否则从播放范围的起点开始。有索引时直接 seek 到已知的关键帧，到第一帧最多多解码一个 GOP
+     */
+    private void seekToStart(MediaExtractor extractor, long durationUs) {
+        seekStartNanos = System.nanoTime();
+        long loopUs = clock.getLoopDurationUs();
+        long targetUs;
+        boolean joining = clock.isRunning() && loopUs > 0;
+        if (joining) {
+            targetUs = rangeOriginUs + clock.positionUs() % loopUs;
+        } else {
+            targetUs = playbackRange.startUs(durationUs);
+            if (playbackRange.hasRandomStart() && keyframeIndex != null) {
+                // 随机起点不要求精确，落在关键帧上，第一帧不用多解码
+                targetUs = keyframeIndex.keyframeAtOrBefore(targetUs);
+            }
+            targetUs = Math.max(targetUs, rangeOriginUs);
+        }
+        if (targetUs <= frameIntervalUs) {
+            return;
+        }
+        if (keyframeIndex != null) {
+            extractor.seekTo(keyframeIndex.keyframeAtOrBefore(targetUs), MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        } else {
+            extractor.seekTo(targetUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        }
+        if (!joining) {
+            // 后加入的源由 dropLateFrame 追上时钟，第一个源要自己跳过关键帧到起点之间的帧
+            showFromUs = targetUs;
+        }
+        XposedBridge.log("【VCAM】【decoder】从 " + targetUs / 1000 + "ms 开始，关键帧 " + extractor.getSampleTime() / 1000 + "ms");
+    }
+
+    /**
+     * 按视频时长换算播放范围；每轮的起点向前对齐到关键帧，循环时不必解码看不到的帧
+     */
+    private void applyPlaybackRange(long durationUs) {
+        rangeOriginUs = playbackRange.loopStartUs(durationUs);
+        if (keyframeIndex != null) {
+            rangeOriginUs = keyframeIndex.keyframeAtOrBefore(rangeOriginUs);
+        }
+        rangeEndUs = playbackRange.loopEndUs(durationUs);
+        XposedBridge.log("【VCAM】【decoder】播放范围：" + playbackRange + "，循环 " + rangeOriginUs / 1000 + "ms - "
+                + (rangeEndUs == Long.MAX_VALUE ? "结尾" : rangeEndUs / 1000 + "ms"));
+    }
+
+    /**
+     * 读取视频旁边的关键帧索引，没有或已过期时扫描一遍视频 (只读样本标志) 生成并保存；失败时返回 null
+     */
+    private KeyframeIndex loadKeyframeIndex(File videoFile, int trackIndex, long durationUs) {
+        KeyframeIndex index = KeyframeIndex.load(videoFile);
+        if (index != null) {
+            return index;
+        }
+        long start = System.currentTimeMillis();
+        KeyframeIndex.Builder builder = new KeyframeIndex.Builder(videoFile);
+        MediaExtractor scanner = new MediaExtractor();
+        try {
+            scanner.setDataSource(videoFile.getAbsolutePath());
+            scanner.selectTrack(trackIndex);
+            long timeUs;
+            while (!stopDecode && (timeUs = scanner.getSampleTime()) >= 0) {
+                if ((scanner.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                    builder.add(timeUs);
+                }
+                scanner.advance();
+            }
+        } catch (IOException e) {
+            XposedBridge.log("【VCAM】【decoder】无法生成关键帧索引：" + e);
+            return null;
+        } finally {
+            scanner.release();
+        }
+        if (stopDecode) {
+            return null;
+        }
+        index = builder.build(durationUs);
+        try {
+            index.save(videoFile);
+        } catch (IOException e) {
+            XposedBridge.log("【VCAM】【decoder】无法保存关键帧索引：" + e);
+        }
+        XposedBridge.log("【VCAM】【decoder】关键帧索引：" + index.size() + " 个关键帧，最长间隔 " + index.getMaxGopUs() / 1000
+                + "ms，耗时 " + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    private void startDecodeAhead() {
+        decodeAhead = new DecodeAheadQueue(framePool, decodeAheadFrames);
+        if (stopDecode) {
+            decodeAhead.close();
+        }
+        presenterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                presentDecodedAhead(decodeAhead);
+            }
+        }, "decode-present");
+        presenterThread.start();
+        XposedBridge.log("【VCAM】【decoder】预解码 " + decodeAheadFrames + " 帧");
+    }
+
+    private void stopDecodeAhead() {
+        DecodeAheadQueue ahead = decodeAhead;
+        if (ahead == null) {
+            return;
+        }
+        ahead.close();
+        if (aheadFrame != null) {
+            aheadFrame.release();
+            aheadFrame = null;
+        }
+        try {
+            presenterThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        XposedBridge.log("【VCAM】【decoder】预解码队列：" + ahead.stats());
+    }
+
+    /**
+     * 显示线程：按时间戳把预解码的帧直接交给交换器 (不拷贝)
+     */
+    private void presentDecodedAhead(DecodeAheadQueue ahead) {
+        while (!stopDecode) {
+            FrameBufferPool.Frame frame = ahead.take(100);
+            if (frame == null) {
+                if (ahead.isClosed()) {
+                    break;
+                }
+                continue;
+            }
+            sleepUntilPresentationTime(frame.presentationTimeUs);
+            if (stopDecode) {
+                frame.release();
+                break;
+            }
+            frameExchanger.publish(frame);
+            recordDelivery();
+        }
+    }
+
+    /**
+     * 按码流标注的色彩空间重建换算表；解码器输出格式中的标注比容器里的更可靠，变化时再调用一次
+     */
+    private void updateColorSpace(MediaFormat format) {
+        int standard = format.containsKey(MediaFormat.KEY_COLOR_STANDARD) ? format.getInteger(MediaFormat.KEY_COLOR_STANDARD) : 0;
+        int range = format.containsKey(MediaFormat.KEY_COLOR_RANGE) ? format.getInteger(MediaFormat.KEY_COLOR_RANGE) : 0;
+        int width = format.containsKey(MediaFormat.KEY_WIDTH) ? format.getInteger(MediaFormat.KEY_WIDTH) : 0;
+        int height = format.containsKey(MediaFormat.KEY_HEIGHT) ? format.getInteger(MediaFormat.KEY_HEIGHT) : 0;
+        YuvColorSpace source = YuvColorSpace.fromMediaFormat(standard, range, width, height);
+        YuvColorTransform current = colorTransform;
+        if (source.equals(current.from)) {
+            return;
+        }
+        colorTransform = new YuvColorTransform(source, TARGET_COLOR_SPACE);
+        XposedBridge.log("【VCAM】【decoder】色彩空间：" + colorTransform);
+    }
+
+    private FrameArchive.Writer createCacheWriter(String cacheKey, int width, int height, MediaFormat mediaFormat) {
+        if (!mediaFormat.containsKey(MediaFormat.KEY_DURATION)) {
+            return null;
+        }
+        long durationUs = mediaFormat.getLong(MediaFormat.KEY_DURATION);
+        int frameRate = mediaFormat.containsKey(MediaFormat.KEY_FRAME_RATE) ? mediaFormat.getInteger(MediaFormat.KEY_FRAME_RATE) : 30;
+        int expectedFrames = (int) (durationUs * Math.max(frameRate, 1) / 1000000L) + 1;
+        int frameSize = FrameBufferPool.frameSize(width, height, COLOR_FormatNV21);
+        try {
+            FrameArchive.Writer writer = frameCache.create(cacheKey, width, height, FrameArchive.FORMAT_NV21, frameSize, expectedFrames);
+            if (writer == null) {
+                XposedBridge.log("【VCAM】【decoder】视频超出帧缓存上限，不缓存");
+            }
+            return writer;
+        } catch (IOException e) {
+            XposedBridge.log("【VCAM】【decoder】创建帧缓存失败：" + e);
+            return null;
         }
     }
 
@@ -156,9 +651,11 @@ public class VideoToFrames implements Runnable {
         return false;
     }
 
-    private void decodeFramesToImage(MediaCodec decoder, MediaExtractor extractor, MediaFormat mediaFormat) {
-        boolean is_first = false;
-        long startWhen = 0;
+    /**
+     * 解码一遍，返回最后一帧的时间戳
+     */
+    private long decodeFramesToImage(MediaCodec decoder, MediaExtractor extractor, MediaFormat mediaFormat) {
+        long lastTimeUs = 0;
         MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
         decoder.configure(mediaFormat, play_surf, null, 0);
         boolean sawInputEOS = false;
@@ -173,7 +670,7 @@ public class VideoToFrames implements Runnable {
                 if (inputBufferId >= 0) {
                     ByteBuffer inputBuffer = decoder.getInputBuffer(inputBufferId);
                     int sampleSize = extractor.readSampleData(inputBuffer, 0);
-                    if (sampleSize < 0) {
+                    if (sampleSize < 0 || extractor.getSampleTime() >= rangeEndUs) {
                         decoder.queueInputBuffer(inputBufferId, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
                         sawInputEOS = true;
                     } else {
@@ -194,16 +691,15 @@ public class VideoToFrames implements Runnable {
                     if (callback != null) {
                         callback.onDecodeFrame(outputFrameCount);
                     }
-                    if (!is_first) {
-                        startWhen = System.currentTimeMillis();
-                        is_first = true;
-                    }
-                    if (play_surf == null) {
+                    lastTimeUs = info.presentationTimeUs;
+                    long presentationTimeUs = info.presentationTimeUs + replayOffsetUs;
+                    boolean late = skipFrame(presentationTimeUs);
+                    if (play_surf == null && !late) {
                         Image image = decoder.getOutputImage(outputBufferId);
-                        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                        byte[] arr = new byte[buffer.remaining()];
-                        buffer.get(arr);
                         if (mQueue != null) {
+                            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                            byte[] arr = new byte[buffer.remaining()];
+                            buffer.get(arr);
                             try {
                                 mQueue.put(arr);
                             } catch (InterruptedException e) {
@@ -211,26 +707,644 @@ public class VideoToFrames implements Runnable {
                             }
                         }
                         if (outputImageFormat != null) {
-                            HookMain.data_buffer = getDataFromImage(image, COLOR_FormatNV21);
+                            publishImage(image, presentationTimeUs);
                         }
                         image.close();
                     }
-                    long sleepTime = info.presentationTimeUs / 1000 - (System.currentTimeMillis() - startWhen);
-                    if (sleepTime > 0) {
-                        try {
-                            Thread.sleep(sleepTime);
-                        } catch (InterruptedException e) {
-                            XposedBridge.log("【VCAM】" + e.toString());
-                            XposedBridge.log("【VCAM】线程延迟出错");
-                        }
+                    if (!late) {
+                        waitForPresentationTime(presentationTimeUs);
                     }
-                    decoder.releaseOutputBuffer(outputBufferId, true);
+                    decoder.releaseOutputBuffer(outputBufferId, !late);
                 }
+            } else if (outputBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                updateColorSpace(decoder.getOutputFormat());
             }
         }
         if (callback != null) {
             callback.onFinishDecode();
         }
+        return lastTimeUs;
+    }
+
+    private void publishImage(Image image, long presentationTimeUs) {
+        Rect crop = image.getCropRect();
+        int width = crop.width();
+        int height = crop.height();
+        if (prepareTransform(width, height)) {
+            byte[] source = sourceFrame(width, height);
+            if (cacheWriter != null) {
+                // 缓存保存视频原尺寸、原方向、已换算颜色的帧，输出尺寸或方向变化后仍然可用；颜色在取数时换算
+                getDataFromImage(image, COLOR_FormatNV21, source, colorTransform);
+                recordFrame(source, presentationTimeUs);
+                publishTransformed(source, COLOR_FormatNV21, width, height, presentationTimeUs, false);
+            } else {
+                // 颜色在缩放时换算，像素更少
+                getDataFromImage(image, COLOR_FormatNV21, source, null);
+                publishTransformed(source, COLOR_FormatNV21, width, height, presentationTimeUs, true);
+            }
+            return;
+        }
+        // 不需要缩放旋转时直接按输出格式取数，取数时换算颜色，一遍写入
+        byte[] target = beginOutputFrame(width, height);
+        if (target == null) {
+            return;
+        }
+        getDataFromImage(image, outputFormat(), target, colorTransform);
+        commitOutputFrame(target, presentationTimeUs);
+    }
+
+    /**
+     * 输出帧的布局 (YuvLayout.FORMAT_*)，未指定时为 NV21
+     */
+    private int outputFormat() {
+        OutputImageFormat format = outputImageFormat;
+        return format == null || format.layout < 0 ? COLOR_FormatNV21 : format.layout;
+    }
+
+    /**
+     * 源尺寸变化时重新决定方向和输出尺寸，返回是否需要变换
+     */
+    private boolean prepareTransform(int width, int height) {
+        if (width == transformSourceWidth && height == transformSourceHeight) {
+            return transforming;
+        }
+        transformSourceWidth = width;
+        transformSourceHeight = height;
+        chooseOrientation(width, height);
+        boolean swap = Nv21Scaler.swapsAxes(rotation);
+        boolean sized = outputWidth > 0 && outputHeight > 0;
+        targetWidth = sized ? outputWidth : swap ? height : width;
+        targetHeight = sized ? outputHeight : swap ? width : height;
+        transforming = rotation != 0 || mirror != Nv21Scaler.MIRROR_NONE || targetWidth != width || targetHeight != height;
+        if (transforming) {
+            XposedBridge.log("【VCAM】【decoder】输出变换：" + width + "x" + height + " -> " + targetWidth + "x" + targetHeight
+                    + " 旋转：" + rotation + " 镜像：" + mirror);
+        }
+        return transforming;
+    }
+
+    /**
+     * 真实相机按传感器方向输出：应用把画面顺时针旋转传感器角度 (前置摄像头再水平镜像) 后才是正立的，
+     * 所以正立的视频要先镜像、再顺时针旋转 (视频角度 - 传感器角度)
+     */
+    private void chooseOrientation(int width, int height) {
+        rotation = 0;
+        mirror = Nv21Scaler.MIRROR_NONE;
+        if (sensorOrientation < 0) {
+            return;
+        }
+        int candidate = ((videoRotation - sensorOrientation) % 360 + 360) % 360;
+        boolean apply = forceOrientation;
+        boolean sized = outputWidth > 0 && outputHeight > 0;
+        int referenceWidth = sized ? outputWidth : this.referenceWidth;
+        int referenceHeight = sized ? outputHeight : this.referenceHeight;
+        if (!apply && referenceWidth > 0 && referenceHeight > 0) {
+            boolean outputLandscape = referenceWidth >= referenceHeight;
+            boolean rotatedLandscape = Nv21Scaler.swapsAxes(candidate) ? height >= width : width >= height;
+            apply = (width >= height) != outputLandscape && rotatedLandscape == outputLandscape;
+        }
+        if (!apply) {
+            return;
+        }
+        rotation = candidate;
+        if (frontFacing) {
+            // 镜像作用在解码出的画面上，视频本身带 90/270 度时正立画面的水平方向是解码画面的竖直方向
+            mirror = Nv21Scaler.swapsAxes(videoRotation) ? Nv21Scaler.MIRROR_VERTICAL : Nv21Scaler.MIRROR_HORIZONTAL;
+        }
+    }
+
+    private byte[] sourceFrame(int width, int height) {
+        int frameSize = FrameBufferPool.frameSize(width, height, COLOR_FormatNV21);
+        if (sourceFrame.length != frameSize) {
+            sourceFrame = new byte[frameSize];
+        }
+        return sourceFrame;
+    }
+
+    /**
+     * 把原尺寸的帧缩放、旋转到输出缓冲并发布；采样表 (含裁剪区域) 只在尺寸、模式或方向变化时重建
+     *
+     * @param convertColor 源帧还没有换算颜色时为 true (帧存档中的帧已经换算过)
+     */
+    private void publishTransformed(byte[] source, int sourceFormat, int width, int height, long presentationTimeUs, boolean convertColor) {
+        byte[] target = beginOutputFrame(targetWidth, targetHeight);
+        if (target == null) {
+            return;
+        }
+        scaler.setFormats(sourceFormat, outputFormat());
+        scaler.setColorTransform(convertColor ? colorTransform : null);
+        scaler.configure(width, height, targetWidth, targetHeight, scaleMode, rotation, mirror, fitMode);
+        scaler.scale(source, target);
+        publishOutputFrame(target, presentationTimeUs);
+    }
+
+    /**
+     * 取得本帧的写入目标：大小一致时是应用的回调缓冲，否则是交换器的 back 槽；
+     * 应用缓冲全部被占用时返回 null，这一帧丢弃 (正在写缓存时改写到 back 槽，保证缓存完整)
+     */
+    private byte[] beginOutputFrame(int width, int height) {
+        int format = outputFormat();
+        int frameSize = FrameBufferPool.frameSize(width, height, format);
+        CallbackBufferQueue queue = callbackBufferQueue;
+        outputDirect = false;
+        if (decodeAhead != null) {
+            // 预解码的帧由显示线程发布到交换器，回调线程再从交换器拷贝到应用缓冲
+            if (queue != null) {
+                queue.setDirectWrite(false);
+            }
+            aheadFrame = decodeAhead.beginWrite(width, height, format);
+            return aheadFrame == null ? null : aheadFrame.data;
+        }
+        if (queue != null && queue.isActive() && queue.getBufferLength() == frameSize) {
+            queue.setDirectWrite(true);
+            byte[] target = queue.pollForWrite();
+            if (target != null) {
+                outputDirect = true;
+                return target;
+            }
+            if (cacheWriter == null) {
+                return null;
+            }
+        } else if (queue != null) {
+            queue.setDirectWrite(false);
+        }
+        return frameExchanger.beginWrite(width, height, format).data;
+    }
+
+    private void commitOutputFrame(byte[] target, long presentationTimeUs) {
+        if (cacheWriter != null) {
+            recordFrame(target, presentationTimeUs);
+        }
+        publishOutputFrame(target, presentationTimeUs);
+    }
+
+    private void publishOutputFrame(byte[] target, long presentationTimeUs) {
+        if (aheadFrame != null) {
+            // 由显示线程发布并计数
+            decodeAhead.commit(aheadFrame, presentationTimeUs);
+            aheadFrame = null;
+            return;
+        }
+        if (outputDirect) {
+            callbackBufferQueue.commitWrite(target);
+        } else {
+            frameExchanger.publish(presentationTimeUs);
+        }
+        recordDelivery();
+    }
+
+    /**
+     * 统计实际输出的帧率，变化超过 1 帧时记录日志
+     */
+    private void recordDelivery() {
+        if (importTarget != null || !rateAdapter.recordDelivery(System.nanoTime())) {
+            return;
+        }
+        double fps = rateAdapter.getEffectiveFps();
+        if (Math.abs(fps - loggedFps) >= 1) {
+            loggedFps = fps;
+            XposedBridge.log("【VCAM】【decoder】实际输出帧率：" + Math.round(fps * 10) / 10.0
+                    + " 目标：" + Math.round(rateAdapter.getTargetFps() * 10) / 10.0);
+        }
+    }
+
+    /**
+     * 第一轮解码时顺带写入帧缓存，进入第二轮时提交
+     */
+    private void recordFrame(byte[] data, long presentationTimeUs) {
+        try {
+            if (presentationTimeUs >= firstLoopEndUs) {
+                cacheWriter.commit(firstLoopEndUs);
+                XposedBridge.log("【VCAM】【decoder】帧缓存已写入：" + cacheWriter.getFrameCount() + " 帧");
+                cacheWriter = null;
+                if (importTarget != null) {
+                    stopDecode = true;
+                }
+            } else if (!cacheWriter.append(presentationTimeUs, data, 0)) {
+                XposedBridge.log("【VCAM】【decoder】视频超出帧缓存上限，不再缓存");
+                cacheWriter.abort();
+                cacheWriter = null;
+            }
+        } catch (IOException e) {
+            XposedBridge.log("【VCAM】【decoder】写入帧缓存失败：" + e);
+            cacheWriter.abort();
+            cacheWriter = null;
+        }
+    }
+
+    /**
+     * 播放帧缓存或帧存档：直接从内存映射中按时间戳取帧，不创建解码器
+     */
+    private void playCachedFrames(FrameArchive.Reader reader) {
+        XposedBridge.log("【VCAM】【decoder】使用帧存档：" + reader.width + "x" + reader.height + " 共 " + reader.frameCount + " 帧");
+        byte[] planes = reader.format == FrameArchive.FORMAT_I420 ? new byte[reader.frameSize] : null;
+        // 需要缩放旋转、或者输出不是 NV21 时，存档帧 (I420 或 NV21) 一遍变换到输出格式
+        boolean transform = prepareTransform(reader.width, reader.height) || outputFormat() != COLOR_FormatNV21;
+        int sourceFormat = planes != null ? COLOR_FormatI420 : COLOR_FormatNV21;
+        if (reader.frameCount > 0) {
+            frameIntervalUs = Math.max(reader.loopDurationUs / reader.frameCount, 1);
+        }
+        clock.setLoopDurationIfUnset(reader.loopDurationUs);
+        long loopOffsetUs = 0;
+        while (!stopDecode) {
+            for (int i = 0; i < reader.frameCount && !stopDecode; i++) {
+                long presentationTimeUs = reader.presentationTimeUs(i) + loopOffsetUs;
+                if (skipFrame(presentationTimeUs)) {
+                    // 落后于时钟或超出目标帧率的帧不读取、不转换
+                    continue;
+                }
+                if (transform) {
+                    byte[] source = sourceFrame(reader.width, reader.height);
+                    reader.read(i, source, 0);
+                    publishTransformed(source, sourceFormat, reader.width, reader.height, presentationTimeUs, false);
+                    waitForPresentationTime(presentationTimeUs);
+                    continue;
+                }
+                byte[] target = beginOutputFrame(reader.width, reader.height);
+                if (target != null) {
+                    readArchiveFrame(reader, i, planes, target);
+                    commitOutputFrame(target, presentationTimeUs);
+                }
+                waitForPresentationTime(presentationTimeUs);
+            }
+            loopOffsetUs += reader.loopDurationUs;
+        }
+    }
+
+    private static void readArchiveFrame(FrameArchive.Reader reader, int index, byte[] planes, byte[] target) {
+        if (planes != null) {
+            reader.read(index, planes, 0);
+            FrameArchive.i420ToNv21(planes, 0, target, 0, reader.width, reader.height);
+        } else {
+            reader.read(index, target, 0);
+        }
+    }
+
+    /**
+     * 解码线程：等到这一帧的显示时间；预解码时由显示线程等待，这里直接返回
+     */
+    private void waitForPresentationTime(long presentationTimeUs) {
+        if (importTarget != null || decodeAhead != null) {
+            return;
+        }
+        sleepUntilPresentationTime(presentationTimeUs);
+    }
+
+    private void sleepUntilPresentationTime(long presentationTimeUs) {
+        long clockTimeUs = toClockTime(presentationTimeUs);
+        try {
+            while (!stopDecode && !clock.waitUntil(clockTimeUs, CLOCK_WAIT_SLICE_MS)) {
+                // 暂停或等待时间较长时分段等待
+            }
+        } catch (InterruptedException e) {
+            XposedBridge.log("【VCAM】线程延迟出错");
+        }
+    }
+
+    /**
+     * 帧时间戳 → 时钟时间；第一帧时加入时钟：
+     * 时钟还没走时从这一帧开始计时，已经在走 (其他源先启动) 时对齐到当前这一轮，落后的帧由 dropLateFrame 丢弃
+     */
+    private long toClockTime(long presentationTimeUs) {
+        if (!clockJoined) {
+            clockJoined = true;
+            if (clock.startIfNeeded(presentationTimeUs - rangeOriginUs)) {
+                clockOffsetUs = -rangeOriginUs;
+            } else if (clock.getLoopDurationUs() > 0) {
+                clockOffsetUs = clock.loopStartUs() - rangeOriginUs;
+            } else {
+                clockOffsetUs = clock.positionUs() - presentationTimeUs;
+            }
+            XposedBridge.log("【VCAM】【decoder】加入时钟，偏移 " + clockOffsetUs + "us，首帧耗时 "
+                    + (System.nanoTime() - seekStartNanos) / 1000000 + "ms");
+        }
+        return presentationTimeUs + clockOffsetUs;
+    }
+
+    /**
+     * 是否跳过这一帧 (不转换、不渲染)：落后于时钟，或者超出目标帧率；
+     * 写帧缓存和导入存档时每一帧都要保留
+     */
+    private boolean skipFrame(long presentationTimeUs) {
+        if (importTarget != null || cacheWriter != null) {
+            return false;
+        }
+        if (presentationTimeUs < showFromUs) {
+            return true;
+        }
+        rateAdapter.setPlaybackRate(clock.getRate());
+        return dropLateFrame(presentationTimeUs) || !rateAdapter.accept(presentationTimeUs);
+    }
+
+    /**
+     * 这一帧落后时钟超过一帧时丢弃，多路输出靠这个追上同一时间轴
+     */
+    private boolean dropLateFrame(long presentationTimeUs) {
+        if (clock.positionUs() - toClockTime(presentationTimeUs) <= frameIntervalUs) {
+            return false;
+        }
+        lateDropCount++;
+        return true;
+    }
+
+    /**
+     * 无缝循环解码
+     * 样本读完后直接 seek 回开头继续送入解码器，不发送 EOS、不 stop/configure，
+     * 新一轮的时间戳加上已播放的总时长，解码器和节拍时钟都感觉不到循环点
+     */
+    private void decodeFramesLooping(MediaCodec decoder, MediaExtractor extractor, MediaFormat mediaFormat) {
+        LoopingFeeder feeder = new LoopingFeeder(extractor, mediaFormat);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        decoder.configure(mediaFormat, play_surf, null, 0);
+        decoder.start();
+        boolean sawInputEOS = false;
+        boolean sawOutputEOS = false;
+        while (!sawOutputEOS && !stopDecode) {
+            if (!sawInputEOS) {
+                int inputBufferId = decoder.dequeueInputBuffer(DEFAULT_TIMEOUT_US);
+                if (inputBufferId >= 0) {
+                    sawInputEOS = !feeder.feed(decoder, inputBufferId);
+                }
+            }
+            int outputBufferId = decoder.dequeueOutputBuffer(info, DEFAULT_TIMEOUT_US);
+            if (outputBufferId >= 0) {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    sawOutputEOS = true;
+                }
+                presentOutput(decoder, outputBufferId, info.presentationTimeUs, info.size != 0);
+            } else if (outputBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                updateColorSpace(decoder.getOutputFormat());
+            }
+        }
+        XposedBridge.log("【VCAM】【decoder】无缝循环结束，共循环 " + feeder.loopCount + " 次" + feeder.strideStats());
+    }
+
+    /**
+     * 异步解码
+     * 回调线程在输入缓冲空出时立即送样本，输出缓冲放入 outputs，
+     * 解码线程只负责等待时间戳、转换并释放输出，送样本不会因为等待出帧而停顿
+     */
+    @SuppressLint("NewApi")
+    private void decodeFramesAsync(MediaCodec decoder, MediaExtractor extractor, MediaFormat mediaFormat) {
+        final LoopingFeeder feeder = new LoopingFeeder(extractor, mediaFormat);
+        final OutputRing outputs = new OutputRing();
+        callbackThread = new HandlerThread("decode-callback");
+        callbackThread.start();
+        decoder.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                if (stopDecode) {
+                    return;
+                }
+                try {
+                    feeder.feed(codec, index);
+                } catch (IllegalStateException e) {
+                    // 解码器已停止
+                }
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                outputs.put(index, info.presentationTimeUs, info.size, info.flags);
+            }
+
+            @Override
+            public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                XposedBridge.log("【VCAM】【decoder】异步解码出错：" + e);
+                outputs.fail();
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                XposedBridge.log("【VCAM】【decoder】输出格式：" + format);
+                updateColorSpace(format);
+            }
+        }, new Handler(callbackThread.getLooper()));
+        decoder.configure(mediaFormat, play_surf, null, 0);
+        decoder.start();
+        XposedBridge.log("【VCAM】【decoder】异步解码已启动");
+        while (!stopDecode) {
+            if (!outputs.take(100)) {
+                if (outputs.failed) {
+                    break;
+                }
+                continue;
+            }
+            presentOutput(decoder, outputs.index, outputs.timeUs, outputs.size != 0);
+            if ((outputs.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                break;
+            }
+        }
+        XposedBridge.log("【VCAM】【decoder】异步解码结束，共循环 " + feeder.loopCount + " 次" + feeder.strideStats());
+    }
+
+    /**
+     * 转换并发布一帧输出，等到它的显示时间后释放 (有 Surface 时此时渲染)
+     */
+    private void presentOutput(MediaCodec decoder, int outputBufferId, long presentationTimeUs, boolean hasData) {
+        boolean render = hasData && !skipFrame(presentationTimeUs);
+        if (render) {
+            outputFrameCount++;
+            if (callback != null) {
+                callback.onDecodeFrame(outputFrameCount);
+            }
+            if (play_surf == null) {
+                Image image = decoder.getOutputImage(outputBufferId);
+                if (outputImageFormat != null) {
+                    publishImage(image, presentationTimeUs);
+                }
+                image.close();
+            }
+            waitForPresentationTime(presentationTimeUs);
+        }
+        decoder.releaseOutputBuffer(outputBufferId, render);
+    }
+
+    /**
+     * 循环送样本，同步和异步两种方式共用
+     */
+    private class LoopingFeeder {
+        private final MediaExtractor extractor;
+        private long frameDurationUs = DEFAULT_FRAME_DURATION_US;
+        private long loopOffsetUs = 0;
+        private long loopEndUs = 0;
+        private int loopSamples = 0;
+        // 关键帧模式下已经跳过了最后一个关键帧，下一次读取按这一轮结束处理
+        private boolean loopExhausted = false;
+        private final SampleStride stride;
+        int loopCount = 0;
+
+        LoopingFeeder(MediaExtractor extractor, MediaFormat mediaFormat) {
+            this.extractor = extractor;
+            if (mediaFormat.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+                int frameRate = mediaFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
+                if (frameRate > 0) {
+                    frameDurationUs = 1000000L / frameRate;
+                }
+            }
+            stride = new SampleStride(mediaFormat.getString(MediaFormat.KEY_MIME), frameDurationUs);
+            stride.setCodecConfig(mediaFormat.containsKey("csd-0") ? mediaFormat.getByteBuffer("csd-0") : null);
+        }
+
+        String strideStats() {
+            return "，跳过样本 " + stride.getSkippedCount() + " 个，关键帧跳转 " + stride.getJumpCount() + " 次";
+        }
+
+        /**
+         * 向 inputBufferId 送入一个样本，文件为空时送入 EOS 并返回 false
+         */
+        boolean feed(MediaCodec decoder, int inputBufferId) {
+            ByteBuffer inputBuffer = decoder.getInputBuffer(inputBufferId);
+            boolean striding = strideEnabled && cacheWriter == null && importTarget == null;
+            if (striding) {
+                stride.setNeededInterval(neededIntervalUs());
+            }
+            while (true) {
+                int sampleSize = loopExhausted ? -1 : extractor.readSampleData(inputBuffer, 0);
+                if (sampleSize >= 0 && extractor.getSampleTime() >= rangeEndUs) {
+                    sampleSize = -1;
+                }
+                if (sampleSize < 0 && loopSamples > 0) {
+                    restartLoop();
+                    sampleSize = extractor.readSampleData(inputBuffer, 0);
+                }
+                if (sampleSize < 0) {
+                    decoder.queueInputBuffer(inputBufferId, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    return false;
+                }
+                long sampleTimeUs = extractor.getSampleTime();
+                boolean sync = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+                loopEndUs = Math.max(loopEndUs, sampleTimeUs);
+                loopSamples++;
+                if (!striding) {
+                    decoder.queueInputBuffer(inputBufferId, 0, sampleSize, sampleTimeUs + loopOffsetUs, 0);
+                    extractor.advance();
+                    return true;
+                }
+                if (stride.getMode() == SampleStride.MODE_KEYFRAMES && !sync) {
+                    // 刚切换到关键帧模式时停在非关键帧上，直接跳到下一个关键帧
+                    jumpToKeyframe(sampleTimeUs, sampleTimeUs + 1);
+                    continue;
+                }
+                if (!stride.accept(inputBuffer, sampleSize, sampleTimeUs, sync)) {
+                    extractor.advance();
+                    continue;
+                }
+                decoder.queueInputBuffer(inputBufferId, 0, sampleSize, sampleTimeUs + loopOffsetUs, 0);
+                if (stride.getMode() == SampleStride.MODE_KEYFRAMES && sync) {
+                    jumpToKeyframe(sampleTimeUs, stride.nextKeyframeSearchUs(sampleTimeUs));
+                } else {
+                    extractor.advance();
+                }
+                return true;
+            }
+        }
+
+        /**
+         * 跳到 targetUs 之后的第一个关键帧；没有更靠后的关键帧时这一轮结束
+         */
+        private void jumpToKeyframe(long currentUs, long targetUs) {
+            extractor.seekTo(targetUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+            if (extractor.getSampleTime() <= currentUs) {
+                loopExhausted = true;
+            }
+        }
+
+        private void restartLoop() {
+            // 一轮结束，回到开头，时间戳整体后移一轮的时长；优先用时钟上的一轮时长，与其他源保持一致
+            long clockLoopUs = clock.getLoopDurationUs();
+            long loopUs = loopEndUs + frameDurationUs - rangeOriginUs;
+            loopOffsetUs += clockLoopUs > loopUs - frameDurationUs ? clockLoopUs : loopUs;
+            loopEndUs = 0;
+            loopSamples = 0;
+            loopExhausted = false;
+            loopCount++;
+            if (loopCount == 1) {
+                firstLoopEndUs = loopOffsetUs;
+            }
+            extractor.seekTo(rangeOriginUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            stride.reset();
+            if (callback != null) {
+                callback.onFinishDecode();
+            }
+        }
+    }
+
+    /**
+     * 异步模式下等待出帧的输出缓冲，环形数组，不为每帧分配对象
+     */
+    private static class OutputRing {
+        private int[] indices = new int[16];
+        private long[] times = new long[16];
+        private int[] sizes = new int[16];
+        private int[] flagValues = new int[16];
+        private int head = 0;
+        private int count = 0;
+        volatile boolean failed = false;
+
+        // take 成功后由解码线程读取
+        int index;
+        long timeUs;
+        int size;
+        int flags;
+
+        synchronized void put(int index, long timeUs, int size, int flags) {
+            if (count == indices.length) {
+                grow();
+            }
+            int tail = (head + count) % indices.length;
+            indices[tail] = index;
+            times[tail] = timeUs;
+            sizes[tail] = size;
+            flagValues[tail] = flags;
+            count++;
+            notifyAll();
+        }
+
+        synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
+
+        synchronized boolean take(long timeoutMs) {
+            if (count == 0 && !failed) {
+                try {
+                    wait(timeoutMs);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            if (count == 0) {
+                return false;
+            }
+            index = indices[head];
+            timeUs = times[head];
+            size = sizes[head];
+            flags = flagValues[head];
+            head = (head + 1) % indices.length;
+            count--;
+            return true;
+        }
+
+        private void grow() {
+            int capacity = indices.length * 2;
+            int[] newIndices = new int[capacity];
+            long[] newTimes = new long[capacity];
+            int[] newSizes = new int[capacity];
+            int[] newFlags = new int[capacity];
+            for (int i = 0; i < count; i++) {
+                int from = (head + i) % indices.length;
+                newIndices[i] = indices[from];
+                newTimes[i] = times[from];
+                newSizes[i] = sizes[from];
+                newFlags[i] = flagValues[from];
+            }
+            indices = newIndices;
+            times = newTimes;
+            sizes = newSizes;
+            flagValues = newFlags;
+            head = 0;
+        }
     }
 
     private static int selectTrack(MediaExtractor extractor) {
@@ -259,102 +1373,36 @@ public class VideoToFrames implements Runnable {
         return false;
     }
 
-    private static byte[] getDataFromImage(Image image, int colorFormat) {
-        if (colorFormat != COLOR_FormatI420 && colorFormat != COLOR_FormatNV21) {
-            throw new IllegalArgumentException("only support COLOR_FormatI420 " + "and COLOR_FormatNV21");
-        }
+    /**
+     * 将 Image 按 colorFormat (YuvLayout.FORMAT_*) 的布局写入 data
+     *
+     * @param transform 取数时顺带换算颜色，null 表示不换算
+     */
+    private void getDataFromImage(Image image, int colorFormat, byte[] data, YuvColorTransform transform) {
         if (!isImageFormatSupported(image)) {
             throw new RuntimeException("can't convert Image to byte array, format " + image.getFormat());
         }
         Rect crop = image.getCropRect();
-        int format = image.getFormat();
         int width = crop.width();
         int height = crop.height();
         Image.Plane[] planes = image.getPlanes();
-        byte[] data = new byte[width * height * ImageFormat.getBitsPerPixel(format) / 8];
-        byte[] rowData = new byte[planes[0].getRowStride()];
-        if (VERBOSE) Log.v(TAG, "get data from " + planes.length + " planes");
-        int channelOffset = 0;
-        int outputStride = 1;
-        for (int i = 0; i < planes.length; i++) {
-            switch (i) {
-                case 0:
-                    channelOffset = 0;
-                    outputStride = 1;
-                    break;
-                case 1:
-                    if (colorFormat == COLOR_FormatI420) {
-                        channelOffset = width * height;
-                        outputStride = 1;
-                    } else if (colorFormat == COLOR_FormatNV21) {
-                        channelOffset = width * height + 1;
-                        outputStride = 2;
-                    }
-                    break;
-                case 2:
-                    if (colorFormat == COLOR_FormatI420) {
-                        channelOffset = (int) (width * height * 1.25);
-                        outputStride = 1;
-                    } else if (colorFormat == COLOR_FormatNV21) {
-                        channelOffset = width * height;
-                        outputStride = 2;
-                    }
-                    break;
-            }
-            ByteBuffer buffer = planes[i].getBuffer();
-            int rowStride = planes[i].getRowStride();
-            int pixelStride = planes[i].getPixelStride();
-            if (VERBOSE) {
-                Log.v(TAG, "pixelStride " + pixelStride);
-                Log.v(TAG, "rowStride " + rowStride);
-                Log.v(TAG, "width " + width);
-                Log.v(TAG, "height " + height);
-                Log.v(TAG, "buffer size " + buffer.remaining());
-            }
-            int shift = (i == 0) ? 0 : 1;
-            int w = width >> shift;
-            int h = height >> shift;
-            buffer.position(rowStride * (crop.top >> shift) + pixelStride * (crop.left >> shift));
-            for (int row = 0; row < h; row++) {
-                int length;
-                if (pixelStride == 1 && outputStride == 1) {
-                    length = w;
-                    buffer.get(data, channelOffset, length);
-                    channelOffset += length;
-                } else {
-                    length = (w - 1) * pixelStride + 1;
-                    buffer.get(rowData, 0, length);
-                    for (int col = 0; col < w; col++) {
-                        data[channelOffset] = rowData[col * pixelStride];
-                        channelOffset += outputStride;
-                    }
-                }
-                if (row < h - 1) {
-                    buffer.position(buffer.position() + rowStride - length);
-                }
-            }
-            if (VERBOSE) Log.v(TAG, "Finished reading data from plane " + i);
+        if (data.length < YuvLayout.frameSize(width, height, colorFormat)) {
+            throw new IllegalArgumentException("output buffer too small: " + data.length);
+        }
+        for (int i = 0; i < 3; i++) {
+            planeBuffers[i] = planes[i].getBuffer();
+            planeRowStrides[i] = planes[i].getRowStride();
+            planePixelStrides[i] = planes[i].getPixelStride();
+        }
+        int path = planeExtractor.getChromaPath();
+        planeExtractor.setColorTransform(transform);
+        planeExtractor.extract(planeBuffers, planeRowStrides, planePixelStrides, crop.left, crop.top, width, height,
+                colorFormat, data);
+        if (planeExtractor.getChromaPath() != path) {
+            XposedBridge.log("【VCAM】【decoder】色度取数方式：" + planeExtractor.getChromaPath()
+                    + " rowStride=" + planeRowStrides[1] + " pixelStride=" + planePixelStrides[1]);
         }
-        return data;
     }
 
 
 }
-
-enum OutputImageFormat {
-    I420("I420"),
-    NV21("NV21"),
-    JPEG("JPEG");
-    private final String friendlyName;
-
-    OutputImageFormat(String friendlyName) {
-        this.friendlyName = friendlyName;
-    }
-
-    public String toString() {
-        return friendlyName;
-    }
-}
-
-
-
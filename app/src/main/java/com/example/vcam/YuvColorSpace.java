@@ -0,0 +1,152 @@
+package com.example.vcam;
+
+/**
+ * YUV 的色彩矩阵 (BT.601 / BT.709 / BT.2020) 与取值范围 (有限 16-235 / 完整 0-255)
+ * 只描述矩阵，不做原色和传递函数的换算。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class YuvColorSpace {
+    public static final int MATRIX_BT601 = 0;
+    public static final int MATRIX_BT709 = 1;
+    public static final int MATRIX_BT2020 = 2;
+
+    // MediaFormat.COLOR_STANDARD_* 与 COLOR_RANGE_* 的取值 (API 24 起才有这些常量)
+    static final int COLOR_STANDARD_BT709 = 1;
+    static final int COLOR_STANDARD_BT601_PAL = 2;
+    static final int COLOR_STANDARD_BT601_NTSC = 4;
+    static final int COLOR_STANDARD_BT2020 = 6;
+    static final int COLOR_RANGE_FULL = 1;
+    static final int COLOR_RANGE_LIMITED = 2;
+
+    /**
+     * 照片转换和相机帧默认使用的色彩空间，与旧版本的输出一致
+     */
+    public static final YuvColorSpace BT601_LIMITED = new YuvColorSpace(MATRIX_BT601, false);
+    public static final YuvColorSpace BT601_FULL = new YuvColorSpace(MATRIX_BT601, true);
+    public static final YuvColorSpace BT709_LIMITED = new YuvColorSpace(MATRIX_BT709, false);
+
+    public final int matrix;
+    public final boolean fullRange;
+    final double kr;
+    final double kb;
+
+    public YuvColorSpace(int matrix, boolean fullRange) {
+        this.matrix = matrix;
+        this.fullRange = fullRange;
+        switch (matrix) {
+            case MATRIX_BT709:
+                kr = 0.2126;
+                kb = 0.0722;
+                break;
+            case MATRIX_BT2020:
+                kr = 0.2627;
+                kb = 0.0593;
+                break;
+            default:
+                kr = 0.299;
+                kb = 0.114;
+                break;
+        }
+    }
+
+    /**
+     * 按 MediaFormat 的 KEY_COLOR_STANDARD / KEY_COLOR_RANGE 选择色彩空间，
+     * 未标注 (传 0) 时和常见播放器一样：高清 (宽 1280 或高 720 以上) 按 BT.709，其余按 BT.601，范围按有限范围
+     */
+    public static YuvColorSpace fromMediaFormat(int standard, int range, int width, int height) {
+        int matrix;
+        switch (standard) {
+            case COLOR_STANDARD_BT709:
+                matrix = MATRIX_BT709;
+                break;
+            case COLOR_STANDARD_BT601_PAL:
+            case COLOR_STANDARD_BT601_NTSC:
+                matrix = MATRIX_BT601;
+                break;
+            case COLOR_STANDARD_BT2020:
+                matrix = MATRIX_BT2020;
+                break;
+            default:
+                matrix = width >= 1280 || height >= 720 ? MATRIX_BT709 : MATRIX_BT601;
+                break;
+        }
+        return new YuvColorSpace(matrix, range == COLOR_RANGE_FULL);
+    }
+
+    double lumaOffset() {
+        return fullRange ? 0 : 16;
+    }
+
+    double lumaRange() {
+        return fullRange ? 255 : 219;
+    }
+
+    double chromaRange() {
+        return fullRange ? 255 : 224;
+    }
+
+    /**
+     * 码值 (未取整) → 0..1 的 RGB
+     */
+    void toRgb(double y, double u, double v, double[] rgb) {
+        double luma = (y - lumaOffset()) / lumaRange();
+        double cb = (u - 128) / chromaRange();
+        double cr = (v - 128) / chromaRange();
+        double r = luma + 2 * (1 - kr) * cr;
+        double b = luma + 2 * (1 - kb) * cb;
+        rgb[0] = r;
+        rgb[1] = (luma - kr * r - kb * b) / (1 - kr - kb);
+        rgb[2] = b;
+    }
+
+    /**
+     * 0..1 的 RGB → 码值 (未取整)
+     */
+    void fromRgb(double r, double g, double b, double[] yuv) {
+        double luma = kr * r + (1 - kr - kb) * g + kb * b;
+        yuv[0] = lumaOffset() + lumaRange() * luma;
+        yuv[1] = 128 + chromaRange() * (b - luma) / (2 * (1 - kb));
+        yuv[2] = 128 + chromaRange() * (r - luma) / (2 * (1 - kr));
+    }
+
+    /**
+     * 归一化码值 (码值 / 255) 换算到 0..1 RGB 的 3x3 矩阵，按列存放 (GLSL mat3 的顺序)，
+     * 和 normalizedOffsets() 一起用：rgb = M × (yuv - offsets)，yuv 的顺序为 Y、U、V
+     */
+    float[] normalizedToRgbMatrix() {
+        float y = (float) (255 / lumaRange());
+        double c = 255 / chromaRange();
+        double kg = 1 - kr - kb;
+        return new float[]{
+                y, y, y,
+                0, (float) (-c * 2 * kb * (1 - kb) / kg), (float) (c * 2 * (1 - kb)),
+                (float) (c * 2 * (1 - kr)), (float) (-c * 2 * kr * (1 - kr) / kg), 0,
+        };
+    }
+
+    /**
+     * normalizedToRgbMatrix() 使用的偏移：亮度的黑电平和色度的 128，按 Y、U、V 的顺序
+     */
+    float[] normalizedOffsets() {
+        return new float[]{(float) (lumaOffset() / 255), 128 / 255f, 128 / 255f};
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof YuvColorSpace)) {
+            return false;
+        }
+        YuvColorSpace other = (YuvColorSpace) o;
+        return matrix == other.matrix && fullRange == other.fullRange;
+    }
+
+    @Override
+    public int hashCode() {
+        return matrix * 2 + (fullRange ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        String name = matrix == MATRIX_BT709 ? "BT.709" : matrix == MATRIX_BT2020 ? "BT.2020" : "BT.601";
+        return name + (fullRange ? " full" : " limited");
+    }
+}
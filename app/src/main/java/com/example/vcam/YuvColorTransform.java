@@ -0,0 +1,142 @@
+package com.example.vcam;
+
+/**
+ * 把一帧 4:2:0 YUV 从一个色彩空间原地换算到另一个 (例如 BT.709 高清视频 → 相机约定的 BT.601)
+ * 换算是仿射的：Y' = f(Y) + g(U) + h(V)，U' / V' 只取决于 U、V，
+ * 每一项都预先算成 16 位定点查找表，每个像素只有查表、加法和移位。
+ * 两个色彩空间相同时 isIdentity() 为 true，调用方直接跳过。
+ * 取数 (YuvPlaneExtractor) 和缩放 (Nv21Scaler) 写完一行就调用 applyLumaRow / applyChromaRow，换算不需要单独一遍。
+ * 实例创建后不可变，可以在线程间替换引用。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class YuvColorTransform {
+    // 换算结果 (表的算法、定点位数、取整) 改变时加一，按旧结果保存的帧缓存随之失效
+    public static final int VERSION = 1;
+
+    private static final int SHIFT = 16;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    public final YuvColorSpace from;
+    public final YuvColorSpace to;
+
+    private final boolean identity;
+    // 表项已包含常数项和取整用的 0.5 (分别放在 yFromY、uFromU、vFromV 中)
+    private final int[] yFromY = new int[256];
+    private final int[] yFromU = new int[256];
+    private final int[] yFromV = new int[256];
+    private final int[] uFromU = new int[256];
+    private final int[] uFromV = new int[256];
+    private final int[] vFromU = new int[256];
+    private final int[] vFromV = new int[256];
+
+    public YuvColorTransform(YuvColorSpace from, YuvColorSpace to) {
+        this.from = from;
+        this.to = to;
+        identity = from.equals(to);
+        if (identity) {
+            return;
+        }
+        // 仿射变换由原点和三个单位向量的像确定
+        double[] base = map(from, to, 0, 128, 128);
+        double[] dy = map(from, to, 1, 128, 128);
+        double[] du = map(from, to, 0, 129, 128);
+        double[] dv = map(from, to, 0, 128, 129);
+        for (int i = 0; i < 3; i++) {
+            dy[i] -= base[i];
+            du[i] -= base[i];
+            dv[i] -= base[i];
+        }
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            yFromY[i] = fixed(base[0] + dy[0] * i) + HALF;
+            yFromU[i] = fixed(du[0] * c);
+            yFromV[i] = fixed(dv[0] * c);
+            uFromU[i] = fixed(base[1] + du[1] * c) + HALF;
+            uFromV[i] = fixed(dv[1] * c);
+            vFromU[i] = fixed(du[2] * c);
+            vFromV[i] = fixed(base[2] + dv[2] * c) + HALF;
+        }
+    }
+
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * 原地换算一帧，format 为 YuvLayout.FORMAT_*
+     */
+    public void apply(byte[] frame, int width, int height, int format) {
+        if (identity) {
+            return;
+        }
+        for (int row = 0; row < height / 2; row++) {
+            applyLumaRow(frame, width, height, format, row * 2, 0, width);
+            applyLumaRow(frame, width, height, format, row * 2 + 1, 0, width);
+            applyChromaRow(frame, width, height, format, row, 0, width / 2);
+        }
+    }
+
+    /**
+     * 原地换算第 row 行亮度中 [from, to) 的像素，色度取自这一行所在的色度行，此时色度必须还没有换算；
+     * 奇数宽高多出的一列 / 一行没有对应的色度，保持不变
+     */
+    public void applyLumaRow(byte[] frame, int width, int height, int format, int row, int from, int to) {
+        if (identity || row >= (height & ~1)) {
+            return;
+        }
+        to = Math.min(to, width & ~1);
+        int pixelStride = YuvLayout.chromaPixelStride(format);
+        int chromaRow = (row >> 1) * YuvLayout.chromaRowStride(format, width);
+        int u = YuvLayout.chromaOffset(format, width, height, YuvLayout.CHROMA_U) + chromaRow;
+        int v = YuvLayout.chromaOffset(format, width, height, YuvLayout.CHROMA_V) + chromaRow;
+        int luma = row * YuvLayout.lumaStride(format, width);
+        for (int x = from; x < to; x++) {
+            int c = (x >> 1) * pixelStride;
+            int chroma = yFromU[frame[u + c] & 0xFF] + yFromV[frame[v + c] & 0xFF];
+            frame[luma + x] = clamp(yFromY[frame[luma + x] & 0xFF] + chroma);
+        }
+    }
+
+    /**
+     * 原地换算第 chromaRow 行色度中 [from, to) 的采样点，在它对应的两行亮度都换算之后调用
+     */
+    public void applyChromaRow(byte[] frame, int width, int height, int format, int chromaRow, int from, int to) {
+        if (identity || chromaRow >= height / 2) {
+            return;
+        }
+        to = Math.min(to, width / 2);
+        int pixelStride = YuvLayout.chromaPixelStride(format);
+        int rowStart = chromaRow * YuvLayout.chromaRowStride(format, width);
+        int u = YuvLayout.chromaOffset(format, width, height, YuvLayout.CHROMA_U) + rowStart + from * pixelStride;
+        int v = YuvLayout.chromaOffset(format, width, height, YuvLayout.CHROMA_V) + rowStart + from * pixelStride;
+        for (int col = from; col < to; col++) {
+            int cu = frame[u] & 0xFF;
+            int cv = frame[v] & 0xFF;
+            frame[u] = clamp(uFromU[cu] + uFromV[cv]);
+            frame[v] = clamp(vFromU[cu] + vFromV[cv]);
+            u += pixelStride;
+            v += pixelStride;
+        }
+    }
+
+    private static byte clamp(int fixed) {
+        int value = fixed >> SHIFT;
+        return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+    }
+
+    private static int fixed(double value) {
+        return (int) Math.round(value * (1 << SHIFT));
+    }
+
+    private static double[] map(YuvColorSpace from, YuvColorSpace to, double y, double u, double v) {
+        double[] rgb = new double[3];
+        double[] yuv = new double[3];
+        from.toRgb(y, u, v, rgb);
+        to.fromRgb(rgb[0], rgb[1], rgb[2], yuv);
+        return yuv;
+    }
+
+    @Override
+    public String toString() {
+        return from + " -> " + to;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.vcam;
+
+/**
+ * 4:2:0 帧在 byte[] 中的布局
+ * <ul>
+ * <li>I420：Y 平面、U 平面、V 平面，紧密排列</li>
+ * <li>NV21：Y 平面、VU 交错平面</li>
+ * <li>YV12：Y 平面、V 平面、U 平面；按 Camera.Parameters.setPreviewFormat 的约定，
+ * Y 行跨度按 16 字节对齐，色度行跨度为 Y 行跨度的一半再按 16 字节对齐</li>
+ * <li>NV12：Y 平面、UV 交错平面</li>
+ * </ul>
+ * 色度分量用 0 表示 V、1 表示 U。只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public final class YuvLayout {
+    public static final int FORMAT_I420 = 1;
+    public static final int FORMAT_NV21 = 2;
+    public static final int FORMAT_YV12 = 3;
+    public static final int FORMAT_NV12 = 4;
+
+    public static final int CHROMA_V = 0;
+    public static final int CHROMA_U = 1;
+
+    private YuvLayout() {
+    }
+
+    public static int frameSize(int width, int height, int format) {
+        if (format == FORMAT_YV12) {
+            return lumaStride(format, width) * height + chromaRowStride(format, width) * (height / 2) * 2;
+        }
+        return width * height * 3 / 2;
+    }
+
+    public static int lumaStride(int format, int width) {
+        return format == FORMAT_YV12 ? align16(width) : width;
+    }
+
+    public static int chromaRowStride(int format, int width) {
+        switch (format) {
+            case FORMAT_I420:
+                return width / 2;
+            case FORMAT_YV12:
+                return align16(align16(width) / 2);
+            default:
+                return width;
+        }
+    }
+
+    /**
+     * 交错格式为 2，平面格式为 1
+     */
+    public static int chromaPixelStride(int format) {
+        return isSemiPlanar(format) ? 2 : 1;
+    }
+
+    public static boolean isSemiPlanar(int format) {
+        return format == FORMAT_NV21 || format == FORMAT_NV12;
+    }
+
+    /**
+     * 色度分量第一个采样的下标
+     *
+     * @param component CHROMA_V 或 CHROMA_U
+     */
+    public static int chromaOffset(int format, int width, int height, int component) {
+        int luma = lumaStride(format, width) * height;
+        switch (format) {
+            case FORMAT_I420:
+                return component == CHROMA_U ? luma : luma + luma / 4;
+            case FORMAT_YV12:
+                return component == CHROMA_V ? luma : luma + chromaRowStride(format, width) * (height / 2);
+            case FORMAT_NV12:
+                return component == CHROMA_U ? luma : luma + 1;
+            default:
+                return component == CHROMA_V ? luma : luma + 1;
+        }
+    }
+
+    private static int align16(int value) {
+        return (value + 15) & ~15;
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.vcam;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * 从 YUV_420_888 的三个平面中取出 I420/NV21/YV12/NV12 数据 (布局见 YuvLayout)
+ * 每路视频只选择一次取数方式，平面布局变化时重新选择：
+ * <ul>
+ * <li>亮度平面没有行填充时一次 bulk get 取完，否则每行一次</li>
+ * <li>输出交错格式、色度在内存中的交错顺序与输出一致时，每行从排在前面的平面整行拷贝</li>
+ * <li>交错顺序与输出相反时，整行按 16 位字交换字节序拷贝</li>
+ * <li>其他布局 (以及输出平面格式时的色度) 走通用路径，像素跨度为 1 时按行拷贝</li>
+ * </ul>
+ * 色度交错顺序无法从 ByteBuffer 直接得知，第一帧按数据判断：U、V 两个平面共用同一块内存时，
+ * 一个平面的奇数位就是另一个平面的偶数位。纯色画面两种顺序都成立，此时先走通用路径，之后的帧再判断。
+ * 设置了色彩换算时先取色度，再逐行取亮度，每行取完立即查表换算，两行亮度换算完再换算它们共用的色度行。
+ * 只依赖 java.*，可以直接在 JVM 上测试。
+ */
+public class YuvPlaneExtractor {
+    public static final int FORMAT_I420 = YuvLayout.FORMAT_I420;
+    public static final int FORMAT_NV21 = YuvLayout.FORMAT_NV21;
+    public static final int FORMAT_YV12 = YuvLayout.FORMAT_YV12;
+    public static final int FORMAT_NV12 = YuvLayout.FORMAT_NV12;
+
+    public static final int CHROMA_UNDECIDED = 0;
+    public static final int CHROMA_GENERIC = 1;
+    public static final int CHROMA_INTERLEAVED_COPY = 2;
+    public static final int CHROMA_INTERLEAVED_SWAP = 3;
+
+    private int chromaPath = CHROMA_UNDECIDED;
+    // 做出选择时的布局，布局变化后重新选择
+    private int layoutWidth;
+    private int layoutHeight;
+    private int layoutChromaRowStride;
+    private int layoutChromaPixelStride;
+    private int layoutFormat;
+
+    private byte[] rowData = new byte[0];
+    // 取数时顺带换算颜色，恒等换算按 null 处理
+    private YuvColorTransform colorTransform;
+
+    public int getChromaPath() {
+        return chromaPath;
+    }
+
+    /**
+     * 之后取出的帧换算到 transform 的目标色彩空间，null 表示不换算
+     */
+    public void setColorTransform(YuvColorTransform transform) {
+        colorTransform = transform == null || transform.isIdentity() ? null : transform;
+    }
+
+    /**
+     * 把裁剪区域 (cropLeft, cropTop, width, height) 按 format 的布局写入 data
+     *
+     * @param planes       Y、U、V 三个平面，下标 0 对应平面起点
+     * @param rowStrides   各平面的行跨度
+     * @param pixelStrides 各平面的像素跨度
+     */
+    public void extract(ByteBuffer[] planes, int[] rowStrides, int[] pixelStrides,
+                        int cropLeft, int cropTop, int width, int height, int format, byte[] data) {
+        YuvColorTransform transform = colorTransform;
+        if (transform == null) {
+            copyLuma(planes[0], rowStrides[0], pixelStrides[0], cropLeft, cropTop, width, height,
+                    YuvLayout.lumaStride(format, width), data);
+        }
+        int path = choosePath(planes, rowStrides, pixelStrides, cropLeft, cropTop, width, height, format);
+        int chromaLeft = cropLeft >> 1;
+        int chromaTop = cropTop >> 1;
+        int chromaWidth = width >> 1;
+        int chromaHeight = height >> 1;
+        int offset = YuvLayout.lumaStride(format, width) * height;
+        // 输出中排在前面的分量：NV21 为 V，NV12 为 U
+        ByteBuffer first = format == FORMAT_NV12 ? planes[1] : planes[2];
+        ByteBuffer second = format == FORMAT_NV12 ? planes[2] : planes[1];
+        if (path == CHROMA_INTERLEAVED_COPY) {
+            copyInterleaved(first, second, rowStrides[1], chromaLeft, chromaTop, chromaWidth, chromaHeight, offset, data);
+        } else if (path == CHROMA_INTERLEAVED_SWAP) {
+            copySwapped(second, first, rowStrides[1], chromaLeft, chromaTop, chromaWidth, chromaHeight, offset, data);
+        } else {
+            for (int i = 1; i < 3; i++) {
+                copyChromaGeneric(planes[i], rowStrides[i], pixelStrides[i], i, chromaLeft, chromaTop,
+                        chromaWidth, chromaHeight, width, height, format, data);
+            }
+        }
+        if (transform != null) {
+            copyLumaConverted(planes[0], rowStrides[0], pixelStrides[0], cropLeft, cropTop, width, height, format, data, transform);
+        }
+    }
+
+    /**
+     * 色度已经取出 (未换算)：逐行取亮度并换算，每两行之后换算对应的色度行
+     */
+    private void copyLumaConverted(ByteBuffer plane, int rowStride, int pixelStride, int cropLeft, int cropTop,
+                                   int width, int height, int format, byte[] data, YuvColorTransform transform) {
+        ByteBuffer buffer = plane.duplicate();
+        int dstStride = YuvLayout.lumaStride(format, width);
+        for (int row = 0; row < height; row++) {
+            if (pixelStride == 1) {
+                buffer.position((cropTop + row) * rowStride + cropLeft);
+                buffer.get(data, row * dstStride, width);
+            } else {
+                copyStrided(buffer, rowStride, pixelStride, cropLeft, cropTop + row, width, 1, data, row * dstStride, dstStride, 1);
+            }
+            transform.applyLumaRow(data, width, height, format, row, 0, width);
+            if ((row & 1) == 1) {
+                transform.applyChromaRow(data, width, height, format, row >> 1, 0, width >> 1);
+            }
+        }
+    }
+
+    private int choosePath(ByteBuffer[] planes, int[] rowStrides, int[] pixelStrides,
+                           int cropLeft, int cropTop, int width, int height, int format) {
+        if (chromaPath != CHROMA_UNDECIDED && width == layoutWidth && height == layoutHeight
+                && rowStrides[1] == layoutChromaRowStride && pixelStrides[1] == layoutChromaPixelStride
+                && format == layoutFormat) {
+            return chromaPath;
+        }
+        layoutWidth = width;
+        layoutHeight = height;
+        layoutChromaRowStride = rowStrides[1];
+        layoutChromaPixelStride = pixelStrides[1];
+        layoutFormat = format;
+        if (((width | height) & 1) != 0) {
+            chromaPath = CHROMA_GENERIC;
+            return chromaPath;
+        }
+        chromaPath = detectChromaPath(planes, rowStrides, pixelStrides, cropLeft >> 1, cropTop >> 1, width >> 1, height >> 1, format);
+        return chromaPath;
+    }
+
+    static int detectChromaPath(ByteBuffer[] planes, int[] rowStrides, int[] pixelStrides,
+                                int chromaLeft, int chromaTop, int chromaWidth, int chromaHeight, int format) {
+        if (!YuvLayout.isSemiPlanar(format) || pixelStrides[1] != 2 || pixelStrides[2] != 2
+                || rowStrides[1] != rowStrides[2] || chromaWidth < 2 || chromaHeight < 1) {
+            return CHROMA_GENERIC;
+        }
+        ByteBuffer u = planes[1];
+        ByteBuffer v = planes[2];
+        int rowStride = rowStrides[1];
+        boolean vFirst = true;
+        boolean uFirst = true;
+        for (int row = 0; row < chromaHeight && (vFirst || uFirst); row++) {
+            int start = (chromaTop + row) * rowStride + chromaLeft * 2;
+            // 最后一对的伙伴字节可能在缓冲末尾之外，不参与判断
+            for (int col = 0; col < chromaWidth - 1; col++) {
+                int i = start + col * 2;
+                vFirst &= v.get(i + 1) == u.get(i);
+                uFirst &= u.get(i + 1) == v.get(i);
+            }
+        }
+        if (vFirst && uFirst) {
+            return CHROMA_UNDECIDED;
+        }
+        boolean outputVFirst = format == FORMAT_NV21;
+        if (vFirst || uFirst) {
+            if (vFirst == outputVFirst) {
+                return CHROMA_INTERLEAVED_COPY;
+            }
+            if (rowStride % 2 == 0) {
+                return CHROMA_INTERLEAVED_SWAP;
+            }
+        }
+        return CHROMA_GENERIC;
+    }
+
+    private void copyLuma(ByteBuffer plane, int rowStride, int pixelStride, int cropLeft, int cropTop,
+                          int width, int height, int dstStride, byte[] data) {
+        ByteBuffer buffer = plane.duplicate();
+        if (pixelStride == 1 && rowStride == width && dstStride == width) {
+            // 没有行填充，整块一次取完
+            buffer.position(cropTop * rowStride + cropLeft);
+            buffer.get(data, 0, width * height);
+            return;
+        }
+        if (pixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                buffer.position((cropTop + row) * rowStride + cropLeft);
+                buffer.get(data, row * dstStride, width);
+            }
+            return;
+        }
+        copyStrided(buffer, rowStride, pixelStride, cropLeft, cropTop, width, height, data, 0, dstStride, 1);
+    }
+
+    /**
+     * 内存中的交错顺序与输出一致：每行从排在前面的平面拷贝 2 * chromaWidth - 1 字节，最后一个字节从另一个平面取
+     */
+    private static void copyInterleaved(ByteBuffer firstPlane, ByteBuffer secondPlane, int rowStride, int chromaLeft, int chromaTop,
+                                        int chromaWidth, int chromaHeight, int offset, byte[] data) {
+        ByteBuffer first = firstPlane.duplicate();
+        int rowBytes = chromaWidth * 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            int start = (chromaTop + row) * rowStride + chromaLeft * 2;
+            int out = offset + row * rowBytes;
+            first.position(start);
+            first.get(data, out, rowBytes - 1);
+            data[out + rowBytes - 1] = secondPlane.get(start + rowBytes - 2);
+        }
+    }
+
+    /**
+     * 内存中的交错顺序与输出相反：按小端读 16 位字、按大端写出，即每对字节交换；
+     * Android 上不同字节序的 ShortBuffer 批量拷贝由 native 代码一次交换一个字
+     *
+     * @param memoryFirst 内存中排在前面的平面，即输出中排在后面的分量
+     */
+    private static void copySwapped(ByteBuffer memoryFirst, ByteBuffer memorySecond, int rowStride, int chromaLeft, int chromaTop,
+                                    int chromaWidth, int chromaHeight, int offset, byte[] data) {
+        ByteBuffer u = memoryFirst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        u.position(0);
+        ShortBuffer source = u.asShortBuffer();
+        ShortBuffer target = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN).asShortBuffer();
+        int rowBytes = chromaWidth * 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            int start = (chromaTop + row) * rowStride + chromaLeft * 2;
+            int out = offset + row * rowBytes;
+            // 每行最后一对的第二个字节可能在平面末尾之外，单独处理
+            int pairs = chromaWidth - 1;
+            source.limit(start / 2 + pairs);
+            source.position(start / 2);
+            target.position(out / 2);
+            target.put(source);
+            int last = start + pairs * 2;
+            data[out + rowBytes - 2] = memorySecond.get(last);
+            data[out + rowBytes - 1] = memoryFirst.get(last);
+        }
+    }
+
+    private void copyChromaGeneric(ByteBuffer plane, int rowStride, int pixelStride, int planeIndex,
+                                   int chromaLeft, int chromaTop, int chromaWidth, int chromaHeight,
+                                   int width, int height, int format, byte[] data) {
+        int offset = YuvLayout.chromaOffset(format, width, height, planeIndex == 1 ? YuvLayout.CHROMA_U : YuvLayout.CHROMA_V);
+        int dstRowStride = YuvLayout.chromaRowStride(format, width);
+        int outputStride = YuvLayout.chromaPixelStride(format);
+        ByteBuffer buffer = plane.duplicate();
+        if (pixelStride == 1 && outputStride == 1) {
+            for (int row = 0; row < chromaHeight; row++) {
+                buffer.position((chromaTop + row) * rowStride + chromaLeft);
+                buffer.get(data, offset + row * dstRowStride, chromaWidth);
+            }
+            return;
+        }
+        copyStrided(buffer, rowStride, pixelStride, chromaLeft, chromaTop, chromaWidth, chromaHeight, data, offset, dstRowStride, outputStride);
+    }
+
+    private void copyStrided(ByteBuffer buffer, int rowStride, int pixelStride, int left, int top,
+                             int width, int height, byte[] data, int offset, int dstRowStride, int outputStride) {
+        int length = (width - 1) * pixelStride + 1;
+        if (rowData.length < length) {
+            rowData = new byte[length];
+        }
+        for (int row = 0; row < height; row++) {
+            buffer.position((top + row) * rowStride + left * pixelStride);
+            buffer.get(rowData, 0, length);
+            int out = offset + row * dstRowStride;
+            for (int col = 0; col < width; col++) {
+                data[out] = rowData[col * pixelStride];
+                out += outputStride;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CallbackBufferQueueTest {
+    @Test
+    public void shadowsSurviveDeactivation() {
+        CallbackBufferQueue queue = new CallbackBufferQueue();
+        queue.setActive(true);
+        byte[] app = new byte[16];
+        byte[] shadow = queue.addAppBuffer(app);
+        assertNotSame(app, shadow);
+        assertTrue(queue.isShadow(shadow));
+
+        // 应用临时换成 setPreviewCallback，再换回缓冲模式
+        queue.setActive(false);
+        assertNull(queue.pollPending());
+        assertTrue(queue.isShadow(shadow));
+        queue.setActive(true);
+        // 应用手里的影子缓冲交回时直接还给相机，不当成新的应用缓冲
+        assertSame(shadow, queue.addAppBuffer(shadow));
+        assertNull(queue.pollPending());
+    }
+
+    @Test
+    public void releaseForgetsShadows() {
+        CallbackBufferQueue queue = new CallbackBufferQueue();
+        queue.setActive(true);
+        byte[] shadow = queue.addAppBuffer(new byte[16]);
+        queue.clear();
+        assertFalse(queue.isShadow(shadow));
+    }
+
+    @Test
+    public void recycledShadowsAreReused() {
+        CallbackBufferQueue queue = new CallbackBufferQueue();
+        queue.setActive(true);
+        byte[] shadow = queue.addAppBuffer(new byte[16]);
+        queue.recycleShadow(shadow);
+        assertSame(shadow, queue.addAppBuffer(new byte[16]));
+        assertNotSame(shadow, queue.addAppBuffer(new byte[8]));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.vcam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ConfigFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesKeysCommentsAndSpaces() {
+        ConfigFile file = ConfigFile.parse("version = 1\n# comment\n\n  FPS_Cap=30  \r\nbroken line\n= no key\nsource = a = b\n");
+        assertEquals(1, file.version());
+        assertEquals("30", file.get("fps_cap"));
+        assertEquals("a = b", file.get("source"));
+        assertFalse(file.contains("broken line"));
+        assertEquals(3, file.entries().size());
+    }
+
+    @Test
+    public void missingVersionIsZero() {
+        assertEquals(0, ConfigFile.parse("disabled = true").version());
+        assertEquals(-1, ConfigFile.parse("version = x").version());
+    }
+
+    @Test
+    public void formatPutsVersionFirst() {
+        ConfigFile file = ConfigFile.parse("toast = false\nversion = 0\n");
+        file.set("disabled", "true");
+        assertEquals("version = 1\ntoast = false\ndisabled = true\n", file.format(1));
+        assertEquals(file.entries(), ConfigFile.parse(file.format(0)).entries());
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws IOException {
+        File path = new File(folder.getRoot(), VcamConfig.FILE_NAME);
+        ConfigFile file = new ConfigFile();
+        file.set("fps_cap", "24");
+        file.save(path, 1);
+        assertEquals(1, folder.getRoot().list().length);
+        ConfigFile loaded = ConfigFile.load(path);
+        assertEquals(1, loaded.version());
+        assertEquals("24", loaded.get("fps_cap"));
+
+        loaded.remove("fps_cap");
+        loaded.save(path, 1);
+        assertFalse(ConfigFile.load(path).contains("fps_cap"));
+    }
+
+    @Test
+    public void parsesPackageSections() {
+        ConfigFile file = ConfigFile.parse("version = 1\nfps_cap = 30\nscale = crop\n[com.a.app]\nfps_cap = 15\n"
+                + "[ com.b.app ]\nsource = b.mp4\n[]\nignored = yes\n");
+        assertEquals("30", file.get("fps_cap"));
+        assertFalse(file.contains("source"));
+        assertEquals(2, file.sections().size());
+        assertEquals("15", file.sections().get("com.a.app").get("fps_cap"));
+        assertEquals("yes", file.sections().get("com.b.app").get("ignored"));
+
+        ConfigFile a = file.withSection("com.a.app");
+        assertEquals("15", a.get("fps_cap"));
+        assertEquals("crop", a.get("scale"));
+        assertEquals("30", file.withSection("com.c.app").get("fps_cap"));
+    }
+
+    @Test
+    public void formatKeepsSections() {
+        ConfigFile file = ConfigFile.parse("[com.a.app]\nfps_cap = 15\n");
+        file.set("disabled", "true");
+        String text = file.format(1);
+        assertEquals("version = 1\ndisabled = true\n\n[com.a.app]\nfps_cap = 15\n", text);
+        ConfigFile reparsed = ConfigFile.parse(text);
+        assertEquals("15", reparsed.sections().get("com.a.app").get("fps_cap"));
+        assertEquals("true", reparsed.get("disabled"));
+    }
+
+    @Test
+    public void missingFileIsEmpty() {
+        assertTrue(ConfigFile.load(new File(folder.getRoot(), "missing")).entries().isEmpty());
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.vcam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ControlConfigTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+
+    @Test
+    public void emptyDirectoryHasDefaults() {
+        ControlConfig config = ControlConfig.load(folder.getRoot(), folder.getRoot());
+        assertEquals(VcamConfig.DEFAULT, config.settings);
+        assertFalse(config.videoExists);
+        assertEquals(new File(folder.getRoot(), ControlConfig.VIDEO_NAME), config.videoFile);
+    }
+
+    @Test
+    public void missingDirectoryHasDefaults() {
+        File missing = new File(folder.getRoot(), "missing");
+        ControlConfig config = ControlConfig.load(missing, missing);
+        assertEquals(VcamConfig.DEFAULT, config.settings);
+        assertFalse(config.videoExists);
+    }
+
+    @Test
+    public void readsMarkersAndVideo() throws IOException {
+        File dir = folder.getRoot();
+        folder.newFile(VcamConfig.MARKER_DISABLE);
+        folder.newFile(VcamConfig.MARKER_NO_TOAST);
+        folder.newFile(VcamConfig.MARKER_LETTERBOX);
+        write(new File(dir, ControlConfig.VIDEO_NAME), "video");
+        ControlConfig config = ControlConfig.load(dir, dir);
+        assertTrue(config.settings.disabled);
+        assertFalse(config.settings.showToast);
+        assertEquals(Nv21Scaler.FIT_LETTERBOX, config.settings.fitMode);
+        assertFalse(config.settings.playSound);
+        assertEquals(0, config.settings.decodeAhead);
+        assertTrue(config.videoExists);
+        assertTrue(config.videoModified > 0);
+        assertEquals(0, config.archiveModified);
+    }
+
+    @Test
+    public void configFileOverridesMarkers() throws IOException {
+        File dir = folder.getRoot();
+        folder.newFile(VcamConfig.MARKER_DISABLE);
+        folder.newFile(VcamConfig.MARKER_NO_TOAST);
+        write(new File(dir, VcamConfig.FILE_NAME), "version = 1\ndisabled = false\nfps_cap = 24\n");
+        ControlConfig config = ControlConfig.load(dir, dir);
+        assertFalse(config.settings.disabled);
+        assertFalse(config.settings.showToast);
+        assertEquals(24, config.settings.fpsCap);
+    }
+
+    @Test
+    public void unknownVersionIsIgnored() throws IOException {
+        File dir = folder.getRoot();
+        folder.newFile(VcamConfig.MARKER_NO_TOAST);
+        write(new File(dir, VcamConfig.FILE_NAME), "version = 2\nfps_cap = 24\ntoast = true\n");
+        ControlConfig config = ControlConfig.load(dir, dir);
+        assertNotNull(config.notice);
+        assertEquals(VcamConfig.DEFAULT.fpsCap, config.settings.fpsCap);
+        assertFalse(config.settings.showToast);
+
+        write(new File(dir, VcamConfig.FILE_NAME), "version = x\nfps_cap = 24\n");
+        assertEquals(VcamConfig.DEFAULT.fpsCap, ControlConfig.load(dir, dir).settings.fpsCap);
+    }
+
+    @Test
+    public void missingVersionIsReadAsCurrent() throws IOException {
+        File dir = folder.getRoot();
+        write(new File(dir, VcamConfig.FILE_NAME), "fps_cap = 24\n");
+        ControlConfig config = ControlConfig.load(dir, dir);
+        assertNotNull(config.notice);
+        assertEquals(24, config.settings.fpsCap);
+
+        write(new File(dir, VcamConfig.FILE_NAME), "version = 1\nfps_cap = 24\n");
+        assertNull(ControlConfig.load(dir, dir).notice);
+    }
+
+    @Test
+    public void videoMayLiveInAnotherDirectory() throws IOException {
+        File control = folder.newFolder("control");
+        File videos = folder.newFolder("videos");
+        write(new File(control, ControlConfig.VIDEO_NAME), "ignored");
+        write(ControlConfig.archiveOf(new File(videos, ControlConfig.VIDEO_NAME)), "archive");
+        new File(control, VcamConfig.MARKER_ASYNC_DECODE).createNewFile();
+        ControlConfig config = ControlConfig.load(control, videos);
+        assertTrue(config.settings.asyncDecode);
+        assertFalse(config.videoExists);
+        assertTrue(config.archiveModified > 0);
+    }
+
+    @Test
+    public void archiveIsUsableOnlyForItsSourceVideo() throws IOException {
+        File dir = folder.getRoot();
+        File video = new File(dir, ControlConfig.VIDEO_NAME);
+        write(video, "first video");
+        File archive = ControlConfig.archiveOf(video);
+        FrameArchive.Writer writer = FrameArchive.create(archive, 4, 4, FrameArchive.FORMAT_NV21,
+                FrameArchive.COMPRESSION_NONE, FrameArchive.sourceKeyOf(video), Long.MAX_VALUE);
+        writer.append(0, new byte[4 * 4 * 3 / 2], 0);
+        writer.commit(33333);
+        assertTrue(ControlConfig.load(dir, dir).archiveUsable);
+        // 视频换了内容 (大小不同)，存档不再可用
+        write(video, "second, longer video");
+        assertFalse(ControlConfig.load(dir, dir).archiveUsable);
+        // 没有视频时总是使用存档
+        assertTrue(video.delete());
+        assertTrue(ControlConfig.load(dir, dir).archiveUsable);
+        assertTrue(archive.delete());
+        assertFalse(ControlConfig.load(dir, dir).archiveUsable);
+    }
+
+    @Test
+    public void sourceSelectsVideo() throws IOException {
+        File dir = folder.getRoot();
+        File other = folder.newFolder("other");
+        write(new File(dir, "clip.mp4"), "video");
+        write(new File(dir, VcamConfig.FILE_NAME), "source = clip.mp4\n");
+        ControlConfig config = ControlConfig.load(dir, dir);
+        assertEquals(new File(dir, "clip.mp4"), config.videoFile);
+        assertEquals(new File(dir, "clip" + FrameArchive.SUFFIX), config.archiveFile);
+        assertTrue(config.videoExists);
+
+        File absolute = new File(other, "abs.mp4");
+        write(new File(dir, VcamConfig.FILE_NAME), "source = " + absolute.getAbsolutePath() + "\n");
+        assertEquals(absolute, ControlConfig.load(dir, dir).videoFile);
+    }
+
+    @Test
+    public void profilesAreIndexedByPackage() throws IOException {
+        File dir = folder.getRoot();
+        write(new File(dir, "a.mp4"), "video");
+        write(new File(dir, VcamConfig.FILE_NAME), "version = 1\nfps_cap = 30\n"
+                + "[com.a.app]\nsource = a.mp4\nfps_cap = 15\n[com.b.app]\nscale = letterbox\n");
+        ControlConfig config = ControlConfig.load(dir, dir);
+        assertEquals(2, config.profileNames().size());
+        assertTrue(config.shouldHook("com.a.app"));
+        assertFalse(config.shouldHook("com.other.app"));
+
+        ControlConfig a = config.forPackage("com.a.app");
+        assertEquals(15, a.settings.fpsCap);
+        assertEquals(new File(dir, "a.mp4"), a.videoFile);
+        assertTrue(a.videoExists);
+        ControlConfig b = config.forPackage("com.b.app");
+        assertEquals(30, b.settings.fpsCap);
+        assertEquals(Nv21Scaler.FIT_LETTERBOX, b.settings.fitMode);
+        assertFalse(b.videoExists);
+        assertSame(config, config.forPackage("com.other.app"));
+        assertSame(config, config.forPackage(null));
+    }
+
+    @Test
+    public void everyPackageHookedWithoutProfiles() {
+        ControlConfig config = ControlConfig.load(folder.getRoot(), folder.getRoot());
+        assertTrue(config.shouldHook("com.any.app"));
+        assertSame(config, config.forPackage("com.any.app"));
+    }
+
+    @Test
+    public void profileChangesAreNoticed() throws IOException {
+        File dir = folder.getRoot();
+        File file = new File(dir, VcamConfig.FILE_NAME);
+        write(file, "[com.a.app]\nfps_cap = 15\n");
+        ControlConfig before = ControlConfig.load(dir, dir);
+        write(file, "[com.a.app]\nfps_cap = 20\n");
+        assertNotEquals(before, ControlConfig.load(dir, dir));
+    }
+
+    @Test
+    public void archiveReplacesExtension() {
+        assertEquals(new File("/a/virtual" + FrameArchive.SUFFIX), ControlConfig.archiveOf(new File("/a/virtual.mp4")));
+        assertEquals(new File("/a/clip" + FrameArchive.SUFFIX), ControlConfig.archiveOf(new File("/a/clip")));
+    }
+
+    @Test
+    public void readsPlayRange() throws IOException {
+        write(new File(folder.getRoot(), VcamConfig.MARKER_PLAY_RANGE), "5 10");
+        ControlConfig config = ControlConfig.load(folder.getRoot(), folder.getRoot());
+        assertEquals(5000000, config.settings.playRange.loopStartUs(0));
+        assertEquals(10000000, config.settings.playRange.loopEndUs(0));
+    }
+
+    @Test
+    public void equalityTracksChanges() throws IOException {
+        File dir = folder.getRoot();
+        ControlConfig before = ControlConfig.load(dir, dir);
+        assertEquals(before, ControlConfig.load(dir, dir));
+        File marker = folder.newFile(VcamConfig.MARKER_DECODE_AHEAD);
+        ControlConfig after = ControlConfig.load(dir, dir);
+        assertNotEquals(before, after);
+        assertTrue(after.toString().contains("decode_ahead = " + VcamConfig.DEFAULT_DECODE_AHEAD));
+        assertTrue(marker.delete());
+        assertEquals(before, ControlConfig.load(dir, dir));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DecodeAheadQueueTest {
+    @Test
+    public void framesComeOutInOrder() {
+        DecodeAheadQueue queue = new DecodeAheadQueue(new FrameBufferPool(), 3);
+        for (int i = 0; i < 3; i++) {
+            FrameBufferPool.Frame frame = queue.beginWrite(4, 4, YuvLayout.FORMAT_NV21);
+            frame.data[0] = (byte) i;
+            queue.commit(frame, i * 1000L);
+        }
+        assertEquals(3, queue.depth());
+        for (int i = 0; i < 3; i++) {
+            FrameBufferPool.Frame frame = queue.take(0);
+            assertEquals(i * 1000L, frame.presentationTimeUs);
+            assertEquals(i, frame.data[0]);
+            frame.release();
+        }
+        assertEquals(0, queue.depth());
+        assertEquals(3, queue.getMaxDepth());
+    }
+
+    @Test
+    public void producerWaitsWhileFull() throws InterruptedException {
+        final DecodeAheadQueue queue = new DecodeAheadQueue(new FrameBufferPool(), 2);
+        final AtomicLong written = new AtomicLong();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    FrameBufferPool.Frame frame = queue.beginWrite(2, 2, YuvLayout.FORMAT_NV21);
+                    if (frame == null) {
+                        return;
+                    }
+                    queue.commit(frame, i);
+                    written.incrementAndGet();
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+        assertEquals(2, written.get());
+        for (int i = 0; i < 5; i++) {
+            FrameBufferPool.Frame frame = queue.take(1000);
+            assertEquals(i, frame.presentationTimeUs);
+            frame.release();
+        }
+        producer.join(1000);
+        assertEquals(5, written.get());
+        assertEquals(2, queue.getMaxDepth());
+    }
+
+    @Test
+    public void emptyQueueCountsUnderrunOnlyAfterStart() {
+        DecodeAheadQueue queue = new DecodeAheadQueue(new FrameBufferPool(), 2);
+        assertNull(queue.take(1));
+        assertEquals(0, queue.getUnderrunCount());
+        queue.commit(queue.beginWrite(2, 2, YuvLayout.FORMAT_NV21), 0);
+        queue.take(0).release();
+        assertNull(queue.take(1));
+        assertEquals(1, queue.getUnderrunCount());
+        // 反复等同一帧只算一次欠载
+        assertNull(queue.take(1));
+        assertNull(queue.take(1));
+        assertEquals(1, queue.getUnderrunCount());
+        queue.commit(queue.beginWrite(2, 2, YuvLayout.FORMAT_NV21), 1);
+        queue.take(0).release();
+        assertNull(queue.take(1));
+        assertEquals(2, queue.getUnderrunCount());
+    }
+
+    @Test
+    public void closeWakesProducerAndReturnsFrames() throws InterruptedException {
+        FrameBufferPool pool = new FrameBufferPool();
+        final DecodeAheadQueue queue = new DecodeAheadQueue(pool, 1);
+        queue.commit(queue.beginWrite(2, 2, YuvLayout.FORMAT_NV21), 0);
+        final FrameBufferPool.Frame[] result = new FrameBufferPool.Frame[1];
+        result[0] = new FrameBufferPool().acquire(2, 2, YuvLayout.FORMAT_NV21);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = queue.beginWrite(2, 2, YuvLayout.FORMAT_NV21);
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        queue.close();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertNull(result[0]);
+        assertNull(queue.take(0));
+        // 排队中的帧已归还，再取同尺寸的帧命中缓冲池
+        long hits = pool.getHitCount();
+        pool.acquire(2, 2, YuvLayout.FORMAT_NV21);
+        assertEquals(hits + 1, pool.getHitCount());
+    }
+}
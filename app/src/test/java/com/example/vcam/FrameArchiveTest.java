@@ -0,0 +1,317 @@
+package com.example.vcam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameArchiveTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+    private static final long FRAME_US = 33333;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripUncompressed() throws IOException {
+        assertRoundTrip(FrameArchive.COMPRESSION_NONE);
+    }
+
+    @Test
+    public void roundTripLz4() throws IOException {
+        assertRoundTrip(FrameArchive.COMPRESSION_LZ4);
+    }
+
+    @Test
+    public void roundTripDeltaLz4() throws IOException {
+        assertRoundTrip(FrameArchive.COMPRESSION_DELTA_LZ4);
+    }
+
+    @Test
+    public void deltaArchiveIsSmallerThanRaw() throws IOException {
+        byte[][] frames = frames(60);
+        File raw = write(FrameArchive.COMPRESSION_NONE, frames);
+        File delta = write(FrameArchive.COMPRESSION_DELTA_LZ4, frames);
+        assertTrue(delta.length() * 4 < raw.length());
+    }
+
+    @Test
+    public void randomAccessMatchesSequentialRead() throws IOException {
+        byte[][] frames = frames(75);
+        File file = write(FrameArchive.COMPRESSION_DELTA_LZ4, frames);
+        FrameArchive.Reader reader = FrameArchive.open(file);
+        try {
+            byte[] out = new byte[FRAME_SIZE];
+            int[] order = {74, 3, 29, 30, 31, 0, 59, 58, 61, 12, 12, 74};
+            for (int index : order) {
+                Arrays.fill(out, (byte) 0);
+                reader.read(index, out, 0);
+                assertArrayEquals("frame " + index, frames[index], out);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void indexOfFindsFrameAtOrBeforeTimestamp() throws IOException {
+        File file = write(FrameArchive.COMPRESSION_NONE, frames(10));
+        FrameArchive.Reader reader = FrameArchive.open(file);
+        try {
+            assertEquals(0, reader.indexOf(-5));
+            assertEquals(0, reader.indexOf(FRAME_US - 1));
+            assertEquals(1, reader.indexOf(FRAME_US));
+            assertEquals(4, reader.indexOf(FRAME_US * 5 - 1));
+            assertEquals(9, reader.indexOf(FRAME_US * 100));
+            assertEquals(FRAME_US * 10, reader.loopDurationUs);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void metaAndFormatArePreserved() throws IOException {
+        File file = new File(folder.getRoot(), "meta" + FrameArchive.SUFFIX);
+        FrameArchive.Writer writer = FrameArchive.create(file, WIDTH, HEIGHT, FrameArchive.FORMAT_I420,
+                FrameArchive.COMPRESSION_LZ4, "clip.mp4|视频", Long.MAX_VALUE);
+        writer.append(0, frames(1)[0], 0);
+        writer.commit(0);
+        assertTrue(FrameArchive.isArchive(file));
+        assertEquals("clip.mp4|视频", FrameArchive.readMeta(file));
+        FrameArchive.Reader reader = FrameArchive.open(file);
+        try {
+            assertEquals("clip.mp4|视频", reader.meta);
+            assertEquals(FrameArchive.FORMAT_I420, reader.format);
+            assertEquals(WIDTH, reader.width);
+            assertEquals(HEIGHT, reader.height);
+            assertEquals(1, reader.frameCount);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void appendStopsAtSizeLimit() throws IOException {
+        File file = new File(folder.getRoot(), "limit" + FrameArchive.SUFFIX);
+        FrameArchive.Writer writer = FrameArchive.create(file, WIDTH, HEIGHT, FrameArchive.FORMAT_NV21,
+                FrameArchive.COMPRESSION_NONE, null, FRAME_SIZE * 3L);
+        byte[] frame = frames(1)[0];
+        assertTrue(writer.append(0, frame, 0));
+        assertTrue(writer.append(FRAME_US, frame, 0));
+        assertFalse(writer.append(FRAME_US * 2, frame, 0));
+        writer.abort();
+        assertFalse(file.exists());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void concurrentWritersUseSeparateTempFiles() throws IOException {
+        File file = new File(folder.getRoot(), "shared" + FrameArchive.SUFFIX);
+        byte[][] frames = frames(2);
+        FrameArchive.Writer first = FrameArchive.create(file, WIDTH, HEIGHT, FrameArchive.FORMAT_NV21,
+                FrameArchive.COMPRESSION_NONE, "first", Long.MAX_VALUE);
+        FrameArchive.Writer second = FrameArchive.create(file, WIDTH, HEIGHT, FrameArchive.FORMAT_NV21,
+                FrameArchive.COMPRESSION_NONE, "second", Long.MAX_VALUE);
+        first.append(0, frames[0], 0);
+        second.append(0, frames[1], 0);
+        first.commit(0);
+        second.commit(0);
+        FrameArchive.Reader reader = FrameArchive.open(file);
+        try {
+            assertEquals("second", reader.meta);
+            byte[] out = new byte[FRAME_SIZE];
+            reader.read(0, out, 0);
+            assertArrayEquals(frames[1], out);
+        } finally {
+            reader.close();
+        }
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * 按文档中的布局手写一个最小的存档 (数据紧跟 54 字节文件头和 meta，不对齐)
+     */
+    @Test
+    public void handWrittenHeaderIsReadable() throws IOException {
+        File file = new File(folder.getRoot(), "hand" + FrameArchive.SUFFIX);
+        byte[] meta = "hand".getBytes("UTF-8");
+        byte[] frame = frames(1)[0];
+        int dataOffset = 54 + meta.length;
+        long indexOffset = dataOffset + FRAME_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0x56434641);
+            raf.writeInt(1);
+            raf.writeInt(WIDTH);
+            raf.writeInt(HEIGHT);
+            raf.writeInt(FrameArchive.FORMAT_NV21);
+            raf.writeInt(FRAME_SIZE);
+            raf.writeInt(1);
+            raf.writeInt(1);
+            raf.writeLong(FRAME_US);
+            raf.writeLong(indexOffset);
+            raf.writeInt(dataOffset);
+            raf.writeShort(meta.length);
+            assertEquals(54, raf.getFilePointer());
+            raf.write(meta);
+            raf.write(frame);
+            raf.writeLong(0);
+            raf.writeLong(dataOffset);
+            raf.writeInt(FRAME_SIZE);
+            raf.writeInt(0);
+        }
+        assertTrue(FrameArchive.isArchive(file));
+        assertEquals("hand", FrameArchive.readMeta(file));
+        FrameArchive.Reader reader = FrameArchive.open(file);
+        try {
+            assertEquals("hand", reader.meta);
+            assertEquals(FRAME_US, reader.loopDurationUs);
+            byte[] out = new byte[FRAME_SIZE];
+            reader.read(0, out, 0);
+            assertArrayEquals(frame, out);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void sourceKeyTracksContentAndLength() throws IOException {
+        File video = folder.newFile("virtual.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(video, "rw")) {
+            raf.write(new byte[]{1, 2, 3, 4});
+        }
+        long modified = video.lastModified();
+        String before = FrameArchive.sourceKeyOf(video);
+        assertEquals(before, FrameArchive.sourceKeyOf(video));
+        // 内容改变但修改时间被保留 (cp -p)
+        try (RandomAccessFile raf = new RandomAccessFile(video, "rw")) {
+            raf.write(new byte[]{9, 9, 9, 9});
+        }
+        assertTrue(video.setLastModified(modified));
+        assertNotEquals(before, FrameArchive.sourceKeyOf(video));
+        try (RandomAccessFile raf = new RandomAccessFile(video, "rw")) {
+            raf.write(new byte[]{1, 2, 3, 4, 5});
+        }
+        assertTrue(video.setLastModified(modified));
+        assertNotEquals(before, FrameArchive.sourceKeyOf(video));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedArchiveIsRejected() throws IOException {
+        File file = write(FrameArchive.COMPRESSION_NONE, frames(5));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        FrameArchive.open(file);
+    }
+
+    @Test
+    public void plainFileIsNotArchive() throws IOException {
+        File file = folder.newFile("virtual.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[128]);
+        }
+        assertFalse(FrameArchive.isArchive(file));
+    }
+
+    @Test
+    public void i420ToNv21InterleavesVu() {
+        int width = 4;
+        int height = 2;
+        byte[] i420 = {0, 1, 2, 3, 4, 5, 6, 7, 10, 11, 20, 21};
+        byte[] nv21 = new byte[i420.length];
+        FrameArchive.i420ToNv21(i420, 0, nv21, 0, width, height);
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 20, 10, 21, 11}, nv21);
+    }
+
+    @Test
+    public void lz4RoundTripsRandomAndRepetitiveData() {
+        Random random = new Random(7);
+        Lz4 lz4 = new Lz4();
+        int[] sizes = {0, 1, 12, 13, 100, 4096, 70000};
+        for (int size : sizes) {
+            byte[] noise = new byte[size];
+            random.nextBytes(noise);
+            assertLz4RoundTrip(lz4, noise);
+            byte[] pattern = new byte[size];
+            for (int i = 0; i < size; i++) {
+                pattern[i] = (byte) (i % 7 == 0 ? random.nextInt() : i / 300);
+            }
+            assertLz4RoundTrip(lz4, pattern);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lz4RejectsMalformedInput() {
+        // 匹配偏移指向输出起点之前
+        byte[] block = {0x10, 'a', 0x05, 0x00};
+        Lz4.decompress(block, 0, block.length, new byte[64], 0, 64);
+    }
+
+    private void assertRoundTrip(int compression) throws IOException {
+        byte[][] frames = frames(40);
+        File file = write(compression, frames);
+        FrameArchive.Reader reader = FrameArchive.open(file);
+        try {
+            assertEquals(frames.length, reader.frameCount);
+            assertEquals(FRAME_SIZE, reader.frameSize);
+            byte[] out = new byte[FRAME_SIZE + 8];
+            for (int i = 0; i < frames.length; i++) {
+                assertEquals(i * FRAME_US, reader.presentationTimeUs(i));
+                reader.read(i, out, 8);
+                assertArrayEquals("frame " + i, frames[i], Arrays.copyOfRange(out, 8, out.length));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File write(int compression, byte[][] frames) throws IOException {
+        File file = new File(folder.getRoot(), "archive" + compression + FrameArchive.SUFFIX);
+        FrameArchive.Writer writer = FrameArchive.create(file, WIDTH, HEIGHT, FrameArchive.FORMAT_NV21,
+                compression, "test", Long.MAX_VALUE);
+        for (int i = 0; i < frames.length; i++) {
+            assertTrue(writer.append(i * FRAME_US, frames[i], 0));
+        }
+        writer.commit(frames.length * FRAME_US);
+        return file;
+    }
+
+    /**
+     * 静态背景上移动的方块，加少量噪点，接近真实视频的帧间相关性
+     */
+    private static byte[][] frames(int count) {
+        Random random = new Random(42);
+        byte[][] frames = new byte[count][FRAME_SIZE];
+        for (int n = 0; n < count; n++) {
+            byte[] frame = frames[n];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    boolean box = x >= n % WIDTH && x < n % WIDTH + 8 && y >= 10 && y < 18;
+                    frame[y * WIDTH + x] = (byte) (box ? 235 : x * 2 + y);
+                }
+            }
+            for (int i = WIDTH * HEIGHT; i < FRAME_SIZE; i++) {
+                frame[i] = (byte) 128;
+            }
+            frame[random.nextInt(FRAME_SIZE)] = (byte) random.nextInt();
+        }
+        return frames;
+    }
+
+    private static void assertLz4RoundTrip(Lz4 lz4, byte[] data) {
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        int length = lz4.compress(data, 0, data.length, compressed, 0);
+        byte[] out = new byte[data.length];
+        assertEquals(data.length, Lz4.decompress(compressed, 0, length, out, 0, out.length));
+        assertArrayEquals(data, out);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameBufferPoolTest {
+    @Test
+    public void releasedFramesAreReused() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Frame first = pool.acquire(8, 4, YuvLayout.FORMAT_NV21);
+        assertEquals(8 * 4 * 3 / 2, first.data.length);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        first.presentationTimeUs = 1000;
+        first.release();
+        FrameBufferPool.Frame second = pool.acquire(8, 4, YuvLayout.FORMAT_NV21);
+        assertSame(first, second);
+        assertEquals(0, second.presentationTimeUs);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void framesAreKeyedBySizeAndFormat() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Frame nv21 = pool.acquire(8, 4, YuvLayout.FORMAT_NV21);
+        nv21.release();
+        FrameBufferPool.Frame wider = pool.acquire(16, 4, YuvLayout.FORMAT_NV21);
+        FrameBufferPool.Frame taller = pool.acquire(8, 8, YuvLayout.FORMAT_NV21);
+        FrameBufferPool.Frame i420 = pool.acquire(8, 4, YuvLayout.FORMAT_I420);
+        assertNotSame(nv21, wider);
+        assertNotSame(nv21, taller);
+        assertNotSame(nv21, i420);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(4, pool.getMissCount());
+        assertSame(nv21, pool.acquire(8, 4, YuvLayout.FORMAT_NV21));
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void idleFramesAreCappedPerKey() {
+        FrameBufferPool pool = new FrameBufferPool();
+        List<FrameBufferPool.Frame> frames = new ArrayList<>();
+        for (int i = 0; i < FrameBufferPool.MAX_IDLE_PER_KEY + 2; i++) {
+            frames.add(pool.acquire(4, 4, YuvLayout.FORMAT_NV21));
+        }
+        for (FrameBufferPool.Frame frame : frames) {
+            frame.release();
+        }
+        long misses = pool.getMissCount();
+        for (int i = 0; i < FrameBufferPool.MAX_IDLE_PER_KEY + 2; i++) {
+            pool.acquire(4, 4, YuvLayout.FORMAT_NV21);
+        }
+        // 只保留了 MAX_IDLE_PER_KEY 块，多出的两块重新分配
+        assertEquals(FrameBufferPool.MAX_IDLE_PER_KEY, pool.getHitCount());
+        assertEquals(misses + 2, pool.getMissCount());
+    }
+
+    @Test
+    public void trimDropsIdleFrames() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Frame frame = pool.acquire(4, 4, YuvLayout.FORMAT_NV21);
+        frame.release();
+        pool.trim();
+        assertNotSame(frame, pool.acquire(4, 4, YuvLayout.FORMAT_NV21));
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void retainedFrameReturnsAfterLastRelease() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Frame frame = pool.acquire(4, 4, YuvLayout.FORMAT_NV21);
+        assertFalse(frame.isShared());
+        assertSame(frame, frame.retain());
+        assertTrue(frame.isShared());
+        frame.release();
+        assertFalse(frame.isShared());
+        // 还有一个持有者，不能被别人取走
+        assertNotSame(frame, pool.acquire(4, 4, YuvLayout.FORMAT_NV21));
+        frame.release();
+        assertSame(frame, pool.acquire(4, 4, YuvLayout.FORMAT_NV21));
+    }
+
+    @Test
+    public void doubleReleaseThrows() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBufferPool.Frame frame = pool.acquire(4, 4, YuvLayout.FORMAT_NV21);
+        frame.release();
+        try {
+            frame.release();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        FrameBufferPool.Frame other = pool.acquire(8, 8, YuvLayout.FORMAT_NV21);
+        other.release();
+        try {
+            other.retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.vcam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file(String name, int length, long modified) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        assertTrue(file.setLastModified(modified));
+        return file;
+    }
+
+    @Test
+    public void trimRemovesAbandonedTempFilesButKeepsLiveOnes() throws IOException {
+        long now = System.currentTimeMillis();
+        File abandoned = file("frames_1.vcfa.123456.tmp", 100, now - 3600 * 1000);
+        File live = file("frames_2.vcfa.654321.tmp", 100, now);
+        File other = file("notes.txt", 100, now - 7200 * 1000);
+        new FrameCache(folder.getRoot(), 1000).trim(0);
+        assertFalse(abandoned.exists());
+        assertTrue(live.exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void trimDropsOldestArchivesFirst() throws IOException {
+        long now = System.currentTimeMillis();
+        File old = file("frames_a.vcfa", 100, now - 2000 * 1000);
+        File recent = file("frames_b.vcfa", 100, now - 1000 * 1000);
+        new FrameCache(folder.getRoot(), 1000).trim(100);
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FrameExchangerTest {
+    private static final int SIZE = 4;
+
+    @Test
+    public void latestReturnsNewestPublishedFrame() {
+        FrameExchanger exchanger = new FrameExchanger(new FrameBufferPool());
+        assertNull(exchanger.latest());
+        for (int i = 1; i <= 3; i++) {
+            exchanger.beginWrite(SIZE, SIZE, YuvLayout.FORMAT_NV21).data[0] = (byte) i;
+            exchanger.publish(i * 1000L);
+        }
+        FrameBufferPool.Frame frame = exchanger.latest();
+        assertEquals(3, frame.data[0]);
+        assertEquals(3000L, frame.presentationTimeUs);
+        assertEquals(3, exchanger.latestSequence());
+        // 没有新帧时还是同一帧
+        assertSame(frame, exchanger.latest());
+    }
+
+    @Test
+    public void sharedFrontIsNotRewritten() {
+        FrameExchanger exchanger = new FrameExchanger(new FrameBufferPool());
+        exchanger.beginWrite(SIZE, SIZE, YuvLayout.FORMAT_NV21).data[0] = 1;
+        exchanger.publish(0);
+        FrameBufferPool.Frame kept = exchanger.latest().retain();
+        // 三个槽轮一遍，原 front 槽又回到生产者手里
+        for (int i = 2; i <= 4; i++) {
+            exchanger.beginWrite(SIZE, SIZE, YuvLayout.FORMAT_NV21).data[0] = (byte) i;
+            exchanger.publish(i);
+            exchanger.latest();
+        }
+        assertEquals(1, kept.data[0]);
+        kept.release();
+    }
+
+    @Test
+    public void closeDoesNotRecycleFront() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameExchanger exchanger = new FrameExchanger(pool);
+        exchanger.beginWrite(SIZE, SIZE, YuvLayout.FORMAT_NV21);
+        exchanger.publish(0);
+        FrameBufferPool.Frame front = exchanger.latest();
+        // middle 中还有一帧新帧时关闭：消费者不能再换到已经归还的槽
+        exchanger.beginWrite(SIZE, SIZE, YuvLayout.FORMAT_NV21);
+        exchanger.publish(1);
+        exchanger.close();
+        assertSame(front, exchanger.latest());
+        assertFalse(exchanger.awaitFresh(0));
+        assertNotIdle(pool, front);
+    }
+
+    @Test
+    public void concurrentCloseNeverHandsOutRecycledFrame() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final FrameBufferPool pool = new FrameBufferPool();
+            final FrameExchanger exchanger = new FrameExchanger(pool);
+            final AtomicBoolean closed = new AtomicBoolean();
+            final AtomicReference<FrameBufferPool.Frame> last = new AtomicReference<>();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FrameBufferPool.Frame frame = null;
+                        boolean done = false;
+                        while (!done) {
+                            // 看到关闭之后再取一次，这一次可能和 close 交错
+                            done = closed.get();
+                            FrameBufferPool.Frame next = exchanger.latest();
+                            if (next != null) {
+                                frame = next;
+                                // 生产者每帧整块填同一个值，读取期间内容不应被改写
+                                assertEquals(frame.data[0], frame.data[frame.data.length - 1]);
+                            }
+                            Thread.yield();
+                        }
+                        last.set(frame);
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            consumer.start();
+            for (int i = 1; i <= 50; i++) {
+                FrameBufferPool.Frame frame = exchanger.beginWrite(SIZE, SIZE, YuvLayout.FORMAT_NV21);
+                Arrays.fill(frame.data, (byte) i);
+                exchanger.publish(i);
+                Thread.yield();
+            }
+            exchanger.close();
+            closed.set(true);
+            consumer.join(5000);
+            assertFalse(consumer.isAlive());
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            // 生产者太快时消费者可能一帧也没取到，这时 front 是空的
+            if (last.get() != null) {
+                assertNotIdle(pool, last.get());
+            }
+        }
+    }
+
+    /**
+     * 把池里这个尺寸的空闲缓冲全部取出，frame 不能在其中
+     */
+    private static void assertNotIdle(FrameBufferPool pool, FrameBufferPool.Frame frame) {
+        List<FrameBufferPool.Frame> idle = new ArrayList<>();
+        long misses = pool.getMissCount();
+        while (pool.getMissCount() == misses) {
+            idle.add(pool.acquire(SIZE, SIZE, YuvLayout.FORMAT_NV21));
+        }
+        for (FrameBufferPool.Frame candidate : idle) {
+            assertNotSame(frame, candidate);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameRateAdapterTest {
+    @Test
+    public void unlimitedAcceptsEverything() {
+        FrameRateAdapter adapter = new FrameRateAdapter();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(adapter.accept(i * 16667L));
+        }
+        assertEquals(0, adapter.getDroppedCount());
+    }
+
+    @Test
+    public void sixtyToFifteenKeepsEveryFourthFrame() {
+        FrameRateAdapter adapter = new FrameRateAdapter();
+        adapter.setTargetFps(15);
+        int accepted = 0;
+        for (int i = 0; i < 600; i++) {
+            boolean keep = adapter.accept(i * 1000000L / 60);
+            assertEquals("frame " + i, i % 4 == 0, keep);
+            if (keep) {
+                accepted++;
+            }
+        }
+        assertEquals(150, accepted);
+        assertEquals(450, adapter.getDroppedCount());
+    }
+
+    @Test
+    public void slightlyFasterSourceRarelyDrops() {
+        FrameRateAdapter adapter = new FrameRateAdapter();
+        adapter.setTargetFps(29.97);
+        int dropped = 0;
+        // 30 帧视频播 10 秒，按 29.97 只应丢掉约 0.3 帧
+        for (int i = 0; i < 300; i++) {
+            if (!adapter.accept(i * 1000000L / 30)) {
+                dropped++;
+            }
+        }
+        assertTrue("dropped " + dropped, dropped <= 1);
+    }
+
+    @Test
+    public void slowerSourceIsNeverDropped() {
+        FrameRateAdapter adapter = new FrameRateAdapter();
+        adapter.setTargetFps(30);
+        for (int i = 0; i < 240; i++) {
+            assertTrue(adapter.accept(i * 1000000L / 24));
+        }
+    }
+
+    @Test
+    public void gapRestartsTicks() {
+        FrameRateAdapter adapter = new FrameRateAdapter();
+        adapter.setTargetFps(10);
+        assertTrue(adapter.accept(0));
+        assertFalse(adapter.accept(50000));
+        // 跳过 1 秒后直接从新位置开始
+        assertTrue(adapter.accept(1050000));
+        assertFalse(adapter.accept(1100000));
+        assertTrue(adapter.accept(1150000));
+    }
+
+    @Test
+    public void effectiveFpsCountsDeliveries() {
+        FrameRateAdapter adapter = new FrameRateAdapter();
+        long now = 0;
+        boolean updated = false;
+        for (int i = 0; i <= 25; i++) {
+            updated = adapter.recordDelivery(now);
+            now += 40000000L;
+        }
+        assertTrue(updated);
+        assertEquals(25.0, adapter.getEffectiveFps(), 0.01);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HookRegistryTest {
+    private static final Class<?>[] FRAME = {byte[].class, Object.class};
+
+    /**
+     * 记录安装次数和安装的 slot，代替 findAndHookMethod
+     */
+    private static class RecordingInstaller implements HookRegistry.Installer<String> {
+        final AtomicInteger installs = new AtomicInteger();
+        final List<HookRegistry.Slot<String>> slots = new ArrayList<>();
+
+        @Override
+        public synchronized void install(Class<?> hookedClass, String method, Class<?>[] parameterTypes, HookRegistry.Slot<String> slot) {
+            installs.incrementAndGet();
+            slots.add(slot);
+        }
+    }
+
+    @Test
+    public void installsOnceAndDispatchesToLatest() {
+        HookRegistry<String> registry = new HookRegistry<>();
+        RecordingInstaller installer = new RecordingInstaller();
+        assertTrue(registry.register(String.class, "onPreviewFrame", FRAME, "first", installer));
+        assertFalse(registry.register(String.class, "onPreviewFrame", FRAME, "second", installer));
+        assertFalse(registry.register(String.class, "onPreviewFrame", FRAME, "third", installer));
+        assertEquals(1, installer.installs.get());
+        assertEquals(1, registry.size());
+        assertEquals("third", installer.slots.get(0).get());
+    }
+
+    @Test
+    public void keyedByClassAndSignature() {
+        HookRegistry<String> registry = new HookRegistry<>();
+        RecordingInstaller installer = new RecordingInstaller();
+        registry.register(String.class, "onPreviewFrame", FRAME, "a", installer);
+        registry.register(Integer.class, "onPreviewFrame", FRAME, "b", installer);
+        registry.register(String.class, "onPictureTaken", FRAME, "c", installer);
+        registry.register(String.class, "onPreviewFrame", new Class<?>[]{byte[].class}, "d", installer);
+        assertEquals(4, installer.installs.get());
+        assertEquals(4, registry.size());
+    }
+
+    @Test
+    public void failedInstallIsRetried() {
+        HookRegistry<String> registry = new HookRegistry<>();
+        HookRegistry.Installer<String> failing = new HookRegistry.Installer<String>() {
+            @Override
+            public void install(Class<?> hookedClass, String method, Class<?>[] parameterTypes, HookRegistry.Slot<String> slot) {
+                throw new NoSuchMethodError(method);
+            }
+        };
+        try {
+            registry.register(String.class, "missing", FRAME, "a", failing);
+            fail();
+        } catch (NoSuchMethodError expected) {
+            // 安装失败
+        }
+        assertEquals(0, registry.size());
+        RecordingInstaller installer = new RecordingInstaller();
+        assertTrue(registry.register(String.class, "missing", FRAME, "b", installer));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void concurrentRegistrationInstallsOnce() throws InterruptedException {
+        final HookRegistry<String> registry = new HookRegistry<>();
+        final RecordingInstaller installer = new RecordingInstaller();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final String handler = "h" + i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < 100; n++) {
+                        registry.register(String.class, "onPreviewFrame", FRAME, handler, installer);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, installer.installs.get());
+        assertEquals(1, registry.size());
+        assertNotNull(installer.slots.get(0).get());
+    }
+
+    @Test
+    public void registrationWaitsForInstallInProgress() throws InterruptedException {
+        final HookRegistry<String> registry = new HookRegistry<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger installs = new AtomicInteger();
+        final HookRegistry.Installer<String> slow = new HookRegistry.Installer<String>() {
+            @Override
+            public void install(Class<?> hookedClass, String method, Class<?>[] parameterTypes, HookRegistry.Slot<String> slot) {
+                installs.incrementAndGet();
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final boolean[] results = new boolean[2];
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results[0] = registry.register(String.class, "onPictureTaken", FRAME, "first", slow);
+            }
+        });
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results[1] = registry.register(String.class, "onPictureTaken", FRAME, "second", slow);
+            }
+        });
+        first.start();
+        entered.await();
+        second.start();
+        // 安装还没完成，第二次登记不能先返回
+        second.join(50);
+        assertTrue(second.isAlive());
+        release.countDown();
+        first.join();
+        second.join();
+        assertTrue(results[0]);
+        assertFalse(results[1]);
+        assertEquals(1, installs.get());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void signatureNamesParameters() {
+        assertEquals("onPreviewFrame([B,java.lang.Object)", HookRegistry.signature("onPreviewFrame", FRAME));
+        assertEquals("onOpened()", HookRegistry.signature("onOpened", new Class<?>[0]));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.vcam;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class KeyframeIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static KeyframeIndex uniformIndex(long gopUs, int count, long durationUs) {
+        KeyframeIndex.Builder builder = new KeyframeIndex.Builder(1234, 5678);
+        for (int i = count - 1; i >= 0; i--) {
+            builder.add(i * gopUs);
+        }
+        return builder.build(durationUs);
+    }
+
+    @Test
+    public void findsKeyframeAtOrBefore() {
+        KeyframeIndex index = uniformIndex(2000000, 10, 19900000);
+        assertEquals(10, index.size());
+        assertEquals(0, index.keyframeAtOrBefore(-5));
+        assertEquals(0, index.keyframeAtOrBefore(1999999));
+        assertEquals(2000000, index.keyframeAtOrBefore(2000000));
+        assertEquals(8000000, index.keyframeAtOrBefore(9999999));
+        assertEquals(18000000, index.keyframeAtOrBefore(19000000));
+        assertEquals(18000000, index.keyframeAtOrBefore(Long.MAX_VALUE));
+        assertEquals(2000000, index.getMaxGopUs());
+    }
+
+    @Test
+    public void irregularGopsMatchLinearSearch() {
+        long[] times = {0, 100000, 2500000, 2600000, 2700000, 9000000, 9100000, 15000000};
+        KeyframeIndex.Builder builder = new KeyframeIndex.Builder(1, 1);
+        for (long t : times) {
+            builder.add(t);
+            // 重复的时间戳只保留一个
+            builder.add(t);
+        }
+        KeyframeIndex index = builder.build(16000000);
+        assertEquals(times.length, index.size());
+        for (long t = 0; t < 16000000; t += 12345) {
+            long expected = 0;
+            for (long k : times) {
+                if (k <= t) {
+                    expected = k;
+                }
+            }
+            assertEquals("t=" + t, expected, index.keyframeAtOrBefore(t));
+        }
+        assertEquals(6300000, index.getMaxGopUs());
+    }
+
+    @Test
+    public void savesNextToVideoAndExpires() throws IOException {
+        File video = folder.newFile("virtual.mp4");
+        try (FileOutputStream out = new FileOutputStream(video)) {
+            out.write(new byte[100]);
+        }
+        assertNull(KeyframeIndex.load(video));
+        KeyframeIndex index = new KeyframeIndex.Builder(video).add(0).add(1000000).add(2000000).build(2500000);
+        index.save(video);
+        assertEquals(new File(folder.getRoot(), "virtual.mp4" + KeyframeIndex.SUFFIX), KeyframeIndex.fileOf(video));
+        // 改名后不留下临时文件
+        assertEquals(2, folder.getRoot().list().length);
+
+        KeyframeIndex loaded = KeyframeIndex.load(video);
+        assertNotNull(loaded);
+        assertEquals(3, loaded.size());
+        assertEquals(2500000, loaded.durationUs);
+        assertEquals(1000000, loaded.keyframeAtOrBefore(1500000));
+
+        // 视频被替换后索引失效
+        try (FileOutputStream out = new FileOutputStream(video, true)) {
+            out.write(1);
+        }
+        assertNull(KeyframeIndex.load(video));
+    }
+
+    @Test
+    public void rejectsCorruptFile() throws IOException {
+        File video = folder.newFile("clip.mp4");
+        try (FileOutputStream out = new FileOutputStream(KeyframeIndex.fileOf(video))) {
+            out.write(new byte[]{'V', 'K', 'I', 'X', 0, 0});
+        }
+        assertNull(KeyframeIndex.load(video));
+    }
+}
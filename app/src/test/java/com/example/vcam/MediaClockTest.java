@@ -0,0 +1,158 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MediaClockTest {
+    /**
+     * 手动推进的时钟，等待时直接把假时间推进到等待结束
+     */
+    private static final class FakeClock extends MediaClock {
+        long nanos = 1000000000L;
+        int waits = 0;
+
+        @Override
+        protected long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        protected void waitNanos(long waitNanos) {
+            waits++;
+            nanos += waitNanos;
+        }
+
+        void advanceMs(long ms) {
+            nanos += ms * 1000000L;
+        }
+    }
+
+    @Test
+    public void startsOnceAtZero() {
+        FakeClock clock = new FakeClock();
+        assertEquals(0, clock.positionUs());
+        assertTrue(clock.startIfNeeded());
+        clock.advanceMs(40);
+        assertFalse(clock.startIfNeeded());
+        assertEquals(40000, clock.positionUs());
+    }
+
+    @Test
+    public void startsMidClip() {
+        FakeClock clock = new FakeClock();
+        assertTrue(clock.startIfNeeded(5000000));
+        clock.advanceMs(40);
+        assertFalse(clock.startIfNeeded(0));
+        assertEquals(5040000, clock.positionUs());
+    }
+
+    @Test
+    public void rateChangeKeepsPositionContinuous() {
+        FakeClock clock = new FakeClock();
+        clock.startIfNeeded();
+        clock.advanceMs(100);
+        clock.setRate(2.0);
+        assertEquals(100000, clock.positionUs());
+        clock.advanceMs(100);
+        assertEquals(300000, clock.positionUs());
+        clock.setRate(0.5);
+        clock.advanceMs(100);
+        assertEquals(350000, clock.positionUs());
+    }
+
+    @Test
+    public void pauseFreezesPositionUntilResume() {
+        FakeClock clock = new FakeClock();
+        clock.startIfNeeded();
+        clock.advanceMs(100);
+        clock.pause();
+        assertTrue(clock.isPaused());
+        clock.advanceMs(500);
+        assertEquals(100000, clock.positionUs());
+        // 暂停期间改速率不改变位置
+        clock.setRate(2.0);
+        clock.advanceMs(500);
+        assertEquals(100000, clock.positionUs());
+        clock.resume();
+        assertFalse(clock.isPaused());
+        clock.advanceMs(50);
+        assertEquals(200000, clock.positionUs());
+        // 重复调用没有影响
+        clock.resume();
+        assertEquals(200000, clock.positionUs());
+    }
+
+    @Test
+    public void waitUntilHoldsWhilePaused() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        clock.startIfNeeded();
+        clock.pause();
+        long start = clock.nanos;
+        // 暂停时不会到达，等满最长等待时间
+        assertFalse(clock.waitUntil(1000, 30));
+        assertEquals(30000000L, clock.nanos - start);
+        assertEquals(0, clock.positionUs());
+        clock.resume();
+        start = clock.nanos;
+        assertTrue(clock.waitUntil(1000, 30));
+        assertEquals(1000000L, clock.nanos - start);
+    }
+
+    @Test
+    public void loopStartFollowsFirstDuration() {
+        FakeClock clock = new FakeClock();
+        clock.startIfNeeded();
+        clock.setLoopDurationIfUnset(1000000);
+        clock.setLoopDurationIfUnset(2000000);
+        assertEquals(1000000, clock.getLoopDurationUs());
+        clock.advanceMs(2500);
+        assertEquals(2000000, clock.loopStartUs());
+        clock.reset();
+        assertFalse(clock.isRunning());
+        assertEquals(0, clock.getLoopDurationUs());
+    }
+
+    @Test
+    public void waitUntilReturnsWhenReached() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        clock.startIfNeeded();
+        clock.advanceMs(10);
+        assertTrue(clock.waitUntil(5000, 1000));
+        assertEquals(0, clock.waits);
+        // 未启动时不会到达，等到超时返回
+        FakeClock stopped = new FakeClock();
+        long start = stopped.nanos;
+        assertFalse(stopped.waitUntil(1, 20));
+        assertEquals(20000000L, stopped.nanos - start);
+    }
+
+    @Test
+    public void waitUntilSleepsForRemainingTime() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        clock.startIfNeeded();
+        long start = clock.nanos;
+        assertTrue(clock.waitUntil(30000, 1000));
+        assertEquals(30000000L, clock.nanos - start);
+        // 两倍速时媒体时间走得快，只需等一半
+        clock.setRate(2.0);
+        start = clock.nanos;
+        assertTrue(clock.waitUntil(90000, 1000));
+        assertEquals(30000000L, clock.nanos - start);
+        // 超过最长等待时间时先返回 false
+        start = clock.nanos;
+        assertFalse(clock.waitUntil(10000000, 50));
+        assertEquals(50000000L, clock.nanos - start);
+    }
+
+    @Test
+    public void loopDifferenceWrapsAroundLoopPoint() {
+        assertEquals(50000, MediaClock.loopDifferenceUs(1050000, 1000000, 10000000));
+        assertEquals(-50000, MediaClock.loopDifferenceUs(950000, 1000000, 10000000));
+        // 播放器刚回到开头、时钟还在上一轮末尾：只差 0.1 秒，不是差一整轮
+        assertEquals(100000, MediaClock.loopDifferenceUs(50000, 9950000, 10000000));
+        assertEquals(-100000, MediaClock.loopDifferenceUs(9950000, 50000, 10000000));
+        // 时长未知时直接相减
+        assertEquals(-8900000, MediaClock.loopDifferenceUs(50000, 8950000, 0));
+    }
+}
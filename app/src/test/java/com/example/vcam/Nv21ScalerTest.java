@@ -0,0 +1,393 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Nv21ScalerTest {
+
+    @Test
+    public void sameSizeIsIdentityInEveryMode() {
+        byte[] src = randomFrame(64, 48, new Random(1));
+        for (int mode = Nv21Scaler.MODE_NEAREST; mode <= Nv21Scaler.MODE_AREA; mode++) {
+            byte[] dst = scale(src, 64, 48, 64, 48, mode);
+            assertArrayEquals("mode " + mode, src, dst);
+        }
+    }
+
+    @Test
+    public void uniformFrameStaysUniform() {
+        byte[] src = new byte[80 * 60 * 3 / 2];
+        Arrays.fill(src, 0, 80 * 60, (byte) 200);
+        for (int i = 80 * 60; i < src.length; i += 2) {
+            src[i] = (byte) 90;
+            src[i + 1] = (byte) 160;
+        }
+        for (int mode = Nv21Scaler.MODE_NEAREST; mode <= Nv21Scaler.MODE_AREA; mode++) {
+            for (int[] size : new int[][]{{32, 24}, {124, 92}, {40, 70}}) {
+                byte[] dst = scale(src, 80, 60, size[0], size[1], mode);
+                int luma = size[0] * size[1];
+                for (int i = 0; i < luma; i++) {
+                    assertEquals(200, dst[i] & 0xFF);
+                }
+                for (int i = luma; i < dst.length; i += 2) {
+                    assertEquals(90, dst[i] & 0xFF);
+                    assertEquals(160, dst[i + 1] & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void areaHalvingAveragesBlocks() {
+        byte[] src = randomFrame(64, 32, new Random(2));
+        byte[] dst = scale(src, 64, 32, 32, 16, Nv21Scaler.MODE_AREA);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 32; x++) {
+                int sum = (src[2 * y * 64 + 2 * x] & 0xFF) + (src[2 * y * 64 + 2 * x + 1] & 0xFF)
+                        + (src[(2 * y + 1) * 64 + 2 * x] & 0xFF) + (src[(2 * y + 1) * 64 + 2 * x + 1] & 0xFF);
+                assertEquals((sum + 2) / 4, dst[y * 32 + x] & 0xFF, 1);
+            }
+        }
+        // 色度的 V、U 分别平均，不会混在一起
+        int srcChroma = 64 * 32;
+        int dstChroma = 32 * 16;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int c = 0; c < 2; c++) {
+                    int a = srcChroma + 2 * y * 64 + 4 * x + c;
+                    int sum = (src[a] & 0xFF) + (src[a + 2] & 0xFF) + (src[a + 64] & 0xFF) + (src[a + 66] & 0xFF);
+                    assertEquals((sum + 2) / 4, dst[dstChroma + y * 32 + 2 * x + c] & 0xFF, 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bilinearDoublingInterpolatesHorizontalRamp() {
+        int width = 16;
+        int height = 8;
+        byte[] src = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                src[y * width + x] = (byte) (x * 16);
+            }
+        }
+        byte[] dst = scale(src, width, height, 32, 16, Nv21Scaler.MODE_BILINEAR);
+        for (int y = 0; y < 16; y++) {
+            int previous = -1;
+            for (int x = 0; x < 32; x++) {
+                int value = dst[y * 32 + x] & 0xFF;
+                assertTrue("monotonic at " + x, value >= previous);
+                previous = value;
+            }
+            // 输出像素 2k+1 的中心落在源像素 k 和 k+1 之间的 1/4 处
+            assertEquals(16 * 4 + 4, dst[y * 32 + 9] & 0xFF);
+        }
+    }
+
+    @Test
+    public void nearestPicksSourcePixels() {
+        byte[] src = randomFrame(64, 48, new Random(3));
+        byte[] dst = scale(src, 64, 48, 32, 24, Nv21Scaler.MODE_NEAREST);
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 32; x++) {
+                assertEquals(src[(2 * y + 1) * 64 + 2 * x + 1], dst[y * 32 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void reconfigureForNewSize() {
+        Nv21Scaler scaler = new Nv21Scaler();
+        byte[] src = randomFrame(64, 48, new Random(4));
+        byte[] big = new byte[128 * 96 * 3 / 2];
+        scaler.configure(64, 48, 128, 96, Nv21Scaler.MODE_BILINEAR);
+        scaler.scale(src, big);
+        byte[] same = new byte[src.length];
+        scaler.configure(64, 48, 64, 48, Nv21Scaler.MODE_BILINEAR);
+        scaler.scale(src, same);
+        assertArrayEquals(src, same);
+    }
+
+    @Test
+    public void rotationAndMirrorMatchPixelMapping() {
+        int width = 40;
+        int height = 24;
+        byte[] src = randomFrame(width, height, new Random(5));
+        int[] mirrors = {Nv21Scaler.MIRROR_NONE, Nv21Scaler.MIRROR_HORIZONTAL, Nv21Scaler.MIRROR_VERTICAL};
+        for (int mode = Nv21Scaler.MODE_NEAREST; mode <= Nv21Scaler.MODE_AREA; mode++) {
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                for (int mirror : mirrors) {
+                    boolean swap = Nv21Scaler.swapsAxes(rotation);
+                    int dstWidth = swap ? height : width;
+                    int dstHeight = swap ? width : height;
+                    Nv21Scaler scaler = new Nv21Scaler();
+                    scaler.configure(width, height, dstWidth, dstHeight, mode, rotation, mirror, Nv21Scaler.FIT_STRETCH);
+                    byte[] dst = new byte[src.length];
+                    scaler.scale(src, dst);
+                    assertArrayEquals("mode " + mode + " rotation " + rotation + " mirror " + mirror,
+                            rotateReference(src, width, height, rotation, mirror), dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tiledRotationMatchesRotateThenScale() {
+        // 源尺寸不是块大小的整数倍，覆盖块的边界
+        int width = 100;
+        int height = 76;
+        byte[] src = randomFrame(width, height, new Random(6));
+        byte[] upright = rotateReference(src, width, height, 90, Nv21Scaler.MIRROR_HORIZONTAL);
+        for (int mode = Nv21Scaler.MODE_BILINEAR; mode <= Nv21Scaler.MODE_AREA; mode++) {
+            byte[] expected = scale(upright, height, width, 52, 68, mode);
+            Nv21Scaler scaler = new Nv21Scaler();
+            scaler.configure(width, height, 52, 68, mode, 90, Nv21Scaler.MIRROR_HORIZONTAL, Nv21Scaler.FIT_STRETCH);
+            byte[] dst = new byte[expected.length];
+            scaler.scale(src, dst);
+            for (int i = 0; i < dst.length; i++) {
+                assertEquals("mode " + mode + " at " + i, expected[i] & 0xFF, dst[i] & 0xFF, 1);
+            }
+        }
+    }
+
+    @Test
+    public void convertsBetweenNv21AndI420() {
+        int width = 32;
+        int height = 16;
+        byte[] nv21 = randomFrame(width, height, new Random(7));
+        byte[] i420 = new byte[nv21.length];
+        FrameArchive.i420ToNv21(nv21, 0, i420, 0, width, height);
+        // i420ToNv21 把前一半当 U、后一半当 V；反过来把 NV21 看成 I420 可得到对照数据
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.setFormats(Nv21Scaler.FORMAT_I420, Nv21Scaler.FORMAT_NV21);
+        scaler.configure(width, height, width, height, Nv21Scaler.MODE_NEAREST);
+        byte[] out = new byte[nv21.length];
+        scaler.scale(nv21, out);
+        assertArrayEquals(i420, out);
+
+        byte[] back = new byte[nv21.length];
+        Nv21Scaler reverse = new Nv21Scaler();
+        reverse.setFormats(Nv21Scaler.FORMAT_NV21, Nv21Scaler.FORMAT_I420);
+        reverse.configure(width, height, width, height, Nv21Scaler.MODE_BILINEAR);
+        reverse.scale(out, back);
+        assertArrayEquals(nv21, back);
+    }
+
+    @Test
+    public void cropKeepsCenterColumns() {
+        byte[] src = randomFrame(80, 40, new Random(8));
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.configure(80, 40, 40, 40, Nv21Scaler.MODE_BILINEAR, 0, Nv21Scaler.MIRROR_NONE, Nv21Scaler.FIT_CROP);
+        byte[] dst = new byte[40 * 40 * 3 / 2];
+        scaler.scale(src, dst);
+        assertArrayEquals(cropColumns(src, 80, 40, 20, 40), dst);
+    }
+
+    @Test
+    public void cropAppliesAfterRotation() {
+        byte[] src = randomFrame(40, 80, new Random(9));
+        // 旋转后是 80x40，裁成 40x40
+        byte[] rotated = rotateReference(src, 40, 80, 90, Nv21Scaler.MIRROR_HORIZONTAL);
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.configure(40, 80, 40, 40, Nv21Scaler.MODE_NEAREST, 90, Nv21Scaler.MIRROR_HORIZONTAL, Nv21Scaler.FIT_CROP);
+        byte[] dst = new byte[40 * 40 * 3 / 2];
+        scaler.scale(src, dst);
+        assertArrayEquals(cropColumns(rotated, 80, 40, 20, 40), dst);
+    }
+
+    @Test
+    public void letterboxAddsBlackBars() {
+        byte[] src = randomFrame(80, 40, new Random(10));
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.configure(80, 40, 80, 80, Nv21Scaler.MODE_AREA, 0, Nv21Scaler.MIRROR_NONE, Nv21Scaler.FIT_LETTERBOX);
+        byte[] dst = new byte[80 * 80 * 3 / 2];
+        scaler.scale(src, dst);
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 80; x++) {
+                int expected = y < 20 || y >= 60 ? 16 : src[(y - 20) * 80 + x] & 0xFF;
+                assertEquals("luma " + x + "," + y, expected, dst[y * 80 + x] & 0xFF);
+            }
+        }
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 80; x++) {
+                int expected = y < 10 || y >= 30 ? 128 : src[80 * 40 + (y - 10) * 80 + x] & 0xFF;
+                assertEquals("chroma " + x + "," + y, expected, dst[80 * 80 + y * 80 + x] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void pillarboxAddsSideBars() {
+        byte[] src = randomFrame(40, 80, new Random(11));
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.setFormats(Nv21Scaler.FORMAT_NV21, Nv21Scaler.FORMAT_I420);
+        scaler.configure(40, 80, 80, 80, Nv21Scaler.MODE_NEAREST, 0, Nv21Scaler.MIRROR_NONE, Nv21Scaler.FIT_LETTERBOX);
+        byte[] dst = new byte[80 * 80 * 3 / 2];
+        scaler.scale(src, dst);
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 80; x++) {
+                int expected = x < 20 || x >= 60 ? 16 : src[y * 40 + x - 20] & 0xFF;
+                assertEquals("luma " + x + "," + y, expected, dst[y * 80 + x] & 0xFF);
+            }
+        }
+        // I420 的 U 平面：黑边以外取 NV21 奇数位
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                int expected = x < 10 || x >= 30 ? 128 : src[40 * 80 + y * 40 + (x - 10) * 2 + 1] & 0xFF;
+                assertEquals("u " + x + "," + y, expected, dst[80 * 80 + y * 40 + x] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void writesYv12WithAlignedStrides() {
+        int width = 40;
+        int height = 24;
+        byte[] src = randomFrame(width, height, new Random(12));
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.setFormats(Nv21Scaler.FORMAT_NV21, Nv21Scaler.FORMAT_YV12);
+        scaler.configure(width, height, width, height, Nv21Scaler.MODE_BILINEAR);
+        byte[] dst = new byte[YuvLayout.frameSize(width, height, YuvLayout.FORMAT_YV12)];
+        assertEquals(48 * 24 + 32 * 12 * 2, dst.length);
+        scaler.scale(src, dst);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(src[y * width + x], dst[y * 48 + x]);
+            }
+        }
+        int vPlane = 48 * 24;
+        int uPlane = vPlane + 32 * 12;
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                assertEquals(src[width * height + y * width + x * 2], dst[vPlane + y * 32 + x]);
+                assertEquals(src[width * height + y * width + x * 2 + 1], dst[uPlane + y * 32 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void writesNv12() {
+        byte[] src = randomFrame(32, 16, new Random(13));
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.setFormats(Nv21Scaler.FORMAT_NV21, Nv21Scaler.FORMAT_NV12);
+        scaler.configure(32, 16, 32, 16, Nv21Scaler.MODE_AREA);
+        byte[] dst = new byte[src.length];
+        scaler.scale(src, dst);
+        for (int i = 32 * 16; i < src.length; i += 2) {
+            assertEquals(src[i], dst[i + 1]);
+            assertEquals(src[i + 1], dst[i]);
+        }
+    }
+
+    @Test
+    public void colorTransformDuringScaleMatchesSeparatePass() {
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT709_LIMITED, YuvColorSpace.BT601_LIMITED);
+        byte[] src = randomFrame(96, 64, new Random(30));
+        int[][] cases = {
+                // 目标宽、高、模式、旋转、镜像、宽高比处理
+                {64, 48, Nv21Scaler.MODE_BILINEAR, 0, Nv21Scaler.MIRROR_NONE, Nv21Scaler.FIT_STRETCH},
+                {64, 48, Nv21Scaler.MODE_NEAREST, 180, Nv21Scaler.MIRROR_HORIZONTAL, Nv21Scaler.FIT_CROP},
+                {48, 80, Nv21Scaler.MODE_AREA, 90, Nv21Scaler.MIRROR_NONE, Nv21Scaler.FIT_LETTERBOX},
+                {100, 70, Nv21Scaler.MODE_NEAREST, 270, Nv21Scaler.MIRROR_VERTICAL, Nv21Scaler.FIT_STRETCH},
+                {64, 64, Nv21Scaler.MODE_BILINEAR, 0, Nv21Scaler.MIRROR_NONE, Nv21Scaler.FIT_LETTERBOX},
+        };
+        for (int[] c : cases) {
+            for (int format : new int[]{Nv21Scaler.FORMAT_NV21, Nv21Scaler.FORMAT_I420}) {
+                int size = YuvLayout.frameSize(c[0], c[1], format);
+                Nv21Scaler scaler = new Nv21Scaler();
+                scaler.setFormats(Nv21Scaler.FORMAT_NV21, format);
+                scaler.configure(96, 64, c[0], c[1], c[2], c[3], c[4], c[5]);
+                byte[] expected = new byte[size];
+                scaler.scale(src, expected);
+                transform.apply(expected, c[0], c[1], format);
+                scaler.setColorTransform(transform);
+                byte[] out = new byte[size];
+                scaler.scale(src, out);
+                assertArrayEquals(Arrays.toString(c) + " format " + format, expected, out);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinySizes() {
+        new Nv21Scaler().configure(2, 2, 64, 48, Nv21Scaler.MODE_BILINEAR);
+    }
+
+    private static byte[] scale(byte[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight, int mode) {
+        Nv21Scaler scaler = new Nv21Scaler();
+        scaler.configure(srcWidth, srcHeight, dstWidth, dstHeight, mode);
+        byte[] dst = new byte[dstWidth * dstHeight * 3 / 2];
+        scaler.scale(src, dst);
+        return dst;
+    }
+
+    /**
+     * 逐像素的参考实现：先镜像源画面，再顺时针旋转
+     */
+    private static byte[] rotateReference(byte[] src, int width, int height, int rotation, int mirror) {
+        boolean swap = Nv21Scaler.swapsAxes(rotation);
+        int dstWidth = swap ? height : width;
+        int dstHeight = swap ? width : height;
+        byte[] dst = new byte[src.length];
+        rotatePlane(src, 0, width, height, 1, dst, 0, dstWidth, dstHeight, rotation, mirror);
+        for (int c = 0; c < 2; c++) {
+            rotatePlane(src, width * height + c, width / 2, height / 2, 2,
+                    dst, dstWidth * dstHeight + c, dstWidth / 2, dstHeight / 2, rotation, mirror);
+        }
+        return dst;
+    }
+
+    private static void rotatePlane(byte[] src, int srcOffset, int width, int height, int pixelStride,
+                                    byte[] dst, int dstOffset, int dstWidth, int dstHeight, int rotation, int mirror) {
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                int col;
+                int row;
+                if (rotation == 0) {
+                    col = x;
+                    row = y;
+                } else if (rotation == 90) {
+                    col = y;
+                    row = height - 1 - x;
+                } else if (rotation == 180) {
+                    col = width - 1 - x;
+                    row = height - 1 - y;
+                } else {
+                    col = width - 1 - y;
+                    row = x;
+                }
+                if (mirror == Nv21Scaler.MIRROR_HORIZONTAL) {
+                    col = width - 1 - col;
+                } else if (mirror == Nv21Scaler.MIRROR_VERTICAL) {
+                    row = height - 1 - row;
+                }
+                dst[dstOffset + (y * dstWidth + x) * pixelStride] = src[srcOffset + (row * width + col) * pixelStride];
+            }
+        }
+    }
+
+    /**
+     * 取 NV21 中从 left 开始的 cropWidth 列
+     */
+    private static byte[] cropColumns(byte[] src, int width, int height, int left, int cropWidth) {
+        byte[] dst = new byte[cropWidth * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, y * width + left, dst, y * cropWidth, cropWidth);
+        }
+        for (int y = 0; y < height / 2; y++) {
+            System.arraycopy(src, width * height + y * width + left, dst, cropWidth * height + y * cropWidth, cropWidth);
+        }
+        return dst;
+    }
+
+    static byte[] randomFrame(int width, int height, Random random) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        random.nextBytes(frame);
+        return frame;
+    }
+}
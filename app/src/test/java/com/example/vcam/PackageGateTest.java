@@ -0,0 +1,52 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PackageGateTest {
+    private static PackageGate gate(String text) {
+        return PackageGate.of(ConfigFile.parse(text));
+    }
+
+    @Test
+    public void defaultSkipsSystemProcesses() {
+        PackageGate gate = gate("");
+        assertSame(PackageGate.DEFAULT, gate);
+        assertTrue(gate.shouldHook("com.example.app"));
+        assertFalse(gate.shouldHook("android"));
+        assertFalse(gate.shouldHook("com.android.systemui"));
+        assertFalse(gate.shouldHook(null));
+    }
+
+    @Test
+    public void allowListIsExclusive() {
+        PackageGate gate = gate("allow_packages = com.a.app, com.b.app android\n");
+        assertTrue(gate.shouldHook("com.a.app"));
+        assertTrue(gate.shouldHook("com.b.app"));
+        assertTrue(gate.shouldHook("android"));
+        assertFalse(gate.shouldHook("com.c.app"));
+    }
+
+    @Test
+    public void sectionsAreAllowed() {
+        PackageGate gate = gate("allow_packages = com.a.app\n[com.b.app]\nfps_cap = 15\n");
+        assertTrue(gate.shouldHook("com.a.app"));
+        assertTrue(gate.shouldHook("com.b.app"));
+        assertFalse(gate.shouldHook("com.c.app"));
+    }
+
+    @Test
+    public void denyWins() {
+        PackageGate gate = gate("deny_packages = com.a.app\n[com.a.app]\nfps_cap = 15\n");
+        assertFalse(gate.shouldHook("com.a.app"));
+        assertFalse(gate("deny_packages = com.x.app").shouldHook("com.x.app"));
+        assertTrue(gate("deny_packages = com.x.app").shouldHook("com.y.app"));
+    }
+
+    @Test
+    public void equalityFollowsLists() {
+        assertEquals(gate("allow_packages = a,b"), gate("allow_packages = b a"));
+        assertNotEquals(gate("allow_packages = a"), gate("deny_packages = a"));
+    }
+}
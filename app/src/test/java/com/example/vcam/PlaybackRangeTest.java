@@ -0,0 +1,58 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackRangeTest {
+    private static final long DURATION_US = 60000000;
+
+    @Test
+    public void fullRangeCoversClip() {
+        PlaybackRange range = PlaybackRange.FULL;
+        assertTrue(range.isFull());
+        assertEquals(0, range.loopStartUs(DURATION_US));
+        assertEquals(DURATION_US, range.loopEndUs(DURATION_US));
+        assertEquals(Long.MAX_VALUE, range.loopEndUs(0));
+        assertEquals(0, range.startUs(DURATION_US));
+    }
+
+    @Test
+    public void parsesSeconds() {
+        PlaybackRange range = PlaybackRange.parse(" 12.5 30\n");
+        assertFalse(range.isFull());
+        assertEquals(12500000, range.loopStartUs(DURATION_US));
+        assertEquals(30000000, range.loopEndUs(DURATION_US));
+        assertEquals(12500000, range.startUs(DURATION_US));
+
+        assertEquals(30000000, PlaybackRange.parse("10-30").loopEndUs(DURATION_US));
+        // 只写起点表示到结尾，终点不超过视频时长
+        assertEquals(DURATION_US, PlaybackRange.parse("10").loopEndUs(DURATION_US));
+        assertEquals(DURATION_US, PlaybackRange.parse("10 90").loopEndUs(DURATION_US));
+    }
+
+    @Test
+    public void invalidTextMeansFull() {
+        assertTrue(PlaybackRange.parse("").isFull());
+        assertTrue(PlaybackRange.parse(null).isFull());
+        assertTrue(PlaybackRange.parse("abc").isFull());
+        assertTrue(PlaybackRange.parse("30 10").isFull());
+    }
+
+    @Test
+    public void startBeyondClipFallsBackToStart() {
+        PlaybackRange range = PlaybackRange.parse("90");
+        assertEquals(0, range.loopStartUs(DURATION_US));
+        assertEquals(DURATION_US, range.loopEndUs(DURATION_US));
+    }
+
+    @Test
+    public void randomStartStaysInsideLoop() {
+        PlaybackRange range = PlaybackRange.parse("10 30").withStartFraction(0.25);
+        assertTrue(range.hasRandomStart());
+        assertEquals(15000000, range.startUs(DURATION_US));
+        assertEquals(10000000, range.loopStartUs(DURATION_US));
+        assertFalse(PlaybackRange.FULL.withStartFraction(0.5).isFull());
+        assertEquals(30000000, PlaybackRange.FULL.withStartFraction(0.5).startUs(DURATION_US));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.vcam;
+
+/**
+ * 照片转换的 JVM 基准：旧的逐像素实现 vs RgbToNv21Converter
+ * 运行：在测试 classpath 下执行 main，参数可选 宽 高 次数
+ */
+public class RgbToNv21Benchmark {
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int[] argb = RgbToNv21ConverterTest.randomPixels(width, height);
+        RgbToNv21Converter converter = new RgbToNv21Converter();
+
+        // 预热，让 JIT 编译两边的热点
+        for (int i = 0; i < 3; i++) {
+            legacyRgb2YCbCr420(argb, width, height);
+            converter.convert(argb, width, height);
+        }
+        long legacy = 0;
+        long striped = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            legacyRgb2YCbCr420(argb, width, height);
+            legacy += System.nanoTime() - start;
+            start = System.nanoTime();
+            converter.convert(argb, width, height);
+            striped += System.nanoTime() - start;
+        }
+        System.out.printf("%dx%d x%d  legacy %.1f ms  striped %.1f ms  (%d threads)%n",
+                width, height, rounds, legacy / 1e6 / rounds, striped / 1e6 / rounds,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 原 HookMain.rgb2YCbCr420，保留作对照
+     */
+    static byte[] legacyRgb2YCbCr420(int[] pixels, int width, int height) {
+        int len = width * height;
+        byte[] yuv = new byte[len * 3 / 2];
+        int y, u, v;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int rgb = (pixels[i * width + j]) & 0x00FFFFFF;
+                int r = rgb & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = (rgb >> 16) & 0xFF;
+                y = ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16;
+                u = ((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128;
+                v = ((112 * r - 94 * g - 18 * b + 128) >> 8) + 128;
+                y = y < 16 ? 16 : (Math.min(y, 255));
+                u = u < 0 ? 0 : (Math.min(u, 255));
+                v = v < 0 ? 0 : (Math.min(v, 255));
+                yuv[i * width + j] = (byte) y;
+                yuv[len + (i >> 1) * width + (j & ~1)] = (byte) u;
+                yuv[len + +(i >> 1) * width + (j & ~1) + 1] = (byte) v;
+            }
+        }
+        return yuv;
+    }
+}
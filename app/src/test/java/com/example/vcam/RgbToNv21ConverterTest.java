@@ -0,0 +1,115 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class RgbToNv21ConverterTest {
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int RED = 0xFFFF0000;
+
+    @Test
+    public void solidColorsMatchBt601() {
+        assertPixel(WHITE, 235, 128, 128);
+        assertPixel(BLACK, 16, 128, 128);
+        // R = 255：Y = 16 + 219 × 0.299 ≈ 81.48，V = 240，U = 90
+        assertPixel(RED, 81, 90, 240);
+    }
+
+    @Test
+    public void fullRangeUsesWholeByte() {
+        RgbToNv21Converter converter = new RgbToNv21Converter(YuvColorSpace.BT601_FULL);
+        assertPixel(converter, WHITE, 255, 128, 128);
+        assertPixel(converter, BLACK, 0, 128, 128);
+        // R = 255：Y = 255 × 0.299 ≈ 76.2，V = 255.5 截断为 255，U ≈ 85.0
+        assertPixel(converter, RED, 76, 85, 255);
+    }
+
+    @Test
+    public void bt709UsesHdCoefficients() {
+        RgbToNv21Converter converter = new RgbToNv21Converter(YuvColorSpace.BT709_LIMITED);
+        assertPixel(converter, WHITE, 235, 128, 128);
+        // R = 255：Y = 16 + 219 × 0.2126 ≈ 62.6，U = 128 - 112 × 0.2126 / 0.9278 ≈ 102.3
+        assertPixel(converter, RED, 63, 102, 240);
+    }
+
+    @Test
+    public void chromaIsAveragedOverEachBlock() {
+        int[] argb = {WHITE, BLACK, BLACK, WHITE};
+        byte[] nv21 = new RgbToNv21Converter().convert(argb, 2, 2);
+        assertEquals(235, nv21[0] & 0xFF);
+        assertEquals(16, nv21[1] & 0xFF);
+        assertEquals(16, nv21[2] & 0xFF);
+        assertEquals(235, nv21[3] & 0xFF);
+        assertEquals(128, nv21[4] & 0xFF);
+        assertEquals(128, nv21[5] & 0xFF);
+    }
+
+    @Test
+    public void parallelMatchesSingleStripe() {
+        int width = 640;
+        int height = 482;
+        int[] argb = randomPixels(width, height);
+        byte[] expected = new byte[RgbToNv21Converter.outputSize(width, height)];
+        new RgbToNv21Converter().convertRows(argb, width, height, 0, height, expected);
+        byte[] actual = new RgbToNv21Converter(new ForkJoinPool(4)).convert(argb, width, height);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void oddSizeWritesEdgeBlocks() {
+        int width = 3;
+        int height = 3;
+        int[] argb = new int[width * height];
+        Arrays.fill(argb, RED);
+        byte[] nv21 = new RgbToNv21Converter().convert(argb, width, height);
+        assertEquals(9 + 4 * 2, nv21.length);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(81, nv21[i] & 0xFF);
+        }
+        for (int i = 9; i < nv21.length; i += 2) {
+            assertEquals(240, nv21[i] & 0xFF);
+            assertEquals(90, nv21[i + 1] & 0xFF);
+        }
+    }
+
+    @Test
+    public void outputBufferIsReusedForSameSize() {
+        RgbToNv21Converter converter = new RgbToNv21Converter();
+        byte[] first = converter.convert(randomPixels(64, 64), 64, 64);
+        byte[] second = converter.convert(randomPixels(64, 64), 64, 64);
+        assertSame(first, second);
+        assertNotSame(first, converter.convert(randomPixels(32, 64), 32, 64));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallDestination() {
+        new RgbToNv21Converter().convert(new int[16], 4, 4, new byte[16]);
+    }
+
+    private static void assertPixel(int argb, int y, int u, int v) {
+        assertPixel(new RgbToNv21Converter(), argb, y, u, v);
+    }
+
+    private static void assertPixel(RgbToNv21Converter converter, int argb, int y, int u, int v) {
+        int[] pixels = {argb, argb, argb, argb};
+        byte[] nv21 = converter.convert(pixels, 2, 2);
+        assertEquals(y, nv21[0] & 0xFF);
+        assertEquals(v, nv21[4] & 0xFF);
+        assertEquals(u, nv21[5] & 0xFF);
+    }
+
+    static int[] randomPixels(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return argb;
+    }
+}
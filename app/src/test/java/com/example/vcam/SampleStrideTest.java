@@ -0,0 +1,143 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SampleStrideTest {
+    private static final long INTERVAL_US = 33333;
+
+    private static ByteBuffer nal(int... header) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + header.length + 4);
+        buffer.put(new byte[]{0, 0, 0, 1});
+        for (int b : header) {
+            buffer.put((byte) b);
+        }
+        buffer.put(new byte[]{(byte) 0x88, 0x10, 0x20, 0x30});
+        return buffer;
+    }
+
+    private static ByteBuffer avc(boolean reference) {
+        // nal_ref_idc = 2 或 0，nal_unit_type = 1
+        return nal(reference ? 0x41 : 0x01);
+    }
+
+    @Test
+    public void detectsAvcNonReference() {
+        ByteBuffer ref = avc(true);
+        ByteBuffer nonRef = avc(false);
+        assertFalse(SampleStride.isNonReference(ref, 0, ref.capacity(), SampleStride.CODEC_AVC, -1));
+        assertTrue(SampleStride.isNonReference(nonRef, 0, nonRef.capacity(), SampleStride.CODEC_AVC, -1));
+        // 先是 SEI (类型 6)，再是非参考片
+        ByteBuffer withSei = ByteBuffer.allocate(12);
+        withSei.put(new byte[]{0, 0, 1, 0x06, 0x05, 0x01, (byte) 0x80, 0, 0, 1, 0x01, (byte) 0x88});
+        assertTrue(SampleStride.isNonReference(withSei, 0, 12, SampleStride.CODEC_AVC, -1));
+        assertFalse(SampleStride.isNonReference(nonRef, 0, nonRef.capacity(), SampleStride.CODEC_OTHER, -1));
+    }
+
+    /**
+     * SPS：两字节头 (类型 33)，之后 vps_id(4) max_sub_layers_minus1(3) nesting(1)
+     */
+    private static ByteBuffer hevcConfig(int maxSubLayersMinus1) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        // VPS 在前
+        buffer.put(new byte[]{0, 0, 0, 1, 32 << 1, 0x01, 0x0C, 0x01});
+        buffer.put(new byte[]{0, 0, 0, 1, 33 << 1, 0x01, (byte) ((maxSubLayersMinus1 << 1) | 1), 0x01});
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void detectsHevcNonReference() {
+        // 头两个字节：forbidden(1) type(6) layer(6) tid(3)，tid = TemporalId + 1
+        ByteBuffer trailN = nal(0 << 1, 0x01);
+        ByteBuffer trailR = nal(1 << 1, 0x01);
+        ByteBuffer idr = nal(19 << 1, 0x01);
+        ByteBuffer raslN = nal(8 << 1, 0x01);
+        ByteBuffer lowTrailN = nal(0 << 1, 0x01);
+        ByteBuffer highTrailN = nal(0 << 1, 0x03);
+        int codec = SampleStride.CODEC_HEVC;
+        assertTrue(SampleStride.isNonReference(trailN, 0, trailN.capacity(), codec, 0));
+        assertFalse(SampleStride.isNonReference(trailR, 0, trailR.capacity(), codec, 0));
+        assertFalse(SampleStride.isNonReference(idr, 0, idr.capacity(), codec, 0));
+        assertTrue(SampleStride.isNonReference(raslN, 0, raslN.capacity(), codec, 0));
+        // 有更高的子层时，低子层的 *_N 帧可能被参考
+        assertFalse(SampleStride.isNonReference(lowTrailN, 0, lowTrailN.capacity(), codec, 2));
+        assertTrue(SampleStride.isNonReference(highTrailN, 0, highTrailN.capacity(), codec, 2));
+        // 子层数未知时不跳过
+        assertFalse(SampleStride.isNonReference(trailN, 0, trailN.capacity(), codec, -1));
+    }
+
+    @Test
+    public void readsHighestTemporalIdFromSps() {
+        ByteBuffer config = hevcConfig(2);
+        assertEquals(2, SampleStride.highestTemporalId(config, 0, config.remaining()));
+        ByteBuffer noSps = nal(32 << 1, 0x01);
+        assertEquals(-1, SampleStride.highestTemporalId(noSps, 0, noSps.capacity()));
+    }
+
+    @Test
+    public void hevcWithoutConfigDecodesEverything() {
+        SampleStride stride = new SampleStride("video/hevc", INTERVAL_US);
+        stride.setNeededInterval(100000);
+        assertEquals(SampleStride.MODE_ALL, stride.getMode());
+        stride.setCodecConfig(hevcConfig(0));
+        assertEquals(SampleStride.MODE_SKIP_NON_REFERENCE, stride.getMode());
+    }
+
+    @Test
+    public void keepsEverythingNearSourceRate() {
+        SampleStride stride = new SampleStride("video/avc", INTERVAL_US);
+        stride.setNeededInterval(40000);
+        assertEquals(SampleStride.MODE_ALL, stride.getMode());
+        for (int i = 0; i < 60; i++) {
+            assertTrue(stride.accept(avc(false), 9, i * INTERVAL_US, i % 30 == 0));
+        }
+        assertEquals(0, stride.getSkippedCount());
+    }
+
+    @Test
+    public void skipsUnneededNonReferenceSamples() {
+        SampleStride stride = new SampleStride("video/avc", INTERVAL_US);
+        // 30 帧视频输出 10 帧，GOP 很长，不会切到关键帧模式
+        stride.setNeededInterval(100000);
+        assertEquals(SampleStride.MODE_SKIP_NON_REFERENCE, stride.getMode());
+        int accepted = 0;
+        for (int i = 0; i < 90; i++) {
+            // I P b P b P b ...：奇数帧是非参考帧
+            boolean sync = i == 0;
+            boolean reference = i % 2 == 0;
+            if (stride.accept(avc(reference), 9, i * INTERVAL_US, sync)) {
+                accepted++;
+            } else {
+                assertFalse("reference frame " + i + " skipped", reference);
+            }
+        }
+        assertTrue(stride.getSkippedCount() > 0);
+        assertEquals(90, accepted + stride.getSkippedCount());
+        // 每 3 帧需要一帧，偶数位置的需要帧是参考帧，照常送入
+        assertTrue(accepted <= 60);
+    }
+
+    @Test
+    public void switchesToKeyframesOnceGopIsKnown() {
+        SampleStride stride = new SampleStride("video/hevc", INTERVAL_US);
+        stride.setCodecConfig(hevcConfig(0));
+        stride.setNeededInterval(1000000);
+        assertEquals(SampleStride.MODE_SKIP_NON_REFERENCE, stride.getMode());
+        // GOP 15 帧 = 0.5 秒
+        stride.accept(nal(19 << 1, 0x01), 10, 0, true);
+        assertEquals(SampleStride.MODE_SKIP_NON_REFERENCE, stride.getMode());
+        stride.accept(nal(19 << 1, 0x01), 10, 15 * INTERVAL_US, true);
+        assertEquals(15 * INTERVAL_US, stride.getGopUs());
+        assertEquals(SampleStride.MODE_KEYFRAMES, stride.getMode());
+        long search = stride.nextKeyframeSearchUs(15 * INTERVAL_US);
+        assertTrue(search > 15 * INTERVAL_US + 900000);
+        assertEquals(1, stride.getJumpCount());
+        // 目标放宽到接近源帧率时回到全部送入
+        stride.setNeededInterval(INTERVAL_US);
+        assertEquals(SampleStride.MODE_ALL, stride.getMode());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class VcamConfigTest {
+    private static final Set<String> NO_MARKERS = Collections.emptySet();
+
+    private static VcamConfig resolve(String text, String... markers) {
+        return VcamConfig.resolve(ConfigFile.parse(text), new HashSet<>(Arrays.asList(markers)), PlaybackRange.FULL);
+    }
+
+    @Test
+    public void defaults() {
+        VcamConfig config = VcamConfig.DEFAULT;
+        assertFalse(config.disabled);
+        assertTrue(config.showToast);
+        assertFalse(config.playSound);
+        assertEquals("", config.source);
+        assertEquals(Nv21Scaler.FIT_CROP, config.fitMode);
+        assertEquals(0, config.fpsCap);
+        assertEquals(0, config.decodeAhead);
+        assertEquals(VcamConfig.DEFAULT_CACHE_MB, config.cacheMb);
+        assertTrue(config.playRange.isFull());
+        assertEquals(1f, config.systemGain, 0);
+        assertEquals(1f, config.micGain, 0);
+        assertEquals(1f, config.speed, 0);
+    }
+
+    @Test
+    public void equalityComparesEveryField() {
+        String text = "fps_cap = 15\nplay_range = 2-6\nmic_gain = 2\nspeed = 1.5\nsource = clip.mp4\n";
+        VcamConfig config = resolve(text);
+        VcamConfig same = resolve(text);
+        assertEquals(config, same);
+        assertEquals(config.hashCode(), same.hashCode());
+        assertEquals(VcamConfig.DEFAULT, resolve(""));
+        assertNotEquals(config, resolve(text + "speed = 1.25\n"));
+        assertNotEquals(config, resolve(text + "play_range = 2-7\n"));
+        assertNotEquals(config, resolve(text + "system_gain = 0.5\n"));
+        assertNotEquals(config, resolve(text, VcamConfig.MARKER_DISABLE));
+    }
+
+    @Test
+    public void parsesTypedValues() {
+        VcamConfig config = resolve("disabled = yes\ntoast = off\nscale = Stretch\nfps_cap = 15\n"
+                + "decode_ahead = 8\ncache_mb = 0\nplay_range = 2-6\nsystem_gain = 0.5\nmic_gain = 2\nspeed = 2.5\n");
+        assertTrue(config.disabled);
+        assertFalse(config.showToast);
+        assertEquals(Nv21Scaler.FIT_STRETCH, config.fitMode);
+        assertEquals(15, config.fpsCap);
+        assertEquals(8, config.decodeAhead);
+        assertEquals(0, config.cacheMb);
+        assertEquals(2000000, config.playRange.loopStartUs(0));
+        assertEquals(6000000, config.playRange.loopEndUs(0));
+        assertEquals(0.5f, config.systemGain, 0);
+        assertEquals(2f, config.micGain, 0);
+        assertEquals(2.5f, config.speed, 0);
+    }
+
+    @Test
+    public void invalidValuesFallBack() {
+        VcamConfig config = resolve("disabled = maybe\nscale = zoom\nfps_cap = -1\ndecode_ahead = 1000\nmic_gain = 9\nspeed = 0.1\n",
+                VcamConfig.MARKER_DISABLE, VcamConfig.MARKER_LETTERBOX, VcamConfig.MARKER_DECODE_AHEAD);
+        assertTrue(config.disabled);
+        assertEquals(Nv21Scaler.FIT_LETTERBOX, config.fitMode);
+        assertEquals(0, config.fpsCap);
+        assertEquals(VcamConfig.DEFAULT_DECODE_AHEAD, config.decodeAhead);
+        assertEquals(1f, config.micGain, 0);
+        assertEquals(1f, config.speed, 0);
+    }
+
+    @Test
+    public void fileWinsOverMarkers() {
+        VcamConfig config = resolve("toast = true\nsound = false\n", VcamConfig.MARKER_NO_TOAST, VcamConfig.MARKER_NO_SILENT);
+        assertTrue(config.showToast);
+        assertFalse(config.playSound);
+        assertTrue(resolve("", VcamConfig.MARKER_NO_SILENT).playSound);
+    }
+
+    @Test
+    public void markerRangeUsedWithoutKey() {
+        PlaybackRange range = PlaybackRange.parse("1 3");
+        assertEquals(range.toConfigString(),
+                VcamConfig.resolve(new ConfigFile(), NO_MARKERS, range).playRange.toConfigString());
+        assertTrue(VcamConfig.resolve(ConfigFile.parse("play_range ="), NO_MARKERS, range).playRange.isFull());
+    }
+
+    @Test
+    public void toStringRoundTrips() {
+        VcamConfig config = resolve("disabled = true\nscale = letterbox\nfps_cap = 20\nplay_range = 1 4\nsource = a.mp4\n");
+        assertEquals(config, resolve(config.toString()));
+        assertNotEquals(VcamConfig.DEFAULT, config);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class YuvColorTransformTest {
+    @Test
+    public void normalizedMatrixMatchesToRgb() {
+        YuvColorSpace[] spaces = {YuvColorSpace.BT601_LIMITED, YuvColorSpace.BT601_FULL, YuvColorSpace.BT709_LIMITED,
+                new YuvColorSpace(YuvColorSpace.MATRIX_BT2020, false)};
+        int[][] codes = {{16, 128, 128}, {235, 128, 128}, {81, 90, 240}, {145, 54, 34}, {200, 200, 60}};
+        double[] expected = new double[3];
+        for (YuvColorSpace space : spaces) {
+            float[] m = space.normalizedToRgbMatrix();
+            float[] offsets = space.normalizedOffsets();
+            for (int[] code : codes) {
+                space.toRgb(code[0], code[1], code[2], expected);
+                float y = code[0] / 255f - offsets[0];
+                float u = code[1] / 255f - offsets[1];
+                float v = code[2] / 255f - offsets[2];
+                for (int i = 0; i < 3; i++) {
+                    // 按列存放：第 i 行为 m[i]、m[3 + i]、m[6 + i]
+                    assertEquals(space + " " + i, expected[i], m[i] * y + m[3 + i] * u + m[6 + i] * v, 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameColorSpaceIsIdentity() {
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT601_LIMITED,
+                new YuvColorSpace(YuvColorSpace.MATRIX_BT601, false));
+        assertTrue(transform.isIdentity());
+        byte[] frame = randomFrame(16, 8, new Random(1));
+        byte[] copy = frame.clone();
+        transform.apply(frame, 16, 8, YuvLayout.FORMAT_NV21);
+        assertArrayEquals(copy, frame);
+    }
+
+    @Test
+    public void limitedToFullStretchesLuma() {
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT601_LIMITED, YuvColorSpace.BT601_FULL);
+        byte[] frame = solidFrame(4, 2, 16, 128, 128);
+        transform.apply(frame, 4, 2, YuvLayout.FORMAT_NV21);
+        assertSolid(frame, 4, 2, 0, 128, 128);
+        frame = solidFrame(4, 2, 235, 240, 16);
+        transform.apply(frame, 4, 2, YuvLayout.FORMAT_NV21);
+        // 色度 240 → 255.5 截断为 255，16 → 0.5 取整为 1
+        assertSolid(frame, 4, 2, 255, 255, 1);
+    }
+
+    @Test
+    public void grayIsUnchangedBetweenMatrices() {
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT709_LIMITED, YuvColorSpace.BT601_LIMITED);
+        for (int y = 16; y <= 235; y += 17) {
+            byte[] frame = solidFrame(2, 2, y, 128, 128);
+            transform.apply(frame, 2, 2, YuvLayout.FORMAT_NV21);
+            assertSolid(frame, 2, 2, y, 128, 128);
+        }
+    }
+
+    @Test
+    public void bt709ToBt601MatchesDirectConversion() {
+        RgbToNv21Converter hd = new RgbToNv21Converter(YuvColorSpace.BT709_LIMITED);
+        RgbToNv21Converter sd = new RgbToNv21Converter();
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT709_LIMITED, YuvColorSpace.BT601_LIMITED);
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            int argb = 0xFF000000 | random.nextInt(0x1000000);
+            int[] pixels = {argb, argb, argb, argb};
+            byte[] frame = hd.convert(pixels, 2, 2).clone();
+            transform.apply(frame, 2, 2, YuvLayout.FORMAT_NV21);
+            byte[] expected = sd.convert(pixels, 2, 2);
+            for (int j = 0; j < frame.length; j++) {
+                // 两次取整，允许相差 1
+                assertEquals("color " + Integer.toHexString(argb), expected[j] & 0xFF, frame[j] & 0xFF, 1);
+            }
+        }
+    }
+
+    @Test
+    public void allLayoutsGiveSameResult() {
+        int width = 40;
+        int height = 8;
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT709_LIMITED, YuvColorSpace.BT601_FULL);
+        byte[] nv21 = randomFrame(width, height, new Random(3));
+        for (int format = YuvLayout.FORMAT_I420; format <= YuvLayout.FORMAT_NV12; format++) {
+            byte[] frame = convertLayout(nv21, width, height, format);
+            transform.apply(frame, width, height, format);
+            byte[] expected = nv21.clone();
+            transform.apply(expected, width, height, YuvLayout.FORMAT_NV21);
+            assertArrayEquals("format " + format, convertLayout(expected, width, height, format), frame);
+        }
+    }
+
+    @Test
+    public void mediaFormatDefaultsBySize() {
+        assertEquals(YuvColorSpace.BT709_LIMITED, YuvColorSpace.fromMediaFormat(0, 0, 1920, 1080));
+        assertEquals(YuvColorSpace.BT601_LIMITED, YuvColorSpace.fromMediaFormat(0, 0, 640, 480));
+        assertEquals(YuvColorSpace.BT601_FULL, YuvColorSpace.fromMediaFormat(
+                YuvColorSpace.COLOR_STANDARD_BT601_NTSC, YuvColorSpace.COLOR_RANGE_FULL, 1920, 1080));
+        assertEquals(YuvColorSpace.BT709_LIMITED, YuvColorSpace.fromMediaFormat(
+                YuvColorSpace.COLOR_STANDARD_BT709, YuvColorSpace.COLOR_RANGE_LIMITED, 640, 480));
+    }
+
+    private static byte[] solidFrame(int width, int height, int y, int u, int v) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            frame[i] = (byte) y;
+        }
+        for (int i = width * height; i < frame.length; i += 2) {
+            frame[i] = (byte) v;
+            frame[i + 1] = (byte) u;
+        }
+        return frame;
+    }
+
+    private static void assertSolid(byte[] frame, int width, int height, int y, int u, int v) {
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(y, frame[i] & 0xFF);
+        }
+        for (int i = width * height; i < frame.length; i += 2) {
+            assertEquals(v, frame[i] & 0xFF);
+            assertEquals(u, frame[i + 1] & 0xFF);
+        }
+    }
+
+    private static byte[] randomFrame(int width, int height, Random random) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        random.nextBytes(frame);
+        return frame;
+    }
+
+    /**
+     * 把 NV21 帧按 YuvLayout 重新排列
+     */
+    private static byte[] convertLayout(byte[] nv21, int width, int height, int format) {
+        byte[] out = new byte[YuvLayout.frameSize(width, height, format)];
+        int lumaStride = YuvLayout.lumaStride(format, width);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(nv21, y * width, out, y * lumaStride, width);
+        }
+        int chromaStride = YuvLayout.chromaRowStride(format, width);
+        int pixelStride = YuvLayout.chromaPixelStride(format);
+        for (int c = YuvLayout.CHROMA_V; c <= YuvLayout.CHROMA_U; c++) {
+            int offset = YuvLayout.chromaOffset(format, width, height, c);
+            for (int y = 0; y < height / 2; y++) {
+                for (int x = 0; x < width / 2; x++) {
+                    out[offset + y * chromaStride + x * pixelStride] = nv21[width * height + y * width + x * 2 + c];
+                }
+            }
+        }
+        return out;
+    }
+}
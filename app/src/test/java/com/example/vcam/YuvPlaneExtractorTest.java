@@ -0,0 +1,314 @@
+package com.example.vcam;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 每条快速路径都和原 VideoToFrames.getDataFromImage 的逐像素实现逐字节比较
+ */
+public class YuvPlaneExtractorTest {
+    private static final int NV21 = YuvPlaneExtractor.FORMAT_NV21;
+    private static final int I420 = YuvPlaneExtractor.FORMAT_I420;
+
+    @Test
+    public void planarTightMatchesLegacy() {
+        Layout layout = Layout.planar(64, 48, 64, 32, new Random(1));
+        assertMatchesLegacy(layout, 0, 0, 64, 48, NV21, YuvPlaneExtractor.CHROMA_GENERIC);
+        assertMatchesLegacy(layout, 0, 0, 64, 48, I420, YuvPlaneExtractor.CHROMA_GENERIC);
+    }
+
+    @Test
+    public void planarPaddedRowsMatchLegacy() {
+        Layout layout = Layout.planar(60, 40, 64, 40, new Random(2));
+        assertMatchesLegacy(layout, 0, 0, 60, 40, NV21, YuvPlaneExtractor.CHROMA_GENERIC);
+        assertMatchesLegacy(layout, 0, 0, 60, 40, I420, YuvPlaneExtractor.CHROMA_GENERIC);
+    }
+
+    @Test
+    public void nv12MemoryUsesSwapPath() {
+        Layout layout = Layout.semiPlanar(64, 48, 64, false, new Random(3));
+        assertMatchesLegacy(layout, 0, 0, 64, 48, NV21, YuvPlaneExtractor.CHROMA_INTERLEAVED_SWAP);
+    }
+
+    @Test
+    public void nv12MemoryWithPaddingAndCropUsesSwapPath() {
+        Layout layout = Layout.semiPlanar(68, 52, 80, false, new Random(4));
+        assertMatchesLegacy(layout, 2, 4, 64, 48, NV21, YuvPlaneExtractor.CHROMA_INTERLEAVED_SWAP);
+    }
+
+    @Test
+    public void nv21MemoryUsesOrderedPath() {
+        Layout layout = Layout.semiPlanar(64, 48, 64, true, new Random(5));
+        assertMatchesLegacy(layout, 0, 0, 64, 48, NV21, YuvPlaneExtractor.CHROMA_INTERLEAVED_COPY);
+    }
+
+    @Test
+    public void nv21MemoryWithPaddingAndCropUsesOrderedPath() {
+        Layout layout = Layout.semiPlanar(70, 50, 96, true, new Random(6));
+        assertMatchesLegacy(layout, 4, 2, 64, 46, NV21, YuvPlaneExtractor.CHROMA_INTERLEAVED_COPY);
+    }
+
+    @Test
+    public void semiPlanarToI420UsesGenericPath() {
+        Layout layout = Layout.semiPlanar(64, 48, 64, false, new Random(7));
+        assertMatchesLegacy(layout, 0, 0, 64, 48, I420, YuvPlaneExtractor.CHROMA_GENERIC);
+    }
+
+    @Test
+    public void uniformChromaDefersDecision() {
+        YuvPlaneExtractor extractor = new YuvPlaneExtractor();
+        Layout flat = Layout.semiPlanar(32, 16, 32, false, null);
+        byte[] out = new byte[32 * 16 * 3 / 2];
+        extractor.extract(flat.planes, flat.rowStrides, flat.pixelStrides, 0, 0, 32, 16, NV21, out);
+        assertEquals(YuvPlaneExtractor.CHROMA_UNDECIDED, extractor.getChromaPath());
+        assertArrayEquals(legacy(flat, 0, 0, 32, 16, NV21), out);
+
+        Layout varied = Layout.semiPlanar(32, 16, 32, false, new Random(8));
+        extractor.extract(varied.planes, varied.rowStrides, varied.pixelStrides, 0, 0, 32, 16, NV21, out);
+        assertEquals(YuvPlaneExtractor.CHROMA_INTERLEAVED_SWAP, extractor.getChromaPath());
+        assertArrayEquals(legacy(varied, 0, 0, 32, 16, NV21), out);
+    }
+
+    @Test
+    public void pathIsKeptAcrossFramesOfSameLayout() {
+        YuvPlaneExtractor extractor = new YuvPlaneExtractor();
+        byte[] out = new byte[64 * 48 * 3 / 2];
+        for (int frame = 0; frame < 5; frame++) {
+            Layout layout = Layout.semiPlanar(64, 48, 64, true, new Random(100 + frame));
+            extractor.extract(layout.planes, layout.rowStrides, layout.pixelStrides, 0, 0, 64, 48, NV21, out);
+            assertEquals(YuvPlaneExtractor.CHROMA_INTERLEAVED_COPY, extractor.getChromaPath());
+            assertArrayEquals("frame " + frame, legacy(layout, 0, 0, 64, 48, NV21), out);
+        }
+    }
+
+    @Test
+    public void layoutChangeRedetectsPath() {
+        YuvPlaneExtractor extractor = new YuvPlaneExtractor();
+        Layout first = Layout.semiPlanar(64, 48, 64, true, new Random(9));
+        byte[] out = new byte[64 * 48 * 3 / 2];
+        extractor.extract(first.planes, first.rowStrides, first.pixelStrides, 0, 0, 64, 48, NV21, out);
+        assertEquals(YuvPlaneExtractor.CHROMA_INTERLEAVED_COPY, extractor.getChromaPath());
+
+        Layout second = Layout.semiPlanar(64, 48, 128, false, new Random(10));
+        extractor.extract(second.planes, second.rowStrides, second.pixelStrides, 0, 0, 64, 48, NV21, out);
+        assertEquals(YuvPlaneExtractor.CHROMA_INTERLEAVED_SWAP, extractor.getChromaPath());
+        assertArrayEquals(legacy(second, 0, 0, 64, 48, NV21), out);
+    }
+
+    @Test
+    public void nv12OutputCopiesNv12Memory() {
+        Layout layout = Layout.semiPlanar(64, 48, 80, false, new Random(11));
+        assertMatchesLayout(layout, 64, 48, YuvLayout.FORMAT_NV12, YuvPlaneExtractor.CHROMA_INTERLEAVED_COPY);
+    }
+
+    @Test
+    public void nv12OutputSwapsNv21Memory() {
+        Layout layout = Layout.semiPlanar(64, 48, 64, true, new Random(12));
+        assertMatchesLayout(layout, 64, 48, YuvLayout.FORMAT_NV12, YuvPlaneExtractor.CHROMA_INTERLEAVED_SWAP);
+    }
+
+    @Test
+    public void yv12OutputPadsRows() {
+        // 宽 40：Y 行跨度 48，色度行跨度 32
+        Layout planar = Layout.planar(40, 24, 64, 32, new Random(13));
+        assertMatchesLayout(planar, 40, 24, YuvLayout.FORMAT_YV12, YuvPlaneExtractor.CHROMA_GENERIC);
+        Layout semiPlanar = Layout.semiPlanar(40, 24, 64, false, new Random(14));
+        assertMatchesLayout(semiPlanar, 40, 24, YuvLayout.FORMAT_YV12, YuvPlaneExtractor.CHROMA_GENERIC);
+    }
+
+    @Test
+    public void colorTransformDuringExtractMatchesSeparatePass() {
+        YuvColorTransform transform = new YuvColorTransform(YuvColorSpace.BT709_LIMITED, YuvColorSpace.BT601_LIMITED);
+        Layout[] layouts = {
+                Layout.planar(64, 48, 64, 32, new Random(20)),
+                Layout.semiPlanar(68, 52, 80, false, new Random(21)),
+                Layout.semiPlanar(64, 48, 64, true, new Random(22)),
+        };
+        int[] formats = {NV21, I420, YuvLayout.FORMAT_NV12, YuvLayout.FORMAT_YV12};
+        for (Layout layout : layouts) {
+            for (int format : formats) {
+                byte[] expected = new byte[YuvLayout.frameSize(64, 48, format)];
+                new YuvPlaneExtractor().extract(layout.planes, layout.rowStrides, layout.pixelStrides, 0, 0, 64, 48, format, expected);
+                transform.apply(expected, 64, 48, format);
+                YuvPlaneExtractor extractor = new YuvPlaneExtractor();
+                extractor.setColorTransform(transform);
+                byte[] out = new byte[expected.length];
+                extractor.extract(layout.planes, layout.rowStrides, layout.pixelStrides, 0, 0, 64, 48, format, out);
+                assertArrayEquals("format " + format, expected, out);
+            }
+        }
+    }
+
+    /**
+     * 其他输出格式与 NV21 输出的对应像素逐个比较
+     */
+    private static void assertMatchesLayout(Layout layout, int width, int height, int format, int expectedPath) {
+        byte[] nv21 = legacy(layout, 0, 0, width, height, NV21);
+        YuvPlaneExtractor extractor = new YuvPlaneExtractor();
+        byte[] out = new byte[YuvLayout.frameSize(width, height, format)];
+        extractor.extract(layout.planes, layout.rowStrides, layout.pixelStrides, 0, 0, width, height, format, out);
+        assertEquals(expectedPath, extractor.getChromaPath());
+        int lumaStride = YuvLayout.lumaStride(format, width);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(nv21[y * width + x], out[y * lumaStride + x]);
+            }
+        }
+        int chromaStride = YuvLayout.chromaRowStride(format, width);
+        int pixelStride = YuvLayout.chromaPixelStride(format);
+        for (int c = YuvLayout.CHROMA_V; c <= YuvLayout.CHROMA_U; c++) {
+            int offset = YuvLayout.chromaOffset(format, width, height, c);
+            for (int y = 0; y < height / 2; y++) {
+                for (int x = 0; x < width / 2; x++) {
+                    assertEquals("component " + c + " at " + x + "," + y,
+                            nv21[width * height + y * width + x * 2 + c], out[offset + y * chromaStride + x * pixelStride]);
+                }
+            }
+        }
+    }
+
+    private static void assertMatchesLegacy(Layout layout, int left, int top, int width, int height, int format, int expectedPath) {
+        YuvPlaneExtractor extractor = new YuvPlaneExtractor();
+        byte[] out = new byte[width * height * 3 / 2];
+        extractor.extract(layout.planes, layout.rowStrides, layout.pixelStrides, left, top, width, height, format, out);
+        assertEquals(expectedPath, extractor.getChromaPath());
+        assertArrayEquals(legacy(layout, left, top, width, height, format), out);
+    }
+
+    /**
+     * 原 getDataFromImage 的实现，只把 Image.Plane 换成了 ByteBuffer 和跨度
+     */
+    private static byte[] legacy(Layout layout, int left, int top, int width, int height, int format) {
+        byte[] data = new byte[width * height * 3 / 2];
+        byte[] rowData = new byte[layout.rowStrides[0]];
+        int channelOffset = 0;
+        int outputStride = 1;
+        for (int i = 0; i < 3; i++) {
+            switch (i) {
+                case 0:
+                    channelOffset = 0;
+                    outputStride = 1;
+                    break;
+                case 1:
+                    if (format == I420) {
+                        channelOffset = width * height;
+                        outputStride = 1;
+                    } else {
+                        channelOffset = width * height + 1;
+                        outputStride = 2;
+                    }
+                    break;
+                case 2:
+                    if (format == I420) {
+                        channelOffset = (int) (width * height * 1.25);
+                        outputStride = 1;
+                    } else {
+                        channelOffset = width * height;
+                        outputStride = 2;
+                    }
+                    break;
+            }
+            ByteBuffer buffer = layout.planes[i].duplicate();
+            int rowStride = layout.rowStrides[i];
+            int pixelStride = layout.pixelStrides[i];
+            int shift = (i == 0) ? 0 : 1;
+            int w = width >> shift;
+            int h = height >> shift;
+            buffer.position(rowStride * (top >> shift) + pixelStride * (left >> shift));
+            for (int row = 0; row < h; row++) {
+                int length;
+                if (pixelStride == 1 && outputStride == 1) {
+                    length = w;
+                    buffer.get(data, channelOffset, length);
+                    channelOffset += length;
+                } else {
+                    length = (w - 1) * pixelStride + 1;
+                    if (rowData.length < length) {
+                        rowData = new byte[length];
+                    }
+                    buffer.get(rowData, 0, length);
+                    for (int col = 0; col < w; col++) {
+                        data[channelOffset] = rowData[col * pixelStride];
+                        channelOffset += outputStride;
+                    }
+                }
+                if (row < h - 1) {
+                    buffer.position(buffer.position() + rowStride - length);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 模拟解码器输出的平面：缓冲正好结束在平面的最后一个有效字节，和 MediaCodec 的 Image 一致
+     */
+    private static final class Layout {
+        final ByteBuffer[] planes = new ByteBuffer[3];
+        final int[] rowStrides = new int[3];
+        final int[] pixelStrides = new int[3];
+
+        static Layout planar(int width, int height, int lumaStride, int chromaStride, Random random) {
+            Layout layout = new Layout();
+            layout.planes[0] = plane(fill(lumaStride * height, random), 0, lumaStride * (height - 1) + width);
+            int chromaBytes = chromaStride * (height / 2 - 1) + width / 2;
+            layout.planes[1] = plane(fill(chromaStride * height / 2, random), 0, chromaBytes);
+            layout.planes[2] = plane(fill(chromaStride * height / 2, random), 0, chromaBytes);
+            layout.rowStrides[0] = lumaStride;
+            layout.rowStrides[1] = chromaStride;
+            layout.rowStrides[2] = chromaStride;
+            layout.pixelStrides[0] = 1;
+            layout.pixelStrides[1] = 1;
+            layout.pixelStrides[2] = 1;
+            return layout;
+        }
+
+        /**
+         * @param vFirst true 为 V U V U (NV21 顺序)，false 为 U V U V (NV12 顺序)
+         * @param random 为 null 时色度全部为 128
+         */
+        static Layout semiPlanar(int width, int height, int rowStride, boolean vFirst, Random random) {
+            Layout layout = new Layout();
+            layout.planes[0] = plane(fill(rowStride * height, random == null ? new Random(0) : random), 0, rowStride * (height - 1) + width);
+            ByteBuffer chroma = random == null ? constant(rowStride * height / 2, (byte) 128) : fill(rowStride * height / 2, random);
+            int chromaBytes = rowStride * (height / 2 - 1) + (width / 2 - 1) * 2 + 1;
+            ByteBuffer first = plane(chroma, 0, chromaBytes);
+            ByteBuffer second = plane(chroma, 1, chromaBytes);
+            layout.planes[1] = vFirst ? second : first;
+            layout.planes[2] = vFirst ? first : second;
+            for (int i = 0; i < 3; i++) {
+                layout.rowStrides[i] = rowStride;
+                layout.pixelStrides[i] = i == 0 ? 1 : 2;
+            }
+            return layout;
+        }
+
+        private static ByteBuffer fill(int size, Random random) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            buffer.put(bytes).clear();
+            return buffer;
+        }
+
+        private static ByteBuffer constant(int size, byte value) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            while (buffer.hasRemaining()) {
+                buffer.put(value);
+            }
+            buffer.clear();
+            return buffer;
+        }
+
+        private static ByteBuffer plane(ByteBuffer memory, int offset, int length) {
+            ByteBuffer duplicate = memory.duplicate();
+            duplicate.position(offset);
+            duplicate.limit(offset + length);
+            return duplicate.slice();
+        }
+    }
+}